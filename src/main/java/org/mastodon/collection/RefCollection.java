@@ -29,6 +29,11 @@
 package org.mastodon.collection;
 
 import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import org.mastodon.RefPool;
 
 /**
  * Interface for collections that can manage reference objects.
@@ -56,4 +61,64 @@ public interface RefCollection< O > extends Collection< O >
 	 *            the reference object to release.
 	 */
 	public void releaseRef( final O obj );
+
+	/**
+	 * Performs {@code action} for the pool index of each element of this
+	 * collection, in iteration order.
+	 * <p>
+	 * The default implementation iterates the collection and maps each element
+	 * to its index. Collections that store pool indices override this to
+	 * iterate their index storage directly, without creating an iterator or
+	 * touching the pool.
+	 *
+	 * @param action
+	 *            the action to perform for each pool index.
+	 * @throws UnsupportedOperationException
+	 *             if this collection is not backed by a {@link RefPool}.
+	 */
+	public default void forEachIndex( final IntConsumer action )
+	{
+		final RefPool< O > pool = RefCollections.tryGetRefPool( this );
+		if ( pool == null )
+			throw new UnsupportedOperationException( "collection is not backed by a RefPool" );
+		for ( final O o : this )
+			action.accept( pool.getId( o ) );
+	}
+
+	/**
+	 * Returns a sequential stream of the pool indices of the elements of this
+	 * collection, in iteration order.
+	 *
+	 * @return a stream of pool indices.
+	 * @throws UnsupportedOperationException
+	 *             if this collection is not backed by a {@link RefPool}.
+	 */
+	public default IntStream indexStream()
+	{
+		final RefPool< O > pool = RefCollections.tryGetRefPool( this );
+		if ( pool == null )
+			throw new UnsupportedOperationException( "collection is not backed by a RefPool" );
+		return stream().mapToInt( pool::getId );
+	}
+
+	/**
+	 * Performs {@code action} for each element of this collection, in
+	 * iteration order. For collections backed by a {@link RefPool}, the
+	 * elements are presented through {@code ref}, which is repositioned for
+	 * every element; {@code action} must not hold on to it.
+	 *
+	 * @param ref
+	 *            an object reference used to present the elements. Depending
+	 *            on concrete implementation, this object can be ignored.
+	 * @param action
+	 *            the action to perform for each element.
+	 */
+	public default void forEach( final O ref, final Consumer< ? super O > action )
+	{
+		final RefPool< O > pool = RefCollections.tryGetRefPool( this );
+		if ( pool == null )
+			forEach( action );
+		else
+			forEachIndex( i -> action.accept( pool.getObject( i, ref ) ) );
+	}
 }
@@ -38,11 +38,16 @@ import java.util.List;
 import java.util.Set;
 
 import org.mastodon.RefPool;
+import org.mastodon.collection.ref.ImmutableRefList;
+import org.mastodon.collection.ref.ImmutableRefSet;
+import org.mastodon.collection.ref.IntBackedRefCollection;
 import org.mastodon.collection.ref.RefArrayDeque;
 import org.mastodon.collection.ref.RefArrayList;
 import org.mastodon.collection.ref.RefArrayStack;
+import org.mastodon.collection.ref.RefBitSet;
 import org.mastodon.collection.ref.RefPoolBackedRefCollection;
 import org.mastodon.collection.ref.RefSetImp;
+import org.mastodon.collection.util.TIntSortedArraySet;
 import org.mastodon.collection.wrap.RefCollectionWrapper;
 import org.mastodon.collection.wrap.RefDequeWrapper;
 import org.mastodon.collection.wrap.RefListWrapper;
@@ -50,6 +55,9 @@ import org.mastodon.collection.wrap.RefSetWrapper;
 import org.mastodon.collection.wrap.RefStackWrapper;
 import org.mastodon.pool.Pool;
 
+import gnu.trove.TIntCollection;
+import gnu.trove.list.array.TIntArrayList;
+
 /**
  * Static utility methods to create collections for objects of a specified
  * {@link RefCollection}.
@@ -69,6 +77,16 @@ import org.mastodon.pool.Pool;
  */
 public class RefCollections
 {
+	/**
+	 * Minimum expected fill ratio for which
+	 * {@link #createRefSet(RefCollection, double)} creates a
+	 * {@link RefBitSet}. A hash set needs roughly 10 bytes per element, a
+	 * bitset 1 bit per pool index, so bitsets are smaller already at lower
+	 * ratios. The threshold is chosen conservatively, because iterating a
+	 * sparse bitset is slower than iterating a hash set.
+	 */
+	public static final double BITSET_FILL_RATIO = 1.0 / 32;
+
 	@SuppressWarnings( { "rawtypes", "unchecked" } )
 	public static < O > Iterator< O > safeIterator( final Iterator< O > iterator, final RefCollection< O > collection )
 	{
@@ -96,6 +114,38 @@ public class RefCollections
 			return wrap( new HashSet< O >( initialCapacity ) );
 	}
 
+	/**
+	 * Creates a set for objects of {@code collection}, choosing the
+	 * implementation according to the expected number of elements.
+	 * <p>
+	 * If {@code collection} is backed by a pool and the set is expected to
+	 * contain at least {@link #BITSET_FILL_RATIO 1/32} of the objects of
+	 * {@code collection}, a {@link RefBitSet} is created, which uses one bit
+	 * per pool index. Otherwise this is equivalent to
+	 * {@link #createRefSet(RefCollection, int)}.
+	 * </p>
+	 *
+	 * @param collection
+	 *            the collection whose objects will be added to the set,
+	 *            typically all vertices or edges of a graph.
+	 * @param expectedFillRatio
+	 *            the expected fraction of objects of {@code collection} that
+	 *            will be contained in the set.
+	 * @param <O>
+	 *            the type of objects.
+	 * @return a new set.
+	 */
+	public static < O > RefSet< O > createRefSet( final RefCollection< O > collection, final double expectedFillRatio )
+	{
+		final int collectionSize = collection.size();
+		final int expectedSize = ( int ) Math.min( collectionSize, Math.ceil( Math.max( 0, expectedFillRatio ) * collectionSize ) );
+		final RefPool< O > pool = tryGetRefPool( collection );
+		if ( pool != null && expectedFillRatio >= BITSET_FILL_RATIO )
+			return new RefBitSet<>( pool, collectionSize );
+		else
+			return createRefSet( collection, Math.max( expectedSize, 10 ) );
+	}
+
 	public static < O > RefList< O > createRefList( final RefCollection< O > collection )
 	{
 		final RefPool< O > pool = tryGetRefPool( collection );
@@ -150,6 +200,74 @@ public class RefCollections
 			return wrapAsStack( new ArrayDeque< O >( initialCapacity ) );
 	}
 
+	/**
+	 * Returns an immutable snapshot of {@code set}, which can be shared
+	 * between threads without synchronization.
+	 * <p>
+	 * If {@code set} is backed by a pool, an {@link ImmutableRefSet} over a
+	 * sorted array of pool indices is created. This takes O(n) if
+	 * {@code set} iterates in ascending order of pool indices (for example a
+	 * {@link RefBitSet}), and O(n log n) otherwise. Otherwise, an
+	 * unmodifiable copy of {@code set} is created.
+	 * </p>
+	 *
+	 * @param set
+	 *            the set to freeze.
+	 * @param <O>
+	 *            the type of objects.
+	 * @return an immutable copy of {@code set}, or {@code set} itself if it
+	 *         is an {@link ImmutableRefSet}.
+	 */
+	public static < O > RefSet< O > freeze( final RefSet< O > set )
+	{
+		if ( set instanceof ImmutableRefSet )
+			return set;
+		final RefPool< O > pool = tryGetRefPool( set );
+		if ( pool != null )
+			return new ImmutableRefSet<>( pool, TIntSortedArraySet.of( indicesOf( set, pool ) ) );
+		else
+			return wrap( Collections.unmodifiableSet( new HashSet<>( set ) ) );
+	}
+
+	/**
+	 * Returns an immutable snapshot of {@code list}, which can be shared
+	 * between threads without synchronization.
+	 * <p>
+	 * If {@code list} is backed by a pool, an {@link ImmutableRefList} over
+	 * an array of pool indices is created in O(n). The order of elements is
+	 * kept. If it is ascending in pool indices, lookups in the snapshot use
+	 * binary search. Otherwise, an unmodifiable copy of {@code list} is
+	 * created.
+	 * </p>
+	 *
+	 * @param list
+	 *            the list to freeze.
+	 * @param <O>
+	 *            the type of objects.
+	 * @return an immutable copy of {@code list}, or {@code list} itself if it
+	 *         is an {@link ImmutableRefList}.
+	 */
+	public static < O > RefList< O > freeze( final RefList< O > list )
+	{
+		if ( list instanceof ImmutableRefList )
+			return list;
+		final RefPool< O > pool = tryGetRefPool( list );
+		if ( pool != null )
+			return new ImmutableRefList<>( pool, indicesOf( list, pool ).toArray() );
+		else
+			return wrap( Collections.unmodifiableList( new ArrayList<>( list ) ) );
+	}
+
+	private static < O > TIntCollection indicesOf( final RefCollection< O > collection, final RefPool< O > pool )
+	{
+		if ( collection instanceof IntBackedRefCollection )
+			return ( ( IntBackedRefCollection< ? > ) collection ).getIndexCollection();
+		final TIntArrayList indices = new TIntArrayList( collection.size() );
+		for ( final O o : collection )
+			indices.add( pool.getId( o ) );
+		return indices;
+	}
+
 	public static < O > RefPool< O > tryGetRefPool( final RefCollection< O > collection )
 	{
 		return ( collection instanceof RefPoolBackedRefCollection )
@@ -31,6 +31,7 @@ package org.mastodon.collection;
 import org.mastodon.pool.PoolObject;
 
 import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.procedure.TIntDoubleProcedure;
 import gnu.trove.procedure.TObjectDoubleProcedure;
 import gnu.trove.procedure.TObjectProcedure;
 
@@ -110,4 +111,25 @@ public interface RefDoubleMap< K > extends TObjectDoubleMap< K >
 	 * @return {@code true} if the map was modified.
 	 */
 	public boolean retainEntries( TObjectDoubleProcedure< ? super K > procedure, K ref );
+
+	/**
+	 * Executes {@code procedure} for each entry in the map, passing the
+	 * {@link org.mastodon.RefPool pool index} of the key and the value.
+	 * This avoids repositioning a key reference for every entry, for
+	 * consumers that only need the pool index.
+	 * <p>
+	 * The default implementation throws {@link UnsupportedOperationException};
+	 * it is overridden by maps whose keys are backed by a pool.
+	 *
+	 * @param procedure
+	 *            a {@code TIntDoubleProcedure}, receiving key index and value.
+	 * @return {@code false} if the loop over the entries terminated because the
+	 *         procedure returned false for some entry.
+	 * @throws UnsupportedOperationException
+	 *             if the keys of this map are not backed by a pool.
+	 */
+	public default boolean forEachIndexEntry( final TIntDoubleProcedure procedure )
+	{
+		throw new UnsupportedOperationException( "map keys are not backed by a RefPool" );
+	}
 }
@@ -30,6 +30,8 @@ package org.mastodon.collection;
 
 import java.util.Map;
 
+import gnu.trove.procedure.TIntIntProcedure;
+
 /**
  * A {@link Map} whose keys and values both are object references. Map-like
  * interface for maps that map possibly reusable references to another possibly
@@ -43,4 +45,25 @@ import java.util.Map;
  * @author Jean-Yves Tinevez
  */
 public interface RefRefMap< K, V > extends RefObjectMap< K, V >, ObjectRefMap< K, V >
-{}
+{
+	/**
+	 * Executes {@code procedure} for each entry in the map, passing the
+	 * {@link org.mastodon.RefPool pool indices} of key and value. This avoids
+	 * repositioning key and value references for every entry, for consumers
+	 * that only need the pool indices.
+	 * <p>
+	 * The default implementation throws {@link UnsupportedOperationException};
+	 * it is overridden by maps whose keys and values are backed by pools.
+	 *
+	 * @param procedure
+	 *            a {@code TIntIntProcedure}, receiving key index and value index.
+	 * @return {@code false} if the loop over the entries terminated because the
+	 *         procedure returned false for some entry.
+	 * @throws UnsupportedOperationException
+	 *             if the keys or values of this map are not backed by a pool.
+	 */
+	public default boolean forEachIndexEntry( final TIntIntProcedure procedure )
+	{
+		throw new UnsupportedOperationException( "map keys and values are not backed by a RefPool" );
+	}
+}
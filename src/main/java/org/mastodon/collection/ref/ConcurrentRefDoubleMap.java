@@ -0,0 +1,192 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.ToDoubleFunction;
+
+import org.mastodon.Ref;
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefDoubleMap;
+import org.mastodon.collection.util.TIntDoubleConcurrentHashMap;
+
+import gnu.trove.impl.Constants;
+
+/**
+ * A thread-safe {@link RefDoubleMap} implementation for {@link Ref} keys, based
+ * on a lock-striped {@link TIntDoubleConcurrentHashMap}.
+ * <p>
+ * Single-key operations are atomic. In addition to
+ * {@link #putIfAbsent(Object, double)} and
+ * {@link #adjustOrPutValue(Object, double, double)}, this offers
+ * {@link #remove(Object, double)},
+ * {@link #replace(Object, double, double)},
+ * {@link #computeIfAbsent(Object, ToDoubleFunction)}, and
+ * {@link #merge(Object, double, DoubleBinaryOperator)}. Iterators and views are
+ * weakly consistent (see {@link TIntDoubleConcurrentHashMap}). Each thread must
+ * use its own refs, and the pool must not be modified while the map is used
+ * concurrently.
+ *
+ * @param <K>
+ *            the type of keys.
+ */
+public class ConcurrentRefDoubleMap< K > extends AbstractRefDoubleMap< K >
+{
+	private static final int NO_ENTRY_KEY = -1;
+
+	private final TIntDoubleConcurrentHashMap map;
+
+	public ConcurrentRefDoubleMap( final RefPool< K > pool, final double noEntryValue )
+	{
+		this( pool, noEntryValue, Constants.DEFAULT_CAPACITY );
+	}
+
+	public ConcurrentRefDoubleMap( final RefPool< K > pool, final double noEntryValue, final int initialCapacity )
+	{
+		this( pool, noEntryValue, initialCapacity, TIntDoubleConcurrentHashMap.DEFAULT_CONCURRENCY_LEVEL );
+	}
+
+	/**
+	 * @param pool
+	 *            the pool of keys.
+	 * @param noEntryValue
+	 *            the value returned for keys without entry.
+	 * @param initialCapacity
+	 *            the number of entries that can be stored without rehashing.
+	 * @param concurrencyLevel
+	 *            the expected number of concurrently modifying threads.
+	 */
+	public ConcurrentRefDoubleMap( final RefPool< K > pool, final double noEntryValue, final int initialCapacity, final int concurrencyLevel )
+	{
+		this( pool, new TIntDoubleConcurrentHashMap( initialCapacity, NO_ENTRY_KEY, noEntryValue, concurrencyLevel ) );
+	}
+
+	private ConcurrentRefDoubleMap( final RefPool< K > pool, final TIntDoubleConcurrentHashMap map )
+	{
+		super( pool, map );
+		this.map = map;
+	}
+
+	@Override
+	public ConcurrentRefDoubleMap< K > copy()
+	{
+		final ConcurrentRefDoubleMap< K > copy = new ConcurrentRefDoubleMap<>( pool, map.getNoEntryValue(), map.size() );
+		copy.map.putAll( map );
+		return copy;
+	}
+
+	/**
+	 * Ensures that this map has sufficient capacity to hold
+	 * {@code desiredCapacity} <em>additional</em> mappings without rehashing.
+	 *
+	 * @param desiredCapacity
+	 *            the number of additional mappings.
+	 */
+	@Override
+	public void ensureCapacity( final int desiredCapacity )
+	{
+		map.ensureCapacity( desiredCapacity );
+	}
+
+	@Override
+	public Set< K > keySet()
+	{
+		return new ConcurrentRefSet<>( pool, map.keySet() );
+	}
+
+	/**
+	 * Removes the entry for {@code key} only if it is mapped to
+	 * {@code value}.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value expected to be associated with {@code key}.
+	 * @return whether the entry was removed.
+	 */
+	public boolean remove( final K key, final double value )
+	{
+		return map.remove( pool.getId( key ), value );
+	}
+
+	/**
+	 * Replaces the value for {@code key} only if it is currently mapped to
+	 * {@code expectedValue}.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param expectedValue
+	 *            the value expected to be associated with {@code key}.
+	 * @param newValue
+	 *            the value to associate with {@code key}.
+	 * @return whether the value was replaced.
+	 */
+	public boolean replace( final K key, final double expectedValue, final double newValue )
+	{
+		return map.replace( pool.getId( key ), expectedValue, newValue );
+	}
+
+	/**
+	 * Returns the value for {@code key}, computing and inserting it if there
+	 * is none. If {@code mappingFunction} returns the no-entry value, no entry
+	 * is inserted. {@code mappingFunction} is called while holding a lock, so
+	 * it must be short and must not access this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param mappingFunction
+	 *            computes the value for {@code key}.
+	 * @return the current (existing or computed) value for {@code key}.
+	 */
+	public double computeIfAbsent( final K key, final ToDoubleFunction< ? super K > mappingFunction )
+	{
+		return map.computeIfAbsent( pool.getId( key ), id -> mappingFunction.applyAsDouble( key ) );
+	}
+
+	/**
+	 * Associates {@code value} with {@code key} if there is no entry for
+	 * {@code key}. Otherwise, replaces the current value by the result of
+	 * {@code remappingFunction} applied to the current value and
+	 * {@code value}. {@code remappingFunction} is called while holding a
+	 * lock, so it must be short and must not access this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value to merge.
+	 * @param remappingFunction
+	 *            combines the current value and {@code value}.
+	 * @return the new value for {@code key}.
+	 */
+	public double merge( final K key, final double value, final DoubleBinaryOperator remappingFunction )
+	{
+		return map.merge( pool.getId( key ), value, remappingFunction );
+	}
+}
@@ -0,0 +1,295 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.mastodon.Ref;
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefRefMap;
+import org.mastodon.collection.RefSet;
+import org.mastodon.collection.util.TIntIntConcurrentHashMap;
+
+import gnu.trove.impl.Constants;
+
+/**
+ * A thread-safe {@link RefRefMap} implementation for {@link Ref} keys and
+ * values, based on a lock-striped {@link TIntIntConcurrentHashMap}.
+ * <p>
+ * Single-key operations are atomic, including
+ * {@link #putIfAbsent(Object, Object, Object)},
+ * {@link #remove(Object, Object)}, {@link #replace(Object, Object, Object)},
+ * {@link #replace(Object, Object)},
+ * {@link #computeIfAbsent(Object, Function, Object)},
+ * {@link #computeIfPresent(Object, BiFunction, Object)},
+ * {@link #compute(Object, BiFunction, Object)}, and
+ * {@link #merge(Object, Object, BiFunction, Object)}. The non-atomic
+ * {@link java.util.Map} default implementations of these methods are
+ * overridden accordingly. Iterators and views are weakly consistent (see
+ * {@link TIntIntConcurrentHashMap}). Each thread must use its own refs, and
+ * the pools must not be modified while the map is used concurrently.
+ *
+ * @param <K>
+ *            the type of keys.
+ * @param <V>
+ *            the type of values.
+ */
+public class ConcurrentRefRefMap< K, V > extends RefRefHashMap< K, V >
+{
+	private final TIntIntConcurrentHashMap map;
+
+	private final RefPool< K > keyPool;
+
+	private final RefPool< V > valuePool;
+
+	public ConcurrentRefRefMap( final RefPool< K > keyPool, final RefPool< V > valuePool )
+	{
+		this( keyPool, valuePool, Constants.DEFAULT_CAPACITY );
+	}
+
+	public ConcurrentRefRefMap( final RefPool< K > keyPool, final RefPool< V > valuePool, final int initialCapacity )
+	{
+		this( keyPool, valuePool, initialCapacity, TIntIntConcurrentHashMap.DEFAULT_CONCURRENCY_LEVEL );
+	}
+
+	/**
+	 * @param keyPool
+	 *            the pool of keys.
+	 * @param valuePool
+	 *            the pool of values.
+	 * @param initialCapacity
+	 *            the number of entries that can be stored without rehashing.
+	 * @param concurrencyLevel
+	 *            the expected number of concurrently modifying threads.
+	 */
+	public ConcurrentRefRefMap( final RefPool< K > keyPool, final RefPool< V > valuePool, final int initialCapacity, final int concurrencyLevel )
+	{
+		this( keyPool, valuePool, new TIntIntConcurrentHashMap( initialCapacity, NO_ENTRY_KEY, NO_ENTRY_VALUE, concurrencyLevel ) );
+	}
+
+	private ConcurrentRefRefMap( final RefPool< K > keyPool, final RefPool< V > valuePool, final TIntIntConcurrentHashMap map )
+	{
+		super( keyPool, valuePool, map );
+		this.map = map;
+		this.keyPool = keyPool;
+		this.valuePool = valuePool;
+	}
+
+	@Override
+	public RefSet< K > keySet()
+	{
+		return new ConcurrentRefSet<>( keyPool, map.keySet() );
+	}
+
+	/**
+	 * Associates {@code value} with {@code key} if there is no entry for
+	 * {@code key}.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @param ref
+	 *            a value reference, used to return the current value.
+	 * @return the value currently associated with {@code key} (pointing to
+	 *         {@code ref}), or {@code null} if there was none and
+	 *         {@code value} was inserted.
+	 */
+	public V putIfAbsent( final K key, final V value, final V ref )
+	{
+		final int index = map.putIfAbsent( keyPool.getId( key ), valuePool.getId( value ) );
+		return index != NO_ENTRY_VALUE ? valuePool.getObject( index, ref ) : null;
+	}
+
+	@Override
+	public V putIfAbsent( final K key, final V value )
+	{
+		return putIfAbsent( key, value, createValueRef() );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean remove( final Object key, final Object value )
+	{
+		return keyPool.getRefClass().isInstance( key )
+				&& valuePool.getRefClass().isInstance( value )
+				&& map.remove( keyPool.getId( ( K ) key ), valuePool.getId( ( V ) value ) );
+	}
+
+	@Override
+	public boolean replace( final K key, final V oldValue, final V newValue )
+	{
+		return map.replace( keyPool.getId( key ), valuePool.getId( oldValue ), valuePool.getId( newValue ) );
+	}
+
+	@Override
+	public V replace( final K key, final V value )
+	{
+		final int index = map.replace( keyPool.getId( key ), valuePool.getId( value ) );
+		return index != NO_ENTRY_VALUE ? valuePool.getObject( index, createValueRef() ) : null;
+	}
+
+	/**
+	 * Returns the value for {@code key}, computing and inserting it if there
+	 * is none. If {@code mappingFunction} returns {@code null}, no entry is
+	 * inserted. {@code mappingFunction} is called while holding a lock, so it
+	 * must be short and must not access this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param mappingFunction
+	 *            computes the value for {@code key}.
+	 * @param ref
+	 *            a value reference, used to return the current value.
+	 * @return the current (existing or computed) value for {@code key}
+	 *         (pointing to {@code ref}), or {@code null} if
+	 *         {@code mappingFunction} returned {@code null}.
+	 */
+	public V computeIfAbsent( final K key, final Function< ? super K, ? extends V > mappingFunction, final V ref )
+	{
+		final int index = map.computeIfAbsent( keyPool.getId( key ), id -> {
+			final V value = mappingFunction.apply( key );
+			return value == null ? NO_ENTRY_VALUE : valuePool.getId( value );
+		} );
+		return index != NO_ENTRY_VALUE ? valuePool.getObject( index, ref ) : null;
+	}
+
+	@Override
+	public V computeIfAbsent( final K key, final Function< ? super K, ? extends V > mappingFunction )
+	{
+		return computeIfAbsent( key, mappingFunction, createValueRef() );
+	}
+
+	/**
+	 * Computes a new value for {@code key} from {@code key} and its current
+	 * value, if there is one. If {@code remappingFunction} returns
+	 * {@code null}, the entry is removed. {@code remappingFunction} is called
+	 * while holding a lock, so it must be short and must not access this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param remappingFunction
+	 *            computes the new value from {@code key} and the current
+	 *            value.
+	 * @param ref
+	 *            a value reference, used to return the new value.
+	 * @return the new value for {@code key} (pointing to {@code ref}), or
+	 *         {@code null} if there is none.
+	 */
+	public V computeIfPresent( final K key, final BiFunction< ? super K, ? super V, ? extends V > remappingFunction, final V ref )
+	{
+		final V current = createValueRef();
+		final int index = map.computeIfPresent( keyPool.getId( key ), ( id, currentIndex ) -> {
+			final V value = remappingFunction.apply( key, valuePool.getObject( currentIndex, current ) );
+			return value == null ? NO_ENTRY_VALUE : valuePool.getId( value );
+		} );
+		releaseValueRef( current );
+		return index != NO_ENTRY_VALUE ? valuePool.getObject( index, ref ) : null;
+	}
+
+	@Override
+	public V computeIfPresent( final K key, final BiFunction< ? super K, ? super V, ? extends V > remappingFunction )
+	{
+		return computeIfPresent( key, remappingFunction, createValueRef() );
+	}
+
+	/**
+	 * Computes a new value for {@code key} from {@code key} and its current
+	 * value, or {@code null} if there is none. If {@code remappingFunction}
+	 * returns {@code null}, the entry is removed (or not inserted).
+	 * {@code remappingFunction} is called while holding a lock, so it must be
+	 * short and must not access this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param remappingFunction
+	 *            computes the new value from {@code key} and the current
+	 *            value.
+	 * @param ref
+	 *            a value reference, used to return the new value.
+	 * @return the new value for {@code key} (pointing to {@code ref}), or
+	 *         {@code null} if there is none.
+	 */
+	public V compute( final K key, final BiFunction< ? super K, ? super V, ? extends V > remappingFunction, final V ref )
+	{
+		final V current = createValueRef();
+		final int index = map.compute( keyPool.getId( key ), ( id, currentIndex ) -> {
+			final V value = remappingFunction.apply( key, currentIndex != NO_ENTRY_VALUE ? valuePool.getObject( currentIndex, current ) : null );
+			return value == null ? NO_ENTRY_VALUE : valuePool.getId( value );
+		} );
+		releaseValueRef( current );
+		return index != NO_ENTRY_VALUE ? valuePool.getObject( index, ref ) : null;
+	}
+
+	@Override
+	public V compute( final K key, final BiFunction< ? super K, ? super V, ? extends V > remappingFunction )
+	{
+		return compute( key, remappingFunction, createValueRef() );
+	}
+
+	/**
+	 * Associates {@code value} with {@code key} if there is no entry for
+	 * {@code key}. Otherwise, replaces the current value by the result of
+	 * {@code remappingFunction} applied to the current value and
+	 * {@code value}, or removes the entry if the result is {@code null}.
+	 * {@code remappingFunction} is called while holding a lock, so it must be
+	 * short and must not access this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value to merge.
+	 * @param remappingFunction
+	 *            combines the current value and {@code value}.
+	 * @param ref
+	 *            a value reference, used to return the new value.
+	 * @return the new value for {@code key} (pointing to {@code ref}), or
+	 *         {@code null} if there is none.
+	 */
+	public V merge( final K key, final V value, final BiFunction< ? super V, ? super V, ? extends V > remappingFunction, final V ref )
+	{
+		final int valueIndex = valuePool.getId( value );
+		final V current = createValueRef();
+		final int index = map.compute( keyPool.getId( key ), ( id, currentIndex ) -> {
+			if ( currentIndex == NO_ENTRY_VALUE )
+				return valueIndex;
+			final V newValue = remappingFunction.apply( valuePool.getObject( currentIndex, current ), value );
+			return newValue == null ? NO_ENTRY_VALUE : valuePool.getId( newValue );
+		} );
+		releaseValueRef( current );
+		return index != NO_ENTRY_VALUE ? valuePool.getObject( index, ref ) : null;
+	}
+
+	@Override
+	public V merge( final K key, final V value, final BiFunction< ? super V, ? super V, ? extends V > remappingFunction )
+	{
+		return merge( key, value, remappingFunction, createValueRef() );
+	}
+}
@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.lang.reflect.Array;
+
+import org.mastodon.Ref;
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefSet;
+import org.mastodon.collection.util.TIntConcurrentHashSet;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.set.TIntSet;
+
+/**
+ * A thread-safe {@link RefSet} implementation for {@link Ref} objects, based
+ * on a lock-striped {@link TIntConcurrentHashSet}.
+ * <p>
+ * {@link #add(Object)}, {@link #remove(Object)} and
+ * {@link #contains(Object)} are atomic, so worker threads can share a set of
+ * visited objects: the thread for which {@link #add(Object)} returns
+ * {@code true} owns the object. Iterators are weakly consistent (see
+ * {@link TIntConcurrentHashSet}). Each thread must use its own refs, and the
+ * pool must not be modified while the set is used concurrently.
+ *
+ * @param <O>
+ *            the type of elements maintained by this set.
+ */
+public class ConcurrentRefSet< O > extends RefSetImp< O >
+{
+	public ConcurrentRefSet( final RefPool< O > pool )
+	{
+		this( pool, Constants.DEFAULT_CAPACITY );
+	}
+
+	public ConcurrentRefSet( final RefPool< O > pool, final int initialCapacity )
+	{
+		this( pool, initialCapacity, TIntConcurrentHashSet.DEFAULT_CONCURRENCY_LEVEL );
+	}
+
+	/**
+	 * @param pool
+	 *            the pool of elements.
+	 * @param initialCapacity
+	 *            the number of elements that can be stored without
+	 *            rehashing.
+	 * @param concurrencyLevel
+	 *            the expected number of concurrently modifying threads.
+	 */
+	public ConcurrentRefSet( final RefPool< O > pool, final int initialCapacity, final int concurrencyLevel )
+	{
+		super( pool, new TIntConcurrentHashSet( initialCapacity, -1, concurrencyLevel ) );
+	}
+
+	/**
+	 * Wraps a thread-safe {@code indices} set, for example the key set of a
+	 * concurrent map.
+	 */
+	ConcurrentRefSet( final RefPool< O > pool, final TIntSet indices )
+	{
+		super( pool, indices );
+	}
+
+	@Override
+	public Object[] toArray()
+	{
+		return toArray( new Object[ 0 ] );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public < A > A[] toArray( final A[] a )
+	{
+		// copy indices first, the set may grow concurrently
+		final int[] indices = getIndexCollection().toArray();
+		final A[] array = a.length < indices.length
+				? ( A[] ) Array.newInstance( a.getClass().getComponentType(), indices.length )
+				: a;
+		final RefPool< O > pool = getRefPool();
+		for ( int i = 0; i < indices.length; ++i )
+			array[ i ] = ( A ) pool.getObject( indices[ i ], createRef() );
+		for ( int i = indices.length; i < array.length; ++i )
+			array[ i ] = null;
+		return array;
+	}
+}
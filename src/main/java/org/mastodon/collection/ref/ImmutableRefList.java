@@ -0,0 +1,499 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import org.mastodon.Ref;
+import org.mastodon.RefPool;
+import org.mastodon.collection.MaybeRefIterator;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefList;
+
+/**
+ * An immutable {@link RefList} implementation for {@link Ref} objects, backed
+ * by an array of pool indices.
+ * <p>
+ * If the pool indices are in ascending order (which is detected on
+ * construction), {@link #contains(Object)}, {@link #indexOf(Object)} and
+ * {@link #lastIndexOf(Object)} use binary search. {@link #subList(int, int)}
+ * returns a view that shares the array. All modifying methods throw
+ * {@link UnsupportedOperationException}. Instances can be shared between
+ * threads without synchronization, as long as each thread uses its own refs
+ * and the pool is not modified.
+ * </p>
+ * <p>
+ * Use {@link RefCollections#freeze(RefList)} to create an immutable snapshot
+ * of a list.
+ * </p>
+ *
+ * @param <O>
+ *            the type of elements maintained by this list.
+ */
+public class ImmutableRefList< O > implements RefPoolBackedRefCollection< O >, RefList< O >
+{
+	private final RefPool< O > pool;
+
+	private final Class< O > elementType;
+
+	private final int[] indices;
+
+	private final int from;
+
+	private final int to;
+
+	/**
+	 * Whether {@code indices} are in ascending order in {@code [from, to)}.
+	 */
+	private final boolean sorted;
+
+	/**
+	 * @param pool
+	 *            the pool of elements.
+	 * @param indices
+	 *            the pool indices of the elements, in list order. The array
+	 *            is copied.
+	 */
+	public ImmutableRefList( final RefPool< O > pool, final int[] indices )
+	{
+		this( pool, indices.clone(), 0, indices.length, isAscending( indices ) );
+	}
+
+	private ImmutableRefList( final RefPool< O > pool, final int[] indices, final int from, final int to, final boolean sorted )
+	{
+		this.pool = pool;
+		this.elementType = pool.getRefClass();
+		this.indices = indices;
+		this.from = from;
+		this.to = to;
+		this.sorted = sorted;
+	}
+
+	private static boolean isAscending( final int[] indices )
+	{
+		for ( int i = 1; i < indices.length; ++i )
+			if ( indices[ i - 1 ] > indices[ i ] )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns whether the pool indices of the elements are in ascending
+	 * order, so that lookups use binary search.
+	 *
+	 * @return whether the list is sorted by pool index.
+	 */
+	public boolean isSortedByIndex()
+	{
+		return sorted;
+	}
+
+	/**
+	 * Returns the pool index of the element at position {@code index}.
+	 *
+	 * @param index
+	 *            the position, in {@code [0, size())}.
+	 * @return the pool index of the element.
+	 */
+	public int getIndex( final int index )
+	{
+		if ( index < 0 || index >= to - from )
+			throw new IndexOutOfBoundsException( "index " + index + ", size " + ( to - from ) );
+		return indices[ from + index ];
+	}
+
+	@Override
+	public RefPool< O > getRefPool()
+	{
+		return pool;
+	}
+
+	@Override
+	public void forEachIndex( final IntConsumer action )
+	{
+		for ( int i = from; i < to; ++i )
+			action.accept( indices[ i ] );
+	}
+
+	@Override
+	public IntStream indexStream()
+	{
+		return Arrays.stream( indices, from, to );
+	}
+
+	@Override
+	public O createRef()
+	{
+		return pool.createRef();
+	}
+
+	@Override
+	public void releaseRef( final O obj )
+	{
+		pool.releaseRef( obj );
+	}
+
+	@Override
+	public O get( final int index, final O obj )
+	{
+		return pool.getObject( getIndex( index ), obj );
+	}
+
+	@Override
+	public O get( final int index )
+	{
+		return get( index, createRef() );
+	}
+
+	@Override
+	public int size()
+	{
+		return to - from;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return to == from;
+	}
+
+	@Override
+	public boolean contains( final Object obj )
+	{
+		return indexOf( obj ) >= 0;
+	}
+
+	@Override
+	public boolean containsAll( final Collection< ? > objs )
+	{
+		for ( final Object obj : objs )
+			if ( !contains( obj ) )
+				return false;
+		return true;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public int indexOf( final Object obj )
+	{
+		if ( !elementType.isInstance( obj ) )
+			return -1;
+		final int id = pool.getId( ( O ) obj );
+		if ( sorted )
+		{
+			// first position with indices[ i ] >= id
+			int l = from;
+			int h = to;
+			while ( l < h )
+			{
+				final int m = ( l + h ) >>> 1;
+				if ( indices[ m ] < id )
+					l = m + 1;
+				else
+					h = m;
+			}
+			return l < to && indices[ l ] == id ? l - from : -1;
+		}
+		for ( int i = from; i < to; ++i )
+			if ( indices[ i ] == id )
+				return i - from;
+		return -1;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public int lastIndexOf( final Object obj )
+	{
+		if ( !elementType.isInstance( obj ) )
+			return -1;
+		final int id = pool.getId( ( O ) obj );
+		if ( sorted )
+		{
+			// first position with indices[ i ] > id
+			int l = from;
+			int h = to;
+			while ( l < h )
+			{
+				final int m = ( l + h ) >>> 1;
+				if ( indices[ m ] <= id )
+					l = m + 1;
+				else
+					h = m;
+			}
+			return l > from && indices[ l - 1 ] == id ? l - 1 - from : -1;
+		}
+		for ( int i = to - 1; i >= from; --i )
+			if ( indices[ i ] == id )
+				return i - from;
+		return -1;
+	}
+
+	/**
+	 * Returns the elements at positions {@code [fromIndex, toIndex)}, without
+	 * copying.
+	 */
+	@Override
+	public ImmutableRefList< O > subList( final int fromIndex, final int toIndex )
+	{
+		if ( fromIndex < 0 || toIndex > to - from || fromIndex > toIndex )
+			throw new IndexOutOfBoundsException( "range [" + fromIndex + ", " + toIndex + "), size " + ( to - from ) );
+		return new ImmutableRefList<>( pool, indices, from + fromIndex, from + toIndex, sorted );
+	}
+
+	@Override
+	public Iterator< O > iterator()
+	{
+		return listIterator( 0 );
+	}
+
+	@Override
+	public ListIterator< O > listIterator()
+	{
+		return listIterator( 0 );
+	}
+
+	@Override
+	public ListIterator< O > listIterator( final int index )
+	{
+		if ( index < 0 || index > to - from )
+			throw new IndexOutOfBoundsException( "index " + index + ", size " + ( to - from ) );
+		return new ListItr( from + index );
+	}
+
+	private class ListItr implements ListIterator< O >, MaybeRefIterator
+	{
+		private final O obj = createRef();
+
+		private int cursor;
+
+		ListItr( final int cursor )
+		{
+			this.cursor = cursor;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return cursor < to;
+		}
+
+		@Override
+		public O next()
+		{
+			if ( cursor >= to )
+				throw new NoSuchElementException();
+			return pool.getObject( indices[ cursor++ ], obj );
+		}
+
+		@Override
+		public boolean hasPrevious()
+		{
+			return cursor > from;
+		}
+
+		@Override
+		public O previous()
+		{
+			if ( cursor <= from )
+				throw new NoSuchElementException();
+			return pool.getObject( indices[ --cursor ], obj );
+		}
+
+		@Override
+		public int nextIndex()
+		{
+			return cursor - from;
+		}
+
+		@Override
+		public int previousIndex()
+		{
+			return cursor - from - 1;
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void set( final O o )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void add( final O o )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean isRefIterator()
+		{
+			return true;
+		}
+	}
+
+	@Override
+	public Object[] toArray()
+	{
+		return toArray( new Object[ size() ] );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public < A > A[] toArray( final A[] a )
+	{
+		final int size = size();
+		final A[] array = a.length < size
+				? ( A[] ) Array.newInstance( a.getClass().getComponentType(), size )
+				: a;
+		for ( int i = 0; i < size; ++i )
+			array[ i ] = ( A ) pool.getObject( indices[ from + i ], createRef() );
+		if ( array.length > size )
+			array[ size ] = null;
+		return array;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder( "[" );
+		final O ref = createRef();
+		for ( int i = from; i < to; ++i )
+		{
+			if ( i > from )
+				sb.append( ", " );
+			sb.append( pool.getObject( indices[ i ], ref ) );
+		}
+		releaseRef( ref );
+		return sb.append( ']' ).toString();
+	}
+
+	@Override
+	public boolean add( final O obj )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void add( final int index, final O obj )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean addAll( final Collection< ? extends O > objs )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean addAll( final int index, final Collection< ? extends O > objs )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void clear()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean remove( final Object obj )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public O remove( final int index )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public O remove( final int index, final O obj )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean removeAll( final Collection< ? > objs )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean retainAll( final Collection< ? > objs )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public O set( final int index, final O obj )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public O set( final int index, final O obj, final O replacedObj )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void shuffle( final Random rand )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void sort( final Comparator< ? super O > comparator )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void swap( final int i, final int j )
+	{
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import org.mastodon.Ref;
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefSet;
+import org.mastodon.collection.util.TIntSortedArraySet;
+
+/**
+ * An immutable {@link RefSet} implementation for {@link Ref} objects, backed
+ * by a sorted array of pool indices (see {@link TIntSortedArraySet}).
+ * <p>
+ * {@link #contains(Object)} is a binary search, iteration is in ascending
+ * order of pool indices, and set algebra merges the sorted arrays. All
+ * modifying methods throw {@link UnsupportedOperationException}. Instances
+ * can be shared between threads without synchronization, as long as each
+ * thread uses its own refs and the pool is not modified.
+ * </p>
+ * <p>
+ * Use {@link RefCollections#freeze(RefSet)} to create an immutable snapshot
+ * of a set.
+ * </p>
+ *
+ * @param <O>
+ *            the type of elements maintained by this set.
+ */
+public class ImmutableRefSet< O > extends RefSetImp< O >
+{
+	private final TIntSortedArraySet indices;
+
+	/**
+	 * @param pool
+	 *            the pool of elements.
+	 * @param indices
+	 *            the pool indices of the elements.
+	 */
+	public ImmutableRefSet( final RefPool< O > pool, final TIntSortedArraySet indices )
+	{
+		super( pool, indices );
+		this.indices = indices;
+	}
+
+	@Override
+	public TIntSortedArraySet getIndexCollection()
+	{
+		return indices;
+	}
+
+	/**
+	 * Returns the element at position {@code index} in ascending order of
+	 * pool indices.
+	 *
+	 * @param index
+	 *            the position, in {@code [0, size())}.
+	 * @param obj
+	 *            a reference used to return the element.
+	 * @return the element (pointing to {@code obj}).
+	 */
+	public O get( final int index, final O obj )
+	{
+		return getRefPool().getObject( indices.get( index ), obj );
+	}
+
+	/**
+	 * Returns the elements at positions {@code [fromIndex, toIndex)} in
+	 * ascending order of pool indices, without copying.
+	 *
+	 * @param fromIndex
+	 *            first position, inclusive.
+	 * @param toIndex
+	 *            last position, exclusive.
+	 * @return a view of the range.
+	 */
+	public ImmutableRefSet< O > range( final int fromIndex, final int toIndex )
+	{
+		return new ImmutableRefSet<>( getRefPool(), indices.range( fromIndex, toIndex ) );
+	}
+
+	/**
+	 * Returns the elements contained in this set or in {@code other}.
+	 *
+	 * @param other
+	 *            a set over the same pool.
+	 * @return the union.
+	 */
+	public ImmutableRefSet< O > union( final ImmutableRefSet< O > other )
+	{
+		return wrap( indices.union( other.indices ) );
+	}
+
+	/**
+	 * Returns the elements contained in both this set and {@code other}.
+	 *
+	 * @param other
+	 *            a set over the same pool.
+	 * @return the intersection.
+	 */
+	public ImmutableRefSet< O > intersection( final ImmutableRefSet< O > other )
+	{
+		return wrap( indices.intersection( other.indices ) );
+	}
+
+	/**
+	 * Returns the elements contained in this set but not in {@code other}.
+	 *
+	 * @param other
+	 *            a set over the same pool.
+	 * @return the difference.
+	 */
+	public ImmutableRefSet< O > difference( final ImmutableRefSet< O > other )
+	{
+		return wrap( indices.difference( other.indices ) );
+	}
+
+	private ImmutableRefSet< O > wrap( final TIntSortedArraySet result )
+	{
+		return result == indices ? this : new ImmutableRefSet<>( getRefPool(), result );
+	}
+}
@@ -28,8 +28,12 @@
  */
 package org.mastodon.collection.ref;
 
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
 import org.mastodon.Ref;
 import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.util.TIntStreams;
 
 import gnu.trove.TIntCollection;
 
@@ -45,4 +49,22 @@ import gnu.trove.TIntCollection;
 public interface IntBackedRefCollection< O > extends RefCollection< O >
 {
 	public TIntCollection getIndexCollection();
+
+	/**
+	 * Iterates the {@link #getIndexCollection() index collection} directly.
+	 */
+	@Override
+	public default void forEachIndex( final IntConsumer action )
+	{
+		getIndexCollection().forEach( i -> {
+			action.accept( i );
+			return true;
+		} );
+	}
+
+	@Override
+	public default IntStream indexStream()
+	{
+		return TIntStreams.stream( getIndexCollection() );
+	}
 }
@@ -35,6 +35,7 @@ import java.util.Map;
 import org.mastodon.Ref;
 import org.mastodon.RefPool;
 import org.mastodon.collection.IntRefMap;
+import org.mastodon.collection.util.TIntIntOpenHashMap;
 
 import gnu.trove.function.TObjectFunction;
 import gnu.trove.impl.Constants;
@@ -43,7 +44,6 @@ import gnu.trove.iterator.TIntIterator;
 import gnu.trove.iterator.TIntObjectIterator;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.procedure.TIntObjectProcedure;
 import gnu.trove.procedure.TIntProcedure;
 import gnu.trove.procedure.TObjectProcedure;
@@ -51,8 +51,8 @@ import gnu.trove.set.TIntSet;
 
 
 /**
- * An {@link IntRefMap} implementation for {@link Ref} objects, based on a Trove
- * TIntIntHashMap.
+ * An {@link IntRefMap} implementation for {@link Ref} objects, based on a
+ * {@link TIntIntOpenHashMap}.
  * <p>
  * This implementation is best chosen when the <code>int</code> keys are not
  * ordered, and can have values much greater than this map cardinality. For
@@ -83,13 +83,13 @@ public class IntRefHashMap< V > implements IntRefMap< V >
 	{
 		this.pool = pool;
 		valueType = pool.getRefClass();
-		keyToIndexMap = new TIntIntHashMap( initialCapacity, Constants.DEFAULT_LOAD_FACTOR, noEntryKey, -1 )
+		keyToIndexMap = new TIntIntOpenHashMap( initialCapacity, Constants.DEFAULT_LOAD_FACTOR, noEntryKey, -1 )
 		{
 			// We need to do this to honor exactly the contract on toArray(int[]).
 			@Override
 			public TIntSet keySet()
 			{
-				return new TIntIntHashMap.TKeyView()
+				return new TIntIntOpenHashMap.KeyView()
 				{
 					@Override
 					public int[] toArray( final int[] dest )
@@ -36,10 +36,13 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
 
 import org.mastodon.Ref;
 import org.mastodon.RefPool;
 import org.mastodon.collection.RefList;
+import org.mastodon.collection.util.ParallelSort;
 
 import gnu.trove.TIntCollection;
 import gnu.trove.iterator.TIntIterator;
@@ -538,6 +541,60 @@ public class RefArrayList< O > implements IntBackedRefCollection< O >, RefPoolBa
 		quicksort( 0, size() - 1, comparator, createRef(), createRef() );
 	}
 
+	/**
+	 * Sorts this list by an {@code int} key of its elements. The sort is
+	 * stable.
+	 * <p>
+	 * {@code key} is evaluated once per element, in the calling thread. The
+	 * keys and pool indices are then sorted as primitive arrays with a
+	 * parallel radix sort (see {@link ParallelSort}), which is much faster
+	 * than {@link #sort(Comparator)} for large lists.
+	 *
+	 * @param key
+	 *            extracts the sort key of an element.
+	 */
+	public void sortByInt( final ToIntFunction< ? super O > key )
+	{
+		final int size = indices.size();
+		if ( size < 2 )
+			return;
+		final int[] keys = new int[ size ];
+		final O ref = createRef();
+		for ( int i = 0; i < size; ++i )
+			keys[ i ] = key.applyAsInt( getQuick( i, ref ) );
+		releaseRef( ref );
+		final int[] sorted = indices.toArray();
+		ParallelSort.sort( keys, sorted );
+		indices.set( 0, sorted );
+	}
+
+	/**
+	 * Sorts this list by a {@code double} key of its elements, in the order
+	 * of {@link Double#compare(double, double)}. The sort is stable.
+	 * <p>
+	 * {@code key} is evaluated once per element, in the calling thread. The
+	 * keys and pool indices are then sorted as primitive arrays with a
+	 * parallel merge sort (see {@link ParallelSort}), which is much faster
+	 * than {@link #sort(Comparator)} for large lists.
+	 *
+	 * @param key
+	 *            extracts the sort key of an element.
+	 */
+	public void sortByDouble( final ToDoubleFunction< ? super O > key )
+	{
+		final int size = indices.size();
+		if ( size < 2 )
+			return;
+		final double[] keys = new double[ size ];
+		final O ref = createRef();
+		for ( int i = 0; i < size; ++i )
+			keys[ i ] = key.applyAsDouble( getQuick( i, ref ) );
+		releaseRef( ref );
+		final int[] sorted = indices.toArray();
+		ParallelSort.sort( keys, sorted );
+		indices.set( 0, sorted );
+	}
+
 	private void quicksort( final int low, final int high, final Comparator< ? super O > comparator, final O tmpRef1, final O tmpRef2 )
 	{
 		final O pivot = get( ( low + high ) / 2, tmpRef1 );
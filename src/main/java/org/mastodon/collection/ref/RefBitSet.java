@@ -0,0 +1,75 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import org.mastodon.Ref;
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefSet;
+import org.mastodon.collection.util.TIntBitSet;
+
+/**
+ * A {@link RefSet} implementation for {@link Ref} objects, based on a
+ * {@link TIntBitSet}.
+ * <p>
+ * Uses one bit per pool index, regardless of the number of elements. This is
+ * more compact and faster than {@link RefSetImp} with a hash set, if the set
+ * contains a large fraction of the pool. Bulk operations with other
+ * {@link RefBitSet}s work on whole words. Iteration is in ascending index
+ * order.
+ *
+ * @param <O>
+ *            the type of elements maintained by this set.
+ */
+public class RefBitSet< O > extends RefSetImp< O >
+{
+	public RefBitSet( final RefPool< O > pool )
+	{
+		super( pool, new TIntBitSet() );
+	}
+
+	/**
+	 * Creates an empty set that can hold objects with pool indices
+	 * {@code [0, capacity)} without growing.
+	 *
+	 * @param pool
+	 *            the pool of elements.
+	 * @param capacity
+	 *            initial capacity, in pool indices.
+	 */
+	public RefBitSet( final RefPool< O > pool, final int capacity )
+	{
+		super( pool, new TIntBitSet( capacity ) );
+	}
+
+	@Override
+	public TIntBitSet getIndexCollection()
+	{
+		return ( TIntBitSet ) super.getIndexCollection();
+	}
+}
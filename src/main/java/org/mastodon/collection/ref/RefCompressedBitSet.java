@@ -0,0 +1,62 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import org.mastodon.Ref;
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefSet;
+import org.mastodon.collection.util.TIntCompressedBitSet;
+
+/**
+ * A {@link RefSet} implementation for {@link Ref} objects, based on a
+ * {@link TIntCompressedBitSet}.
+ * <p>
+ * Stores pool indices in compressed containers per block of 65536 indices.
+ * This is more compact than {@link RefBitSet} for sets that are sparse across
+ * the pool, and more compact than a hash set for sets that are clustered, for
+ * example selections of contiguous ranges of objects. Bulk operations with
+ * other {@link RefCompressedBitSet}s work container by container. Iteration is
+ * in ascending index order.
+ *
+ * @param <O>
+ *            the type of elements maintained by this set.
+ */
+public class RefCompressedBitSet< O > extends RefSetImp< O >
+{
+	public RefCompressedBitSet( final RefPool< O > pool )
+	{
+		super( pool, new TIntCompressedBitSet() );
+	}
+
+	@Override
+	public TIntCompressedBitSet getIndexCollection()
+	{
+		return ( TIntCompressedBitSet ) super.getIndexCollection();
+	}
+}
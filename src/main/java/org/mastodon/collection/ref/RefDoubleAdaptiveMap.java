@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import org.mastodon.Ref;
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefDoubleMap;
+import org.mastodon.collection.util.TIntDoubleAdaptiveMap;
+
+import gnu.trove.impl.Constants;
+
+/**
+ * A {@link RefDoubleMap} implementation for {@link Ref} keys, that switches
+ * between hash and array storage depending on the fraction of pool indices
+ * that have a value (see {@link TIntDoubleAdaptiveMap}).
+ * <p>
+ * This starts out like {@link RefDoubleHashMap}, and behaves like
+ * {@link RefDoubleArrayMap} once a quarter of the pool index range has
+ * values.
+ *
+ * @param <K>
+ *            the type of keys.
+ */
+public class RefDoubleAdaptiveMap< K > extends AbstractRefDoubleMap< K >
+{
+	private static final int NO_ENTRY_KEY = -1;
+
+	public RefDoubleAdaptiveMap( final RefPool< K > pool, final double noEntryValue, final int initialCapacity )
+	{
+		super( pool, new TIntDoubleAdaptiveMap( initialCapacity, NO_ENTRY_KEY, noEntryValue ) );
+	}
+
+	public RefDoubleAdaptiveMap( final RefPool< K > pool, final double noEntryValue )
+	{
+		this( pool, noEntryValue, Constants.DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * Creates a copy of {@code map}, with the same pool and no-entry value.
+	 *
+	 * @param map
+	 *            the map to copy.
+	 */
+	public RefDoubleAdaptiveMap( final RefDoubleAdaptiveMap< K > map )
+	{
+		super( map.pool, new TIntDoubleAdaptiveMap( ( TIntDoubleAdaptiveMap ) map.indexmap ) );
+	}
+
+	@Override
+	public RefDoubleAdaptiveMap< K > copy()
+	{
+		return new RefDoubleAdaptiveMap<>( this );
+	}
+
+	/**
+	 * Ensures that this map has sufficient capacity to hold
+	 * {@code desiredCapacity} <em>additional</em> mappings without rehashing,
+	 * see {@link TIntDoubleAdaptiveMap#ensureCapacity(int)}.
+	 *
+	 * @param desiredCapacity
+	 *            the number of additional mappings.
+	 */
+	@Override
+	public void ensureCapacity( final int desiredCapacity )
+	{
+		( ( TIntDoubleAdaptiveMap ) indexmap ).ensureCapacity( desiredCapacity );
+	}
+
+	/**
+	 * Returns whether values are currently stored in an array indexed by pool
+	 * index.
+	 *
+	 * @return whether the map is array-backed.
+	 */
+	public boolean isArrayBacked()
+	{
+		return ( ( TIntDoubleAdaptiveMap ) indexmap ).isArrayBacked();
+	}
+}
@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import org.mastodon.Ref;
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefDoubleMap;
+import org.mastodon.collection.util.TIntDoubleArrayMap;
+
+import gnu.trove.impl.Constants;
+
+/**
+ * A {@link RefDoubleMap} implementation for {@link Ref} keys, that stores
+ * values in an array indexed by the pool index of keys (see
+ * {@link TIntDoubleArrayMap}).
+ * <p>
+ * Lookups are a bit test and an array load. Memory is proportional to the
+ * largest pool index, so this is best chosen when most objects of the pool
+ * have a value, for example for features that are computed for every
+ * object. Otherwise, use {@link RefDoubleHashMap}, or
+ * {@link RefDoubleAdaptiveMap} if the fill ratio is not known in advance.
+ * Iteration is in ascending order of pool indices.
+ *
+ * @param <K>
+ *            the type of keys.
+ */
+public class RefDoubleArrayMap< K > extends AbstractRefDoubleMap< K >
+{
+	private static final int NO_ENTRY_KEY = -1;
+
+	/**
+	 * @param pool
+	 *            the pool of keys.
+	 * @param noEntryValue
+	 *            the value returned for keys without entry.
+	 * @param initialCapacity
+	 *            keys with pool indices {@code [0, initialCapacity)} can be
+	 *            stored without growing.
+	 */
+	public RefDoubleArrayMap( final RefPool< K > pool, final double noEntryValue, final int initialCapacity )
+	{
+		super( pool, new TIntDoubleArrayMap( initialCapacity, NO_ENTRY_KEY, noEntryValue ) );
+	}
+
+	public RefDoubleArrayMap( final RefPool< K > pool, final double noEntryValue )
+	{
+		this( pool, noEntryValue, Constants.DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * Creates a copy of {@code map}, with the same pool and no-entry value.
+	 *
+	 * @param map
+	 *            the map to copy.
+	 */
+	public RefDoubleArrayMap( final RefDoubleArrayMap< K > map )
+	{
+		super( map.pool, new TIntDoubleArrayMap( ( TIntDoubleArrayMap ) map.indexmap ) );
+	}
+
+	@Override
+	public RefDoubleArrayMap< K > copy()
+	{
+		return new RefDoubleArrayMap<>( this );
+	}
+
+	/**
+	 * Ensures that keys with pool indices {@code [0, capacity)} can be stored
+	 * without growing.
+	 *
+	 * @param capacity
+	 *            the range of pool indices.
+	 */
+	@Override
+	public void ensureCapacity( final int capacity )
+	{
+		( ( TIntDoubleArrayMap ) indexmap ).ensureCapacity( capacity );
+	}
+}
@@ -0,0 +1,541 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.MaybeRefIterator;
+
+/**
+ * Indexed min-heap priority queue of Ref objects with primitive
+ * {@code double} priorities, supporting {@link #decreaseKey(Object, double)
+ * decrease-key}.
+ * <p>
+ * The heap is {@code d}-ary (4-ary by default), which makes the heap
+ * shallower and sift-down more cache-friendly than in a binary heap. Objects
+ * are stored by pool index, and the heap position of each object is tracked
+ * in an {@code int[]} indexed by pool index. Therefore
+ * {@link #contains(Object)} is O(1), and
+ * {@link #decreaseKey(Object, double)}, {@link #update(Object, double)},
+ * {@link #remove(Object)} and {@link #poll(Object)} are O(log n). This makes
+ * the queue suitable for Dijkstra-style algorithms that lower the priority
+ * of queued objects, instead of inserting duplicates.
+ * </p>
+ * <p>
+ * The queue does not allocate after construction, except when an object
+ * with a pool index beyond the current capacity is offered. Use
+ * {@link #ensureCapacity(int)} to allocate for the pool size up front.
+ * Each object can be in the queue at most once. Iteration order is
+ * unspecified. {@code NaN} priorities are not allowed.
+ * </p>
+ *
+ * @param <O>
+ *            the type of objects in the queue.
+ */
+public class RefIndexedPriorityQueue< O > implements RefPoolBackedRefCollection< O >
+{
+	public static final int DEFAULT_ARITY = 4;
+
+	private final RefPool< O > pool;
+
+	private final Class< O > elementType;
+
+	private final int arity;
+
+	/**
+	 * Pool indices of the queued objects, in heap order.
+	 */
+	private int[] heap;
+
+	/**
+	 * Priorities of the queued objects, in heap order.
+	 */
+	private double[] priorities;
+
+	/**
+	 * Heap position for each pool index, or -1 if the object is not queued.
+	 */
+	private int[] positions;
+
+	private int size;
+
+	/**
+	 * @param pool
+	 *            the pool of objects.
+	 * @param capacity
+	 *            objects with pool indices {@code [0, capacity)} can be
+	 *            queued without allocating.
+	 */
+	public RefIndexedPriorityQueue( final RefPool< O > pool, final int capacity )
+	{
+		this( pool, capacity, DEFAULT_ARITY );
+	}
+
+	/**
+	 * @param pool
+	 *            the pool of objects.
+	 * @param capacity
+	 *            objects with pool indices {@code [0, capacity)} can be
+	 *            queued without allocating.
+	 * @param arity
+	 *            the number of children of each heap node, at least 2.
+	 */
+	public RefIndexedPriorityQueue( final RefPool< O > pool, final int capacity, final int arity )
+	{
+		if ( arity < 2 )
+			throw new IllegalArgumentException( "arity must be at least 2: " + arity );
+		if ( capacity < 0 )
+			throw new IllegalArgumentException( "capacity must not be negative: " + capacity );
+		this.pool = pool;
+		this.elementType = pool.getRefClass();
+		this.arity = arity;
+		heap = new int[ capacity ];
+		priorities = new double[ capacity ];
+		positions = new int[ capacity ];
+		Arrays.fill( positions, -1 );
+	}
+
+	/**
+	 * Ensures that objects with pool indices {@code [0, capacity)} can be
+	 * queued without allocating.
+	 *
+	 * @param capacity
+	 *            the range of pool indices.
+	 */
+	public void ensureCapacity( final int capacity )
+	{
+		final int oldCapacity = positions.length;
+		if ( capacity > oldCapacity )
+		{
+			heap = Arrays.copyOf( heap, capacity );
+			priorities = Arrays.copyOf( priorities, capacity );
+			positions = Arrays.copyOf( positions, capacity );
+			Arrays.fill( positions, oldCapacity, capacity, -1 );
+		}
+	}
+
+	private int position( final int id )
+	{
+		return id < positions.length ? positions[ id ] : -1;
+	}
+
+	private static void checkPriority( final double priority )
+	{
+		if ( Double.isNaN( priority ) )
+			throw new IllegalArgumentException( "priority must not be NaN" );
+	}
+
+	/**
+	 * Inserts {@code obj} with the given priority, if it is not already in
+	 * the queue.
+	 *
+	 * @param obj
+	 *            the object to insert.
+	 * @param priority
+	 *            the priority of {@code obj}. Smaller values are polled
+	 *            first.
+	 * @return {@code true} if {@code obj} was inserted, {@code false} if it
+	 *         was already in the queue (its priority is not changed).
+	 */
+	public boolean offer( final O obj, final double priority )
+	{
+		checkPriority( priority );
+		final int id = pool.getId( obj );
+		if ( id >= positions.length )
+			ensureCapacity( Math.max( id + 1, 2 * positions.length ) );
+		if ( positions[ id ] >= 0 )
+			return false;
+		siftUp( size++, id, priority );
+		return true;
+	}
+
+	/**
+	 * Lowers the priority of {@code obj}, if it is in the queue and
+	 * {@code priority} is smaller than its current priority.
+	 *
+	 * @param obj
+	 *            the object.
+	 * @param priority
+	 *            the new priority.
+	 * @return whether the priority was lowered.
+	 */
+	public boolean decreaseKey( final O obj, final double priority )
+	{
+		checkPriority( priority );
+		final int id = pool.getId( obj );
+		final int pos = position( id );
+		if ( pos < 0 || !( priority < priorities[ pos ] ) )
+			return false;
+		siftUp( pos, id, priority );
+		return true;
+	}
+
+	/**
+	 * Sets the priority of {@code obj}, inserting it if it is not in the
+	 * queue.
+	 *
+	 * @param obj
+	 *            the object.
+	 * @param priority
+	 *            the new priority.
+	 */
+	public void update( final O obj, final double priority )
+	{
+		checkPriority( priority );
+		final int id = pool.getId( obj );
+		final int pos = position( id );
+		if ( pos < 0 )
+			offer( obj, priority );
+		else if ( priority < priorities[ pos ] )
+			siftUp( pos, id, priority );
+		else
+			siftDown( pos, id, priority );
+	}
+
+	/**
+	 * Returns the priority of {@code obj}, or {@code NaN} if it is not in the
+	 * queue.
+	 *
+	 * @param obj
+	 *            the object.
+	 * @return the priority of {@code obj}.
+	 */
+	public double getPriority( final O obj )
+	{
+		final int pos = position( pool.getId( obj ) );
+		return pos < 0 ? Double.NaN : priorities[ pos ];
+	}
+
+	/**
+	 * Retrieves and removes the object with the smallest priority.
+	 *
+	 * @param obj
+	 *            a reference used to return the head of the queue.
+	 * @return the head of the queue (pointing to {@code obj}), or
+	 *         {@code null} if the queue is empty.
+	 */
+	public O poll( final O obj )
+	{
+		if ( size == 0 )
+			return null;
+		final int id = heap[ 0 ];
+		removeAt( 0 );
+		return pool.getObject( id, obj );
+	}
+
+	public O poll()
+	{
+		return poll( createRef() );
+	}
+
+	/**
+	 * Retrieves, but does not remove, the object with the smallest priority.
+	 *
+	 * @param obj
+	 *            a reference used to return the head of the queue.
+	 * @return the head of the queue (pointing to {@code obj}), or
+	 *         {@code null} if the queue is empty.
+	 */
+	public O peek( final O obj )
+	{
+		return size == 0 ? null : pool.getObject( heap[ 0 ], obj );
+	}
+
+	public O peek()
+	{
+		return peek( createRef() );
+	}
+
+	/**
+	 * Returns the smallest priority in the queue.
+	 *
+	 * @return the priority of the head of the queue, or {@code NaN} if the
+	 *         queue is empty.
+	 */
+	public double peekPriority()
+	{
+		return size == 0 ? Double.NaN : priorities[ 0 ];
+	}
+
+	private void removeAt( final int pos )
+	{
+		positions[ heap[ pos ] ] = -1;
+		final int last = --size;
+		if ( pos != last )
+		{
+			final int id = heap[ last ];
+			final double priority = priorities[ last ];
+			if ( priority < priorities[ pos ] )
+				siftUp( pos, id, priority );
+			else
+				siftDown( pos, id, priority );
+		}
+	}
+
+	/**
+	 * Moves the object with pool index {@code id} and the given
+	 * {@code priority} from heap position {@code i} towards the root, until
+	 * the heap property holds.
+	 */
+	private void siftUp( int i, final int id, final double priority )
+	{
+		while ( i > 0 )
+		{
+			final int parent = ( i - 1 ) / arity;
+			if ( priority >= priorities[ parent ] )
+				break;
+			move( parent, i );
+			i = parent;
+		}
+		set( i, id, priority );
+	}
+
+	/**
+	 * Moves the object with pool index {@code id} and the given
+	 * {@code priority} from heap position {@code i} towards the leaves, until
+	 * the heap property holds.
+	 */
+	private void siftDown( int i, final int id, final double priority )
+	{
+		while ( true )
+		{
+			final int first = i * arity + 1;
+			if ( first >= size )
+				break;
+			final int end = Math.min( first + arity, size );
+			int min = first;
+			for ( int c = first + 1; c < end; ++c )
+				if ( priorities[ c ] < priorities[ min ] )
+					min = c;
+			if ( priorities[ min ] >= priority )
+				break;
+			move( min, i );
+			i = min;
+		}
+		set( i, id, priority );
+	}
+
+	private void move( final int from, final int to )
+	{
+		final int id = heap[ from ];
+		heap[ to ] = id;
+		priorities[ to ] = priorities[ from ];
+		positions[ id ] = to;
+	}
+
+	private void set( final int i, final int id, final double priority )
+	{
+		heap[ i ] = id;
+		priorities[ i ] = priority;
+		positions[ id ] = i;
+	}
+
+	@Override
+	public O createRef()
+	{
+		return pool.createRef();
+	}
+
+	@Override
+	public void releaseRef( final O obj )
+	{
+		pool.releaseRef( obj );
+	}
+
+	@Override
+	public RefPool< O > getRefPool()
+	{
+		return pool;
+	}
+
+	/**
+	 * Iterates the pool indices in heap order, like {@link #iterator()}.
+	 */
+	@Override
+	public void forEachIndex( final IntConsumer action )
+	{
+		for ( int i = 0; i < size; ++i )
+			action.accept( heap[ i ] );
+	}
+
+	@Override
+	public IntStream indexStream()
+	{
+		return Arrays.stream( heap, 0, size );
+	}
+
+	/**
+	 * Removes all elements from the queue, in O(n) and without allocating.
+	 */
+	@Override
+	public void clear()
+	{
+		for ( int i = 0; i < size; ++i )
+			positions[ heap[ i ] ] = -1;
+		size = 0;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean contains( final Object o )
+	{
+		return elementType.isInstance( o ) && position( pool.getId( ( O ) o ) ) >= 0;
+	}
+
+	@Override
+	public boolean containsAll( final Collection< ? > c )
+	{
+		for ( final Object o : c )
+			if ( !contains( o ) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Removes {@code o} from the queue, in O(log n).
+	 */
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public boolean remove( final Object o )
+	{
+		if ( !elementType.isInstance( o ) )
+			return false;
+		final int pos = position( pool.getId( ( O ) o ) );
+		if ( pos < 0 )
+			return false;
+		removeAt( pos );
+		return true;
+	}
+
+	@Override
+	public boolean removeAll( final Collection< ? > c )
+	{
+		boolean changed = false;
+		for ( final Object o : c )
+			changed |= remove( o );
+		return changed;
+	}
+
+	/**
+	 * Iterates the queued objects in unspecified order. Removal is not
+	 * supported.
+	 */
+	@Override
+	public Iterator< O > iterator()
+	{
+		return new Iter();
+	}
+
+	private class Iter implements Iterator< O >, MaybeRefIterator
+	{
+		private final O obj = createRef();
+
+		private int i = 0;
+
+		@Override
+		public boolean hasNext()
+		{
+			return i < size;
+		}
+
+		@Override
+		public O next()
+		{
+			if ( i >= size )
+				throw new NoSuchElementException();
+			return pool.getObject( heap[ i++ ], obj );
+		}
+
+		@Override
+		public boolean isRefIterator()
+		{
+			return true;
+		}
+	}
+
+	@Override
+	public Object[] toArray()
+	{
+		return toArray( new Object[ size ] );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public < T > T[] toArray( final T[] a )
+	{
+		final T[] array = a.length < size
+				? ( T[] ) Array.newInstance( a.getClass().getComponentType(), size )
+				: a;
+		for ( int i = 0; i < size; ++i )
+			array[ i ] = ( T ) pool.getObject( heap[ i ], createRef() );
+		if ( array.length > size )
+			array[ size ] = null;
+		return array;
+	}
+
+	/**
+	 * Not supported, use {@link #offer(Object, double)}.
+	 */
+	@Override
+	public boolean add( final O e )
+	{
+		throw new UnsupportedOperationException( "use offer( obj, priority )" );
+	}
+
+	@Override
+	public boolean addAll( final Collection< ? extends O > c )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean retainAll( final Collection< ? > c )
+	{
+		throw new UnsupportedOperationException();
+	}
+}
@@ -32,14 +32,17 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 import org.mastodon.RefPool;
 import org.mastodon.collection.RefCollection;
 import org.mastodon.collection.RefRefMap;
 import org.mastodon.collection.RefSet;
+import org.mastodon.collection.util.TIntIntOpenHashMap;
 
 import gnu.trove.iterator.TIntIterator;
-import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.procedure.TIntIntProcedure;
 
 public class RefRefHashMap< K, V > implements RefRefMap< K, V >
 {
@@ -47,15 +50,15 @@ public class RefRefHashMap< K, V > implements RefRefMap< K, V >
 	 * Int value used to declare that the requested key is not in the map.
 	 * Negative, so that it cannot be an index in the pool.
 	 */
-	private static final int NO_ENTRY_KEY = -1;
+	static final int NO_ENTRY_KEY = -1;
 
 	/**
 	 * Int value used to declare that the requested value is not in the map.
 	 * Negative, so that it cannot be an index in the pool.
 	 */
-	private static final int NO_ENTRY_VALUE = -2;
+	static final int NO_ENTRY_VALUE = -2;
 
-	private final TIntIntHashMap indexmap;
+	private final TIntIntMap indexmap;
 
 	private final RefPool< K > keyPool;
 
@@ -71,11 +74,7 @@ public class RefRefHashMap< K, V > implements RefRefMap< K, V >
 
 	public RefRefHashMap( final RefPool< K > keyPool, final RefPool< V > valuePool, final int initialCapacity, final float loadFactor )
 	{
-		this.indexmap = new TIntIntHashMap( initialCapacity, loadFactor, NO_ENTRY_KEY, NO_ENTRY_VALUE );
-		this.keyPool = keyPool;
-		this.valuePool = valuePool;
-		this.keyType = keyPool.getRefClass();
-		this.valueType = valuePool.getRefClass();
+		this( keyPool, valuePool, new TIntIntOpenHashMap( initialCapacity, loadFactor, NO_ENTRY_KEY, NO_ENTRY_VALUE ) );
 	}
 
 	public RefRefHashMap( final RefPool< K > keyPool, final RefPool< V > valuePool, final int initialCapacity )
@@ -88,6 +87,19 @@ public class RefRefHashMap< K, V > implements RefRefMap< K, V >
 		this( keyPool, valuePool, 10 );
 	}
 
+	/**
+	 * Creates a map backed by {@code indexmap}, which must use
+	 * {@link #NO_ENTRY_KEY} and {@link #NO_ENTRY_VALUE}.
+	 */
+	RefRefHashMap( final RefPool< K > keyPool, final RefPool< V > valuePool, final TIntIntMap indexmap )
+	{
+		this.indexmap = indexmap;
+		this.keyPool = keyPool;
+		this.valuePool = valuePool;
+		this.keyType = keyPool.getRefClass();
+		this.valueType = valuePool.getRefClass();
+	}
+
 	/*
 	 * METHODS
 	 */
@@ -239,6 +251,12 @@ public class RefRefHashMap< K, V > implements RefRefMap< K, V >
 		valuePool.releaseRef( obj );
 	}
 
+	@Override
+	public boolean forEachIndexEntry( final TIntIntProcedure procedure )
+	{
+		return indexmap.forEachEntry( procedure );
+	}
+
 	// TODO revise after implementing entrySet()
 	@Override
 	public String toString()
@@ -432,5 +450,14 @@ public class RefRefHashMap< K, V > implements RefRefMap< K, V >
 		{
 			return valuePool;
 		}
+
+		@Override
+		public void forEachIndex( final IntConsumer action )
+		{
+			indexmap.forEachValue( i -> {
+				action.accept( i );
+				return true;
+			} );
+		}
 	}
 }
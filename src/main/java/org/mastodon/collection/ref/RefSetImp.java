@@ -35,14 +35,14 @@ import org.mastodon.Ref;
 import org.mastodon.RefPool;
 import org.mastodon.collection.MaybeRefIterator;
 import org.mastodon.collection.RefSet;
+import org.mastodon.collection.util.TIntOpenHashSet;
 
 import gnu.trove.iterator.TIntIterator;
 import gnu.trove.set.TIntSet;
-import gnu.trove.set.hash.TIntHashSet;
 
 /**
  * A {@link RefSet} implementation for {@link Ref} objects, based on a Trove
- * {@link TIntSet} (a {@link TIntHashSet} if not specified otherwise).
+ * {@link TIntSet} (a {@link TIntOpenHashSet} if not specified otherwise).
  *
  * @param <O>
  *            the type of elements maintained by this set.
@@ -61,14 +61,14 @@ public class RefSetImp< O > implements IntBackedRefCollection< O >, RefPoolBacke
 	{
 		this.pool = pool;
 		elementType = pool.getRefClass();
-		indices = new TIntHashSet();
+		indices = new TIntOpenHashSet();
 	}
 
 	public RefSetImp( final RefPool< O > pool, final int initialCapacity )
 	{
 		this.pool = pool;
 		elementType = pool.getRefClass();
-		indices = new TIntHashSet( initialCapacity );
+		indices = new TIntOpenHashSet( initialCapacity );
 	}
 
 	protected RefSetImp( final RefPool< O > pool, final TIntSet indices )
@@ -0,0 +1,230 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import gnu.trove.TDoubleCollection;
+import gnu.trove.iterator.TDoubleIterator;
+import gnu.trove.procedure.TDoubleProcedure;
+
+/**
+ * Skeletal {@link TDoubleCollection} implementation. Subclasses provide
+ * {@link #size()}, {@link #contains(double)}, {@link #iterator()},
+ * {@link #add(double)}, {@link #remove(double)}, {@link #clear()}, and
+ * {@link #getNoEntryValue()}. Iterators must support removal.
+ */
+abstract class AbstractTDoubleCollection implements TDoubleCollection
+{
+	@Override
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	@Override
+	public double[] toArray()
+	{
+		return toArray( new double[ size() ] );
+	}
+
+	@Override
+	public double[] toArray( final double[] dest )
+	{
+		final int size = size();
+		final double[] array = dest.length >= size ? dest : new double[ size ];
+		final TDoubleIterator it = iterator();
+		for ( int i = 0; i < size; ++i )
+			array[ i ] = it.next();
+		if ( array.length > size )
+			array[ size ] = getNoEntryValue();
+		return array;
+	}
+
+	@Override
+	public boolean forEach( final TDoubleProcedure procedure )
+	{
+		for ( final TDoubleIterator it = iterator(); it.hasNext(); )
+			if ( !procedure.execute( it.next() ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean containsAll( final Collection< ? > collection )
+	{
+		for ( final Object o : collection )
+			if ( !( o instanceof Double ) || !contains( ( Double ) o ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean containsAll( final TDoubleCollection collection )
+	{
+		return collection == this || collection.forEach( this::contains );
+	}
+
+	@Override
+	public boolean containsAll( final double[] array )
+	{
+		for ( final double v : array )
+			if ( !contains( v ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean addAll( final Collection< ? extends Double > collection )
+	{
+		boolean changed = false;
+		for ( final Double v : collection )
+			changed |= add( v );
+		return changed;
+	}
+
+	@Override
+	public boolean addAll( final TDoubleCollection collection )
+	{
+		final boolean[] changed = { false };
+		collection.forEach( v -> {
+			changed[ 0 ] |= add( v );
+			return true;
+		} );
+		return changed[ 0 ];
+	}
+
+	@Override
+	public boolean addAll( final double[] array )
+	{
+		boolean changed = false;
+		for ( final double v : array )
+			changed |= add( v );
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final Collection< ? > collection )
+	{
+		boolean changed = false;
+		for ( final TDoubleIterator it = iterator(); it.hasNext(); )
+		{
+			if ( !collection.contains( it.next() ) )
+			{
+				it.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final TDoubleCollection collection )
+	{
+		if ( collection == this )
+			return false;
+		boolean changed = false;
+		for ( final TDoubleIterator it = iterator(); it.hasNext(); )
+		{
+			if ( !collection.contains( it.next() ) )
+			{
+				it.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final double[] array )
+	{
+		final double[] sorted = array.clone();
+		Arrays.sort( sorted );
+		boolean changed = false;
+		for ( final TDoubleIterator it = iterator(); it.hasNext(); )
+		{
+			if ( Arrays.binarySearch( sorted, it.next() ) < 0 )
+			{
+				it.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean removeAll( final Collection< ? > collection )
+	{
+		boolean changed = false;
+		for ( final Object o : collection )
+			if ( o instanceof Double )
+				changed |= remove( ( Double ) o );
+		return changed;
+	}
+
+	@Override
+	public boolean removeAll( final TDoubleCollection collection )
+	{
+		if ( collection == this )
+		{
+			final boolean changed = !isEmpty();
+			clear();
+			return changed;
+		}
+		final boolean[] changed = { false };
+		collection.forEach( v -> {
+			changed[ 0 ] |= remove( v );
+			return true;
+		} );
+		return changed[ 0 ];
+	}
+
+	@Override
+	public boolean removeAll( final double[] array )
+	{
+		boolean changed = false;
+		for ( final double v : array )
+			changed |= remove( v );
+		return changed;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder( "{" );
+		forEach( v -> {
+			if ( sb.length() > 1 )
+				sb.append( ", " );
+			sb.append( v );
+			return true;
+		} );
+		return sb.append( '}' ).toString();
+	}
+}
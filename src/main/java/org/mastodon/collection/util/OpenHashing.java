@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+/**
+ * Helpers shared by the open-addressing hash collections
+ * {@link TIntOpenHashSet}, {@link TIntIntOpenHashMap}, and
+ * {@link TIntDoubleOpenHashMap}.
+ */
+final class OpenHashing
+{
+	static final int DEFAULT_CAPACITY = 10;
+
+	static final float DEFAULT_LOAD_FACTOR = 0.5f;
+
+	private static final int MAX_CAPACITY = 1 << 29;
+
+	/**
+	 * Scrambles {@code key} for use as a table index. Multiplication with the
+	 * golden ratio maps runs of consecutive keys, such as pool indices, to
+	 * distinct slots; xoring in the high half lets the upper bits contribute
+	 * to small tables.
+	 */
+	static int mix( final int key )
+	{
+		final int h = key * 0x9E3779B9;
+		return h ^ ( h >>> 16 );
+	}
+
+	/**
+	 * Returns the power-of-two table capacity required to hold
+	 * {@code expected} entries without exceeding {@code loadFactor}.
+	 */
+	static int capacityFor( final int expected, final float loadFactor )
+	{
+		final long required = Math.max( 4, ( long ) Math.ceil( expected / loadFactor ) + 1 );
+		if ( required > MAX_CAPACITY )
+			throw new IllegalArgumentException( "capacity too large for " + expected + " entries" );
+		return Integer.highestOneBit( ( int ) required - 1 ) << 1;
+	}
+
+	/**
+	 * Returns the maximum number of entries in a table of the given
+	 * capacity, leaving at least one free slot to terminate probing.
+	 */
+	static int maxFill( final int capacity, final float loadFactor )
+	{
+		return Math.min( capacity - 1, ( int ) Math.ceil( capacity * loadFactor ) );
+	}
+
+	static float checkLoadFactor( final float loadFactor )
+	{
+		if ( !( loadFactor > 0 && loadFactor < 1 ) )
+			throw new IllegalArgumentException( "load factor must be in (0, 1): " + loadFactor );
+		return loadFactor;
+	}
+
+	/**
+	 * Whether the entry in slot {@code s}, whose key hashes to slot
+	 * {@code ideal}, may be moved back into the free slot {@code gap}, that is
+	 * whether {@code gap} lies cyclically between {@code ideal} and {@code s}.
+	 */
+	static boolean canShift( final int ideal, final int gap, final int s, final int mask )
+	{
+		return ( ( s - ideal ) & mask ) >= ( ( s - gap ) & mask );
+	}
+
+	/**
+	 * Growable list of keys that an iterator must visit after the table scan,
+	 * because a backward shift moved them from unvisited into visited slots.
+	 */
+	static final class KeyList
+	{
+		private int[] keys = new int[ 4 ];
+
+		private int size;
+
+		private int pos;
+
+		void add( final int key )
+		{
+			if ( size == keys.length )
+				keys = java.util.Arrays.copyOf( keys, 2 * size );
+			keys[ size++ ] = key;
+		}
+
+		int next()
+		{
+			return keys[ pos++ ];
+		}
+	}
+
+	private OpenHashing()
+	{}
+}
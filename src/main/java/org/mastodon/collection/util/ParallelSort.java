@@ -0,0 +1,307 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Stable parallel sorting of primitive keys, with an {@code int[]} of values
+ * (for example pool indices) permuted alongside.
+ * <p>
+ * {@code int} keys are sorted with a least-significant-digit radix sort over
+ * 8-bit digits. Each pass counts digits and scatters elements for contiguous
+ * chunks of the input in parallel. Passes over digits that are equal for all
+ * keys are skipped, so keys from a small range (such as time points) need
+ * only one or two passes. {@code double} keys are sorted with a parallel
+ * merge sort, in the order of {@link Double#compare(double, double)}.
+ * </p>
+ * <p>
+ * Tasks run in the {@link ForkJoinPool#commonPool() common pool}, like
+ * {@link java.util.Arrays#parallelSort(int[])}. Arrays shorter than
+ * {@link #PARALLEL_THRESHOLD} are sorted in the calling thread.
+ * </p>
+ */
+public final class ParallelSort
+{
+	/**
+	 * Arrays shorter than this are sorted sequentially.
+	 */
+	public static final int PARALLEL_THRESHOLD = 1 << 13;
+
+	/**
+	 * Ranges shorter than this are sorted by insertion sort within the merge
+	 * sort.
+	 */
+	private static final int INSERTION_THRESHOLD = 32;
+
+	private static final int RADIX_BITS = 8;
+
+	private static final int RADIX = 1 << RADIX_BITS;
+
+	/**
+	 * Sorts {@code keys} into ascending order, and applies the same
+	 * permutation to {@code values}. The sort is stable: elements with equal
+	 * keys keep their relative order.
+	 *
+	 * @param keys
+	 *            the keys to sort.
+	 * @param values
+	 *            the values to permute, of the same length as {@code keys}.
+	 */
+	public static void sort( final int[] keys, final int[] values )
+	{
+		checkLengths( keys.length, values.length );
+		final int n = keys.length;
+		if ( n < 2 )
+			return;
+
+		final int numChunks = n < PARALLEL_THRESHOLD
+				? 1
+				: Math.min( 4 * ForkJoinPool.getCommonPoolParallelism(), n / ( PARALLEL_THRESHOLD / 2 ) );
+		final int chunkSize = ( n + numChunks - 1 ) / numChunks;
+		final int[][] counts = new int[ numChunks ][ RADIX ];
+
+		int[] srcKeys = keys;
+		int[] srcValues = values;
+		int[] dstKeys = new int[ n ];
+		int[] dstValues = new int[ n ];
+		for ( int shift = 0; shift < 32; shift += RADIX_BITS )
+		{
+			// flip the sign bit in the most significant digit, so that negative keys sort first
+			final int flip = shift == 32 - RADIX_BITS ? RADIX / 2 : 0;
+			final int s = shift;
+			final int[] sk = srcKeys;
+			forEachChunk( numChunks, c -> {
+				final int[] count = counts[ c ];
+				Arrays.fill( count, 0 );
+				final int to = Math.min( n, ( c + 1 ) * chunkSize );
+				for ( int i = c * chunkSize; i < to; ++i )
+					++count[ ( ( sk[ i ] >>> s ) & ( RADIX - 1 ) ) ^ flip ];
+			} );
+
+			// turn counts into start offsets, bucket by bucket and chunk by chunk
+			int offset = 0;
+			boolean trivial = false;
+			for ( int b = 0; b < RADIX; ++b )
+			{
+				final int start = offset;
+				for ( int c = 0; c < numChunks; ++c )
+				{
+					final int count = counts[ c ][ b ];
+					counts[ c ][ b ] = offset;
+					offset += count;
+				}
+				if ( offset - start == n )
+					trivial = true;
+			}
+			if ( trivial )
+				continue;
+
+			final int[] sv = srcValues;
+			final int[] dk = dstKeys;
+			final int[] dv = dstValues;
+			forEachChunk( numChunks, c -> {
+				final int[] next = counts[ c ];
+				final int to = Math.min( n, ( c + 1 ) * chunkSize );
+				for ( int i = c * chunkSize; i < to; ++i )
+				{
+					final int key = sk[ i ];
+					final int j = next[ ( ( key >>> s ) & ( RADIX - 1 ) ) ^ flip ]++;
+					dk[ j ] = key;
+					dv[ j ] = sv[ i ];
+				}
+			} );
+
+			srcKeys = dk;
+			srcValues = dv;
+			dstKeys = sk;
+			dstValues = sv;
+		}
+
+		if ( srcKeys != keys )
+		{
+			System.arraycopy( srcKeys, 0, keys, 0, n );
+			System.arraycopy( srcValues, 0, values, 0, n );
+		}
+	}
+
+	/**
+	 * Sorts {@code keys} into ascending order, as defined by
+	 * {@link Double#compare(double, double)}, and applies the same
+	 * permutation to {@code values}. The sort is stable: elements with equal
+	 * keys keep their relative order.
+	 *
+	 * @param keys
+	 *            the keys to sort.
+	 * @param values
+	 *            the values to permute, of the same length as {@code keys}.
+	 */
+	public static void sort( final double[] keys, final int[] values )
+	{
+		checkLengths( keys.length, values.length );
+		final int n = keys.length;
+		if ( n < 2 )
+			return;
+		final double[] tmpKeys = keys.clone();
+		final int[] tmpValues = values.clone();
+		if ( n < PARALLEL_THRESHOLD )
+			mergeSort( tmpKeys, tmpValues, keys, values, 0, n );
+		else
+			ForkJoinPool.commonPool().invoke( new MergeSortTask( tmpKeys, tmpValues, keys, values, 0, n ) );
+	}
+
+	private static void checkLengths( final int keysLength, final int valuesLength )
+	{
+		if ( keysLength != valuesLength )
+			throw new IllegalArgumentException( "keys and values must have the same length: " + keysLength + " != " + valuesLength );
+	}
+
+	private static void forEachChunk( final int numChunks, final IntConsumer action )
+	{
+		if ( numChunks == 1 )
+			action.accept( 0 );
+		else
+			IntStream.range( 0, numChunks ).parallel().forEach( action );
+	}
+
+	/**
+	 * Sorts {@code [from, to)} into {@code dst}. {@code src} must contain the
+	 * same elements as {@code dst} in that range, and is used as scratch
+	 * space.
+	 */
+	private static void mergeSort( final double[] srcKeys, final int[] srcValues, final double[] dstKeys, final int[] dstValues, final int from, final int to )
+	{
+		if ( to - from < INSERTION_THRESHOLD )
+		{
+			insertionSort( dstKeys, dstValues, from, to );
+			return;
+		}
+		final int mid = ( from + to ) >>> 1;
+		mergeSort( dstKeys, dstValues, srcKeys, srcValues, from, mid );
+		mergeSort( dstKeys, dstValues, srcKeys, srcValues, mid, to );
+		merge( srcKeys, srcValues, dstKeys, dstValues, from, mid, to );
+	}
+
+	private static void insertionSort( final double[] keys, final int[] values, final int from, final int to )
+	{
+		for ( int i = from + 1; i < to; ++i )
+		{
+			final double key = keys[ i ];
+			final int value = values[ i ];
+			int j = i - 1;
+			while ( j >= from && Double.compare( keys[ j ], key ) > 0 )
+			{
+				keys[ j + 1 ] = keys[ j ];
+				values[ j + 1 ] = values[ j ];
+				--j;
+			}
+			keys[ j + 1 ] = key;
+			values[ j + 1 ] = value;
+		}
+	}
+
+	/**
+	 * Merges the sorted ranges {@code [from, mid)} and {@code [mid, to)} of
+	 * {@code src} into {@code dst}, taking from the left range on ties.
+	 */
+	private static void merge( final double[] srcKeys, final int[] srcValues, final double[] dstKeys, final int[] dstValues, final int from, final int mid, final int to )
+	{
+		if ( Double.compare( srcKeys[ mid - 1 ], srcKeys[ mid ] ) <= 0 )
+		{
+			// already in order
+			System.arraycopy( srcKeys, from, dstKeys, from, to - from );
+			System.arraycopy( srcValues, from, dstValues, from, to - from );
+			return;
+		}
+		int i = from;
+		int j = mid;
+		for ( int k = from; k < to; ++k )
+		{
+			if ( j >= to || ( i < mid && Double.compare( srcKeys[ i ], srcKeys[ j ] ) <= 0 ) )
+			{
+				dstKeys[ k ] = srcKeys[ i ];
+				dstValues[ k ] = srcValues[ i++ ];
+			}
+			else
+			{
+				dstKeys[ k ] = srcKeys[ j ];
+				dstValues[ k ] = srcValues[ j++ ];
+			}
+		}
+	}
+
+	private static final class MergeSortTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final double[] srcKeys;
+
+		private final int[] srcValues;
+
+		private final double[] dstKeys;
+
+		private final int[] dstValues;
+
+		private final int from;
+
+		private final int to;
+
+		MergeSortTask( final double[] srcKeys, final int[] srcValues, final double[] dstKeys, final int[] dstValues, final int from, final int to )
+		{
+			this.srcKeys = srcKeys;
+			this.srcValues = srcValues;
+			this.dstKeys = dstKeys;
+			this.dstValues = dstValues;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( to - from < PARALLEL_THRESHOLD )
+			{
+				mergeSort( srcKeys, srcValues, dstKeys, dstValues, from, to );
+				return;
+			}
+			final int mid = ( from + to ) >>> 1;
+			invokeAll(
+					new MergeSortTask( dstKeys, dstValues, srcKeys, srcValues, from, mid ),
+					new MergeSortTask( dstKeys, dstValues, srcKeys, srcValues, mid, to ) );
+			merge( srcKeys, srcValues, dstKeys, dstValues, from, mid, to );
+		}
+	}
+
+	private ParallelSort()
+	{}
+}
@@ -0,0 +1,509 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+
+/**
+ * A {@link TIntSet} of non-negative {@code int}s, backed by a growable
+ * {@code long[]} bitset. Memory is proportional to the largest element, not to
+ * the number of elements, so this is best suited for sets that cover a large
+ * fraction of a dense index range (e.g. pool indices).
+ * <p>
+ * {@link #addAll(TIntCollection)}, {@link #retainAll(TIntCollection)},
+ * {@link #removeAll(TIntCollection)} and {@link #containsAll(TIntCollection)}
+ * work on whole words if the argument is also a {@link TIntBitSet}. Iteration
+ * is in ascending order.
+ */
+public class TIntBitSet implements TIntSet
+{
+	private static final int NO_ENTRY_VALUE = -1;
+
+	private long[] words;
+
+	private int size;
+
+	/**
+	 * Creates an empty set.
+	 */
+	public TIntBitSet()
+	{
+		this( 64 );
+	}
+
+	/**
+	 * Creates an empty set that can hold elements {@code [0, capacity)}
+	 * without growing.
+	 *
+	 * @param capacity
+	 *            initial capacity.
+	 */
+	public TIntBitSet( final int capacity )
+	{
+		words = new long[ wordIndex( Math.max( capacity, 1 ) - 1 ) + 1 ];
+		size = 0;
+	}
+
+	/**
+	 * Creates a copy of {@code set}.
+	 *
+	 * @param set
+	 *            the set to copy.
+	 */
+	public TIntBitSet( final TIntBitSet set )
+	{
+		words = set.words.clone();
+		size = set.size;
+	}
+
+	private static int wordIndex( final int value )
+	{
+		return value >>> 6;
+	}
+
+	private void ensureCapacity( final int value )
+	{
+		final int w = wordIndex( value );
+		if ( w >= words.length )
+			words = Arrays.copyOf( words, Math.max( w + 1, ( int ) Math.min( Integer.MAX_VALUE, 2L * words.length ) ) );
+	}
+
+	/**
+	 * Returns the number of bits that can be set without growing.
+	 *
+	 * @return the capacity.
+	 */
+	public long capacity()
+	{
+		return 64L * words.length;
+	}
+
+	/**
+	 * Returns the smallest element {@code >= from}, or -1 if there is none.
+	 * Returns -1 for negative {@code from}, so that iterating with
+	 * {@code nextSetBit( v + 1 )} terminates after {@code Integer.MAX_VALUE}.
+	 *
+	 * @param from
+	 *            the value to start searching from.
+	 * @return the next element, or -1.
+	 */
+	public int nextSetBit( final int from )
+	{
+		if ( from < 0 )
+			return -1;
+		int w = wordIndex( from );
+		if ( w >= words.length )
+			return -1;
+		long word = words[ w ] & ( -1L << from );
+		while ( true )
+		{
+			if ( word != 0 )
+				return ( w << 6 ) + Long.numberOfTrailingZeros( word );
+			if ( ++w >= words.length )
+				return -1;
+			word = words[ w ];
+		}
+	}
+
+	@Override
+	public int getNoEntryValue()
+	{
+		return NO_ENTRY_VALUE;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	@Override
+	public boolean contains( final int value )
+	{
+		if ( value < 0 )
+			return false;
+		final int w = wordIndex( value );
+		return w < words.length && ( words[ w ] & ( 1L << value ) ) != 0;
+	}
+
+	@Override
+	public TIntIterator iterator()
+	{
+		return new TIntIterator()
+		{
+			private int next = nextSetBit( 0 );
+
+			private int last = -1;
+
+			@Override
+			public boolean hasNext()
+			{
+				return next >= 0;
+			}
+
+			@Override
+			public int next()
+			{
+				if ( next < 0 )
+					throw new NoSuchElementException();
+				last = next;
+				next = nextSetBit( next + 1 );
+				return last;
+			}
+
+			@Override
+			public void remove()
+			{
+				if ( last < 0 )
+					throw new IllegalStateException();
+				TIntBitSet.this.remove( last );
+				last = -1;
+			}
+		};
+	}
+
+	@Override
+	public int[] toArray()
+	{
+		return toArray( new int[ size ] );
+	}
+
+	@Override
+	public int[] toArray( final int[] dest )
+	{
+		final int[] array = dest.length >= size ? dest : new int[ size ];
+		int i = 0;
+		for ( int v = nextSetBit( 0 ); v >= 0; v = nextSetBit( v + 1 ) )
+			array[ i++ ] = v;
+		if ( array.length > size )
+			array[ size ] = NO_ENTRY_VALUE;
+		return array;
+	}
+
+	@Override
+	public boolean add( final int value )
+	{
+		if ( value < 0 )
+			throw new IllegalArgumentException( "negative value " + value );
+		ensureCapacity( value );
+		final int w = wordIndex( value );
+		final long old = words[ w ];
+		words[ w ] = old | ( 1L << value );
+		if ( old == words[ w ] )
+			return false;
+		++size;
+		return true;
+	}
+
+	@Override
+	public boolean remove( final int value )
+	{
+		if ( value < 0 )
+			return false;
+		final int w = wordIndex( value );
+		if ( w >= words.length )
+			return false;
+		final long old = words[ w ];
+		words[ w ] = old & ~( 1L << value );
+		if ( old == words[ w ] )
+			return false;
+		--size;
+		return true;
+	}
+
+	@Override
+	public boolean containsAll( final Collection< ? > collection )
+	{
+		for ( final Object o : collection )
+			if ( !( o instanceof Integer ) || !contains( ( Integer ) o ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean containsAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntBitSet )
+		{
+			final long[] other = ( ( TIntBitSet ) collection ).words;
+			for ( int w = 0; w < other.length; ++w )
+			{
+				final long mine = w < words.length ? words[ w ] : 0;
+				if ( ( other[ w ] & ~mine ) != 0 )
+					return false;
+			}
+			return true;
+		}
+		return collection.forEach( this::contains );
+	}
+
+	@Override
+	public boolean containsAll( final int[] array )
+	{
+		for ( final int v : array )
+			if ( !contains( v ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean addAll( final Collection< ? extends Integer > collection )
+	{
+		boolean changed = false;
+		for ( final Integer v : collection )
+			changed |= add( v );
+		return changed;
+	}
+
+	@Override
+	public boolean addAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntBitSet )
+		{
+			final long[] other = ( ( TIntBitSet ) collection ).words;
+			if ( other.length > words.length )
+				words = Arrays.copyOf( words, other.length );
+			boolean changed = false;
+			int newSize = 0;
+			for ( int w = 0; w < words.length; ++w )
+			{
+				if ( w < other.length )
+				{
+					final long word = words[ w ] | other[ w ];
+					changed |= word != words[ w ];
+					words[ w ] = word;
+				}
+				newSize += Long.bitCount( words[ w ] );
+			}
+			size = newSize;
+			return changed;
+		}
+		final boolean[] changed = { false };
+		collection.forEach( v -> {
+			changed[ 0 ] |= add( v );
+			return true;
+		} );
+		return changed[ 0 ];
+	}
+
+	@Override
+	public boolean addAll( final int[] array )
+	{
+		boolean changed = false;
+		for ( final int v : array )
+			changed |= add( v );
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final Collection< ? > collection )
+	{
+		boolean changed = false;
+		for ( final TIntIterator it = iterator(); it.hasNext(); )
+		{
+			if ( !collection.contains( it.next() ) )
+			{
+				it.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntBitSet )
+		{
+			final long[] other = ( ( TIntBitSet ) collection ).words;
+			boolean changed = false;
+			int newSize = 0;
+			for ( int w = 0; w < words.length; ++w )
+			{
+				final long word = words[ w ] & ( w < other.length ? other[ w ] : 0 );
+				changed |= word != words[ w ];
+				words[ w ] = word;
+				newSize += Long.bitCount( word );
+			}
+			size = newSize;
+			return changed;
+		}
+		boolean changed = false;
+		for ( final TIntIterator it = iterator(); it.hasNext(); )
+		{
+			if ( !collection.contains( it.next() ) )
+			{
+				it.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final int[] array )
+	{
+		final TIntBitSet other = new TIntBitSet( ( int ) Math.min( Integer.MAX_VALUE, capacity() ) );
+		for ( final int v : array )
+			if ( contains( v ) )
+				other.add( v );
+		return retainAll( other );
+	}
+
+	@Override
+	public boolean removeAll( final Collection< ? > collection )
+	{
+		boolean changed = false;
+		for ( final Object o : collection )
+			if ( o instanceof Integer )
+				changed |= remove( ( Integer ) o );
+		return changed;
+	}
+
+	@Override
+	public boolean removeAll( final TIntCollection collection )
+	{
+		if ( collection == this )
+		{
+			final boolean changed = size != 0;
+			clear();
+			return changed;
+		}
+		if ( collection instanceof TIntBitSet )
+		{
+			final long[] other = ( ( TIntBitSet ) collection ).words;
+			boolean changed = false;
+			int newSize = 0;
+			for ( int w = 0; w < words.length; ++w )
+			{
+				if ( w < other.length )
+				{
+					final long word = words[ w ] & ~other[ w ];
+					changed |= word != words[ w ];
+					words[ w ] = word;
+				}
+				newSize += Long.bitCount( words[ w ] );
+			}
+			size = newSize;
+			return changed;
+		}
+		final boolean[] changed = { false };
+		collection.forEach( v -> {
+			changed[ 0 ] |= remove( v );
+			return true;
+		} );
+		return changed[ 0 ];
+	}
+
+	@Override
+	public boolean removeAll( final int[] array )
+	{
+		boolean changed = false;
+		for ( final int v : array )
+			changed |= remove( v );
+		return changed;
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill( words, 0 );
+		size = 0;
+	}
+
+	@Override
+	public boolean forEach( final TIntProcedure procedure )
+	{
+		for ( int v = nextSetBit( 0 ); v >= 0; v = nextSetBit( v + 1 ) )
+			if ( !procedure.execute( v ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( !( o instanceof TIntSet ) )
+			return false;
+		final TIntSet that = ( TIntSet ) o;
+		if ( that.size() != size )
+			return false;
+		if ( that instanceof TIntBitSet )
+		{
+			final long[] other = ( ( TIntBitSet ) that ).words;
+			final int n = Math.max( words.length, other.length );
+			for ( int w = 0; w < n; ++w )
+				if ( ( w < words.length ? words[ w ] : 0 ) != ( w < other.length ? other[ w ] : 0 ) )
+					return false;
+			return true;
+		}
+		return that.forEach( this::contains );
+	}
+
+	/**
+	 * Returns the sum of the elements, consistent with
+	 * {@link gnu.trove.set.hash.TIntHashSet#hashCode()}.
+	 */
+	@Override
+	public int hashCode()
+	{
+		int hash = 0;
+		for ( int v = nextSetBit( 0 ); v >= 0; v = nextSetBit( v + 1 ) )
+			hash += v;
+		return hash;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder( "{" );
+		for ( int v = nextSetBit( 0 ); v >= 0; v = nextSetBit( v + 1 ) )
+		{
+			if ( sb.length() > 1 )
+				sb.append( ", " );
+			sb.append( v );
+		}
+		return sb.append( '}' ).toString();
+	}
+}
@@ -0,0 +1,1418 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+
+/**
+ * A compressed {@link TIntSet} of non-negative {@code int}s, in the style of
+ * Roaring bitmaps.
+ * <p>
+ * Values are partitioned into blocks of 65536 by their upper 16 bits. Each
+ * non-empty block is stored in a container that holds the lower 16 bits of its
+ * values. Depending on content, a container is a sorted array (up to 4096
+ * values), a 65536-bit bitmap, or a list of runs. Array and bitmap containers
+ * are chosen automatically on modification. Run containers are created by
+ * {@link #runOptimize()} and by {@link #read(DataInput)}, and converted back
+ * on modification.
+ * </p>
+ * <p>
+ * Memory is proportional to the number of elements for sparse blocks and
+ * bounded by 8 KB for dense blocks, so this works well for sets that are
+ * clustered but sparse across a large index range. Union, intersection and
+ * difference with other {@link TIntCompressedBitSet}s work container by
+ * container (see {@link #or}, {@link #and}, {@link #andNot}, and the bulk
+ * methods {@link #addAll(TIntCollection)}, {@link #retainAll(TIntCollection)},
+ * {@link #removeAll(TIntCollection)}). Iteration is in ascending order.
+ * </p>
+ */
+public class TIntCompressedBitSet implements TIntSet
+{
+	private static final int NO_ENTRY_VALUE = -1;
+
+	/**
+	 * Maximum cardinality of an array container.
+	 */
+	static final int ARRAY_MAX = 4096;
+
+	private static final int BITMAP_WORDS = 1024;
+
+	private static final byte ARRAY = 0;
+
+	private static final byte BITMAP = 1;
+
+	private static final byte RUN = 2;
+
+	/**
+	 * Upper 16 bits of the values in each container, ascending.
+	 */
+	private int[] keys;
+
+	private Container[] containers;
+
+	private int numContainers;
+
+	private int size;
+
+	/**
+	 * Creates an empty set.
+	 */
+	public TIntCompressedBitSet()
+	{
+		keys = new int[ 4 ];
+		containers = new Container[ 4 ];
+		numContainers = 0;
+		size = 0;
+	}
+
+	/**
+	 * Creates a copy of {@code set}.
+	 *
+	 * @param set
+	 *            the set to copy.
+	 */
+	public TIntCompressedBitSet( final TIntCompressedBitSet set )
+	{
+		keys = Arrays.copyOf( set.keys, Math.max( 4, set.numContainers ) );
+		containers = new Container[ keys.length ];
+		for ( int i = 0; i < set.numContainers; ++i )
+			containers[ i ] = set.containers[ i ].copy();
+		numContainers = set.numContainers;
+		size = set.size;
+	}
+
+	/**
+	 * Returns the union of {@code a} and {@code b} as a new set.
+	 *
+	 * @param a
+	 *            first operand.
+	 * @param b
+	 *            second operand.
+	 * @return the union.
+	 */
+	public static TIntCompressedBitSet or( final TIntCompressedBitSet a, final TIntCompressedBitSet b )
+	{
+		final TIntCompressedBitSet r = new TIntCompressedBitSet();
+		r.ensureContainers( a.numContainers + b.numContainers );
+		int i = 0;
+		int j = 0;
+		while ( i < a.numContainers || j < b.numContainers )
+		{
+			final int ka = i < a.numContainers ? a.keys[ i ] : Integer.MAX_VALUE;
+			final int kb = j < b.numContainers ? b.keys[ j ] : Integer.MAX_VALUE;
+			if ( ka < kb )
+				r.append( ka, a.containers[ i++ ].copy() );
+			else if ( kb < ka )
+				r.append( kb, b.containers[ j++ ].copy() );
+			else
+				r.append( ka, Container.or( a.containers[ i++ ], b.containers[ j++ ] ) );
+		}
+		return r;
+	}
+
+	/**
+	 * Returns the intersection of {@code a} and {@code b} as a new set.
+	 *
+	 * @param a
+	 *            first operand.
+	 * @param b
+	 *            second operand.
+	 * @return the intersection.
+	 */
+	public static TIntCompressedBitSet and( final TIntCompressedBitSet a, final TIntCompressedBitSet b )
+	{
+		final TIntCompressedBitSet r = new TIntCompressedBitSet();
+		r.ensureContainers( Math.min( a.numContainers, b.numContainers ) );
+		int i = 0;
+		int j = 0;
+		while ( i < a.numContainers && j < b.numContainers )
+		{
+			final int ka = a.keys[ i ];
+			final int kb = b.keys[ j ];
+			if ( ka < kb )
+				++i;
+			else if ( kb < ka )
+				++j;
+			else
+				r.append( ka, Container.and( a.containers[ i++ ], b.containers[ j++ ] ) );
+		}
+		return r;
+	}
+
+	/**
+	 * Returns the difference of {@code a} and {@code b}, that is, the elements
+	 * of {@code a} that are not in {@code b}, as a new set.
+	 *
+	 * @param a
+	 *            first operand.
+	 * @param b
+	 *            second operand.
+	 * @return the difference.
+	 */
+	public static TIntCompressedBitSet andNot( final TIntCompressedBitSet a, final TIntCompressedBitSet b )
+	{
+		final TIntCompressedBitSet r = new TIntCompressedBitSet();
+		r.ensureContainers( a.numContainers );
+		int j = 0;
+		for ( int i = 0; i < a.numContainers; ++i )
+		{
+			final int ka = a.keys[ i ];
+			while ( j < b.numContainers && b.keys[ j ] < ka )
+				++j;
+			if ( j < b.numContainers && b.keys[ j ] == ka )
+				r.append( ka, Container.andNot( a.containers[ i ], b.containers[ j ] ) );
+			else
+				r.append( ka, a.containers[ i ].copy() );
+		}
+		return r;
+	}
+
+	/**
+	 * Returns the number of elements in the intersection of {@code a} and
+	 * {@code b}, without computing the intersection.
+	 *
+	 * @param a
+	 *            first operand.
+	 * @param b
+	 *            second operand.
+	 * @return the size of the intersection.
+	 */
+	public static int andCardinality( final TIntCompressedBitSet a, final TIntCompressedBitSet b )
+	{
+		int cardinality = 0;
+		int i = 0;
+		int j = 0;
+		while ( i < a.numContainers && j < b.numContainers )
+		{
+			final int ka = a.keys[ i ];
+			final int kb = b.keys[ j ];
+			if ( ka < kb )
+				++i;
+			else if ( kb < ka )
+				++j;
+			else
+				cardinality += Container.andCardinality( a.containers[ i++ ], b.containers[ j++ ] );
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Converts containers to run containers where this is more compact.
+	 */
+	public void runOptimize()
+	{
+		for ( int i = 0; i < numContainers; ++i )
+			containers[ i ] = containers[ i ].runOptimize();
+	}
+
+	/**
+	 * Returns the smallest element {@code >= from}, or -1 if there is none.
+	 *
+	 * @param from
+	 *            the value to start searching from.
+	 * @return the next element, or -1.
+	 */
+	public int nextSetBit( final int from )
+	{
+		if ( from < 0 )
+			return -1;
+		final int key = from >>> 16;
+		int i = find( key );
+		if ( i >= 0 )
+		{
+			final int low = containers[ i ].next( from & 0xFFFF );
+			if ( low >= 0 )
+				return ( key << 16 ) | low;
+			++i;
+		}
+		else
+			i = -i - 1;
+		return i < numContainers ? ( keys[ i ] << 16 ) | containers[ i ].next( 0 ) : -1;
+	}
+
+	/**
+	 * Write this set to {@code out}. Each container is written in whichever of
+	 * the array, bitmap, or run representations is smallest.
+	 *
+	 * @param out
+	 *            the output to write to.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	public void write( final DataOutput out ) throws IOException
+	{
+		out.writeInt( numContainers );
+		for ( int i = 0; i < numContainers; ++i )
+		{
+			out.writeShort( keys[ i ] );
+			containers[ i ].runOptimize().write( out );
+		}
+	}
+
+	/**
+	 * Read a set written by {@link #write(DataOutput)}.
+	 *
+	 * @param in
+	 *            the input to read from.
+	 * @return the set.
+	 * @throws IOException
+	 *             if reading fails or the data is malformed.
+	 */
+	public static TIntCompressedBitSet read( final DataInput in ) throws IOException
+	{
+		final int n = in.readInt();
+		if ( n < 0 || n > 0x8000 )
+			throw new IOException( "invalid number of containers " + n );
+		final TIntCompressedBitSet set = new TIntCompressedBitSet();
+		set.ensureContainers( n );
+		int previousKey = -1;
+		for ( int i = 0; i < n; ++i )
+		{
+			final int key = in.readUnsignedShort();
+			if ( key <= previousKey || key > 0x7FFF )
+				throw new IOException( "invalid container key " + key );
+			previousKey = key;
+			set.append( key, Container.read( in ) );
+		}
+		return set;
+	}
+
+	private int find( final int key )
+	{
+		return Arrays.binarySearch( keys, 0, numContainers, key );
+	}
+
+	private void ensureContainers( final int n )
+	{
+		if ( n > keys.length )
+		{
+			final int capacity = Math.max( n, 2 * keys.length );
+			keys = Arrays.copyOf( keys, capacity );
+			containers = Arrays.copyOf( containers, capacity );
+		}
+	}
+
+	/**
+	 * Append a container with a key larger than all existing keys. Empty
+	 * ({@code null}) containers are ignored.
+	 */
+	private void append( final int key, final Container container )
+	{
+		if ( container == null )
+			return;
+		ensureContainers( numContainers + 1 );
+		keys[ numContainers ] = key;
+		containers[ numContainers ] = container;
+		++numContainers;
+		size += container.cardinality();
+	}
+
+	private void removeContainer( final int i )
+	{
+		System.arraycopy( keys, i + 1, keys, i, numContainers - i - 1 );
+		System.arraycopy( containers, i + 1, containers, i, numContainers - i - 1 );
+		containers[ --numContainers ] = null;
+	}
+
+	private void assign( final TIntCompressedBitSet other )
+	{
+		keys = other.keys;
+		containers = other.containers;
+		numContainers = other.numContainers;
+		size = other.size;
+	}
+
+	@Override
+	public int getNoEntryValue()
+	{
+		return NO_ENTRY_VALUE;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	@Override
+	public boolean contains( final int value )
+	{
+		if ( value < 0 )
+			return false;
+		final int i = find( value >>> 16 );
+		return i >= 0 && containers[ i ].contains( value & 0xFFFF );
+	}
+
+	@Override
+	public boolean add( final int value )
+	{
+		if ( value < 0 )
+			throw new IllegalArgumentException( "negative value " + value );
+		final int key = value >>> 16;
+		final int i = find( key );
+		if ( i >= 0 )
+		{
+			final Container c = containers[ i ];
+			final int before = c.cardinality();
+			containers[ i ] = c.add( value & 0xFFFF );
+			if ( containers[ i ].cardinality() == before )
+				return false;
+		}
+		else
+		{
+			final int pos = -i - 1;
+			ensureContainers( numContainers + 1 );
+			System.arraycopy( keys, pos, keys, pos + 1, numContainers - pos );
+			System.arraycopy( containers, pos, containers, pos + 1, numContainers - pos );
+			keys[ pos ] = key;
+			containers[ pos ] = new ArrayContainer().add( value & 0xFFFF );
+			++numContainers;
+		}
+		++size;
+		return true;
+	}
+
+	@Override
+	public boolean remove( final int value )
+	{
+		if ( value < 0 )
+			return false;
+		final int i = find( value >>> 16 );
+		if ( i < 0 )
+			return false;
+		final Container c = containers[ i ];
+		final int before = c.cardinality();
+		final Container r = c.remove( value & 0xFFFF );
+		if ( r.cardinality() == before )
+			return false;
+		if ( r.cardinality() == 0 )
+			removeContainer( i );
+		else
+			containers[ i ] = r;
+		--size;
+		return true;
+	}
+
+	@Override
+	public TIntIterator iterator()
+	{
+		return new TIntIterator()
+		{
+			private int next = nextSetBit( 0 );
+
+			private int last = -1;
+
+			@Override
+			public boolean hasNext()
+			{
+				return next >= 0;
+			}
+
+			@Override
+			public int next()
+			{
+				if ( next < 0 )
+					throw new NoSuchElementException();
+				last = next;
+				next = next == Integer.MAX_VALUE ? -1 : nextSetBit( next + 1 );
+				return last;
+			}
+
+			@Override
+			public void remove()
+			{
+				if ( last < 0 )
+					throw new IllegalStateException();
+				TIntCompressedBitSet.this.remove( last );
+				last = -1;
+			}
+		};
+	}
+
+	@Override
+	public boolean forEach( final TIntProcedure procedure )
+	{
+		for ( int i = 0; i < numContainers; ++i )
+			if ( !containers[ i ].forEach( keys[ i ] << 16, procedure ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public int[] toArray()
+	{
+		return toArray( new int[ size ] );
+	}
+
+	@Override
+	public int[] toArray( final int[] dest )
+	{
+		final int[] array = dest.length >= size ? dest : new int[ size ];
+		final int[] i = { 0 };
+		forEach( v -> {
+			array[ i[ 0 ]++ ] = v;
+			return true;
+		} );
+		if ( array.length > size )
+			array[ size ] = NO_ENTRY_VALUE;
+		return array;
+	}
+
+	@Override
+	public boolean containsAll( final Collection< ? > collection )
+	{
+		for ( final Object o : collection )
+			if ( !( o instanceof Integer ) || !contains( ( Integer ) o ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean containsAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntCompressedBitSet )
+		{
+			final TIntCompressedBitSet other = ( TIntCompressedBitSet ) collection;
+			return andCardinality( this, other ) == other.size;
+		}
+		return collection.forEach( this::contains );
+	}
+
+	@Override
+	public boolean containsAll( final int[] array )
+	{
+		for ( final int v : array )
+			if ( !contains( v ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean addAll( final Collection< ? extends Integer > collection )
+	{
+		boolean changed = false;
+		for ( final Integer v : collection )
+			changed |= add( v );
+		return changed;
+	}
+
+	@Override
+	public boolean addAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntCompressedBitSet )
+		{
+			final int before = size;
+			assign( or( this, ( TIntCompressedBitSet ) collection ) );
+			return size != before;
+		}
+		final boolean[] changed = { false };
+		collection.forEach( v -> {
+			changed[ 0 ] |= add( v );
+			return true;
+		} );
+		return changed[ 0 ];
+	}
+
+	@Override
+	public boolean addAll( final int[] array )
+	{
+		boolean changed = false;
+		for ( final int v : array )
+			changed |= add( v );
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final Collection< ? > collection )
+	{
+		boolean changed = false;
+		for ( final TIntIterator it = iterator(); it.hasNext(); )
+		{
+			if ( !collection.contains( it.next() ) )
+			{
+				it.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntCompressedBitSet )
+		{
+			final int before = size;
+			assign( and( this, ( TIntCompressedBitSet ) collection ) );
+			return size != before;
+		}
+		boolean changed = false;
+		for ( final TIntIterator it = iterator(); it.hasNext(); )
+		{
+			if ( !collection.contains( it.next() ) )
+			{
+				it.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll( final int[] array )
+	{
+		final TIntCompressedBitSet other = new TIntCompressedBitSet();
+		for ( final int v : array )
+			if ( contains( v ) )
+				other.add( v );
+		return retainAll( other );
+	}
+
+	@Override
+	public boolean removeAll( final Collection< ? > collection )
+	{
+		boolean changed = false;
+		for ( final Object o : collection )
+			if ( o instanceof Integer )
+				changed |= remove( ( Integer ) o );
+		return changed;
+	}
+
+	@Override
+	public boolean removeAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntCompressedBitSet )
+		{
+			final int before = size;
+			assign( andNot( this, ( TIntCompressedBitSet ) collection ) );
+			return size != before;
+		}
+		final boolean[] changed = { false };
+		collection.forEach( v -> {
+			changed[ 0 ] |= remove( v );
+			return true;
+		} );
+		return changed[ 0 ];
+	}
+
+	@Override
+	public boolean removeAll( final int[] array )
+	{
+		boolean changed = false;
+		for ( final int v : array )
+			changed |= remove( v );
+		return changed;
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill( containers, 0, numContainers, null );
+		numContainers = 0;
+		size = 0;
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( !( o instanceof TIntSet ) )
+			return false;
+		final TIntSet that = ( TIntSet ) o;
+		if ( that.size() != size )
+			return false;
+		return that.forEach( this::contains );
+	}
+
+	/**
+	 * Returns the sum of the elements, consistent with
+	 * {@link gnu.trove.set.hash.TIntHashSet#hashCode()}.
+	 */
+	@Override
+	public int hashCode()
+	{
+		final int[] hash = { 0 };
+		forEach( v -> {
+			hash[ 0 ] += v;
+			return true;
+		} );
+		return hash[ 0 ];
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder( "{" );
+		forEach( v -> {
+			if ( sb.length() > 1 )
+				sb.append( ", " );
+			sb.append( v );
+			return true;
+		} );
+		return sb.append( '}' ).toString();
+	}
+
+	/*
+	 * CONTAINERS
+	 */
+
+	/**
+	 * Holds the lower 16 bits of the values in one block. Modifying methods may
+	 * modify the container in place, and return the container that replaces
+	 * it (which may be a different type). Binary operations return new
+	 * containers, or {@code null} if the result is empty.
+	 */
+	static abstract class Container
+	{
+		abstract int cardinality();
+
+		abstract boolean contains( int low );
+
+		abstract Container add( int low );
+
+		abstract Container remove( int low );
+
+		/**
+		 * Returns the smallest value {@code >= from}, or -1.
+		 */
+		abstract int next( int from );
+
+		abstract boolean forEach( int high, TIntProcedure procedure );
+
+		abstract Container copy();
+
+		/**
+		 * Returns a new bitmap container with the same content.
+		 */
+		abstract BitmapContainer toBitmap();
+
+		/**
+		 * Set the bits of this container's values in {@code words}.
+		 */
+		abstract void orInto( long[] words );
+
+		/**
+		 * Clear the bits of this container's values in {@code words}.
+		 */
+		abstract void andNotInto( long[] words );
+
+		abstract int numRuns();
+
+		abstract void write( DataOutput out ) throws IOException;
+
+		/**
+		 * Returns the most compact of this container and its run encoding.
+		 */
+		Container runOptimize()
+		{
+			final int card = cardinality();
+			final int runBytes = 2 + 4 * numRuns();
+			final int currentBytes = card <= ARRAY_MAX ? 2 * card : 8 * BITMAP_WORDS;
+			return runBytes < currentBytes ? RunContainer.of( this ) : toEfficient();
+		}
+
+		/**
+		 * Returns an array or bitmap container with the same content.
+		 */
+		Container toEfficient()
+		{
+			return this;
+		}
+
+		static Container or( final Container a, final Container b )
+		{
+			if ( a instanceof ArrayContainer && b instanceof ArrayContainer
+					&& a.cardinality() + b.cardinality() <= ARRAY_MAX )
+				return ArrayContainer.union( ( ArrayContainer ) a, ( ArrayContainer ) b );
+			final BitmapContainer r = a.toBitmap();
+			b.orInto( r.words );
+			r.updateCardinality();
+			return r.toEfficient();
+		}
+
+		static Container and( final Container a, final Container b )
+		{
+			if ( a instanceof ArrayContainer )
+				return ( ( ArrayContainer ) a ).filter( b, true );
+			if ( b instanceof ArrayContainer )
+				return ( ( ArrayContainer ) b ).filter( a, true );
+			final BitmapContainer r = a.toBitmap();
+			final long[] other = b instanceof BitmapContainer ? ( ( BitmapContainer ) b ).words : b.toBitmap().words;
+			for ( int w = 0; w < BITMAP_WORDS; ++w )
+				r.words[ w ] &= other[ w ];
+			r.updateCardinality();
+			return r.cardinality == 0 ? null : r.toEfficient();
+		}
+
+		static Container andNot( final Container a, final Container b )
+		{
+			if ( a instanceof ArrayContainer )
+				return ( ( ArrayContainer ) a ).filter( b, false );
+			final BitmapContainer r = a.toBitmap();
+			b.andNotInto( r.words );
+			r.updateCardinality();
+			return r.cardinality == 0 ? null : r.toEfficient();
+		}
+
+		static int andCardinality( final Container a, final Container b )
+		{
+			if ( a instanceof ArrayContainer )
+				return ( ( ArrayContainer ) a ).countContained( b );
+			if ( b instanceof ArrayContainer )
+				return ( ( ArrayContainer ) b ).countContained( a );
+			final long[] wa = a instanceof BitmapContainer ? ( ( BitmapContainer ) a ).words : a.toBitmap().words;
+			final long[] wb = b instanceof BitmapContainer ? ( ( BitmapContainer ) b ).words : b.toBitmap().words;
+			int cardinality = 0;
+			for ( int w = 0; w < BITMAP_WORDS; ++w )
+				cardinality += Long.bitCount( wa[ w ] & wb[ w ] );
+			return cardinality;
+		}
+
+		static Container read( final DataInput in ) throws IOException
+		{
+			final byte type = in.readByte();
+			switch ( type )
+			{
+			case ARRAY:
+				return ArrayContainer.read( in );
+			case BITMAP:
+				return BitmapContainer.read( in );
+			case RUN:
+				return RunContainer.read( in );
+			default:
+				throw new IOException( "unknown container type " + type );
+			}
+		}
+	}
+
+	static final class ArrayContainer extends Container
+	{
+		private char[] content;
+
+		private int cardinality;
+
+		ArrayContainer()
+		{
+			this( new char[ 4 ], 0 );
+		}
+
+		ArrayContainer( final char[] content, final int cardinality )
+		{
+			this.content = content;
+			this.cardinality = cardinality;
+		}
+
+		static ArrayContainer union( final ArrayContainer a, final ArrayContainer b )
+		{
+			final char[] r = new char[ a.cardinality + b.cardinality ];
+			int i = 0;
+			int j = 0;
+			int n = 0;
+			while ( i < a.cardinality && j < b.cardinality )
+			{
+				final char va = a.content[ i ];
+				final char vb = b.content[ j ];
+				if ( va < vb )
+					r[ n++ ] = a.content[ i++ ];
+				else if ( vb < va )
+					r[ n++ ] = b.content[ j++ ];
+				else
+				{
+					r[ n++ ] = va;
+					++i;
+					++j;
+				}
+			}
+			while ( i < a.cardinality )
+				r[ n++ ] = a.content[ i++ ];
+			while ( j < b.cardinality )
+				r[ n++ ] = b.content[ j++ ];
+			return new ArrayContainer( r, n );
+		}
+
+		/**
+		 * Returns the values of this container that are ({@code keep == true})
+		 * or are not ({@code keep == false}) contained in {@code other}.
+		 */
+		Container filter( final Container other, final boolean keep )
+		{
+			final char[] r = new char[ cardinality ];
+			int n = 0;
+			for ( int i = 0; i < cardinality; ++i )
+				if ( other.contains( content[ i ] ) == keep )
+					r[ n++ ] = content[ i ];
+			return n == 0 ? null : new ArrayContainer( r, n );
+		}
+
+		int countContained( final Container other )
+		{
+			int n = 0;
+			for ( int i = 0; i < cardinality; ++i )
+				if ( other.contains( content[ i ] ) )
+					++n;
+			return n;
+		}
+
+		@Override
+		int cardinality()
+		{
+			return cardinality;
+		}
+
+		@Override
+		boolean contains( final int low )
+		{
+			return Arrays.binarySearch( content, 0, cardinality, ( char ) low ) >= 0;
+		}
+
+		@Override
+		Container add( final int low )
+		{
+			final int i = Arrays.binarySearch( content, 0, cardinality, ( char ) low );
+			if ( i >= 0 )
+				return this;
+			if ( cardinality >= ARRAY_MAX )
+				return toBitmap().add( low );
+			final int pos = -i - 1;
+			if ( cardinality == content.length )
+				content = Arrays.copyOf( content, Math.min( ARRAY_MAX, 2 * content.length ) );
+			System.arraycopy( content, pos, content, pos + 1, cardinality - pos );
+			content[ pos ] = ( char ) low;
+			++cardinality;
+			return this;
+		}
+
+		@Override
+		Container remove( final int low )
+		{
+			final int i = Arrays.binarySearch( content, 0, cardinality, ( char ) low );
+			if ( i >= 0 )
+			{
+				System.arraycopy( content, i + 1, content, i, cardinality - i - 1 );
+				--cardinality;
+			}
+			return this;
+		}
+
+		@Override
+		int next( final int from )
+		{
+			int i = Arrays.binarySearch( content, 0, cardinality, ( char ) from );
+			if ( i < 0 )
+				i = -i - 1;
+			return i < cardinality ? content[ i ] : -1;
+		}
+
+		@Override
+		boolean forEach( final int high, final TIntProcedure procedure )
+		{
+			for ( int i = 0; i < cardinality; ++i )
+				if ( !procedure.execute( high | content[ i ] ) )
+					return false;
+			return true;
+		}
+
+		@Override
+		Container copy()
+		{
+			return new ArrayContainer( Arrays.copyOf( content, cardinality ), cardinality );
+		}
+
+		@Override
+		BitmapContainer toBitmap()
+		{
+			final BitmapContainer r = new BitmapContainer();
+			orInto( r.words );
+			r.cardinality = cardinality;
+			return r;
+		}
+
+		@Override
+		void orInto( final long[] words )
+		{
+			for ( int i = 0; i < cardinality; ++i )
+				words[ content[ i ] >>> 6 ] |= 1L << content[ i ];
+		}
+
+		@Override
+		void andNotInto( final long[] words )
+		{
+			for ( int i = 0; i < cardinality; ++i )
+				words[ content[ i ] >>> 6 ] &= ~( 1L << content[ i ] );
+		}
+
+		@Override
+		int numRuns()
+		{
+			int runs = 0;
+			for ( int i = 0; i < cardinality; ++i )
+				if ( i == 0 || content[ i ] != content[ i - 1 ] + 1 )
+					++runs;
+			return runs;
+		}
+
+		@Override
+		void write( final DataOutput out ) throws IOException
+		{
+			out.writeByte( ARRAY );
+			out.writeShort( cardinality - 1 );
+			for ( int i = 0; i < cardinality; ++i )
+				out.writeShort( content[ i ] );
+		}
+
+		static ArrayContainer read( final DataInput in ) throws IOException
+		{
+			final int cardinality = in.readUnsignedShort() + 1;
+			if ( cardinality > ARRAY_MAX )
+				throw new IOException( "invalid array container cardinality " + cardinality );
+			final char[] content = new char[ cardinality ];
+			for ( int i = 0; i < cardinality; ++i )
+			{
+				content[ i ] = in.readChar();
+				if ( i > 0 && content[ i ] <= content[ i - 1 ] )
+					throw new IOException( "array container is not sorted" );
+			}
+			return new ArrayContainer( content, cardinality );
+		}
+	}
+
+	static final class BitmapContainer extends Container
+	{
+		private final long[] words;
+
+		private int cardinality;
+
+		BitmapContainer()
+		{
+			this( new long[ BITMAP_WORDS ], 0 );
+		}
+
+		BitmapContainer( final long[] words, final int cardinality )
+		{
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		void updateCardinality()
+		{
+			int c = 0;
+			for ( int w = 0; w < BITMAP_WORDS; ++w )
+				c += Long.bitCount( words[ w ] );
+			cardinality = c;
+		}
+
+		@Override
+		int cardinality()
+		{
+			return cardinality;
+		}
+
+		@Override
+		boolean contains( final int low )
+		{
+			return ( words[ low >>> 6 ] & ( 1L << low ) ) != 0;
+		}
+
+		@Override
+		Container add( final int low )
+		{
+			final long old = words[ low >>> 6 ];
+			words[ low >>> 6 ] = old | ( 1L << low );
+			if ( old != words[ low >>> 6 ] )
+				++cardinality;
+			return this;
+		}
+
+		@Override
+		Container remove( final int low )
+		{
+			final long old = words[ low >>> 6 ];
+			words[ low >>> 6 ] = old & ~( 1L << low );
+			if ( old != words[ low >>> 6 ] )
+				--cardinality;
+			return cardinality <= ARRAY_MAX ? toEfficient() : this;
+		}
+
+		@Override
+		int next( final int from )
+		{
+			int w = from >>> 6;
+			long word = words[ w ] & ( -1L << from );
+			while ( true )
+			{
+				if ( word != 0 )
+					return ( w << 6 ) + Long.numberOfTrailingZeros( word );
+				if ( ++w >= BITMAP_WORDS )
+					return -1;
+				word = words[ w ];
+			}
+		}
+
+		@Override
+		boolean forEach( final int high, final TIntProcedure procedure )
+		{
+			for ( int w = 0; w < BITMAP_WORDS; ++w )
+			{
+				long word = words[ w ];
+				while ( word != 0 )
+				{
+					if ( !procedure.execute( high | ( w << 6 ) | Long.numberOfTrailingZeros( word ) ) )
+						return false;
+					word &= word - 1;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		Container copy()
+		{
+			return new BitmapContainer( words.clone(), cardinality );
+		}
+
+		@Override
+		BitmapContainer toBitmap()
+		{
+			return new BitmapContainer( words.clone(), cardinality );
+		}
+
+		@Override
+		Container toEfficient()
+		{
+			if ( cardinality > ARRAY_MAX )
+				return this;
+			final char[] content = new char[ Math.max( cardinality, 1 ) ];
+			final int[] n = { 0 };
+			forEach( 0, v -> {
+				content[ n[ 0 ]++ ] = ( char ) v;
+				return true;
+			} );
+			return new ArrayContainer( content, cardinality );
+		}
+
+		@Override
+		void orInto( final long[] dst )
+		{
+			for ( int w = 0; w < BITMAP_WORDS; ++w )
+				dst[ w ] |= words[ w ];
+		}
+
+		@Override
+		void andNotInto( final long[] dst )
+		{
+			for ( int w = 0; w < BITMAP_WORDS; ++w )
+				dst[ w ] &= ~words[ w ];
+		}
+
+		@Override
+		int numRuns()
+		{
+			int runs = 0;
+			for ( int w = 0; w < BITMAP_WORDS; ++w )
+			{
+				final long word = words[ w ];
+				// count run starts: bits set whose predecessor is not set
+				final long carry = w == 0 ? 0 : words[ w - 1 ] >>> 63;
+				runs += Long.bitCount( word & ~( ( word << 1 ) | carry ) );
+			}
+			return runs;
+		}
+
+		@Override
+		void write( final DataOutput out ) throws IOException
+		{
+			out.writeByte( BITMAP );
+			for ( int w = 0; w < BITMAP_WORDS; ++w )
+				out.writeLong( words[ w ] );
+		}
+
+		static BitmapContainer read( final DataInput in ) throws IOException
+		{
+			final BitmapContainer c = new BitmapContainer();
+			for ( int w = 0; w < BITMAP_WORDS; ++w )
+				c.words[ w ] = in.readLong();
+			c.updateCardinality();
+			if ( c.cardinality <= ARRAY_MAX )
+				throw new IOException( "invalid bitmap container cardinality " + c.cardinality );
+			return c;
+		}
+	}
+
+	static final class RunContainer extends Container
+	{
+		/**
+		 * Pairs of (start, length - 1) of runs, ascending.
+		 */
+		private final char[] runs;
+
+		private final int numRuns;
+
+		private final int cardinality;
+
+		RunContainer( final char[] runs, final int numRuns )
+		{
+			this.runs = runs;
+			this.numRuns = numRuns;
+			int c = 0;
+			for ( int r = 0; r < numRuns; ++r )
+				c += runs[ 2 * r + 1 ] + 1;
+			this.cardinality = c;
+		}
+
+		static RunContainer of( final Container c )
+		{
+			final int n = c.numRuns();
+			final char[] runs = new char[ 2 * n ];
+			final int[] r = { -1 };
+			final int[] previous = { -2 };
+			c.forEach( 0, v -> {
+				if ( v != previous[ 0 ] + 1 )
+				{
+					++r[ 0 ];
+					runs[ 2 * r[ 0 ] ] = ( char ) v;
+				}
+				else
+					++runs[ 2 * r[ 0 ] + 1 ];
+				previous[ 0 ] = v;
+				return true;
+			} );
+			return new RunContainer( runs, n );
+		}
+
+		/**
+		 * Returns the index of the run containing {@code low}, or
+		 * {@code -(insertion point) - 1} where the insertion point is the
+		 * index of the first run starting after {@code low}.
+		 */
+		private int findRun( final int low )
+		{
+			int lo = 0;
+			int hi = numRuns - 1;
+			while ( lo <= hi )
+			{
+				final int mid = ( lo + hi ) >>> 1;
+				final int start = runs[ 2 * mid ];
+				if ( low < start )
+					hi = mid - 1;
+				else if ( low > start + runs[ 2 * mid + 1 ] )
+					lo = mid + 1;
+				else
+					return mid;
+			}
+			return -lo - 1;
+		}
+
+		@Override
+		int cardinality()
+		{
+			return cardinality;
+		}
+
+		@Override
+		boolean contains( final int low )
+		{
+			return findRun( low ) >= 0;
+		}
+
+		@Override
+		Container add( final int low )
+		{
+			return contains( low ) ? this : toEfficient().add( low );
+		}
+
+		@Override
+		Container remove( final int low )
+		{
+			return contains( low ) ? toEfficient().remove( low ) : this;
+		}
+
+		@Override
+		int next( final int from )
+		{
+			final int r = findRun( from );
+			if ( r >= 0 )
+				return from;
+			final int i = -r - 1;
+			return i < numRuns ? runs[ 2 * i ] : -1;
+		}
+
+		@Override
+		boolean forEach( final int high, final TIntProcedure procedure )
+		{
+			for ( int r = 0; r < numRuns; ++r )
+			{
+				final int start = runs[ 2 * r ];
+				final int end = start + runs[ 2 * r + 1 ];
+				for ( int v = start; v <= end; ++v )
+					if ( !procedure.execute( high | v ) )
+						return false;
+			}
+			return true;
+		}
+
+		@Override
+		Container copy()
+		{
+			// run containers are never modified in place
+			return this;
+		}
+
+		@Override
+		BitmapContainer toBitmap()
+		{
+			final BitmapContainer r = new BitmapContainer();
+			orInto( r.words );
+			r.cardinality = cardinality;
+			return r;
+		}
+
+		@Override
+		Container toEfficient()
+		{
+			final BitmapContainer bitmap = toBitmap();
+			return bitmap.toEfficient();
+		}
+
+		@Override
+		Container runOptimize()
+		{
+			return this;
+		}
+
+		@Override
+		void orInto( final long[] words )
+		{
+			for ( int r = 0; r < numRuns; ++r )
+			{
+				final int start = runs[ 2 * r ];
+				setRange( words, start, start + runs[ 2 * r + 1 ] + 1 );
+			}
+		}
+
+		@Override
+		void andNotInto( final long[] words )
+		{
+			for ( int r = 0; r < numRuns; ++r )
+			{
+				final int start = runs[ 2 * r ];
+				clearRange( words, start, start + runs[ 2 * r + 1 ] + 1 );
+			}
+		}
+
+		@Override
+		int numRuns()
+		{
+			return numRuns;
+		}
+
+		@Override
+		void write( final DataOutput out ) throws IOException
+		{
+			out.writeByte( RUN );
+			out.writeShort( numRuns - 1 );
+			for ( int i = 0; i < 2 * numRuns; ++i )
+				out.writeShort( runs[ i ] );
+		}
+
+		static RunContainer read( final DataInput in ) throws IOException
+		{
+			final int numRuns = in.readUnsignedShort() + 1;
+			final char[] runs = new char[ 2 * numRuns ];
+			int previousEnd = -2;
+			for ( int r = 0; r < numRuns; ++r )
+			{
+				runs[ 2 * r ] = in.readChar();
+				runs[ 2 * r + 1 ] = in.readChar();
+				final int start = runs[ 2 * r ];
+				final int end = start + runs[ 2 * r + 1 ];
+				if ( start <= previousEnd + 1 || end > 0xFFFF )
+					throw new IOException( "invalid run container" );
+				previousEnd = end;
+			}
+			return new RunContainer( runs, numRuns );
+		}
+
+		/**
+		 * Set bits {@code [from, to)}.
+		 */
+		private static void setRange( final long[] words, final int from, final int to )
+		{
+			final int first = from >>> 6;
+			final int last = ( to - 1 ) >>> 6;
+			final long firstMask = -1L << from;
+			final long lastMask = -1L >>> -to;
+			if ( first == last )
+				words[ first ] |= firstMask & lastMask;
+			else
+			{
+				words[ first ] |= firstMask;
+				for ( int w = first + 1; w < last; ++w )
+					words[ w ] = -1L;
+				words[ last ] |= lastMask;
+			}
+		}
+
+		/**
+		 * Clear bits {@code [from, to)}.
+		 */
+		private static void clearRange( final long[] words, final int from, final int to )
+		{
+			final int first = from >>> 6;
+			final int last = ( to - 1 ) >>> 6;
+			final long firstMask = -1L << from;
+			final long lastMask = -1L >>> -to;
+			if ( first == last )
+				words[ first ] &= ~( firstMask & lastMask );
+			else
+			{
+				words[ first ] &= ~firstMask;
+				for ( int w = first + 1; w < last; ++w )
+					words[ w ] = 0;
+				words[ last ] &= ~lastMask;
+			}
+		}
+	}
+}
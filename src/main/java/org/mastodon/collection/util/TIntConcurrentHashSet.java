@@ -0,0 +1,272 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.mastodon.collection.util.OpenHashing.DEFAULT_CAPACITY;
+import static org.mastodon.collection.util.OpenHashing.DEFAULT_LOAD_FACTOR;
+import static org.mastodon.collection.util.OpenHashing.mix;
+
+import java.util.NoSuchElementException;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+
+/**
+ * A thread-safe {@link TIntSet} with lock striping.
+ * <p>
+ * Elements are distributed over a power-of-two number of segments by the high
+ * bits of their hash. Each segment is a {@link TIntOpenHashSet} guarded by its
+ * own lock, so threads that work on different segments do not contend.
+ * {@link #add(int)}, {@link #remove(int)} and {@link #contains(int)} are
+ * atomic, so concurrent threads can use {@link #add(int)} to claim elements,
+ * for example to mark vertices as visited.
+ * </p>
+ * <p>
+ * Iterators and bulk operations are weakly consistent. They visit the
+ * segments one after the other, see each segment as it was when they reached
+ * it, and never throw {@link java.util.ConcurrentModificationException}.
+ * {@link #size()} sums the segment sizes, and may be outdated under
+ * concurrent modification.
+ * </p>
+ */
+public class TIntConcurrentHashSet extends AbstractTIntSet
+{
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private final int noEntryValue;
+
+	private final TIntOpenHashSet[] segments;
+
+	private final int segmentShift;
+
+	private final int segmentMask;
+
+	public TIntConcurrentHashSet()
+	{
+		this( DEFAULT_CAPACITY );
+	}
+
+	public TIntConcurrentHashSet( final int initialCapacity )
+	{
+		this( initialCapacity, 0, DEFAULT_CONCURRENCY_LEVEL );
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            the number of elements that can be stored without
+	 *            rehashing.
+	 * @param noEntryValue
+	 *            the value that represents null.
+	 * @param concurrencyLevel
+	 *            the expected number of concurrently modifying threads. The
+	 *            number of segments is the next power of two.
+	 */
+	public TIntConcurrentHashSet( final int initialCapacity, final int noEntryValue, final int concurrencyLevel )
+	{
+		if ( concurrencyLevel < 1 || concurrencyLevel > 1 << 16 )
+			throw new IllegalArgumentException( "concurrency level must be in [1, 65536]: " + concurrencyLevel );
+		this.noEntryValue = noEntryValue;
+		final int numSegments = Integer.highestOneBit( 2 * concurrencyLevel - 1 );
+		segmentShift = 32 - Integer.numberOfTrailingZeros( numSegments );
+		segmentMask = numSegments - 1;
+		segments = new TIntOpenHashSet[ numSegments ];
+		final int segmentCapacity = ( initialCapacity + numSegments - 1 ) / numSegments;
+		for ( int i = 0; i < numSegments; ++i )
+			segments[ i ] = new TIntOpenHashSet( segmentCapacity, DEFAULT_LOAD_FACTOR, noEntryValue );
+	}
+
+	/**
+	 * The segment holding {@code value}. The high bits of the hash select the
+	 * segment, the low bits the slot within the segment.
+	 */
+	private TIntOpenHashSet segmentFor( final int value )
+	{
+		return segments[ ( mix( value ) >>> segmentShift ) & segmentMask ];
+	}
+
+	@Override
+	public int getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		int size = 0;
+		for ( final TIntOpenHashSet segment : segments )
+			synchronized ( segment )
+			{
+				size += segment.size();
+			}
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		for ( final TIntOpenHashSet segment : segments )
+			synchronized ( segment )
+			{
+				if ( !segment.isEmpty() )
+					return false;
+			}
+		return true;
+	}
+
+	@Override
+	public boolean contains( final int value )
+	{
+		final TIntOpenHashSet segment = segmentFor( value );
+		synchronized ( segment )
+		{
+			return segment.contains( value );
+		}
+	}
+
+	@Override
+	public boolean add( final int value )
+	{
+		final TIntOpenHashSet segment = segmentFor( value );
+		synchronized ( segment )
+		{
+			return segment.add( value );
+		}
+	}
+
+	@Override
+	public boolean remove( final int value )
+	{
+		final TIntOpenHashSet segment = segmentFor( value );
+		synchronized ( segment )
+		{
+			return segment.remove( value );
+		}
+	}
+
+	@Override
+	public void clear()
+	{
+		for ( final TIntOpenHashSet segment : segments )
+			synchronized ( segment )
+			{
+				segment.clear();
+			}
+	}
+
+	@Override
+	public TIntIterator iterator()
+	{
+		return new Iter();
+	}
+
+	@Override
+	public boolean forEach( final TIntProcedure procedure )
+	{
+		for ( final TIntIterator it = iterator(); it.hasNext(); )
+			if ( !procedure.execute( it.next() ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public int[] toArray( final int[] dest )
+	{
+		final TIntArrayList list = new TIntArrayList();
+		forEach( list::add );
+		final int size = list.size();
+		if ( dest.length < size )
+			return list.toArray();
+		list.toArray( dest, 0, size );
+		if ( dest.length > size )
+			dest[ size ] = noEntryValue;
+		return dest;
+	}
+
+	/**
+	 * Iterates over a copy of each segment, taken when the iterator reaches
+	 * the segment. Removal writes through to the set.
+	 */
+	private class Iter implements TIntIterator
+	{
+		private int segment = -1;
+
+		private int[] values = new int[ 0 ];
+
+		private int size;
+
+		private int pos;
+
+		private int current;
+
+		private boolean hasCurrent;
+
+		@Override
+		public boolean hasNext()
+		{
+			while ( pos == size && segment < segments.length - 1 )
+				copySegment( ++segment );
+			return pos < size;
+		}
+
+		private void copySegment( final int i )
+		{
+			final TIntOpenHashSet s = segments[ i ];
+			synchronized ( s )
+			{
+				size = s.size();
+				if ( values.length < size )
+					values = new int[ size ];
+				s.toArray( values );
+			}
+			pos = 0;
+		}
+
+		@Override
+		public int next()
+		{
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+			current = values[ pos++ ];
+			hasCurrent = true;
+			return current;
+		}
+
+		@Override
+		public void remove()
+		{
+			if ( !hasCurrent )
+				throw new IllegalStateException();
+			TIntConcurrentHashSet.this.remove( current );
+			hasCurrent = false;
+		}
+	}
+}
@@ -0,0 +1,545 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import java.util.Map;
+
+import gnu.trove.TDoubleCollection;
+import gnu.trove.function.TDoubleFunction;
+import gnu.trove.iterator.TDoubleIterator;
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.procedure.TDoubleProcedure;
+import gnu.trove.procedure.TIntDoubleProcedure;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+
+/**
+ * A {@link TIntDoubleMap} that switches between a
+ * {@link TIntDoubleOpenHashMap} and a {@link TIntDoubleArrayMap}, depending on
+ * how densely the range of keys is filled.
+ * <p>
+ * The map starts out hash-backed. When the number of entries reaches
+ * {@link #ARRAY_FILL_RATIO} of the key range (the largest key + 1), it
+ * switches to array backing. When it falls below {@link #HASH_FILL_RATIO},
+ * because of removal or because a much larger key is added, it switches back.
+ * Maps with negative keys stay hash-backed.
+ * </p>
+ * <p>
+ * Switching never happens during removal through iterators, so iterators
+ * remain valid. Views returned by {@link #keySet()} and
+ * {@link #valueCollection()} follow switches.
+ * </p>
+ */
+public class TIntDoubleAdaptiveMap implements TIntDoubleMap
+{
+	/**
+	 * Fill ratio at which a hash-backed map switches to array backing. A
+	 * {@link TIntDoubleOpenHashMap} needs at least 32 bytes per entry, a
+	 * {@link TIntDoubleArrayMap} about 8 bytes per key in range.
+	 */
+	public static final double ARRAY_FILL_RATIO = 1.0 / 4;
+
+	/**
+	 * Fill ratio below which an array-backed map switches to hash backing.
+	 * Lower than {@link #ARRAY_FILL_RATIO}, to avoid switching back and forth.
+	 */
+	public static final double HASH_FILL_RATIO = 1.0 / 16;
+
+	/**
+	 * Maps smaller than this are never switched to array backing.
+	 */
+	private static final int MIN_ARRAY_SIZE = 64;
+
+	private final int noEntryKey;
+
+	private final double noEntryValue;
+
+	private TIntDoubleMap map;
+
+	private boolean arrayBacked;
+
+	/**
+	 * Upper bound on the largest key, while hash-backed.
+	 */
+	private int maxKey;
+
+	/**
+	 * Whether a negative key has been put since the last {@link #clear()}.
+	 */
+	private boolean hasNegativeKeys;
+
+	public TIntDoubleAdaptiveMap()
+	{
+		this( OpenHashing.DEFAULT_CAPACITY, -1, 0 );
+	}
+
+	public TIntDoubleAdaptiveMap( final int initialCapacity, final int noEntryKey, final double noEntryValue )
+	{
+		this.noEntryKey = noEntryKey;
+		this.noEntryValue = noEntryValue;
+		map = new TIntDoubleOpenHashMap( initialCapacity, OpenHashing.DEFAULT_LOAD_FACTOR, noEntryKey, noEntryValue );
+		arrayBacked = false;
+		maxKey = -1;
+		hasNegativeKeys = false;
+	}
+
+	/**
+	 * Creates a copy of {@code map}.
+	 *
+	 * @param map
+	 *            the map to copy.
+	 */
+	public TIntDoubleAdaptiveMap( final TIntDoubleAdaptiveMap map )
+	{
+		noEntryKey = map.noEntryKey;
+		noEntryValue = map.noEntryValue;
+		this.map = map.arrayBacked
+				? new TIntDoubleArrayMap( ( TIntDoubleArrayMap ) map.map )
+				: new TIntDoubleOpenHashMap( ( TIntDoubleOpenHashMap ) map.map );
+		arrayBacked = map.arrayBacked;
+		maxKey = map.maxKey;
+		hasNegativeKeys = map.hasNegativeKeys;
+	}
+
+	/**
+	 * Returns whether the map is currently backed by a
+	 * {@link TIntDoubleArrayMap}.
+	 *
+	 * @return whether the map is array-backed.
+	 */
+	public boolean isArrayBacked()
+	{
+		return arrayBacked;
+	}
+
+	/**
+	 * Ensures that this map can hold {@code desiredCapacity}
+	 * <em>additional</em> mappings without rehashing while it is hash-backed.
+	 * An array-backed map grows with the largest key instead, so for it this
+	 * does nothing.
+	 *
+	 * @param desiredCapacity
+	 *            the number of additional mappings.
+	 */
+	public void ensureCapacity( final int desiredCapacity )
+	{
+		if ( !arrayBacked )
+			( ( TIntDoubleOpenHashMap ) map ).ensureCapacity( desiredCapacity );
+	}
+
+	private void switchToArray()
+	{
+		final TIntDoubleArrayMap array = new TIntDoubleArrayMap( maxKey + 1, noEntryKey, noEntryValue );
+		array.putAll( map );
+		map = array;
+		arrayBacked = true;
+	}
+
+	private void switchToHash()
+	{
+		final TIntDoubleOpenHashMap hash = new TIntDoubleOpenHashMap( map.size(), OpenHashing.DEFAULT_LOAD_FACTOR, noEntryKey, noEntryValue );
+		hash.putAll( map );
+		final int[] max = { -1 };
+		map.forEachKey( key -> {
+			max[ 0 ] = Math.max( max[ 0 ], key );
+			return true;
+		} );
+		map = hash;
+		arrayBacked = false;
+		maxKey = max[ 0 ];
+	}
+
+	/**
+	 * Called before an operation that may add {@code key}.
+	 */
+	private void beforeInsert( final int key )
+	{
+		if ( key < 0 )
+		{
+			if ( arrayBacked )
+				switchToHash();
+			hasNegativeKeys = true;
+		}
+		else if ( arrayBacked )
+		{
+			if ( key >= ( ( TIntDoubleArrayMap ) map ).capacity() && map.size() + 1 < HASH_FILL_RATIO * ( key + 1.0 ) )
+				switchToHash();
+		}
+	}
+
+	/**
+	 * Called after an operation that may have added {@code key}.
+	 */
+	private void afterInsert( final int key )
+	{
+		if ( !arrayBacked && !hasNegativeKeys )
+		{
+			if ( key > maxKey )
+				maxKey = key;
+			final int size = map.size();
+			if ( size >= MIN_ARRAY_SIZE && size >= ARRAY_FILL_RATIO * ( maxKey + 1.0 ) )
+				switchToArray();
+		}
+	}
+
+	/**
+	 * Called after an operation that may have removed entries.
+	 */
+	private void afterRemove()
+	{
+		if ( arrayBacked && map.size() < HASH_FILL_RATIO * ( ( TIntDoubleArrayMap ) map ).capacity() )
+			switchToHash();
+	}
+
+	@Override
+	public int getNoEntryKey()
+	{
+		return noEntryKey;
+	}
+
+	@Override
+	public double getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		return map.size();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return map.isEmpty();
+	}
+
+	@Override
+	public boolean containsKey( final int key )
+	{
+		return map.containsKey( key );
+	}
+
+	@Override
+	public boolean containsValue( final double value )
+	{
+		return map.containsValue( value );
+	}
+
+	@Override
+	public double get( final int key )
+	{
+		return map.get( key );
+	}
+
+	@Override
+	public double put( final int key, final double value )
+	{
+		beforeInsert( key );
+		final double previous = map.put( key, value );
+		afterInsert( key );
+		return previous;
+	}
+
+	@Override
+	public double putIfAbsent( final int key, final double value )
+	{
+		beforeInsert( key );
+		final double previous = map.putIfAbsent( key, value );
+		afterInsert( key );
+		return previous;
+	}
+
+	@Override
+	public void putAll( final Map< ? extends Integer, ? extends Double > m )
+	{
+		for ( final Map.Entry< ? extends Integer, ? extends Double > entry : m.entrySet() )
+			put( entry.getKey(), entry.getValue() );
+	}
+
+	@Override
+	public void putAll( final TIntDoubleMap m )
+	{
+		m.forEachEntry( ( key, value ) -> {
+			put( key, value );
+			return true;
+		} );
+	}
+
+	@Override
+	public double remove( final int key )
+	{
+		final double previous = map.remove( key );
+		afterRemove();
+		return previous;
+	}
+
+	@Override
+	public void clear()
+	{
+		if ( arrayBacked )
+			map = new TIntDoubleOpenHashMap( OpenHashing.DEFAULT_CAPACITY, OpenHashing.DEFAULT_LOAD_FACTOR, noEntryKey, noEntryValue );
+		else
+			map.clear();
+		arrayBacked = false;
+		maxKey = -1;
+		hasNegativeKeys = false;
+	}
+
+	@Override
+	public boolean increment( final int key )
+	{
+		return map.increment( key );
+	}
+
+	@Override
+	public boolean adjustValue( final int key, final double amount )
+	{
+		return map.adjustValue( key, amount );
+	}
+
+	@Override
+	public double adjustOrPutValue( final int key, final double adjustAmount, final double putAmount )
+	{
+		beforeInsert( key );
+		final double value = map.adjustOrPutValue( key, adjustAmount, putAmount );
+		afterInsert( key );
+		return value;
+	}
+
+	@Override
+	public int[] keys()
+	{
+		return map.keys();
+	}
+
+	@Override
+	public int[] keys( final int[] dest )
+	{
+		return map.keys( dest );
+	}
+
+	@Override
+	public double[] values()
+	{
+		return map.values();
+	}
+
+	@Override
+	public double[] values( final double[] dest )
+	{
+		return map.values( dest );
+	}
+
+	@Override
+	public boolean forEachKey( final TIntProcedure procedure )
+	{
+		return map.forEachKey( procedure );
+	}
+
+	@Override
+	public boolean forEachValue( final TDoubleProcedure procedure )
+	{
+		return map.forEachValue( procedure );
+	}
+
+	@Override
+	public boolean forEachEntry( final TIntDoubleProcedure procedure )
+	{
+		return map.forEachEntry( procedure );
+	}
+
+	@Override
+	public void transformValues( final TDoubleFunction function )
+	{
+		map.transformValues( function );
+	}
+
+	@Override
+	public boolean retainEntries( final TIntDoubleProcedure procedure )
+	{
+		final boolean changed = map.retainEntries( procedure );
+		afterRemove();
+		return changed;
+	}
+
+	@Override
+	public TIntDoubleIterator iterator()
+	{
+		return map.iterator();
+	}
+
+	@Override
+	public TIntSet keySet()
+	{
+		return new AbstractTIntSet()
+		{
+			@Override
+			public int getNoEntryValue()
+			{
+				return noEntryKey;
+			}
+
+			@Override
+			public int size()
+			{
+				return map.size();
+			}
+
+			@Override
+			public boolean contains( final int key )
+			{
+				return map.containsKey( key );
+			}
+
+			@Override
+			public TIntIterator iterator()
+			{
+				return map.keySet().iterator();
+			}
+
+			@Override
+			public boolean forEach( final TIntProcedure procedure )
+			{
+				return map.forEachKey( procedure );
+			}
+
+			@Override
+			public int[] toArray( final int[] dest )
+			{
+				return map.keys( dest );
+			}
+
+			@Override
+			public boolean add( final int key )
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public boolean remove( final int key )
+			{
+				if ( !map.containsKey( key ) )
+					return false;
+				TIntDoubleAdaptiveMap.this.remove( key );
+				return true;
+			}
+
+			@Override
+			public void clear()
+			{
+				TIntDoubleAdaptiveMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public TDoubleCollection valueCollection()
+	{
+		return new AbstractTDoubleCollection()
+		{
+			@Override
+			public double getNoEntryValue()
+			{
+				return noEntryValue;
+			}
+
+			@Override
+			public int size()
+			{
+				return map.size();
+			}
+
+			@Override
+			public boolean contains( final double value )
+			{
+				return map.containsValue( value );
+			}
+
+			@Override
+			public TDoubleIterator iterator()
+			{
+				return map.valueCollection().iterator();
+			}
+
+			@Override
+			public boolean forEach( final TDoubleProcedure procedure )
+			{
+				return map.forEachValue( procedure );
+			}
+
+			@Override
+			public double[] toArray( final double[] dest )
+			{
+				return map.values( dest );
+			}
+
+			@Override
+			public boolean add( final double value )
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public boolean remove( final double value )
+			{
+				final boolean removed = map.valueCollection().remove( value );
+				afterRemove();
+				return removed;
+			}
+
+			@Override
+			public void clear()
+			{
+				TIntDoubleAdaptiveMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		return this == o || map.equals( o );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return map.hashCode();
+	}
+
+	@Override
+	public String toString()
+	{
+		return map.toString();
+	}
+}
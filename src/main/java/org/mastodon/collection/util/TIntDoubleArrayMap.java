@@ -0,0 +1,589 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import gnu.trove.TDoubleCollection;
+import gnu.trove.function.TDoubleFunction;
+import gnu.trove.iterator.TDoubleIterator;
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.procedure.TDoubleProcedure;
+import gnu.trove.procedure.TIntDoubleProcedure;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+
+/**
+ * A {@link TIntDoubleMap} for non-negative keys, that stores values in an
+ * array indexed by key, and marks present keys in a {@link TIntBitSet}.
+ * <p>
+ * A lookup is a bit test and an array load. Memory is proportional to the
+ * largest key, not to the number of entries, so this is intended for keys
+ * that are pool indices, where most objects of the pool have an entry. At a
+ * fill ratio above about 1/4 this uses less memory than
+ * {@link TIntDoubleOpenHashMap}. Iteration is in ascending key order.
+ * </p>
+ * <p>
+ * {@link #put(int, double)} with a negative key throws
+ * {@link IllegalArgumentException}. Other methods treat negative keys as
+ * absent.
+ * </p>
+ */
+public class TIntDoubleArrayMap implements TIntDoubleMap
+{
+	private final int noEntryKey;
+
+	private final double noEntryValue;
+
+	private final TIntBitSet keys;
+
+	private double[] values;
+
+	public TIntDoubleArrayMap()
+	{
+		this( OpenHashing.DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            keys {@code [0, initialCapacity)} can be stored without
+	 *            growing.
+	 */
+	public TIntDoubleArrayMap( final int initialCapacity )
+	{
+		this( initialCapacity, -1, 0 );
+	}
+
+	public TIntDoubleArrayMap( final int initialCapacity, final int noEntryKey, final double noEntryValue )
+	{
+		this.noEntryKey = noEntryKey;
+		this.noEntryValue = noEntryValue;
+		keys = new TIntBitSet( initialCapacity );
+		values = new double[ initialCapacity ];
+	}
+
+	/**
+	 * Creates a copy of {@code map}.
+	 *
+	 * @param map
+	 *            the map to copy.
+	 */
+	public TIntDoubleArrayMap( final TIntDoubleArrayMap map )
+	{
+		noEntryKey = map.noEntryKey;
+		noEntryValue = map.noEntryValue;
+		keys = new TIntBitSet( map.keys );
+		values = map.values.clone();
+	}
+
+	/**
+	 * Creates a map with the entries of {@code map}.
+	 *
+	 * @param map
+	 *            the entries to put. All keys must be non-negative.
+	 */
+	public TIntDoubleArrayMap( final TIntDoubleMap map )
+	{
+		this( 0, map.getNoEntryKey(), map.getNoEntryValue() );
+		putAll( map );
+	}
+
+	/**
+	 * Ensure that keys {@code [0, capacity)} can be stored without growing.
+	 *
+	 * @param capacity
+	 *            the key range.
+	 */
+	public void ensureCapacity( final int capacity )
+	{
+		if ( capacity > values.length )
+			values = Arrays.copyOf( values, Math.max( capacity, values.length + ( values.length >> 1 ) ) );
+	}
+
+	/**
+	 * Returns the number of keys that can be stored without growing.
+	 *
+	 * @return the key range.
+	 */
+	public int capacity()
+	{
+		return values.length;
+	}
+
+	private boolean present( final int key )
+	{
+		return key >= 0 && key < values.length && keys.contains( key );
+	}
+
+	@Override
+	public int getNoEntryKey()
+	{
+		return noEntryKey;
+	}
+
+	@Override
+	public double getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		return keys.size();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return keys.isEmpty();
+	}
+
+	@Override
+	public boolean containsKey( final int key )
+	{
+		return present( key );
+	}
+
+	@Override
+	public boolean containsValue( final double value )
+	{
+		for ( int key = keys.nextSetBit( 0 ); key >= 0; key = keys.nextSetBit( key + 1 ) )
+			if ( values[ key ] == value )
+				return true;
+		return false;
+	}
+
+	@Override
+	public double get( final int key )
+	{
+		return present( key ) ? values[ key ] : noEntryValue;
+	}
+
+	@Override
+	public double put( final int key, final double value )
+	{
+		if ( key < 0 )
+			throw new IllegalArgumentException( "negative key " + key );
+		ensureCapacity( key + 1 );
+		final double previous = keys.add( key ) ? noEntryValue : values[ key ];
+		values[ key ] = value;
+		return previous;
+	}
+
+	@Override
+	public double putIfAbsent( final int key, final double value )
+	{
+		if ( present( key ) )
+			return values[ key ];
+		put( key, value );
+		return noEntryValue;
+	}
+
+	@Override
+	public void putAll( final Map< ? extends Integer, ? extends Double > map )
+	{
+		for ( final Map.Entry< ? extends Integer, ? extends Double > entry : map.entrySet() )
+			put( entry.getKey(), entry.getValue() );
+	}
+
+	@Override
+	public void putAll( final TIntDoubleMap map )
+	{
+		map.forEachEntry( ( key, value ) -> {
+			put( key, value );
+			return true;
+		} );
+	}
+
+	@Override
+	public double remove( final int key )
+	{
+		return present( key ) && keys.remove( key ) ? values[ key ] : noEntryValue;
+	}
+
+	@Override
+	public void clear()
+	{
+		keys.clear();
+	}
+
+	@Override
+	public boolean increment( final int key )
+	{
+		return adjustValue( key, 1 );
+	}
+
+	@Override
+	public boolean adjustValue( final int key, final double amount )
+	{
+		if ( !present( key ) )
+			return false;
+		values[ key ] += amount;
+		return true;
+	}
+
+	@Override
+	public double adjustOrPutValue( final int key, final double adjustAmount, final double putAmount )
+	{
+		if ( present( key ) )
+			return values[ key ] += adjustAmount;
+		put( key, putAmount );
+		return putAmount;
+	}
+
+	@Override
+	public int[] keys()
+	{
+		return keys.toArray();
+	}
+
+	@Override
+	public int[] keys( final int[] dest )
+	{
+		final int size = size();
+		final int[] array = dest.length >= size ? dest : new int[ size ];
+		int n = 0;
+		for ( int key = keys.nextSetBit( 0 ); key >= 0; key = keys.nextSetBit( key + 1 ) )
+			array[ n++ ] = key;
+		return array;
+	}
+
+	@Override
+	public double[] values()
+	{
+		return values( new double[ size() ] );
+	}
+
+	@Override
+	public double[] values( final double[] dest )
+	{
+		final int size = size();
+		final double[] array = dest.length >= size ? dest : new double[ size ];
+		int n = 0;
+		for ( int key = keys.nextSetBit( 0 ); key >= 0; key = keys.nextSetBit( key + 1 ) )
+			array[ n++ ] = values[ key ];
+		return array;
+	}
+
+	@Override
+	public boolean forEachKey( final TIntProcedure procedure )
+	{
+		return keys.forEach( procedure );
+	}
+
+	@Override
+	public boolean forEachValue( final TDoubleProcedure procedure )
+	{
+		for ( int key = keys.nextSetBit( 0 ); key >= 0; key = keys.nextSetBit( key + 1 ) )
+			if ( !procedure.execute( values[ key ] ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TIntDoubleProcedure procedure )
+	{
+		for ( int key = keys.nextSetBit( 0 ); key >= 0; key = keys.nextSetBit( key + 1 ) )
+			if ( !procedure.execute( key, values[ key ] ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public void transformValues( final TDoubleFunction function )
+	{
+		for ( int key = keys.nextSetBit( 0 ); key >= 0; key = keys.nextSetBit( key + 1 ) )
+			values[ key ] = function.execute( values[ key ] );
+	}
+
+	@Override
+	public boolean retainEntries( final TIntDoubleProcedure procedure )
+	{
+		boolean changed = false;
+		for ( int key = keys.nextSetBit( 0 ); key >= 0; key = keys.nextSetBit( key + 1 ) )
+		{
+			if ( !procedure.execute( key, values[ key ] ) )
+			{
+				keys.remove( key );
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public TIntDoubleIterator iterator()
+	{
+		return new TIntDoubleIterator()
+		{
+			private int key = -1;
+
+			private int next = keys.nextSetBit( 0 );
+
+			@Override
+			public boolean hasNext()
+			{
+				return next >= 0;
+			}
+
+			@Override
+			public void advance()
+			{
+				if ( next < 0 )
+					throw new NoSuchElementException();
+				key = next;
+				next = keys.nextSetBit( key + 1 );
+			}
+
+			@Override
+			public int key()
+			{
+				return key;
+			}
+
+			@Override
+			public double value()
+			{
+				return values[ key ];
+			}
+
+			@Override
+			public double setValue( final double value )
+			{
+				final double previous = values[ key ];
+				values[ key ] = value;
+				return previous;
+			}
+
+			@Override
+			public void remove()
+			{
+				if ( key < 0 || !keys.remove( key ) )
+					throw new IllegalStateException();
+			}
+		};
+	}
+
+	@Override
+	public TIntSet keySet()
+	{
+		return new AbstractTIntSet()
+		{
+			@Override
+			public int getNoEntryValue()
+			{
+				return noEntryKey;
+			}
+
+			@Override
+			public int size()
+			{
+				return keys.size();
+			}
+
+			@Override
+			public boolean contains( final int key )
+			{
+				return present( key );
+			}
+
+			@Override
+			public TIntIterator iterator()
+			{
+				return keys.iterator();
+			}
+
+			@Override
+			public boolean forEach( final TIntProcedure procedure )
+			{
+				return keys.forEach( procedure );
+			}
+
+			@Override
+			public int[] toArray( final int[] dest )
+			{
+				return keys( dest );
+			}
+
+			@Override
+			public boolean add( final int key )
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public boolean remove( final int key )
+			{
+				return keys.remove( key );
+			}
+
+			@Override
+			public void clear()
+			{
+				keys.clear();
+			}
+		};
+	}
+
+	@Override
+	public TDoubleCollection valueCollection()
+	{
+		return new AbstractTDoubleCollection()
+		{
+			@Override
+			public double getNoEntryValue()
+			{
+				return noEntryValue;
+			}
+
+			@Override
+			public int size()
+			{
+				return keys.size();
+			}
+
+			@Override
+			public boolean contains( final double value )
+			{
+				return containsValue( value );
+			}
+
+			@Override
+			public TDoubleIterator iterator()
+			{
+				final TIntDoubleIterator it = TIntDoubleArrayMap.this.iterator();
+				return new TDoubleIterator()
+				{
+					@Override
+					public boolean hasNext()
+					{
+						return it.hasNext();
+					}
+
+					@Override
+					public double next()
+					{
+						it.advance();
+						return it.value();
+					}
+
+					@Override
+					public void remove()
+					{
+						it.remove();
+					}
+				};
+			}
+
+			@Override
+			public boolean forEach( final TDoubleProcedure procedure )
+			{
+				return forEachValue( procedure );
+			}
+
+			@Override
+			public double[] toArray( final double[] dest )
+			{
+				return values( dest );
+			}
+
+			@Override
+			public boolean add( final double value )
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public boolean remove( final double value )
+			{
+				for ( int key = keys.nextSetBit( 0 ); key >= 0; key = keys.nextSetBit( key + 1 ) )
+				{
+					if ( values[ key ] == value )
+					{
+						keys.remove( key );
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public void clear()
+			{
+				keys.clear();
+			}
+		};
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( !( o instanceof TIntDoubleMap ) )
+			return false;
+		final TIntDoubleMap that = ( TIntDoubleMap ) o;
+		if ( that.size() != size() )
+			return false;
+		return forEachEntry( ( key, value ) -> that.containsKey( key ) && that.get( key ) == value );
+	}
+
+	/**
+	 * Consistent with {@link gnu.trove.map.hash.TIntDoubleHashMap#hashCode()}.
+	 */
+	@Override
+	public int hashCode()
+	{
+		final int[] hash = { 0 };
+		forEachEntry( ( key, value ) -> {
+			final long bits = Double.doubleToLongBits( value );
+			hash[ 0 ] += key ^ ( int ) ( bits ^ ( bits >>> 32 ) );
+			return true;
+		} );
+		return hash[ 0 ];
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder( "{" );
+		forEachEntry( ( key, value ) -> {
+			if ( sb.length() > 1 )
+				sb.append( ", " );
+			sb.append( key ).append( '=' ).append( value );
+			return true;
+		} );
+		return sb.append( '}' ).toString();
+	}
+}
@@ -0,0 +1,867 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.mastodon.collection.util.OpenHashing.DEFAULT_CAPACITY;
+import static org.mastodon.collection.util.OpenHashing.DEFAULT_LOAD_FACTOR;
+import static org.mastodon.collection.util.OpenHashing.mix;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntToDoubleFunction;
+
+import gnu.trove.TDoubleCollection;
+import gnu.trove.function.TDoubleFunction;
+import gnu.trove.iterator.TDoubleIterator;
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.procedure.TDoubleProcedure;
+import gnu.trove.procedure.TIntDoubleProcedure;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+
+/**
+ * A thread-safe {@link TIntDoubleMap} with lock striping.
+ * <p>
+ * Keys are distributed over a power-of-two number of segments by the high
+ * bits of their hash. Each segment is a {@link TIntDoubleOpenHashMap} guarded by
+ * its own lock, so threads that work on different segments do not contend.
+ * All single-key operations are atomic, in particular
+ * {@link #putIfAbsent(int, double)},
+ * {@link #adjustOrPutValue(int, double, double)}, {@link #remove(int, double)},
+ * {@link #replace(int, double, double)},
+ * {@link #computeIfAbsent(int, IntToDoubleFunction)}, and
+ * {@link #merge(int, double, DoubleBinaryOperator)}.
+ * </p>
+ * <p>
+ * Iterators, views, and bulk operations are weakly consistent. They visit the
+ * segments one after the other, see each segment as it was when they reached
+ * it, and never throw {@link java.util.ConcurrentModificationException}.
+ * Procedures and functions passed to bulk operations are called without
+ * holding a lock, except for {@link #transformValues(TDoubleFunction)}.
+ * {@link #size()} sums the segment sizes, and may be outdated under
+ * concurrent modification.
+ * </p>
+ */
+public class TIntDoubleConcurrentHashMap implements TIntDoubleMap
+{
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private final int noEntryKey;
+
+	private final double noEntryValue;
+
+	private final TIntDoubleOpenHashMap[] segments;
+
+	private final int segmentShift;
+
+	private final int segmentMask;
+
+	public TIntDoubleConcurrentHashMap()
+	{
+		this( DEFAULT_CAPACITY );
+	}
+
+	public TIntDoubleConcurrentHashMap( final int initialCapacity )
+	{
+		this( initialCapacity, 0, 0 );
+	}
+
+	public TIntDoubleConcurrentHashMap( final int initialCapacity, final int noEntryKey, final double noEntryValue )
+	{
+		this( initialCapacity, noEntryKey, noEntryValue, DEFAULT_CONCURRENCY_LEVEL );
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            the number of entries that can be stored without rehashing.
+	 * @param noEntryKey
+	 *            the key that represents null.
+	 * @param noEntryValue
+	 *            the value that represents null.
+	 * @param concurrencyLevel
+	 *            the expected number of concurrently modifying threads. The
+	 *            number of segments is the next power of two.
+	 */
+	public TIntDoubleConcurrentHashMap( final int initialCapacity, final int noEntryKey, final double noEntryValue, final int concurrencyLevel )
+	{
+		if ( concurrencyLevel < 1 || concurrencyLevel > 1 << 16 )
+			throw new IllegalArgumentException( "concurrency level must be in [1, 65536]: " + concurrencyLevel );
+		this.noEntryKey = noEntryKey;
+		this.noEntryValue = noEntryValue;
+		final int numSegments = Integer.highestOneBit( 2 * concurrencyLevel - 1 );
+		segmentShift = 32 - Integer.numberOfTrailingZeros( numSegments );
+		segmentMask = numSegments - 1;
+		segments = new TIntDoubleOpenHashMap[ numSegments ];
+		final int segmentCapacity = ( initialCapacity + numSegments - 1 ) / numSegments;
+		for ( int i = 0; i < numSegments; ++i )
+			segments[ i ] = new TIntDoubleOpenHashMap( segmentCapacity, DEFAULT_LOAD_FACTOR, noEntryKey, noEntryValue );
+	}
+
+	/**
+	 * The segment holding {@code key}. The high bits of the hash select the
+	 * segment, the low bits the slot within the segment.
+	 */
+	private TIntDoubleOpenHashMap segmentFor( final int key )
+	{
+		return segments[ ( mix( key ) >>> segmentShift ) & segmentMask ];
+	}
+
+	@Override
+	public int getNoEntryKey()
+	{
+		return noEntryKey;
+	}
+
+	@Override
+	public double getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		int size = 0;
+		for ( final TIntDoubleOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				size += segment.size();
+			}
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		for ( final TIntDoubleOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				if ( !segment.isEmpty() )
+					return false;
+			}
+		return true;
+	}
+
+	@Override
+	public boolean containsKey( final int key )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.containsKey( key );
+		}
+	}
+
+	@Override
+	public boolean containsValue( final double value )
+	{
+		for ( final TIntDoubleOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				if ( segment.containsValue( value ) )
+					return true;
+			}
+		return false;
+	}
+
+	@Override
+	public double get( final int key )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.get( key );
+		}
+	}
+
+	@Override
+	public double put( final int key, final double value )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.put( key, value );
+		}
+	}
+
+	@Override
+	public double putIfAbsent( final int key, final double value )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.putIfAbsent( key, value );
+		}
+	}
+
+	@Override
+	public void putAll( final Map< ? extends Integer, ? extends Double > map )
+	{
+		for ( final Map.Entry< ? extends Integer, ? extends Double > entry : map.entrySet() )
+			put( entry.getKey(), entry.getValue() );
+	}
+
+	@Override
+	public void putAll( final TIntDoubleMap map )
+	{
+		map.forEachEntry( ( key, value ) -> {
+			put( key, value );
+			return true;
+		} );
+	}
+
+	@Override
+	public double remove( final int key )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.remove( key );
+		}
+	}
+
+	/**
+	 * Removes the entry for {@code key} only if it is mapped to
+	 * {@code value}.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value expected to be associated with {@code key}.
+	 * @return whether the entry was removed.
+	 */
+	public boolean remove( final int key, final double value )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			if ( segment.containsKey( key ) && segment.get( key ) == value )
+			{
+				segment.remove( key );
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the entry for {@code key}.
+	 *
+	 * @return whether there was an entry for {@code key}.
+	 */
+	private boolean removeKey( final int key )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			if ( segment.containsKey( key ) )
+			{
+				segment.remove( key );
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces the value for {@code key} only if it is currently mapped to
+	 * {@code expectedValue}.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param expectedValue
+	 *            the value expected to be associated with {@code key}.
+	 * @param newValue
+	 *            the value to associate with {@code key}.
+	 * @return whether the value was replaced.
+	 */
+	public boolean replace( final int key, final double expectedValue, final double newValue )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			if ( segment.containsKey( key ) && segment.get( key ) == expectedValue )
+			{
+				segment.put( key, newValue );
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the value for {@code key}, computing and inserting it if there
+	 * is none. If {@code mappingFunction} returns the no-entry value, no entry
+	 * is inserted.
+	 * <p>
+	 * {@code mappingFunction} is called at most once per absent key, while
+	 * holding the lock of the segment, so it must be short and must not access
+	 * this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param mappingFunction
+	 *            computes the value for {@code key}.
+	 * @return the current (existing or computed) value for {@code key}.
+	 */
+	public double computeIfAbsent( final int key, final IntToDoubleFunction mappingFunction )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			if ( segment.containsKey( key ) )
+				return segment.get( key );
+			final double value = mappingFunction.applyAsDouble( key );
+			if ( Double.compare( value, noEntryValue ) != 0 )
+				segment.put( key, value );
+			return value;
+		}
+	}
+
+	/**
+	 * Associates {@code value} with {@code key} if there is no entry for
+	 * {@code key}. Otherwise, replaces the current value by the result of
+	 * {@code remappingFunction} applied to the current value and
+	 * {@code value}.
+	 * <p>
+	 * {@code remappingFunction} is called while holding the lock of the
+	 * segment, so it must be short and must not access this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value to merge.
+	 * @param remappingFunction
+	 *            combines the current value and {@code value}.
+	 * @return the new value for {@code key}.
+	 */
+	public double merge( final int key, final double value, final DoubleBinaryOperator remappingFunction )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			final double newValue = segment.containsKey( key )
+					? remappingFunction.applyAsDouble( segment.get( key ), value )
+					: value;
+			segment.put( key, newValue );
+			return newValue;
+		}
+	}
+
+	@Override
+	public void clear()
+	{
+		for ( final TIntDoubleOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				segment.clear();
+			}
+	}
+
+	/**
+	 * Ensures that this map has sufficient capacity to hold
+	 * {@code desiredCapacity} <em>additional</em> mappings without rehashing,
+	 * assuming keys are spread evenly over segments.
+	 *
+	 * @param desiredCapacity
+	 *            the number of additional mappings.
+	 */
+	public void ensureCapacity( final int desiredCapacity )
+	{
+		final int segmentCapacity = ( desiredCapacity + segments.length - 1 ) / segments.length;
+		for ( final TIntDoubleOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				segment.ensureCapacity( segmentCapacity );
+			}
+	}
+
+	@Override
+	public boolean increment( final int key )
+	{
+		return adjustValue( key, 1 );
+	}
+
+	@Override
+	public boolean adjustValue( final int key, final double amount )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.adjustValue( key, amount );
+		}
+	}
+
+	@Override
+	public double adjustOrPutValue( final int key, final double adjustAmount, final double putAmount )
+	{
+		final TIntDoubleOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.adjustOrPutValue( key, adjustAmount, putAmount );
+		}
+	}
+
+	@Override
+	public int[] keys()
+	{
+		return keys( new int[ 0 ] );
+	}
+
+	@Override
+	public int[] keys( final int[] dest )
+	{
+		final TIntArrayList list = new TIntArrayList();
+		forEachKey( list::add );
+		return copyTo( list, dest );
+	}
+
+	@Override
+	public double[] values()
+	{
+		return values( new double[ 0 ] );
+	}
+
+	@Override
+	public double[] values( final double[] dest )
+	{
+		final TDoubleArrayList list = new TDoubleArrayList();
+		forEachValue( list::add );
+		return copyTo( list, dest );
+	}
+
+	private static int[] copyTo( final TIntArrayList list, final int[] dest )
+	{
+		final int size = list.size();
+		if ( dest.length < size )
+			return list.toArray();
+		list.toArray( dest, 0, size );
+		return dest;
+	}
+
+	private static double[] copyTo( final TDoubleArrayList list, final double[] dest )
+	{
+		final int size = list.size();
+		if ( dest.length < size )
+			return list.toArray();
+		list.toArray( dest, 0, size );
+		return dest;
+	}
+
+	@Override
+	public boolean forEachKey( final TIntProcedure procedure )
+	{
+		for ( final EntryIterator it = new EntryIterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( !procedure.execute( it.key() ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean forEachValue( final TDoubleProcedure procedure )
+	{
+		for ( final EntryIterator it = new EntryIterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( !procedure.execute( it.value() ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TIntDoubleProcedure procedure )
+	{
+		for ( final EntryIterator it = new EntryIterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( !procedure.execute( it.key(), it.value() ) )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Transforms the values of each segment while holding its lock, so
+	 * {@code function} must not access this map.
+	 */
+	@Override
+	public void transformValues( final TDoubleFunction function )
+	{
+		for ( final TIntDoubleOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				segment.transformValues( function );
+			}
+	}
+
+	/**
+	 * Removes the entries for which {@code procedure} returns {@code false}.
+	 * An entry is only removed if its value was not changed concurrently
+	 * since it was passed to {@code procedure}.
+	 */
+	@Override
+	public boolean retainEntries( final TIntDoubleProcedure procedure )
+	{
+		boolean modified = false;
+		for ( final EntryIterator it = new EntryIterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( !procedure.execute( it.key(), it.value() ) )
+				modified |= remove( it.key(), it.value() );
+		}
+		return modified;
+	}
+
+	@Override
+	public TIntDoubleIterator iterator()
+	{
+		return new EntryIterator();
+	}
+
+	@Override
+	public TIntSet keySet()
+	{
+		return new KeyView();
+	}
+
+	@Override
+	public TDoubleCollection valueCollection()
+	{
+		return new ValueView();
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( !( o instanceof TIntDoubleMap ) )
+			return false;
+		final TIntDoubleMap that = ( TIntDoubleMap ) o;
+		if ( that.size() != size() )
+			return false;
+		return forEachEntry( ( key, value ) -> that.containsKey( key ) && that.get( key ) == value );
+	}
+
+	/**
+	 * Consistent with {@link gnu.trove.map.hash.TIntDoubleHashMap#hashCode()}.
+	 */
+	@Override
+	public int hashCode()
+	{
+		final int[] hash = { 0 };
+		forEachEntry( ( key, value ) -> {
+			final long bits = Double.doubleToLongBits( value );
+			hash[ 0 ] += key ^ ( int ) ( bits ^ ( bits >>> 32 ) );
+			return true;
+		} );
+		return hash[ 0 ];
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder( "{" );
+		forEachEntry( ( key, value ) -> {
+			if ( sb.length() > 1 )
+				sb.append( ", " );
+			sb.append( key ).append( '=' ).append( value );
+			return true;
+		} );
+		return sb.append( '}' ).toString();
+	}
+
+	/**
+	 * Iterates over a copy of each segment, taken when the iterator reaches
+	 * the segment. Removal and {@link #setValue(double)} write through to the
+	 * map.
+	 */
+	private class EntryIterator implements TIntDoubleIterator
+	{
+		private int segment = -1;
+
+		private int[] keys = new int[ 0 ];
+
+		private double[] values = new double[ 0 ];
+
+		private int size;
+
+		private int pos;
+
+		private int key;
+
+		private double value;
+
+		private boolean hasCurrent;
+
+		@Override
+		public boolean hasNext()
+		{
+			while ( pos == size && segment < segments.length - 1 )
+				copySegment( ++segment );
+			return pos < size;
+		}
+
+		private void copySegment( final int i )
+		{
+			final TIntDoubleOpenHashMap s = segments[ i ];
+			synchronized ( s )
+			{
+				size = s.size();
+				if ( keys.length < size )
+				{
+					keys = new int[ size ];
+					values = new double[ size ];
+				}
+				final int[] k = keys;
+				final double[] v = values;
+				final int[] j = { 0 };
+				s.forEachEntry( ( key, value ) -> {
+					k[ j[ 0 ] ] = key;
+					v[ j[ 0 ]++ ] = value;
+					return true;
+				} );
+			}
+			pos = 0;
+		}
+
+		@Override
+		public void advance()
+		{
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+			key = keys[ pos ];
+			value = values[ pos ];
+			++pos;
+			hasCurrent = true;
+		}
+
+		@Override
+		public int key()
+		{
+			return key;
+		}
+
+		@Override
+		public double value()
+		{
+			return value;
+		}
+
+		@Override
+		public double setValue( final double val )
+		{
+			if ( !hasCurrent )
+				throw new IllegalStateException();
+			final double previous = put( key, val );
+			value = val;
+			return previous;
+		}
+
+		@Override
+		public void remove()
+		{
+			if ( !hasCurrent )
+				throw new IllegalStateException();
+			TIntDoubleConcurrentHashMap.this.remove( key );
+			hasCurrent = false;
+		}
+	}
+
+	private class KeyView extends AbstractTIntSet
+	{
+		@Override
+		public int getNoEntryValue()
+		{
+			return noEntryKey;
+		}
+
+		@Override
+		public int size()
+		{
+			return TIntDoubleConcurrentHashMap.this.size();
+		}
+
+		@Override
+		public boolean contains( final int key )
+		{
+			return containsKey( key );
+		}
+
+		@Override
+		public TIntIterator iterator()
+		{
+			final EntryIterator it = new EntryIterator();
+			return new TIntIterator()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public int next()
+				{
+					it.advance();
+					return it.key();
+				}
+
+				@Override
+				public void remove()
+				{
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public int[] toArray( final int[] dest )
+		{
+			return keys( dest );
+		}
+
+		@Override
+		public boolean forEach( final TIntProcedure procedure )
+		{
+			return forEachKey( procedure );
+		}
+
+		@Override
+		public boolean add( final int key )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean remove( final int key )
+		{
+			return removeKey( key );
+		}
+
+		@Override
+		public void clear()
+		{
+			TIntDoubleConcurrentHashMap.this.clear();
+		}
+	}
+
+	private class ValueView extends AbstractTDoubleCollection
+	{
+		@Override
+		public double getNoEntryValue()
+		{
+			return noEntryValue;
+		}
+
+		@Override
+		public int size()
+		{
+			return TIntDoubleConcurrentHashMap.this.size();
+		}
+
+		@Override
+		public boolean contains( final double value )
+		{
+			return containsValue( value );
+		}
+
+		@Override
+		public TDoubleIterator iterator()
+		{
+			final EntryIterator it = new EntryIterator();
+			return new TDoubleIterator()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public double next()
+				{
+					it.advance();
+					return it.value();
+				}
+
+				@Override
+				public void remove()
+				{
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public double[] toArray( final double[] dest )
+		{
+			return values( dest );
+		}
+
+		@Override
+		public boolean forEach( final TDoubleProcedure procedure )
+		{
+			return forEachValue( procedure );
+		}
+
+		@Override
+		public boolean add( final double value )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean remove( final double value )
+		{
+			for ( final EntryIterator it = new EntryIterator(); it.hasNext(); )
+			{
+				it.advance();
+				if ( it.value() == value && TIntDoubleConcurrentHashMap.this.remove( it.key(), value ) )
+					return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void clear()
+		{
+			TIntDoubleConcurrentHashMap.this.clear();
+		}
+	}
+}
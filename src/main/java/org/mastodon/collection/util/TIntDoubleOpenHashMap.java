@@ -0,0 +1,928 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.mastodon.collection.util.OpenHashing.DEFAULT_CAPACITY;
+import static org.mastodon.collection.util.OpenHashing.DEFAULT_LOAD_FACTOR;
+import static org.mastodon.collection.util.OpenHashing.canShift;
+import static org.mastodon.collection.util.OpenHashing.capacityFor;
+import static org.mastodon.collection.util.OpenHashing.checkLoadFactor;
+import static org.mastodon.collection.util.OpenHashing.maxFill;
+import static org.mastodon.collection.util.OpenHashing.mix;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import gnu.trove.TDoubleCollection;
+import gnu.trove.function.TDoubleFunction;
+import gnu.trove.iterator.TDoubleIterator;
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.procedure.TDoubleProcedure;
+import gnu.trove.procedure.TIntDoubleProcedure;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+
+/**
+ * An open-addressing {@link TIntDoubleMap} with linear probing.
+ * <p>
+ * Keys and the bits of values are interleaved in a single {@code long[]}, so
+ * that a lookup touches one cache line in the common case. Otherwise this
+ * works like {@link TIntIntOpenHashMap}: power-of-two capacity, backward-shift
+ * removal, and key {@code 0} stored outside the table.
+ * </p>
+ * <p>
+ * This is a drop-in replacement for
+ * {@link gnu.trove.map.hash.TIntDoubleHashMap}, with the same conventions for
+ * {@link #getNoEntryKey()} and {@link #getNoEntryValue()}. Iteration order is
+ * unspecified, but iterators, {@code forEach...} and {@code keys()}/
+ * {@code values()} agree on it. Removal through iterators and views is
+ * supported.
+ * </p>
+ */
+public class TIntDoubleOpenHashMap implements TIntDoubleMap
+{
+	private static final int FREE = 0;
+
+	private final float loadFactor;
+
+	private final int noEntryKey;
+
+	private final double noEntryValue;
+
+	/**
+	 * Key of slot {@code s} at {@code 2 * s}, raw bits of the value at
+	 * {@code 2 * s + 1}.
+	 */
+	private long[] table;
+
+	private int mask;
+
+	/**
+	 * Number of entries in {@link #table}.
+	 */
+	private int assigned;
+
+	private int maxFill;
+
+	private boolean hasFreeKey;
+
+	private double freeKeyValue;
+
+	public TIntDoubleOpenHashMap()
+	{
+		this( DEFAULT_CAPACITY );
+	}
+
+	public TIntDoubleOpenHashMap( final int initialCapacity )
+	{
+		this( initialCapacity, DEFAULT_LOAD_FACTOR );
+	}
+
+	public TIntDoubleOpenHashMap( final int initialCapacity, final float loadFactor )
+	{
+		this( initialCapacity, loadFactor, 0, 0 );
+	}
+
+	public TIntDoubleOpenHashMap( final int initialCapacity, final float loadFactor, final int noEntryKey, final double noEntryValue )
+	{
+		this.loadFactor = checkLoadFactor( loadFactor );
+		this.noEntryKey = noEntryKey;
+		this.noEntryValue = noEntryValue;
+		allocate( capacityFor( initialCapacity, loadFactor ) );
+	}
+
+	/**
+	 * Creates a copy of {@code map}.
+	 *
+	 * @param map
+	 *            the map to copy.
+	 */
+	public TIntDoubleOpenHashMap( final TIntDoubleOpenHashMap map )
+	{
+		loadFactor = map.loadFactor;
+		noEntryKey = map.noEntryKey;
+		noEntryValue = map.noEntryValue;
+		table = map.table.clone();
+		mask = map.mask;
+		assigned = map.assigned;
+		maxFill = map.maxFill;
+		hasFreeKey = map.hasFreeKey;
+		freeKeyValue = map.freeKeyValue;
+	}
+
+	private static double value( final long bits )
+	{
+		return Double.longBitsToDouble( bits );
+	}
+
+	private static long bits( final double value )
+	{
+		return Double.doubleToRawLongBits( value );
+	}
+
+	private void allocate( final int capacity )
+	{
+		table = new long[ 2 * capacity ];
+		mask = capacity - 1;
+		maxFill = maxFill( capacity, loadFactor );
+	}
+
+	/**
+	 * Ensure that {@code desiredCapacity} more entries can be added without
+	 * rehashing.
+	 *
+	 * @param desiredCapacity
+	 *            number of entries to be added.
+	 */
+	public void ensureCapacity( final int desiredCapacity )
+	{
+		if ( desiredCapacity > maxFill - assigned )
+			rehash( capacityFor( assigned + desiredCapacity, loadFactor ) );
+	}
+
+	private void rehash( final int capacity )
+	{
+		final long[] old = table;
+		allocate( capacity );
+		final long[] table = this.table;
+		final int mask = this.mask;
+		for ( int i = 0; i < old.length; i += 2 )
+		{
+			final int key = ( int ) old[ i ];
+			if ( key != FREE )
+			{
+				int s = mix( key ) & mask;
+				while ( table[ 2 * s ] != FREE )
+					s = ( s + 1 ) & mask;
+				table[ 2 * s ] = key;
+				table[ 2 * s + 1 ] = old[ i + 1 ];
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of {@code key}, or {@code -(free slot) - 1} if
+	 * {@code key} is not in the table. {@code key} must not be {@link #FREE}.
+	 */
+	private int probe( final int key )
+	{
+		final long[] table = this.table;
+		final int mask = this.mask;
+		int s = mix( key ) & mask;
+		while ( true )
+		{
+			final int k = ( int ) table[ 2 * s ];
+			if ( k == key )
+				return s;
+			if ( k == FREE )
+				return -s - 1;
+			s = ( s + 1 ) & mask;
+		}
+	}
+
+	private void insert( final int s, final int key, final double value )
+	{
+		table[ 2 * s ] = key;
+		table[ 2 * s + 1 ] = bits( value );
+		if ( ++assigned > maxFill )
+			rehash( 2 * ( mask + 1 ) );
+	}
+
+	/**
+	 * Remove the entry in slot {@code gap} and shift back subsequent entries
+	 * of the probe sequence.
+	 */
+	private void removeSlot( int gap )
+	{
+		final long[] table = this.table;
+		final int mask = this.mask;
+		int s = gap;
+		while ( true )
+		{
+			s = ( s + 1 ) & mask;
+			final int key = ( int ) table[ 2 * s ];
+			if ( key == FREE )
+				break;
+			if ( canShift( mix( key ) & mask, gap, s, mask ) )
+			{
+				table[ 2 * gap ] = key;
+				table[ 2 * gap + 1 ] = table[ 2 * s + 1 ];
+				gap = s;
+			}
+		}
+		table[ 2 * gap ] = FREE;
+		table[ 2 * gap + 1 ] = 0;
+		--assigned;
+	}
+
+	@Override
+	public int getNoEntryKey()
+	{
+		return noEntryKey;
+	}
+
+	@Override
+	public double getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		return hasFreeKey ? assigned + 1 : assigned;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	@Override
+	public boolean containsKey( final int key )
+	{
+		return key == FREE ? hasFreeKey : probe( key ) >= 0;
+	}
+
+	@Override
+	public boolean containsValue( final double value )
+	{
+		if ( hasFreeKey && freeKeyValue == value )
+			return true;
+		final long[] table = this.table;
+		for ( int i = 0; i < table.length; i += 2 )
+			if ( table[ i ] != FREE && value( table[ i + 1 ] ) == value )
+				return true;
+		return false;
+	}
+
+	@Override
+	public double get( final int key )
+	{
+		if ( key == FREE )
+			return hasFreeKey ? freeKeyValue : noEntryValue;
+		final long[] table = this.table;
+		final int mask = this.mask;
+		int s = mix( key ) & mask;
+		while ( true )
+		{
+			final int k = ( int ) table[ 2 * s ];
+			if ( k == key )
+				return value( table[ 2 * s + 1 ] );
+			if ( k == FREE )
+				return noEntryValue;
+			s = ( s + 1 ) & mask;
+		}
+	}
+
+	@Override
+	public double put( final int key, final double value )
+	{
+		if ( key == FREE )
+		{
+			final double previous = hasFreeKey ? freeKeyValue : noEntryValue;
+			hasFreeKey = true;
+			freeKeyValue = value;
+			return previous;
+		}
+		final int s = probe( key );
+		if ( s >= 0 )
+		{
+			final double previous = value( table[ 2 * s + 1 ] );
+			table[ 2 * s + 1 ] = bits( value );
+			return previous;
+		}
+		insert( -s - 1, key, value );
+		return noEntryValue;
+	}
+
+	@Override
+	public double putIfAbsent( final int key, final double value )
+	{
+		if ( key == FREE )
+		{
+			if ( hasFreeKey )
+				return freeKeyValue;
+			hasFreeKey = true;
+			freeKeyValue = value;
+			return noEntryValue;
+		}
+		final int s = probe( key );
+		if ( s >= 0 )
+			return value( table[ 2 * s + 1 ] );
+		insert( -s - 1, key, value );
+		return noEntryValue;
+	}
+
+	@Override
+	public void putAll( final Map< ? extends Integer, ? extends Double > map )
+	{
+		ensureCapacity( map.size() );
+		for ( final Map.Entry< ? extends Integer, ? extends Double > entry : map.entrySet() )
+			put( entry.getKey(), entry.getValue() );
+	}
+
+	@Override
+	public void putAll( final TIntDoubleMap map )
+	{
+		ensureCapacity( map.size() );
+		map.forEachEntry( ( key, value ) -> {
+			put( key, value );
+			return true;
+		} );
+	}
+
+	@Override
+	public double remove( final int key )
+	{
+		if ( key == FREE )
+		{
+			if ( !hasFreeKey )
+				return noEntryValue;
+			hasFreeKey = false;
+			return freeKeyValue;
+		}
+		final int s = probe( key );
+		if ( s < 0 )
+			return noEntryValue;
+		final double previous = value( table[ 2 * s + 1 ] );
+		removeSlot( s );
+		return previous;
+	}
+
+	private boolean removeKey( final int key )
+	{
+		if ( key == FREE )
+		{
+			final boolean had = hasFreeKey;
+			hasFreeKey = false;
+			return had;
+		}
+		final int s = probe( key );
+		if ( s < 0 )
+			return false;
+		removeSlot( s );
+		return true;
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill( table, 0 );
+		assigned = 0;
+		hasFreeKey = false;
+	}
+
+	@Override
+	public boolean increment( final int key )
+	{
+		return adjustValue( key, 1 );
+	}
+
+	@Override
+	public boolean adjustValue( final int key, final double amount )
+	{
+		if ( key == FREE )
+		{
+			if ( hasFreeKey )
+				freeKeyValue += amount;
+			return hasFreeKey;
+		}
+		final int s = probe( key );
+		if ( s < 0 )
+			return false;
+		table[ 2 * s + 1 ] = bits( value( table[ 2 * s + 1 ] ) + amount );
+		return true;
+	}
+
+	@Override
+	public double adjustOrPutValue( final int key, final double adjustAmount, final double putAmount )
+	{
+		if ( key == FREE )
+		{
+			freeKeyValue = hasFreeKey ? freeKeyValue + adjustAmount : putAmount;
+			hasFreeKey = true;
+			return freeKeyValue;
+		}
+		final int s = probe( key );
+		if ( s >= 0 )
+		{
+			final double value = value( table[ 2 * s + 1 ] ) + adjustAmount;
+			table[ 2 * s + 1 ] = bits( value );
+			return value;
+		}
+		insert( -s - 1, key, putAmount );
+		return putAmount;
+	}
+
+	@Override
+	public int[] keys()
+	{
+		return keys( new int[ size() ] );
+	}
+
+	@Override
+	public int[] keys( final int[] dest )
+	{
+		final int size = size();
+		final int[] array = dest.length >= size ? dest : new int[ size ];
+		int n = 0;
+		if ( hasFreeKey )
+			array[ n++ ] = FREE;
+		final long[] table = this.table;
+		for ( int i = table.length - 2; i >= 0; i -= 2 )
+			if ( table[ i ] != FREE )
+				array[ n++ ] = ( int ) table[ i ];
+		return array;
+	}
+
+	@Override
+	public double[] values()
+	{
+		return values( new double[ size() ] );
+	}
+
+	@Override
+	public double[] values( final double[] dest )
+	{
+		final int size = size();
+		final double[] array = dest.length >= size ? dest : new double[ size ];
+		int n = 0;
+		if ( hasFreeKey )
+			array[ n++ ] = freeKeyValue;
+		final long[] table = this.table;
+		for ( int i = table.length - 2; i >= 0; i -= 2 )
+			if ( table[ i ] != FREE )
+				array[ n++ ] = value( table[ i + 1 ] );
+		return array;
+	}
+
+	@Override
+	public boolean forEachKey( final TIntProcedure procedure )
+	{
+		if ( hasFreeKey && !procedure.execute( FREE ) )
+			return false;
+		final long[] table = this.table;
+		for ( int i = table.length - 2; i >= 0; i -= 2 )
+			if ( table[ i ] != FREE && !procedure.execute( ( int ) table[ i ] ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachValue( final TDoubleProcedure procedure )
+	{
+		if ( hasFreeKey && !procedure.execute( freeKeyValue ) )
+			return false;
+		final long[] table = this.table;
+		for ( int i = table.length - 2; i >= 0; i -= 2 )
+			if ( table[ i ] != FREE && !procedure.execute( value( table[ i + 1 ] ) ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TIntDoubleProcedure procedure )
+	{
+		if ( hasFreeKey && !procedure.execute( FREE, freeKeyValue ) )
+			return false;
+		final long[] table = this.table;
+		for ( int i = table.length - 2; i >= 0; i -= 2 )
+			if ( table[ i ] != FREE && !procedure.execute( ( int ) table[ i ], value( table[ i + 1 ] ) ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public void transformValues( final TDoubleFunction function )
+	{
+		if ( hasFreeKey )
+			freeKeyValue = function.execute( freeKeyValue );
+		final long[] table = this.table;
+		for ( int i = 0; i < table.length; i += 2 )
+			if ( table[ i ] != FREE )
+				table[ i + 1 ] = bits( function.execute( value( table[ i + 1 ] ) ) );
+	}
+
+	@Override
+	public boolean retainEntries( final TIntDoubleProcedure procedure )
+	{
+		boolean changed = false;
+		for ( final TIntDoubleIterator it = iterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( !procedure.execute( it.key(), it.value() ) )
+			{
+				it.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public TIntDoubleIterator iterator()
+	{
+		return new EntryIterator();
+	}
+
+	@Override
+	public TIntSet keySet()
+	{
+		return new KeyView();
+	}
+
+	@Override
+	public TDoubleCollection valueCollection()
+	{
+		return new ValueView();
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( !( o instanceof TIntDoubleMap ) )
+			return false;
+		final TIntDoubleMap that = ( TIntDoubleMap ) o;
+		if ( that.size() != size() )
+			return false;
+		return forEachEntry( ( key, value ) -> that.containsKey( key ) && that.get( key ) == value );
+	}
+
+	/**
+	 * Consistent with {@link gnu.trove.map.hash.TIntDoubleHashMap#hashCode()}.
+	 */
+	@Override
+	public int hashCode()
+	{
+		final int[] hash = { 0 };
+		forEachEntry( ( key, value ) -> {
+			final long bits = Double.doubleToLongBits( value );
+			hash[ 0 ] += key ^ ( int ) ( bits ^ ( bits >>> 32 ) );
+			return true;
+		} );
+		return hash[ 0 ];
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder( "{" );
+		forEachEntry( ( key, value ) -> {
+			if ( sb.length() > 1 )
+				sb.append( ", " );
+			sb.append( key ).append( '=' ).append( value );
+			return true;
+		} );
+		return sb.append( '}' ).toString();
+	}
+
+	/**
+	 * Visits entries in the same order as the iterator of
+	 * {@link TIntIntOpenHashMap}, and handles removal the same way.
+	 */
+	private class EntryIterator implements TIntDoubleIterator
+	{
+		private static final int NONE = -1;
+
+		private static final int FREE_KEY_SLOT = -2;
+
+		private static final int WRAPPED_SLOT = -3;
+
+		private int remaining = size();
+
+		private boolean freeKeyPending = hasFreeKey;
+
+		/**
+		 * Slots {@code >= pos} have been visited.
+		 */
+		private int pos = mask + 1;
+
+		/**
+		 * Slot of the current entry, or one of {@link #NONE},
+		 * {@link #FREE_KEY_SLOT}, {@link #WRAPPED_SLOT}.
+		 */
+		private int slot = NONE;
+
+		private int key;
+
+		private OpenHashing.KeyList wrapped;
+
+		@Override
+		public boolean hasNext()
+		{
+			return remaining > 0;
+		}
+
+		@Override
+		public void advance()
+		{
+			if ( remaining <= 0 )
+				throw new NoSuchElementException();
+			--remaining;
+			if ( freeKeyPending )
+			{
+				freeKeyPending = false;
+				slot = FREE_KEY_SLOT;
+				key = FREE;
+				return;
+			}
+			final long[] table = TIntDoubleOpenHashMap.this.table;
+			while ( pos > 0 )
+			{
+				final int k = ( int ) table[ 2 * --pos ];
+				if ( k != FREE )
+				{
+					slot = pos;
+					key = k;
+					return;
+				}
+			}
+			slot = WRAPPED_SLOT;
+			key = wrapped.next();
+		}
+
+		@Override
+		public int key()
+		{
+			return key;
+		}
+
+		@Override
+		public double value()
+		{
+			if ( slot >= 0 )
+				return TIntDoubleOpenHashMap.value( table[ 2 * slot + 1 ] );
+			else if ( slot == FREE_KEY_SLOT )
+				return freeKeyValue;
+			else
+				return get( key );
+		}
+
+		@Override
+		public double setValue( final double value )
+		{
+			if ( slot >= 0 )
+			{
+				final double previous = TIntDoubleOpenHashMap.value( table[ 2 * slot + 1 ] );
+				table[ 2 * slot + 1 ] = bits( value );
+				return previous;
+			}
+			else if ( slot == FREE_KEY_SLOT )
+			{
+				final double previous = freeKeyValue;
+				freeKeyValue = value;
+				return previous;
+			}
+			else
+				return put( key, value );
+		}
+
+		@Override
+		public void remove()
+		{
+			if ( slot == NONE )
+				throw new IllegalStateException();
+			if ( slot >= 0 )
+				removeVisitedSlot( slot );
+			else
+				removeKey( key );
+			slot = NONE;
+		}
+
+		/**
+		 * Like {@link TIntDoubleOpenHashMap#removeSlot(int)}, but remembers
+		 * entries that are moved from unvisited to visited slots.
+		 */
+		private void removeVisitedSlot( int gap )
+		{
+			final long[] table = TIntDoubleOpenHashMap.this.table;
+			final int mask = TIntDoubleOpenHashMap.this.mask;
+			int s = gap;
+			while ( true )
+			{
+				s = ( s + 1 ) & mask;
+				final int k = ( int ) table[ 2 * s ];
+				if ( k == FREE )
+					break;
+				if ( canShift( mix( k ) & mask, gap, s, mask ) )
+				{
+					if ( s < pos && gap >= pos )
+					{
+						if ( wrapped == null )
+							wrapped = new OpenHashing.KeyList();
+						wrapped.add( k );
+					}
+					table[ 2 * gap ] = k;
+					table[ 2 * gap + 1 ] = table[ 2 * s + 1 ];
+					gap = s;
+				}
+			}
+			table[ 2 * gap ] = FREE;
+			table[ 2 * gap + 1 ] = 0;
+			--assigned;
+		}
+	}
+
+	/**
+	 * View of the keys of this map. Removal is supported.
+	 */
+	protected class KeyView extends AbstractTIntSet
+	{
+		@Override
+		public int getNoEntryValue()
+		{
+			return noEntryKey;
+		}
+
+		@Override
+		public int size()
+		{
+			return TIntDoubleOpenHashMap.this.size();
+		}
+
+		@Override
+		public boolean contains( final int key )
+		{
+			return containsKey( key );
+		}
+
+		@Override
+		public TIntIterator iterator()
+		{
+			final TIntDoubleIterator it = TIntDoubleOpenHashMap.this.iterator();
+			return new TIntIterator()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public int next()
+				{
+					it.advance();
+					return it.key();
+				}
+
+				@Override
+				public void remove()
+				{
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public int[] toArray( final int[] dest )
+		{
+			return keys( dest );
+		}
+
+		@Override
+		public boolean forEach( final TIntProcedure procedure )
+		{
+			return forEachKey( procedure );
+		}
+
+		@Override
+		public boolean add( final int key )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean remove( final int key )
+		{
+			return removeKey( key );
+		}
+
+		@Override
+		public void clear()
+		{
+			TIntDoubleOpenHashMap.this.clear();
+		}
+	}
+
+	/**
+	 * View of the values of this map. Removal is supported.
+	 */
+	protected class ValueView extends AbstractTDoubleCollection
+	{
+		@Override
+		public double getNoEntryValue()
+		{
+			return noEntryValue;
+		}
+
+		@Override
+		public int size()
+		{
+			return TIntDoubleOpenHashMap.this.size();
+		}
+
+		@Override
+		public boolean contains( final double value )
+		{
+			return containsValue( value );
+		}
+
+		@Override
+		public TDoubleIterator iterator()
+		{
+			final TIntDoubleIterator it = TIntDoubleOpenHashMap.this.iterator();
+			return new TDoubleIterator()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public double next()
+				{
+					it.advance();
+					return it.value();
+				}
+
+				@Override
+				public void remove()
+				{
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public double[] toArray( final double[] dest )
+		{
+			return values( dest );
+		}
+
+		@Override
+		public boolean forEach( final TDoubleProcedure procedure )
+		{
+			return forEachValue( procedure );
+		}
+
+		@Override
+		public boolean add( final double value )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean remove( final double value )
+		{
+			for ( final TDoubleIterator it = iterator(); it.hasNext(); )
+			{
+				if ( it.next() == value )
+				{
+					it.remove();
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void clear()
+		{
+			TIntDoubleOpenHashMap.this.clear();
+		}
+	}
+}
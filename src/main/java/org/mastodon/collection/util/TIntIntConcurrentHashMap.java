@@ -0,0 +1,940 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.mastodon.collection.util.OpenHashing.DEFAULT_CAPACITY;
+import static org.mastodon.collection.util.OpenHashing.DEFAULT_LOAD_FACTOR;
+import static org.mastodon.collection.util.OpenHashing.mix;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.function.TIntFunction;
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.procedure.TIntIntProcedure;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+
+/**
+ * A thread-safe {@link TIntIntMap} with lock striping.
+ * <p>
+ * Keys are distributed over a power-of-two number of segments by the high
+ * bits of their hash. Each segment is a {@link TIntIntOpenHashMap} guarded by
+ * its own lock, so threads that work on different segments do not contend.
+ * All single-key operations are atomic, in particular
+ * {@link #putIfAbsent(int, int)}, {@link #adjustOrPutValue(int, int, int)},
+ * {@link #remove(int, int)}, {@link #replace(int, int, int)},
+ * {@link #replace(int, int)}, {@link #computeIfAbsent(int, IntUnaryOperator)},
+ * {@link #computeIfPresent(int, IntBinaryOperator)},
+ * {@link #compute(int, IntBinaryOperator)}, and
+ * {@link #merge(int, int, IntBinaryOperator)}.
+ * </p>
+ * <p>
+ * Iterators, views, and bulk operations are weakly consistent. They visit the
+ * segments one after the other, see each segment as it was when they reached
+ * it, and never throw {@link java.util.ConcurrentModificationException}.
+ * Procedures and functions passed to bulk operations are called without
+ * holding a lock, except for {@link #transformValues(TIntFunction)}.
+ * {@link #size()} sums the segment sizes, and may be outdated under
+ * concurrent modification.
+ * </p>
+ */
+public class TIntIntConcurrentHashMap implements TIntIntMap
+{
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private final int noEntryKey;
+
+	private final int noEntryValue;
+
+	private final TIntIntOpenHashMap[] segments;
+
+	private final int segmentShift;
+
+	private final int segmentMask;
+
+	public TIntIntConcurrentHashMap()
+	{
+		this( DEFAULT_CAPACITY );
+	}
+
+	public TIntIntConcurrentHashMap( final int initialCapacity )
+	{
+		this( initialCapacity, 0, 0 );
+	}
+
+	public TIntIntConcurrentHashMap( final int initialCapacity, final int noEntryKey, final int noEntryValue )
+	{
+		this( initialCapacity, noEntryKey, noEntryValue, DEFAULT_CONCURRENCY_LEVEL );
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            the number of entries that can be stored without rehashing.
+	 * @param noEntryKey
+	 *            the key that represents null.
+	 * @param noEntryValue
+	 *            the value that represents null.
+	 * @param concurrencyLevel
+	 *            the expected number of concurrently modifying threads. The
+	 *            number of segments is the next power of two.
+	 */
+	public TIntIntConcurrentHashMap( final int initialCapacity, final int noEntryKey, final int noEntryValue, final int concurrencyLevel )
+	{
+		if ( concurrencyLevel < 1 || concurrencyLevel > 1 << 16 )
+			throw new IllegalArgumentException( "concurrency level must be in [1, 65536]: " + concurrencyLevel );
+		this.noEntryKey = noEntryKey;
+		this.noEntryValue = noEntryValue;
+		final int numSegments = Integer.highestOneBit( 2 * concurrencyLevel - 1 );
+		segmentShift = 32 - Integer.numberOfTrailingZeros( numSegments );
+		segmentMask = numSegments - 1;
+		segments = new TIntIntOpenHashMap[ numSegments ];
+		final int segmentCapacity = ( initialCapacity + numSegments - 1 ) / numSegments;
+		for ( int i = 0; i < numSegments; ++i )
+			segments[ i ] = new TIntIntOpenHashMap( segmentCapacity, DEFAULT_LOAD_FACTOR, noEntryKey, noEntryValue );
+	}
+
+	/**
+	 * The segment holding {@code key}. The high bits of the hash select the
+	 * segment, the low bits the slot within the segment.
+	 */
+	private TIntIntOpenHashMap segmentFor( final int key )
+	{
+		return segments[ ( mix( key ) >>> segmentShift ) & segmentMask ];
+	}
+
+	@Override
+	public int getNoEntryKey()
+	{
+		return noEntryKey;
+	}
+
+	@Override
+	public int getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		int size = 0;
+		for ( final TIntIntOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				size += segment.size();
+			}
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		for ( final TIntIntOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				if ( !segment.isEmpty() )
+					return false;
+			}
+		return true;
+	}
+
+	@Override
+	public boolean containsKey( final int key )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.containsKey( key );
+		}
+	}
+
+	@Override
+	public boolean containsValue( final int value )
+	{
+		for ( final TIntIntOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				if ( segment.containsValue( value ) )
+					return true;
+			}
+		return false;
+	}
+
+	@Override
+	public int get( final int key )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.get( key );
+		}
+	}
+
+	@Override
+	public int put( final int key, final int value )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.put( key, value );
+		}
+	}
+
+	@Override
+	public int putIfAbsent( final int key, final int value )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.putIfAbsent( key, value );
+		}
+	}
+
+	@Override
+	public void putAll( final Map< ? extends Integer, ? extends Integer > map )
+	{
+		for ( final Map.Entry< ? extends Integer, ? extends Integer > entry : map.entrySet() )
+			put( entry.getKey(), entry.getValue() );
+	}
+
+	@Override
+	public void putAll( final TIntIntMap map )
+	{
+		map.forEachEntry( ( key, value ) -> {
+			put( key, value );
+			return true;
+		} );
+	}
+
+	@Override
+	public int remove( final int key )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.remove( key );
+		}
+	}
+
+	/**
+	 * Removes the entry for {@code key} only if it is mapped to
+	 * {@code value}.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value expected to be associated with {@code key}.
+	 * @return whether the entry was removed.
+	 */
+	public boolean remove( final int key, final int value )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			if ( segment.containsKey( key ) && segment.get( key ) == value )
+			{
+				segment.remove( key );
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the entry for {@code key}.
+	 *
+	 * @return whether there was an entry for {@code key}.
+	 */
+	private boolean removeKey( final int key )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			if ( segment.containsKey( key ) )
+			{
+				segment.remove( key );
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces the value for {@code key} only if it is currently mapped to
+	 * {@code expectedValue}.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param expectedValue
+	 *            the value expected to be associated with {@code key}.
+	 * @param newValue
+	 *            the value to associate with {@code key}.
+	 * @return whether the value was replaced.
+	 */
+	public boolean replace( final int key, final int expectedValue, final int newValue )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			if ( segment.containsKey( key ) && segment.get( key ) == expectedValue )
+			{
+				segment.put( key, newValue );
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the value for {@code key}, computing and inserting it if there
+	 * is none. If {@code mappingFunction} returns the no-entry value, no entry
+	 * is inserted.
+	 * <p>
+	 * {@code mappingFunction} is called at most once per absent key, while
+	 * holding the lock of the segment, so it must be short and must not access
+	 * this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param mappingFunction
+	 *            computes the value for {@code key}.
+	 * @return the current (existing or computed) value for {@code key}.
+	 */
+	public int computeIfAbsent( final int key, final IntUnaryOperator mappingFunction )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			if ( segment.containsKey( key ) )
+				return segment.get( key );
+			final int value = mappingFunction.applyAsInt( key );
+			if ( value != noEntryValue )
+				segment.put( key, value );
+			return value;
+		}
+	}
+
+	/**
+	 * Associates {@code value} with {@code key} if there is no entry for
+	 * {@code key}. Otherwise, replaces the current value by the result of
+	 * {@code remappingFunction} applied to the current value and
+	 * {@code value}.
+	 * <p>
+	 * {@code remappingFunction} is called while holding the lock of the
+	 * segment, so it must be short and must not access this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value to merge.
+	 * @param remappingFunction
+	 *            combines the current value and {@code value}.
+	 * @return the new value for {@code key}.
+	 */
+	public int merge( final int key, final int value, final IntBinaryOperator remappingFunction )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			final int newValue = segment.containsKey( key )
+					? remappingFunction.applyAsInt( segment.get( key ), value )
+					: value;
+			segment.put( key, newValue );
+			return newValue;
+		}
+	}
+
+	/**
+	 * Replaces the value for {@code key} only if there is an entry for
+	 * {@code key}.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value to associate with {@code key}.
+	 * @return the previous value for {@code key}, or the no-entry value if
+	 *         there was none.
+	 */
+	public int replace( final int key, final int value )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.containsKey( key )
+					? segment.put( key, value )
+					: noEntryValue;
+		}
+	}
+
+	/**
+	 * Computes a new value for {@code key} from {@code key} and its current
+	 * value, or the no-entry value if there is none. If
+	 * {@code remappingFunction} returns the no-entry value, the entry is
+	 * removed (or not inserted).
+	 * <p>
+	 * {@code remappingFunction} is called while holding the lock of the
+	 * segment, so it must be short and must not access this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param remappingFunction
+	 *            computes the new value from {@code key} and the current
+	 *            value.
+	 * @return the new value for {@code key}.
+	 */
+	public int compute( final int key, final IntBinaryOperator remappingFunction )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			final int newValue = remappingFunction.applyAsInt( key, segment.get( key ) );
+			if ( newValue != noEntryValue )
+				segment.put( key, newValue );
+			else
+				segment.remove( key );
+			return newValue;
+		}
+	}
+
+	/**
+	 * Computes a new value for {@code key} from {@code key} and its current
+	 * value, if there is an entry for {@code key}. If
+	 * {@code remappingFunction} returns the no-entry value, the entry is
+	 * removed.
+	 * <p>
+	 * {@code remappingFunction} is called while holding the lock of the
+	 * segment, so it must be short and must not access this map.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param remappingFunction
+	 *            computes the new value from {@code key} and the current
+	 *            value.
+	 * @return the new value for {@code key}, or the no-entry value if there is
+	 *         none.
+	 */
+	public int computeIfPresent( final int key, final IntBinaryOperator remappingFunction )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			if ( !segment.containsKey( key ) )
+				return noEntryValue;
+			final int newValue = remappingFunction.applyAsInt( key, segment.get( key ) );
+			if ( newValue != noEntryValue )
+				segment.put( key, newValue );
+			else
+				segment.remove( key );
+			return newValue;
+		}
+	}
+
+	@Override
+	public void clear()
+	{
+		for ( final TIntIntOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				segment.clear();
+			}
+	}
+
+	/**
+	 * Ensures that this map has sufficient capacity to hold
+	 * {@code desiredCapacity} <em>additional</em> mappings without rehashing,
+	 * assuming keys are spread evenly over segments.
+	 *
+	 * @param desiredCapacity
+	 *            the number of additional mappings.
+	 */
+	public void ensureCapacity( final int desiredCapacity )
+	{
+		final int segmentCapacity = ( desiredCapacity + segments.length - 1 ) / segments.length;
+		for ( final TIntIntOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				segment.ensureCapacity( segmentCapacity );
+			}
+	}
+
+	@Override
+	public boolean increment( final int key )
+	{
+		return adjustValue( key, 1 );
+	}
+
+	@Override
+	public boolean adjustValue( final int key, final int amount )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.adjustValue( key, amount );
+		}
+	}
+
+	@Override
+	public int adjustOrPutValue( final int key, final int adjustAmount, final int putAmount )
+	{
+		final TIntIntOpenHashMap segment = segmentFor( key );
+		synchronized ( segment )
+		{
+			return segment.adjustOrPutValue( key, adjustAmount, putAmount );
+		}
+	}
+
+	@Override
+	public int[] keys()
+	{
+		return keys( new int[ 0 ] );
+	}
+
+	@Override
+	public int[] keys( final int[] dest )
+	{
+		final TIntArrayList list = new TIntArrayList();
+		forEachKey( list::add );
+		return copyTo( list, dest );
+	}
+
+	@Override
+	public int[] values()
+	{
+		return values( new int[ 0 ] );
+	}
+
+	@Override
+	public int[] values( final int[] dest )
+	{
+		final TIntArrayList list = new TIntArrayList();
+		forEachValue( list::add );
+		return copyTo( list, dest );
+	}
+
+	private static int[] copyTo( final TIntArrayList list, final int[] dest )
+	{
+		final int size = list.size();
+		if ( dest.length < size )
+			return list.toArray();
+		list.toArray( dest, 0, size );
+		return dest;
+	}
+
+	@Override
+	public boolean forEachKey( final TIntProcedure procedure )
+	{
+		for ( final EntryIterator it = new EntryIterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( !procedure.execute( it.key() ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean forEachValue( final TIntProcedure procedure )
+	{
+		for ( final EntryIterator it = new EntryIterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( !procedure.execute( it.value() ) )
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TIntIntProcedure procedure )
+	{
+		for ( final EntryIterator it = new EntryIterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( !procedure.execute( it.key(), it.value() ) )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Transforms the values of each segment while holding its lock, so
+	 * {@code function} must not access this map.
+	 */
+	@Override
+	public void transformValues( final TIntFunction function )
+	{
+		for ( final TIntIntOpenHashMap segment : segments )
+			synchronized ( segment )
+			{
+				segment.transformValues( function );
+			}
+	}
+
+	/**
+	 * Removes the entries for which {@code procedure} returns {@code false}.
+	 * An entry is only removed if its value was not changed concurrently
+	 * since it was passed to {@code procedure}.
+	 */
+	@Override
+	public boolean retainEntries( final TIntIntProcedure procedure )
+	{
+		boolean modified = false;
+		for ( final EntryIterator it = new EntryIterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( !procedure.execute( it.key(), it.value() ) )
+				modified |= remove( it.key(), it.value() );
+		}
+		return modified;
+	}
+
+	@Override
+	public TIntIntIterator iterator()
+	{
+		return new EntryIterator();
+	}
+
+	@Override
+	public TIntSet keySet()
+	{
+		return new KeyView();
+	}
+
+	@Override
+	public TIntCollection valueCollection()
+	{
+		return new ValueView();
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( !( o instanceof TIntIntMap ) )
+			return false;
+		final TIntIntMap that = ( TIntIntMap ) o;
+		if ( that.size() != size() )
+			return false;
+		return forEachEntry( ( key, value ) -> that.containsKey( key ) && that.get( key ) == value );
+	}
+
+	/**
+	 * Consistent with {@link gnu.trove.map.hash.TIntIntHashMap#hashCode()}.
+	 */
+	@Override
+	public int hashCode()
+	{
+		final int[] hash = { 0 };
+		forEachEntry( ( key, value ) -> {
+			hash[ 0 ] += key ^ value;
+			return true;
+		} );
+		return hash[ 0 ];
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder( "{" );
+		forEachEntry( ( key, value ) -> {
+			if ( sb.length() > 1 )
+				sb.append( ", " );
+			sb.append( key ).append( '=' ).append( value );
+			return true;
+		} );
+		return sb.append( '}' ).toString();
+	}
+
+	/**
+	 * Iterates over a copy of each segment, taken when the iterator reaches
+	 * the segment. Removal and {@link #setValue(int)} write through to the
+	 * map.
+	 */
+	private class EntryIterator implements TIntIntIterator
+	{
+		private int segment = -1;
+
+		private int[] keys = new int[ 0 ];
+
+		private int[] values = new int[ 0 ];
+
+		private int size;
+
+		private int pos;
+
+		private int key;
+
+		private int value;
+
+		private boolean hasCurrent;
+
+		@Override
+		public boolean hasNext()
+		{
+			while ( pos == size && segment < segments.length - 1 )
+				copySegment( ++segment );
+			return pos < size;
+		}
+
+		private void copySegment( final int i )
+		{
+			final TIntIntOpenHashMap s = segments[ i ];
+			synchronized ( s )
+			{
+				size = s.size();
+				if ( keys.length < size )
+				{
+					keys = new int[ size ];
+					values = new int[ size ];
+				}
+				final int[] k = keys;
+				final int[] v = values;
+				final int[] j = { 0 };
+				s.forEachEntry( ( key, value ) -> {
+					k[ j[ 0 ] ] = key;
+					v[ j[ 0 ]++ ] = value;
+					return true;
+				} );
+			}
+			pos = 0;
+		}
+
+		@Override
+		public void advance()
+		{
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+			key = keys[ pos ];
+			value = values[ pos ];
+			++pos;
+			hasCurrent = true;
+		}
+
+		@Override
+		public int key()
+		{
+			return key;
+		}
+
+		@Override
+		public int value()
+		{
+			return value;
+		}
+
+		@Override
+		public int setValue( final int val )
+		{
+			if ( !hasCurrent )
+				throw new IllegalStateException();
+			final int previous = put( key, val );
+			value = val;
+			return previous;
+		}
+
+		@Override
+		public void remove()
+		{
+			if ( !hasCurrent )
+				throw new IllegalStateException();
+			TIntIntConcurrentHashMap.this.remove( key );
+			hasCurrent = false;
+		}
+	}
+
+	private class KeyView extends AbstractTIntSet
+	{
+		@Override
+		public int getNoEntryValue()
+		{
+			return noEntryKey;
+		}
+
+		@Override
+		public int size()
+		{
+			return TIntIntConcurrentHashMap.this.size();
+		}
+
+		@Override
+		public boolean contains( final int key )
+		{
+			return containsKey( key );
+		}
+
+		@Override
+		public TIntIterator iterator()
+		{
+			final EntryIterator it = new EntryIterator();
+			return new TIntIterator()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public int next()
+				{
+					it.advance();
+					return it.key();
+				}
+
+				@Override
+				public void remove()
+				{
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public int[] toArray( final int[] dest )
+		{
+			return keys( dest );
+		}
+
+		@Override
+		public boolean forEach( final TIntProcedure procedure )
+		{
+			return forEachKey( procedure );
+		}
+
+		@Override
+		public boolean add( final int key )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean remove( final int key )
+		{
+			return removeKey( key );
+		}
+
+		@Override
+		public void clear()
+		{
+			TIntIntConcurrentHashMap.this.clear();
+		}
+	}
+
+	private class ValueView extends AbstractTIntCollection
+	{
+		@Override
+		public int getNoEntryValue()
+		{
+			return noEntryValue;
+		}
+
+		@Override
+		public int size()
+		{
+			return TIntIntConcurrentHashMap.this.size();
+		}
+
+		@Override
+		public boolean contains( final int value )
+		{
+			return containsValue( value );
+		}
+
+		@Override
+		public TIntIterator iterator()
+		{
+			final EntryIterator it = new EntryIterator();
+			return new TIntIterator()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public int next()
+				{
+					it.advance();
+					return it.value();
+				}
+
+				@Override
+				public void remove()
+				{
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public int[] toArray( final int[] dest )
+		{
+			return values( dest );
+		}
+
+		@Override
+		public boolean forEach( final TIntProcedure procedure )
+		{
+			return forEachValue( procedure );
+		}
+
+		@Override
+		public boolean add( final int value )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean remove( final int value )
+		{
+			for ( final EntryIterator it = new EntryIterator(); it.hasNext(); )
+			{
+				it.advance();
+				if ( it.value() == value && TIntIntConcurrentHashMap.this.remove( it.key(), value ) )
+					return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void clear()
+		{
+			TIntIntConcurrentHashMap.this.clear();
+		}
+	}
+}
@@ -0,0 +1,423 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.mastodon.collection.util.OpenHashing.DEFAULT_CAPACITY;
+import static org.mastodon.collection.util.OpenHashing.DEFAULT_LOAD_FACTOR;
+import static org.mastodon.collection.util.OpenHashing.canShift;
+import static org.mastodon.collection.util.OpenHashing.capacityFor;
+import static org.mastodon.collection.util.OpenHashing.checkLoadFactor;
+import static org.mastodon.collection.util.OpenHashing.maxFill;
+import static org.mastodon.collection.util.OpenHashing.mix;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+
+/**
+ * An open-addressing {@link TIntSet} with linear probing.
+ * <p>
+ * Works like {@link TIntIntOpenHashMap} without values: power-of-two
+ * capacity, backward-shift removal, and element {@code 0} stored outside the
+ * table. This is a drop-in replacement for
+ * {@link gnu.trove.set.hash.TIntHashSet}. Iteration order is unspecified,
+ * but {@link #iterator()}, {@link #forEach} and {@link #toArray()} agree on it.
+ * </p>
+ */
+public class TIntOpenHashSet extends AbstractTIntSet
+{
+	private static final int FREE = 0;
+
+	private final float loadFactor;
+
+	private final int noEntryValue;
+
+	private int[] table;
+
+	private int mask;
+
+	/**
+	 * Number of elements in {@link #table}.
+	 */
+	private int assigned;
+
+	private int maxFill;
+
+	private boolean hasFreeKey;
+
+	public TIntOpenHashSet()
+	{
+		this( DEFAULT_CAPACITY );
+	}
+
+	public TIntOpenHashSet( final int initialCapacity )
+	{
+		this( initialCapacity, DEFAULT_LOAD_FACTOR );
+	}
+
+	public TIntOpenHashSet( final int initialCapacity, final float loadFactor )
+	{
+		this( initialCapacity, loadFactor, 0 );
+	}
+
+	public TIntOpenHashSet( final int initialCapacity, final float loadFactor, final int noEntryValue )
+	{
+		this.loadFactor = checkLoadFactor( loadFactor );
+		this.noEntryValue = noEntryValue;
+		allocate( capacityFor( initialCapacity, loadFactor ) );
+	}
+
+	/**
+	 * Creates a set containing the elements of {@code collection}.
+	 *
+	 * @param collection
+	 *            the elements to add.
+	 */
+	public TIntOpenHashSet( final TIntCollection collection )
+	{
+		this( collection.size() );
+		addAll( collection );
+	}
+
+	/**
+	 * Creates a copy of {@code set}.
+	 *
+	 * @param set
+	 *            the set to copy.
+	 */
+	public TIntOpenHashSet( final TIntOpenHashSet set )
+	{
+		loadFactor = set.loadFactor;
+		noEntryValue = set.noEntryValue;
+		table = set.table.clone();
+		mask = set.mask;
+		assigned = set.assigned;
+		maxFill = set.maxFill;
+		hasFreeKey = set.hasFreeKey;
+	}
+
+	private void allocate( final int capacity )
+	{
+		table = new int[ capacity ];
+		mask = capacity - 1;
+		maxFill = maxFill( capacity, loadFactor );
+	}
+
+	/**
+	 * Ensure that {@code desiredCapacity} more elements can be added without
+	 * rehashing.
+	 *
+	 * @param desiredCapacity
+	 *            number of elements to be added.
+	 */
+	public void ensureCapacity( final int desiredCapacity )
+	{
+		if ( desiredCapacity > maxFill - assigned )
+			rehash( capacityFor( assigned + desiredCapacity, loadFactor ) );
+	}
+
+	private void rehash( final int capacity )
+	{
+		final int[] old = table;
+		allocate( capacity );
+		final int[] table = this.table;
+		final int mask = this.mask;
+		for ( final int key : old )
+		{
+			if ( key != FREE )
+			{
+				int s = mix( key ) & mask;
+				while ( table[ s ] != FREE )
+					s = ( s + 1 ) & mask;
+				table[ s ] = key;
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of {@code key}, or {@code -(free slot) - 1} if
+	 * {@code key} is not in the table. {@code key} must not be {@link #FREE}.
+	 */
+	private int probe( final int key )
+	{
+		final int[] table = this.table;
+		final int mask = this.mask;
+		int s = mix( key ) & mask;
+		while ( true )
+		{
+			final int k = table[ s ];
+			if ( k == key )
+				return s;
+			if ( k == FREE )
+				return -s - 1;
+			s = ( s + 1 ) & mask;
+		}
+	}
+
+	/**
+	 * Remove the element in slot {@code gap} and shift back subsequent
+	 * elements of the probe sequence.
+	 */
+	private void removeSlot( int gap )
+	{
+		final int[] table = this.table;
+		final int mask = this.mask;
+		int s = gap;
+		while ( true )
+		{
+			s = ( s + 1 ) & mask;
+			final int key = table[ s ];
+			if ( key == FREE )
+				break;
+			if ( canShift( mix( key ) & mask, gap, s, mask ) )
+			{
+				table[ gap ] = key;
+				gap = s;
+			}
+		}
+		table[ gap ] = FREE;
+		--assigned;
+	}
+
+	@Override
+	public int getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		return hasFreeKey ? assigned + 1 : assigned;
+	}
+
+	@Override
+	public boolean contains( final int value )
+	{
+		if ( value == FREE )
+			return hasFreeKey;
+		final int[] table = this.table;
+		final int mask = this.mask;
+		int s = mix( value ) & mask;
+		while ( true )
+		{
+			final int k = table[ s ];
+			if ( k == value )
+				return true;
+			if ( k == FREE )
+				return false;
+			s = ( s + 1 ) & mask;
+		}
+	}
+
+	@Override
+	public boolean add( final int value )
+	{
+		if ( value == FREE )
+		{
+			final boolean added = !hasFreeKey;
+			hasFreeKey = true;
+			return added;
+		}
+		final int s = probe( value );
+		if ( s >= 0 )
+			return false;
+		table[ -s - 1 ] = value;
+		if ( ++assigned > maxFill )
+			rehash( 2 * ( mask + 1 ) );
+		return true;
+	}
+
+	@Override
+	public boolean remove( final int value )
+	{
+		if ( value == FREE )
+		{
+			final boolean removed = hasFreeKey;
+			hasFreeKey = false;
+			return removed;
+		}
+		final int s = probe( value );
+		if ( s < 0 )
+			return false;
+		removeSlot( s );
+		return true;
+	}
+
+	@Override
+	public boolean addAll( final TIntCollection collection )
+	{
+		ensureCapacity( collection.size() );
+		return super.addAll( collection );
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill( table, 0 );
+		assigned = 0;
+		hasFreeKey = false;
+	}
+
+	@Override
+	public int[] toArray( final int[] dest )
+	{
+		final int size = size();
+		final int[] array = dest.length >= size ? dest : new int[ size ];
+		int n = 0;
+		if ( hasFreeKey )
+			array[ n++ ] = FREE;
+		final int[] table = this.table;
+		for ( int i = table.length - 1; i >= 0; --i )
+			if ( table[ i ] != FREE )
+				array[ n++ ] = table[ i ];
+		if ( array.length > size )
+			array[ size ] = noEntryValue;
+		return array;
+	}
+
+	@Override
+	public boolean forEach( final TIntProcedure procedure )
+	{
+		if ( hasFreeKey && !procedure.execute( FREE ) )
+			return false;
+		final int[] table = this.table;
+		for ( int i = table.length - 1; i >= 0; --i )
+			if ( table[ i ] != FREE && !procedure.execute( table[ i ] ) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Visits elements in the same order as the iterator of
+	 * {@link TIntIntOpenHashMap}, and handles removal the same way.
+	 */
+	@Override
+	public TIntIterator iterator()
+	{
+		return new TIntIterator()
+		{
+			private static final int NONE = -1;
+
+			private static final int FREE_KEY_SLOT = -2;
+
+			private static final int WRAPPED_SLOT = -3;
+
+			private int remaining = size();
+
+			private boolean freeKeyPending = hasFreeKey;
+
+			/**
+			 * Slots {@code >= pos} have been visited.
+			 */
+			private int pos = mask + 1;
+
+			private int slot = NONE;
+
+			private int key;
+
+			private OpenHashing.KeyList wrapped;
+
+			@Override
+			public boolean hasNext()
+			{
+				return remaining > 0;
+			}
+
+			@Override
+			public int next()
+			{
+				if ( remaining <= 0 )
+					throw new NoSuchElementException();
+				--remaining;
+				if ( freeKeyPending )
+				{
+					freeKeyPending = false;
+					slot = FREE_KEY_SLOT;
+					return key = FREE;
+				}
+				final int[] table = TIntOpenHashSet.this.table;
+				while ( pos > 0 )
+				{
+					final int k = table[ --pos ];
+					if ( k != FREE )
+					{
+						slot = pos;
+						return key = k;
+					}
+				}
+				slot = WRAPPED_SLOT;
+				return key = wrapped.next();
+			}
+
+			@Override
+			public void remove()
+			{
+				if ( slot == NONE )
+					throw new IllegalStateException();
+				if ( slot >= 0 )
+					removeVisitedSlot( slot );
+				else
+					TIntOpenHashSet.this.remove( key );
+				slot = NONE;
+			}
+
+			private void removeVisitedSlot( int gap )
+			{
+				final int[] table = TIntOpenHashSet.this.table;
+				final int mask = TIntOpenHashSet.this.mask;
+				int s = gap;
+				while ( true )
+				{
+					s = ( s + 1 ) & mask;
+					final int k = table[ s ];
+					if ( k == FREE )
+						break;
+					if ( canShift( mix( k ) & mask, gap, s, mask ) )
+					{
+						if ( s < pos && gap >= pos )
+						{
+							if ( wrapped == null )
+								wrapped = new OpenHashing.KeyList();
+							wrapped.add( k );
+						}
+						table[ gap ] = k;
+						gap = s;
+					}
+				}
+				table[ gap ] = FREE;
+				--assigned;
+			}
+		};
+	}
+}
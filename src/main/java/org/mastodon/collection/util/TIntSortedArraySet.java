@@ -0,0 +1,513 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.impl.Constants;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+
+/**
+ * An immutable {@link TIntSet} backed by a sorted {@code int[]} without
+ * duplicates.
+ * <p>
+ * {@link #contains(int)} is a binary search. Iteration is in ascending order.
+ * {@link #union(TIntSortedArraySet)}, {@link #intersection(TIntSortedArraySet)}
+ * and {@link #difference(TIntSortedArraySet)} merge the sorted arrays, and
+ * skip over runs of non-matching elements by galloping (exponential search),
+ * so they are fast when one set is much smaller than the other, or when the
+ * sets are clustered. {@link #range(int, int)} and {@link #subSet(int, int)}
+ * return views that share the array.
+ * </p>
+ * <p>
+ * All modifying methods throw {@link UnsupportedOperationException}. Because
+ * the array is never modified after construction, instances can be shared
+ * between threads without synchronization.
+ * </p>
+ */
+public final class TIntSortedArraySet extends AbstractTIntSet
+{
+	private static final TIntSortedArraySet EMPTY = new TIntSortedArraySet( new int[ 0 ], 0, 0 );
+
+	private final int[] values;
+
+	private final int from;
+
+	private final int to;
+
+	private TIntSortedArraySet( final int[] values, final int from, final int to )
+	{
+		this.values = values;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Returns the empty set.
+	 *
+	 * @return the empty set.
+	 */
+	public static TIntSortedArraySet empty()
+	{
+		return EMPTY;
+	}
+
+	/**
+	 * Creates a set containing {@code values}. The array is copied. Sorting
+	 * takes O(n log n), or O(n) if {@code values} are already sorted.
+	 *
+	 * @param values
+	 *            the elements, in any order and possibly with duplicates.
+	 * @return a new set.
+	 */
+	public static TIntSortedArraySet of( final int... values )
+	{
+		return fromOwnedArray( values.clone() );
+	}
+
+	/**
+	 * Creates a set containing the elements of {@code collection}. Sorting
+	 * takes O(n log n), or O(n) if {@code collection} iterates in ascending
+	 * order.
+	 *
+	 * @param collection
+	 *            the elements.
+	 * @return a new set.
+	 */
+	public static TIntSortedArraySet of( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntSortedArraySet )
+			return ( TIntSortedArraySet ) collection;
+		return fromOwnedArray( collection.toArray() );
+	}
+
+	/**
+	 * Sorts and deduplicates {@code values} in place, and wraps it.
+	 */
+	private static TIntSortedArraySet fromOwnedArray( final int[] values )
+	{
+		final int n = values.length;
+		if ( !isStrictlyAscending( values, n ) )
+		{
+			Arrays.sort( values );
+			int size = 0;
+			for ( int i = 0; i < n; ++i )
+				if ( size == 0 || values[ i ] != values[ size - 1 ] )
+					values[ size++ ] = values[ i ];
+			if ( size < n )
+				return new TIntSortedArraySet( Arrays.copyOf( values, size ), 0, size );
+		}
+		return new TIntSortedArraySet( values, 0, n );
+	}
+
+	private static boolean isStrictlyAscending( final int[] values, final int n )
+	{
+		for ( int i = 1; i < n; ++i )
+			if ( values[ i - 1 ] >= values[ i ] )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the element at position {@code index} in ascending order.
+	 *
+	 * @param index
+	 *            the position, in {@code [0, size())}.
+	 * @return the element at {@code index}.
+	 */
+	public int get( final int index )
+	{
+		if ( index < 0 || index >= to - from )
+			throw new IndexOutOfBoundsException( "index " + index + ", size " + ( to - from ) );
+		return values[ from + index ];
+	}
+
+	/**
+	 * Returns the position of {@code value} in ascending order, or -1 if it is
+	 * not in the set.
+	 *
+	 * @param value
+	 *            the value to search.
+	 * @return the position of {@code value}, or -1.
+	 */
+	public int indexOf( final int value )
+	{
+		final int i = Arrays.binarySearch( values, from, to, value );
+		return i >= 0 ? i - from : -1;
+	}
+
+	/**
+	 * Returns a sequential stream of the elements in ascending order, reading
+	 * directly from the backing array.
+	 *
+	 * @return a stream of the elements.
+	 */
+	public IntStream stream()
+	{
+		return Arrays.stream( values, from, to );
+	}
+
+	/**
+	 * Returns the elements at positions {@code [fromIndex, toIndex)} in
+	 * ascending order. The returned set shares the array of this set.
+	 *
+	 * @param fromIndex
+	 *            first position, inclusive.
+	 * @param toIndex
+	 *            last position, exclusive.
+	 * @return a view of the range.
+	 */
+	public TIntSortedArraySet range( final int fromIndex, final int toIndex )
+	{
+		if ( fromIndex < 0 || toIndex > to - from || fromIndex > toIndex )
+			throw new IndexOutOfBoundsException( "range [" + fromIndex + ", " + toIndex + "), size " + ( to - from ) );
+		return new TIntSortedArraySet( values, from + fromIndex, from + toIndex );
+	}
+
+	/**
+	 * Returns the elements in {@code [fromElement, toElement)}. The returned
+	 * set shares the array of this set.
+	 *
+	 * @param fromElement
+	 *            lower bound, inclusive.
+	 * @param toElement
+	 *            upper bound, exclusive.
+	 * @return a view of the elements in the given value range.
+	 */
+	public TIntSortedArraySet subSet( final int fromElement, final int toElement )
+	{
+		if ( fromElement >= toElement )
+			return EMPTY;
+		final int lo = gallop( values, from, to, fromElement );
+		final int hi = gallop( values, lo, to, toElement );
+		return new TIntSortedArraySet( values, lo, hi );
+	}
+
+	/**
+	 * Returns the elements contained in this set or in {@code other}.
+	 *
+	 * @param other
+	 *            the other set.
+	 * @return the union.
+	 */
+	public TIntSortedArraySet union( final TIntSortedArraySet other )
+	{
+		if ( other.isEmpty() )
+			return this;
+		if ( isEmpty() )
+			return other;
+		final int[] a = values;
+		final int[] b = other.values;
+		final int aEnd = to;
+		final int bEnd = other.to;
+		final int[] result = new int[ size() + other.size() ];
+		int i = from;
+		int j = other.from;
+		int k = 0;
+		while ( i < aEnd && j < bEnd )
+		{
+			if ( a[ i ] < b[ j ] )
+			{
+				final int e = gallop( a, i, aEnd, b[ j ] );
+				System.arraycopy( a, i, result, k, e - i );
+				k += e - i;
+				i = e;
+			}
+			else if ( a[ i ] > b[ j ] )
+			{
+				final int e = gallop( b, j, bEnd, a[ i ] );
+				System.arraycopy( b, j, result, k, e - j );
+				k += e - j;
+				j = e;
+			}
+			else
+			{
+				result[ k++ ] = a[ i++ ];
+				++j;
+			}
+		}
+		System.arraycopy( a, i, result, k, aEnd - i );
+		k += aEnd - i;
+		System.arraycopy( b, j, result, k, bEnd - j );
+		k += bEnd - j;
+		return trimmed( result, k );
+	}
+
+	/**
+	 * Returns the elements contained in both this set and {@code other}.
+	 *
+	 * @param other
+	 *            the other set.
+	 * @return the intersection.
+	 */
+	public TIntSortedArraySet intersection( final TIntSortedArraySet other )
+	{
+		final TIntSortedArraySet small = size() <= other.size() ? this : other;
+		final TIntSortedArraySet large = small == this ? other : this;
+		final int[] result = new int[ small.size() ];
+		int k = 0;
+		int j = large.from;
+		for ( int i = small.from; i < small.to && j < large.to; ++i )
+		{
+			final int v = small.values[ i ];
+			j = gallop( large.values, j, large.to, v );
+			if ( j < large.to && large.values[ j ] == v )
+				result[ k++ ] = v;
+		}
+		return trimmed( result, k );
+	}
+
+	/**
+	 * Returns the elements contained in this set but not in {@code other}.
+	 *
+	 * @param other
+	 *            the other set.
+	 * @return the difference.
+	 */
+	public TIntSortedArraySet difference( final TIntSortedArraySet other )
+	{
+		if ( isEmpty() || other.isEmpty() )
+			return this;
+		final int[] result = new int[ size() ];
+		int k = 0;
+		int i = from;
+		int j = other.from;
+		while ( i < to && j < other.to )
+		{
+			// copy the run of elements smaller than the next element of other
+			final int e = gallop( values, i, to, other.values[ j ] );
+			System.arraycopy( values, i, result, k, e - i );
+			k += e - i;
+			i = e;
+			if ( i < to && values[ i ] == other.values[ j ] )
+				++i;
+			if ( i < to )
+				j = gallop( other.values, j, other.to, values[ i ] );
+		}
+		System.arraycopy( values, i, result, k, to - i );
+		k += to - i;
+		return k == size() ? this : trimmed( result, k );
+	}
+
+	private static TIntSortedArraySet trimmed( final int[] values, final int size )
+	{
+		if ( size == 0 )
+			return EMPTY;
+		return new TIntSortedArraySet( size == values.length ? values : Arrays.copyOf( values, size ), 0, size );
+	}
+
+	/**
+	 * Returns the first index in {@code [lo, hi)} with
+	 * {@code a[index] >= key}, or {@code hi} if there is none. Probes
+	 * exponentially growing distances from {@code lo} before a binary search,
+	 * so this takes O(log d) for a result at distance d.
+	 */
+	static int gallop( final int[] a, final int lo, final int hi, final int key )
+	{
+		if ( lo >= hi || a[ lo ] >= key )
+			return lo;
+		// invariant: a[ below ] < key
+		int below = lo;
+		int step = 1;
+		int probe = lo + 1;
+		while ( probe < hi && a[ probe ] < key )
+		{
+			below = probe;
+			step <<= 1;
+			probe = lo + step;
+		}
+		int l = below + 1;
+		int h = Math.min( probe, hi );
+		while ( l < h )
+		{
+			final int m = ( l + h ) >>> 1;
+			if ( a[ m ] < key )
+				l = m + 1;
+			else
+				h = m;
+		}
+		return l;
+	}
+
+	@Override
+	public int getNoEntryValue()
+	{
+		return Constants.DEFAULT_INT_NO_ENTRY_VALUE;
+	}
+
+	@Override
+	public int size()
+	{
+		return to - from;
+	}
+
+	@Override
+	public boolean contains( final int value )
+	{
+		return Arrays.binarySearch( values, from, to, value ) >= 0;
+	}
+
+	@Override
+	public boolean containsAll( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntSortedArraySet )
+		{
+			final TIntSortedArraySet other = ( TIntSortedArraySet ) collection;
+			return other.size() <= size() && intersection( other ).size() == other.size();
+		}
+		return super.containsAll( collection );
+	}
+
+	@Override
+	public TIntIterator iterator()
+	{
+		return new TIntIterator()
+		{
+			private int i = from;
+
+			@Override
+			public boolean hasNext()
+			{
+				return i < to;
+			}
+
+			@Override
+			public int next()
+			{
+				if ( i >= to )
+					throw new NoSuchElementException();
+				return values[ i++ ];
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public boolean forEach( final TIntProcedure procedure )
+	{
+		for ( int i = from; i < to; ++i )
+			if ( !procedure.execute( values[ i ] ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public int[] toArray( final int[] dest )
+	{
+		final int size = size();
+		final int[] array = dest.length >= size ? dest : new int[ size ];
+		System.arraycopy( values, from, array, 0, size );
+		if ( array.length > size )
+			array[ size ] = getNoEntryValue();
+		return array;
+	}
+
+	@Override
+	public boolean add( final int value )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean remove( final int value )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void clear()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean addAll( final Collection< ? extends Integer > collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean addAll( final TIntCollection collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean addAll( final int[] array )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean retainAll( final Collection< ? > collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean retainAll( final TIntCollection collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean retainAll( final int[] array )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean removeAll( final Collection< ? > collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean removeAll( final TIntCollection collection )
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean removeAll( final int[] array )
+	{
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,107 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.TIntSet;
+
+/**
+ * Static utilities to bridge Trove {@code int} collections and
+ * {@link IntStream}s.
+ */
+public final class TIntStreams
+{
+	private TIntStreams()
+	{}
+
+	/**
+	 * Returns a sequential stream of the elements of {@code collection}, in
+	 * iteration order. Array-backed collections are streamed by index, all
+	 * others through their {@link TIntIterator}. The stream is a view: the
+	 * collection must not be modified until the stream has been consumed.
+	 *
+	 * @param collection
+	 *            the collection to stream.
+	 * @return a stream of the elements of {@code collection}.
+	 */
+	public static IntStream stream( final TIntCollection collection )
+	{
+		if ( collection instanceof TIntSortedArraySet )
+			return ( ( TIntSortedArraySet ) collection ).stream();
+		if ( collection instanceof TIntArrayList )
+		{
+			final TIntArrayList list = ( TIntArrayList ) collection;
+			return IntStream.range( 0, list.size() ).map( list::getQuick );
+		}
+		final int characteristics = Spliterator.ORDERED
+				| ( collection instanceof TIntSet ? Spliterator.DISTINCT : 0 );
+		return StreamSupport.intStream(
+				Spliterators.spliterator( iterator( collection.iterator() ), collection.size(), characteristics ),
+				false );
+	}
+
+	/**
+	 * Adapts a {@link TIntIterator} to a {@link PrimitiveIterator.OfInt}.
+	 *
+	 * @param it
+	 *            the iterator to adapt.
+	 * @return an iterator over the same elements.
+	 */
+	public static PrimitiveIterator.OfInt iterator( final TIntIterator it )
+	{
+		return new PrimitiveIterator.OfInt()
+		{
+			@Override
+			public boolean hasNext()
+			{
+				return it.hasNext();
+			}
+
+			@Override
+			public int nextInt()
+			{
+				return it.next();
+			}
+
+			@Override
+			public void remove()
+			{
+				it.remove();
+			}
+		};
+	}
+}
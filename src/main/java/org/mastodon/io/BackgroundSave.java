@@ -0,0 +1,267 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.mastodon.io.properties.IndexedPropertyIO;
+import org.mastodon.io.properties.IndexedPropertyReader;
+import org.mastodon.io.properties.PropertyMapSerializer;
+import org.mastodon.io.properties.PropertyMapSerializers;
+import org.mastodon.pool.Pool;
+import org.mastodon.pool.PoolObject;
+import org.mastodon.pool.PoolSnapshotIO;
+
+/**
+ * Saves a {@link Pool} and its property maps on a background thread, while
+ * the pool may be modified.
+ * <p>
+ * {@link #start(Pool, PropertyMapSerializers, Path, ExecutorService)} takes a
+ * consistent snapshot on the calling thread and returns immediately. The
+ * snapshot consists of a {@link PoolSnapshotIO#capture(Pool) copy of the pool
+ * memory}, and {@link PropertyMapSerializer#frozenCopy() detached copies} of
+ * the property maps. Property maps that do not support detached copies are
+ * serialized while taking the snapshot. The snapshot is then written on the
+ * executor, reporting {@link #getProgress() progress}, and can be
+ * {@link #cancel() cancelled}.
+ * </p>
+ * <p>
+ * The file contains the {@link PoolSnapshotIO pool snapshot}, followed by an
+ * {@link IndexedPropertyIO indexed container} of the property maps (with file
+ * ids equal to pool indices). It is written to a temporary file first, which
+ * is atomically moved to the target path when complete.
+ * </p>
+ */
+public final class BackgroundSave
+{
+	private final Future< Void > future;
+
+	private final int numSteps;
+
+	private volatile int stepsDone;
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Take a snapshot of {@code pool} and the property maps in
+	 * {@code serializers}, and write it to {@code path} on {@code executor}.
+	 *
+	 * @param pool
+	 *            the pool to save.
+	 * @param serializers
+	 *            serializers of the property maps to save.
+	 * @param path
+	 *            the file to write.
+	 * @param executor
+	 *            the executor to write on.
+	 * @param <O>
+	 *            type of objects in the pool.
+	 * @return a handle to monitor or cancel the save.
+	 * @throws IOException
+	 *             if serializing a property map that does not support detached
+	 *             copies fails.
+	 */
+	public static < O extends PoolObject< O, ?, ? > > BackgroundSave start(
+			final Pool< O, ? > pool,
+			final PropertyMapSerializers< O > serializers,
+			final Path path,
+			final ExecutorService executor )
+					throws IOException
+	{
+		return new BackgroundSave( pool, serializers, path, executor );
+	}
+
+	private < O extends PoolObject< O, ?, ? > > BackgroundSave(
+			final Pool< O, ? > pool,
+			final PropertyMapSerializers< O > serializers,
+			final Path path,
+			final ExecutorService executor )
+					throws IOException
+	{
+		final ObjectToFileIdMap< O > idmap = ObjectToFileIdMap.identity( pool );
+		final PoolSnapshotIO.Snapshot snapshot = PoolSnapshotIO.capture( pool );
+		final List< String > keys = serializers.getKeys();
+		final List< PropertyMapSerializer< O, ? > > frozen = new ArrayList<>( keys.size() );
+		final List< ByteBuffer > sections = new ArrayList<>( keys.size() );
+		for ( final String key : keys )
+		{
+			final PropertyMapSerializer< O, ? > serializer = serializers.getPropertyMap( key );
+			final PropertyMapSerializer< O, ? > copy = serializer.frozenCopy();
+			frozen.add( copy );
+			sections.add( copy == null ? IndexedPropertyIO.encode( serializer, idmap ) : null );
+		}
+		numSteps = snapshot.numBlocks() + keys.size();
+
+		future = executor.submit( () -> {
+			final Path tmp = path.resolveSibling( path.getFileName() + ".tmp" );
+			try
+			{
+				try (final FileChannel channel = FileChannel.open( tmp,
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ))
+				{
+					snapshot.writeHeader( channel );
+					for ( int i = 0; i < snapshot.numBlocks(); ++i )
+					{
+						checkCancelled();
+						snapshot.writeBlock( i, channel );
+						++stepsDone;
+					}
+					for ( int i = 0; i < keys.size(); ++i )
+					{
+						checkCancelled();
+						if ( sections.get( i ) == null )
+							sections.set( i, IndexedPropertyIO.encode( frozen.get( i ), idmap ) );
+						++stepsDone;
+					}
+					checkCancelled();
+					IndexedPropertyIO.writeSections( keys, sections, channel );
+					channel.force( true );
+				}
+				Files.move( tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+			}
+			catch ( final IOException | RuntimeException e )
+			{
+				Files.deleteIfExists( tmp );
+				throw e;
+			}
+			return null;
+		} );
+	}
+
+	private void checkCancelled()
+	{
+		if ( cancelled )
+			throw new CancellationException();
+	}
+
+	/**
+	 * Get the fraction of the save that is completed.
+	 *
+	 * @return progress in the range {@code [0, 1]}.
+	 */
+	public double getProgress()
+	{
+		if ( future.isDone() )
+			return 1;
+		return numSteps == 0 ? 0 : ( double ) stepsDone / ( numSteps + 1 );
+	}
+
+	/**
+	 * Returns {@code true} if the save completed, failed, or was cancelled.
+	 *
+	 * @return whether the save is done.
+	 */
+	public boolean isDone()
+	{
+		return future.isDone();
+	}
+
+	/**
+	 * Cancel the save. The target file is not modified, and the temporary
+	 * file is deleted.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+		future.cancel( false );
+	}
+
+	/**
+	 * Wait for the save to complete.
+	 *
+	 * @throws IOException
+	 *             if writing failed.
+	 * @throws CancellationException
+	 *             if the save was cancelled.
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting.
+	 */
+	public void await() throws IOException, InterruptedException
+	{
+		try
+		{
+			future.get();
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof CancellationException )
+				throw ( CancellationException ) cause;
+			if ( cause instanceof IOException )
+				throw ( IOException ) cause;
+			throw new IOException( cause );
+		}
+	}
+
+	/**
+	 * Read a file written by {@link BackgroundSave} into {@code pool}. The
+	 * pool is {@link Pool#clear() cleared} first.
+	 *
+	 * @param pool
+	 *            the pool to read into.
+	 * @param serializers
+	 *            serializers of the property maps to read. Property maps in
+	 *            the file without a serializer are ignored.
+	 * @param path
+	 *            the file to read.
+	 * @param <O>
+	 *            type of objects in the pool.
+	 * @throws IOException
+	 *             if the file is not compatible with {@code pool}, or for
+	 *             usual I/O errors.
+	 */
+	public static < O extends PoolObject< O, ?, ? > > void read(
+			final Pool< O, ? > pool,
+			final PropertyMapSerializers< O > serializers,
+			final Path path )
+					throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ))
+		{
+			PoolSnapshotIO.read( pool, channel );
+			final IndexedPropertyReader reader = new IndexedPropertyReader( channel );
+			final FileIdToObjectMap< O > idmap = FileIdToObjectMap.identity( pool );
+			for ( final String key : reader.getKeys() )
+				if ( serializers.getPropertyMap( key ) != null )
+					reader.readPropertyMap( key, idmap, serializers );
+		}
+	}
+}
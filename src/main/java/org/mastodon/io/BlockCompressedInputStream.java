@@ -0,0 +1,353 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads data written by {@link BlockCompressedOutputStream}.
+ * <p>
+ * When created from an {@link InputStream}, blocks are read sequentially.
+ * When created from a {@link FileChannel}, the block index is read from the
+ * end of the file, and reading can start at any block, see
+ * {@link #seekToBlock(int)}. The channel is read with positional reads, so
+ * its position is not modified.
+ * </p>
+ */
+public class BlockCompressedInputStream extends InputStream
+{
+	private final DataInputStream in;
+
+	private final FileChannel channel;
+
+	private final long[] blockOffsets;
+
+	private final int[] blockLengths;
+
+	private final Inflater inflater;
+
+	private final ByteBuffer blockHeader;
+
+	private byte[] compressed;
+
+	private byte[] buf;
+
+	private int pos;
+
+	private int limit;
+
+	private long nextBlockOffset;
+
+	private boolean eof;
+
+	/**
+	 * Read blocks sequentially from {@code in}.
+	 *
+	 * @param in
+	 *            the underlying input stream.
+	 * @throws IOException
+	 *             if the stream does not start with a valid header.
+	 */
+	public BlockCompressedInputStream( final InputStream in ) throws IOException
+	{
+		this.in = new DataInputStream( in );
+		this.channel = null;
+		this.blockOffsets = null;
+		this.blockLengths = null;
+		this.inflater = new Inflater();
+		this.blockHeader = null;
+		final int blockSize = readHeader( this.in );
+		this.buf = new byte[ blockSize ];
+		this.compressed = new byte[ 0 ];
+	}
+
+	/**
+	 * Read blocks from {@code channel}, starting with the first block. The
+	 * block index is read from the end of the channel.
+	 *
+	 * @param channel
+	 *            the channel to read from. Must contain exactly one stream
+	 *            written by {@link BlockCompressedOutputStream}, starting at
+	 *            position 0.
+	 * @throws IOException
+	 *             if the channel does not contain a valid stream.
+	 */
+	public BlockCompressedInputStream( final FileChannel channel ) throws IOException
+	{
+		this.in = null;
+		this.channel = channel;
+		this.inflater = new Inflater();
+		this.blockHeader = ByteBuffer.allocate( 8 );
+
+		final int blockSize = readHeader( new DataInputStream( new ByteBufferInputStream( read( 0, 12 ) ) ) );
+		final ByteBuffer footer = read( channel.size() - 12, 12 );
+		final long indexOffset = footer.getLong();
+		if ( footer.getInt() != BlockCompressedOutputStream.MAGIC )
+			throw new IOException( "block index not found" );
+		final int numBlocks = read( indexOffset, 4 ).getInt();
+		final ByteBuffer index = read( indexOffset + 4, 12L * numBlocks );
+		blockOffsets = new long[ numBlocks ];
+		blockLengths = new int[ numBlocks ];
+		for ( int i = 0; i < numBlocks; ++i )
+		{
+			blockOffsets[ i ] = index.getLong();
+			blockLengths[ i ] = index.getInt();
+		}
+
+		this.buf = new byte[ blockSize ];
+		this.compressed = new byte[ 0 ];
+		seekToBlock( 0 );
+	}
+
+	/**
+	 * Get the number of blocks. Only available when reading from a
+	 * {@link FileChannel}.
+	 *
+	 * @return the number of blocks.
+	 */
+	public int numBlocks()
+	{
+		checkSeekable();
+		return blockOffsets.length;
+	}
+
+	/**
+	 * Get the uncompressed offset of block {@code i}, that is, the number of
+	 * bytes of uncompressed data before block {@code i}. Only available when
+	 * reading from a {@link FileChannel}.
+	 *
+	 * @param i
+	 *            block index.
+	 * @return the uncompressed offset of the block.
+	 */
+	public long getUncompressedOffset( final int i )
+	{
+		checkSeekable();
+		long offset = 0;
+		for ( int b = 0; b < i; ++b )
+			offset += blockLengths[ b ];
+		return offset;
+	}
+
+	/**
+	 * Continue reading at the start of block {@code i}. Only available when
+	 * reading from a {@link FileChannel}.
+	 *
+	 * @param i
+	 *            block index.
+	 */
+	public void seekToBlock( final int i )
+	{
+		checkSeekable();
+		if ( i < 0 || i > blockOffsets.length )
+			throw new IndexOutOfBoundsException( "block " + i + " of " + blockOffsets.length );
+		pos = 0;
+		limit = 0;
+		eof = i == blockOffsets.length;
+		if ( !eof )
+			nextBlockOffset = blockOffsets[ i ];
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if ( pos == limit && !nextBlock() )
+			return -1;
+		return buf[ pos++ ] & 0xff;
+	}
+
+	@Override
+	public int read( final byte[] b, int off, int len ) throws IOException
+	{
+		if ( len == 0 )
+			return 0;
+		int total = 0;
+		while ( len > 0 )
+		{
+			if ( pos == limit && !nextBlock() )
+				break;
+			final int n = Math.min( len, limit - pos );
+			System.arraycopy( buf, pos, b, off, n );
+			pos += n;
+			off += n;
+			len -= n;
+			total += n;
+		}
+		return total == 0 ? -1 : total;
+	}
+
+	@Override
+	public int available()
+	{
+		return limit - pos;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		inflater.end();
+		if ( in != null )
+			in.close();
+	}
+
+	/**
+	 * Read and decompress the next block.
+	 *
+	 * @return {@code false} if there are no more blocks.
+	 */
+	private boolean nextBlock() throws IOException
+	{
+		if ( eof )
+			return false;
+
+		final int length;
+		final int compressedLength;
+		if ( in != null )
+		{
+			length = in.readInt();
+			if ( length == BlockCompressedOutputStream.END_OF_BLOCKS )
+			{
+				eof = true;
+				return false;
+			}
+			compressedLength = in.readInt();
+			ensureCompressedCapacity( compressedLength );
+			in.readFully( compressed, 0, compressedLength );
+		}
+		else
+		{
+			blockHeader.clear();
+			readFully( blockHeader, nextBlockOffset );
+			length = blockHeader.getInt();
+			if ( length == BlockCompressedOutputStream.END_OF_BLOCKS )
+			{
+				eof = true;
+				return false;
+			}
+			compressedLength = blockHeader.getInt();
+			ensureCompressedCapacity( compressedLength );
+			readFully( ByteBuffer.wrap( compressed, 0, compressedLength ), nextBlockOffset + 8 );
+			nextBlockOffset += 8 + compressedLength;
+		}
+
+		if ( length > buf.length )
+			throw new IOException( "corrupt block length " + length );
+		inflater.reset();
+		inflater.setInput( compressed, 0, compressedLength );
+		try
+		{
+			int n = 0;
+			while ( n < length )
+			{
+				final int r = inflater.inflate( buf, n, length - n );
+				if ( r == 0 && ( inflater.finished() || inflater.needsInput() ) )
+					throw new IOException( "truncated block" );
+				n += r;
+			}
+		}
+		catch ( final DataFormatException e )
+		{
+			throw new IOException( e );
+		}
+		pos = 0;
+		limit = length;
+		return length > 0 || nextBlock();
+	}
+
+	private void ensureCompressedCapacity( final int length ) throws IOException
+	{
+		if ( length < 0 )
+			throw new IOException( "corrupt block" );
+		if ( compressed.length < length )
+			compressed = new byte[ length ];
+	}
+
+	private void checkSeekable()
+	{
+		if ( channel == null )
+			throw new UnsupportedOperationException( "not reading from a FileChannel" );
+	}
+
+	private static int readHeader( final DataInputStream in ) throws IOException
+	{
+		if ( in.readInt() != BlockCompressedOutputStream.MAGIC )
+			throw new IOException( "not a block compressed stream" );
+		final int version = in.readInt();
+		if ( version != BlockCompressedOutputStream.VERSION )
+			throw new IOException( "unsupported block compressed stream version " + version );
+		final int blockSize = in.readInt();
+		if ( blockSize <= 0 )
+			throw new IOException( "invalid block size " + blockSize );
+		return blockSize;
+	}
+
+	private ByteBuffer read( final long position, final long length ) throws IOException
+	{
+		if ( length < 0 || length > Integer.MAX_VALUE )
+			throw new IOException( "invalid length " + length );
+		final ByteBuffer buffer = ByteBuffer.allocate( ( int ) length );
+		readFully( buffer, position );
+		return buffer;
+	}
+
+	private void readFully( final ByteBuffer buffer, long position ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+		{
+			final int n = channel.read( buffer, position );
+			if ( n < 0 )
+				throw new EOFException();
+			position += n;
+		}
+		buffer.flip();
+	}
+
+	private static final class ByteBufferInputStream extends InputStream
+	{
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream( final ByteBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read()
+		{
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+	}
+}
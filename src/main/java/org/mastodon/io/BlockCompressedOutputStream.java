@@ -0,0 +1,289 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * An {@link OutputStream} that compresses data in fixed-size blocks with
+ * {@link Deflater}. Blocks can be compressed in parallel on an
+ * {@link ExecutorService}; they are written in order.
+ * <p>
+ * The stream starts with a header, followed by the compressed blocks, each
+ * prefixed by its uncompressed and compressed length. An end marker is
+ * followed by an index of the file offsets of all blocks, and a footer
+ * pointing to the index. The index allows {@link BlockCompressedInputStream}
+ * to seek to individual blocks.
+ * </p>
+ * <p>
+ * To compress serialized pools or property maps, wrap this stream into the
+ * {@link java.io.ObjectOutputStream} passed to
+ * {@link org.mastodon.io.properties.RawPropertyIO} or
+ * {@link AttributeSerializer}-based writers.
+ * </p>
+ * <p>
+ * {@link #flush()} writes all completed blocks, but does not end the current
+ * block. All data is written only on {@link #close()}.
+ * </p>
+ */
+public class BlockCompressedOutputStream extends OutputStream
+{
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	static final int MAGIC = 0x4D504243; // "MPBC"
+
+	static final int VERSION = 1;
+
+	static final int END_OF_BLOCKS = -1;
+
+	private final DataOutputStream out;
+
+	private final ExecutorService executor;
+
+	private final int level;
+
+	private final int maxPending;
+
+	private final ArrayDeque< Future< byte[] > > pending;
+
+	private final TIntArrayList pendingLengths;
+
+	private final TLongArrayList blockOffsets;
+
+	private final TIntArrayList blockLengths;
+
+	private byte[] block;
+
+	private int blockFill;
+
+	/**
+	 * Number of bytes written to {@link #out}. ({@link DataOutputStream#size()}
+	 * overflows at 2 GB.)
+	 */
+	private long position;
+
+	private boolean closed;
+
+	/**
+	 * Create a stream that compresses blocks of {@code blockSize} bytes, with
+	 * compression {@code level}, on {@code executor}.
+	 *
+	 * @param out
+	 *            the underlying output stream.
+	 * @param blockSize
+	 *            the uncompressed size of blocks.
+	 * @param level
+	 *            the {@link Deflater} compression level (0-9).
+	 * @param executor
+	 *            the executor to compress blocks on, or {@code null} to
+	 *            compress on the calling thread.
+	 * @param parallelism
+	 *            the maximum number of blocks in flight on {@code executor}.
+	 * @throws IOException
+	 *             if writing the header fails.
+	 */
+	public BlockCompressedOutputStream( final OutputStream out, final int blockSize, final int level, final ExecutorService executor, final int parallelism ) throws IOException
+	{
+		this.out = new DataOutputStream( out );
+		this.executor = executor;
+		this.level = level;
+		this.maxPending = executor == null ? 0 : Math.max( 1, parallelism );
+		this.pending = new ArrayDeque<>();
+		this.pendingLengths = new TIntArrayList();
+		this.blockOffsets = new TLongArrayList();
+		this.blockLengths = new TIntArrayList();
+		this.block = new byte[ blockSize ];
+		this.blockFill = 0;
+
+		this.out.writeInt( MAGIC );
+		this.out.writeInt( VERSION );
+		this.out.writeInt( blockSize );
+		this.position = 12;
+	}
+
+	/**
+	 * Create a stream that compresses blocks of {@link #DEFAULT_BLOCK_SIZE}
+	 * with {@link Deflater#BEST_SPEED} on {@code executor}, with at most
+	 * {@code 2 * availableProcessors} blocks in flight.
+	 *
+	 * @param out
+	 *            the underlying output stream.
+	 * @param executor
+	 *            the executor to compress blocks on, or {@code null} to
+	 *            compress on the calling thread.
+	 * @throws IOException
+	 *             if writing the header fails.
+	 */
+	public BlockCompressedOutputStream( final OutputStream out, final ExecutorService executor ) throws IOException
+	{
+		this( out, DEFAULT_BLOCK_SIZE, Deflater.BEST_SPEED, executor, 2 * Runtime.getRuntime().availableProcessors() );
+	}
+
+	@Override
+	public void write( final int b ) throws IOException
+	{
+		if ( blockFill == block.length )
+			endBlock();
+		block[ blockFill++ ] = ( byte ) b;
+	}
+
+	@Override
+	public void write( final byte[] b, int off, int len ) throws IOException
+	{
+		while ( len > 0 )
+		{
+			if ( blockFill == block.length )
+				endBlock();
+			final int n = Math.min( len, block.length - blockFill );
+			System.arraycopy( b, off, block, blockFill, n );
+			blockFill += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes all completed blocks to the underlying stream and flushes it.
+	 * The current (incomplete) block is not written.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		drain( 0 );
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if ( closed )
+			return;
+		closed = true;
+		if ( blockFill > 0 )
+			endBlock();
+		drain( 0 );
+
+		out.writeInt( END_OF_BLOCKS );
+		final long indexOffset = position + 4;
+		final int numBlocks = blockOffsets.size();
+		out.writeInt( numBlocks );
+		for ( int i = 0; i < numBlocks; ++i )
+		{
+			out.writeLong( blockOffsets.get( i ) );
+			out.writeInt( blockLengths.get( i ) );
+		}
+		out.writeLong( indexOffset );
+		out.writeInt( MAGIC );
+		out.close();
+	}
+
+	private void endBlock() throws IOException
+	{
+		final byte[] data = block;
+		final int length = blockFill;
+		block = new byte[ data.length ];
+		blockFill = 0;
+		if ( executor == null )
+			writeBlock( length, compress( data, length, level ) );
+		else
+		{
+			drain( maxPending - 1 );
+			pending.add( executor.submit( () -> compress( data, length, level ) ) );
+			pendingLengths.add( length );
+		}
+	}
+
+	/**
+	 * Write pending blocks until at most {@code maxRemaining} are in flight.
+	 */
+	private void drain( final int maxRemaining ) throws IOException
+	{
+		while ( pending.size() > maxRemaining )
+		{
+			final Future< byte[] > future = pending.poll();
+			final int length = pendingLengths.removeAt( 0 );
+			try
+			{
+				writeBlock( length, future.get() );
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException( e );
+			}
+			catch ( final ExecutionException e )
+			{
+				throw new IOException( e.getCause() );
+			}
+		}
+	}
+
+	private void writeBlock( final int length, final byte[] compressed ) throws IOException
+	{
+		blockOffsets.add( position );
+		blockLengths.add( length );
+		out.writeInt( length );
+		out.writeInt( compressed.length );
+		out.write( compressed );
+		position += 8 + compressed.length;
+	}
+
+	static byte[] compress( final byte[] data, final int length, final int level )
+	{
+		final Deflater deflater = new Deflater( level );
+		try
+		{
+			deflater.setInput( data, 0, length );
+			deflater.finish();
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream( Math.max( 64, length / 2 ) );
+			final byte[] buf = new byte[ 64 * 1024 ];
+			while ( !deflater.finished() )
+			{
+				final int n = deflater.deflate( buf );
+				bytes.write( buf, 0, n );
+			}
+			return bytes.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+}
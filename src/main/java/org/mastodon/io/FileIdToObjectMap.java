@@ -34,6 +34,12 @@ import gnu.trove.map.TIntIntMap;
 
 /**
  * Maps IDs (used in a file) to objects.
+ * <p>
+ * The mapping from file IDs to object IDs is backed either by a
+ * {@link TIntIntMap}, by a plain {@code int[]} table indexed by file ID (see
+ * {@link #fromArray(int[], RefPool)}), or is the identity (see
+ * {@link #identity(RefPool)}).
+ * </p>
  *
  * @param <O>
  *            the object type.
@@ -44,19 +50,79 @@ public final class FileIdToObjectMap< O >
 {
 	private final TIntIntMap fileIdToObjectId;
 
+	private final int[] table;
+
 	private final RefPool< O > pool;
 
 	public FileIdToObjectMap(
 			final TIntIntMap fileIdToObjectId,
 			final RefPool< O > pool )
+	{
+		this( fileIdToObjectId, null, pool );
+	}
+
+	private FileIdToObjectMap(
+			final TIntIntMap fileIdToObjectId,
+			final int[] table,
+			final RefPool< O > pool )
 	{
 		this.fileIdToObjectId = fileIdToObjectId;
+		this.table = table;
 		this.pool = pool;
 	}
 
+	/**
+	 * Creates a map where file IDs are identical to the IDs of objects in
+	 * {@code pool}.
+	 *
+	 * @param pool
+	 *            the pool to get objects from.
+	 * @param <O>
+	 *            the object type.
+	 * @return a new identity map.
+	 */
+	public static < O > FileIdToObjectMap< O > identity( final RefPool< O > pool )
+	{
+		return new FileIdToObjectMap<>( null, null, pool );
+	}
+
+	/**
+	 * Creates a map backed by a table, where {@code fileIdToObjectId[i]} is
+	 * the object ID of the object with file ID {@code i}. The table is not
+	 * copied. If {@code fileIdToObjectId[i] == i} for all {@code i}, an
+	 * {@link #identity(RefPool) identity map} is returned.
+	 *
+	 * @param fileIdToObjectId
+	 *            the remap table.
+	 * @param pool
+	 *            the pool to get objects from.
+	 * @param <O>
+	 *            the object type.
+	 * @return a new map.
+	 */
+	public static < O > FileIdToObjectMap< O > fromArray( final int[] fileIdToObjectId, final RefPool< O > pool )
+	{
+		for ( int i = 0; i < fileIdToObjectId.length; ++i )
+			if ( fileIdToObjectId[ i ] != i )
+				return new FileIdToObjectMap<>( null, fileIdToObjectId, pool );
+		return identity( pool );
+	}
+
+	/**
+	 * Whether this map is the {@link #identity(RefPool) identity}.
+	 *
+	 * @return {@code true} if file IDs are equal to object IDs.
+	 */
+	public boolean isIdentity()
+	{
+		return fileIdToObjectId == null && table == null;
+	}
+
 	public O getObject( final int id, final O ref )
 	{
-		return pool.getObject( fileIdToObjectId.get( id ), ref );
+		if ( table != null )
+			return pool.getObject( table[ id ], ref );
+		return pool.getObject( fileIdToObjectId == null ? id : fileIdToObjectId.get( id ), ref );
 	}
 
 	public O createRef()
@@ -28,12 +28,21 @@
  */
 package org.mastodon.io;
 
+import java.util.Arrays;
+
 import org.mastodon.RefPool;
 
 import gnu.trove.map.TIntIntMap;
 
 /**
  * Maps objects to IDs (used in a file).
+ * <p>
+ * The mapping from object IDs to file IDs is backed either by a
+ * {@link TIntIntMap}, by a plain {@code int[]} table indexed by object ID
+ * (see {@link #fromArray(int[], RefPool)} and
+ * {@link #enumerate(Iterable, RefPool)}), or is the identity (see
+ * {@link #identity(RefPool)}).
+ * </p>
  *
  * @param <O>
  *            the object type.
@@ -44,18 +53,116 @@ public final class ObjectToFileIdMap< O >
 {
 	private final TIntIntMap objectIdToFileId;
 
+	private final int[] table;
+
 	private final RefPool< O > pool;
 
 	public ObjectToFileIdMap(
 			final TIntIntMap objectIdToFileId,
 			final RefPool< O > pool )
+	{
+		this( objectIdToFileId, null, pool );
+	}
+
+	private ObjectToFileIdMap(
+			final TIntIntMap objectIdToFileId,
+			final int[] table,
+			final RefPool< O > pool )
 	{
 		this.objectIdToFileId = objectIdToFileId;
+		this.table = table;
 		this.pool = pool;
 	}
 
+	/**
+	 * Creates a map where file IDs are identical to the IDs of objects in
+	 * {@code pool}.
+	 *
+	 * @param pool
+	 *            the pool to get object IDs from.
+	 * @param <O>
+	 *            the object type.
+	 * @return a new identity map.
+	 */
+	public static < O > ObjectToFileIdMap< O > identity( final RefPool< O > pool )
+	{
+		return new ObjectToFileIdMap<>( null, null, pool );
+	}
+
+	/**
+	 * Creates a map backed by a table, where {@code objectIdToFileId[i]} is
+	 * the file ID of the object with ID {@code i}. The table is not copied.
+	 * If {@code objectIdToFileId[i] == i} for all {@code i}, an
+	 * {@link #identity(RefPool) identity map} is returned.
+	 *
+	 * @param objectIdToFileId
+	 *            the remap table.
+	 * @param pool
+	 *            the pool to get object IDs from.
+	 * @param <O>
+	 *            the object type.
+	 * @return a new map.
+	 */
+	public static < O > ObjectToFileIdMap< O > fromArray( final int[] objectIdToFileId, final RefPool< O > pool )
+	{
+		for ( int i = 0; i < objectIdToFileId.length; ++i )
+			if ( objectIdToFileId[ i ] != i )
+				return new ObjectToFileIdMap<>( null, objectIdToFileId, pool );
+		return identity( pool );
+	}
+
+	/**
+	 * Creates a map that assigns consecutive file IDs {@code 0, 1, 2, ...} to
+	 * {@code objects}, in iteration order. The remap table is built in a
+	 * single pass. If every object is assigned its own object ID (for example
+	 * when iterating a pool without free elements), an
+	 * {@link #identity(RefPool) identity map} is returned.
+	 *
+	 * @param objects
+	 *            the objects to enumerate.
+	 * @param pool
+	 *            the pool to get object IDs from.
+	 * @param <O>
+	 *            the object type.
+	 * @return a new map.
+	 */
+	public static < O > ObjectToFileIdMap< O > enumerate( final Iterable< O > objects, final RefPool< O > pool )
+	{
+		int[] table = new int[ 16 ];
+		Arrays.fill( table, -1 );
+		int fileId = 0;
+		boolean isIdentity = true;
+		for ( final O o : objects )
+		{
+			final int id = pool.getId( o );
+			if ( id >= table.length )
+			{
+				final int oldLength = table.length;
+				table = Arrays.copyOf( table, Math.max( id + 1, oldLength * 2 ) );
+				Arrays.fill( table, oldLength, table.length, -1 );
+			}
+			table[ id ] = fileId;
+			isIdentity &= id == fileId;
+			++fileId;
+		}
+		return isIdentity ? identity( pool ) : new ObjectToFileIdMap<>( null, table, pool );
+	}
+
+	/**
+	 * Whether this map is the {@link #identity(RefPool) identity}.
+	 *
+	 * @return {@code true} if file IDs are equal to object IDs.
+	 */
+	public boolean isIdentity()
+	{
+		return objectIdToFileId == null && table == null;
+	}
+
 	public int getId( final O object )
 	{
-		return objectIdToFileId.get( pool.getId( object ) );
+		final int id = pool.getId( object );
+		if ( table != null )
+			return id < table.length ? table[ id ] : -1;
+		return objectIdToFileId == null ? id : objectIdToFileId.get( id );
 	}
 }
@@ -0,0 +1,202 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Static utility methods for variable-length encoding of {@code int} values.
+ * <p>
+ * Values are written 7 bits per byte, least significant group first, with the
+ * high bit of each byte indicating that more bytes follow. Small non-negative
+ * values therefore take fewer bytes. Signed values that may be small negative
+ * numbers should be {@link #zigZagEncode(int) zigzag encoded} first.
+ */
+public final class VarInts
+{
+	/**
+	 * Maps signed to unsigned values such that values with small magnitude
+	 * have small encodings: 0, -1, 1, -2, 2, ... map to 0, 1, 2, 3, 4, ...
+	 *
+	 * @param value
+	 *            the signed value.
+	 * @return the zigzag encoded value.
+	 */
+	public static int zigZagEncode( final int value )
+	{
+		return ( value << 1 ) ^ ( value >> 31 );
+	}
+
+	/**
+	 * Inverse of {@link #zigZagEncode(int)}.
+	 *
+	 * @param value
+	 *            the zigzag encoded value.
+	 * @return the signed value.
+	 */
+	public static int zigZagDecode( final int value )
+	{
+		return ( value >>> 1 ) ^ -( value & 1 );
+	}
+
+	/**
+	 * Gets the number of bytes required to encode {@code value}.
+	 *
+	 * @param value
+	 *            the value (interpreted as unsigned).
+	 * @return the encoded size in bytes (1 to 5).
+	 */
+	public static int size( final int value )
+	{
+		if ( ( value & ( ~0 << 7 ) ) == 0 )
+			return 1;
+		if ( ( value & ( ~0 << 14 ) ) == 0 )
+			return 2;
+		if ( ( value & ( ~0 << 21 ) ) == 0 )
+			return 3;
+		if ( ( value & ( ~0 << 28 ) ) == 0 )
+			return 4;
+		return 5;
+	}
+
+	public static void write( int value, final ByteBuffer buffer )
+	{
+		while ( ( value & ~0x7F ) != 0 )
+		{
+			buffer.put( ( byte ) ( ( value & 0x7F ) | 0x80 ) );
+			value >>>= 7;
+		}
+		buffer.put( ( byte ) value );
+	}
+
+	public static int read( final ByteBuffer buffer )
+	{
+		int value = 0;
+		for ( int shift = 0; shift < 35; shift += 7 )
+		{
+			final byte b = buffer.get();
+			value |= ( b & 0x7F ) << shift;
+			if ( b >= 0 )
+				return value;
+		}
+		throw new IllegalArgumentException( "malformed varint" );
+	}
+
+	public static void write( int value, final DataOutput out ) throws IOException
+	{
+		while ( ( value & ~0x7F ) != 0 )
+		{
+			out.writeByte( ( value & 0x7F ) | 0x80 );
+			value >>>= 7;
+		}
+		out.writeByte( value );
+	}
+
+	public static int read( final DataInput in ) throws IOException
+	{
+		int value = 0;
+		for ( int shift = 0; shift < 35; shift += 7 )
+		{
+			final byte b = in.readByte();
+			value |= ( b & 0x7F ) << shift;
+			if ( b >= 0 )
+				return value;
+		}
+		throw new IOException( "malformed varint" );
+	}
+
+	/**
+	 * Encodes the first {@code n} elements of the ascending sorted array
+	 * {@code keys} as varint deltas. The first key is zigzag encoded, the
+	 * following keys are encoded as the (non-negative) difference to their
+	 * predecessor.
+	 *
+	 * @param keys
+	 *            sorted keys.
+	 * @param n
+	 *            number of keys to encode.
+	 * @return the encoded keys.
+	 */
+	public static byte[] encodeSortedDeltas( final int[] keys, final int n )
+	{
+		int numBytes = 0;
+		int previous = 0;
+		for ( int i = 0; i < n; ++i )
+		{
+			numBytes += size( i == 0 ? zigZagEncode( keys[ 0 ] ) : keys[ i ] - previous );
+			previous = keys[ i ];
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate( numBytes );
+		previous = 0;
+		for ( int i = 0; i < n; ++i )
+		{
+			write( i == 0 ? zigZagEncode( keys[ 0 ] ) : keys[ i ] - previous, buffer );
+			previous = keys[ i ];
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Decodes {@code n} keys encoded by {@link #encodeSortedDeltas(int[], int)}
+	 * from {@code buffer} into {@code keys}.
+	 *
+	 * @param buffer
+	 *            the encoded keys.
+	 * @param keys
+	 *            array to store the decoded keys.
+	 * @param n
+	 *            number of keys to decode.
+	 * @throws IOException
+	 *             if {@code buffer} does not contain {@code n} valid keys.
+	 */
+	public static void decodeSortedDeltas( final ByteBuffer buffer, final int[] keys, final int n ) throws IOException
+	{
+		try
+		{
+			int previous = 0;
+			for ( int i = 0; i < n; ++i )
+			{
+				final int v = read( buffer );
+				previous = ( i == 0 ) ? zigZagDecode( v ) : previous + v;
+				keys[ i ] = previous;
+			}
+		}
+		catch ( final BufferUnderflowException | IllegalArgumentException e )
+		{
+			throw new IOException( "malformed key block", e );
+		}
+	}
+
+	private VarInts()
+	{}
+}
@@ -0,0 +1,299 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io.labels;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.mastodon.collection.RefIntMap;
+import org.mastodon.collection.RefList;
+import org.mastodon.collection.ref.AbstractRefIntMap;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+import org.mastodon.io.VarInts;
+import org.mastodon.io.labels.LabelSetsSerializer.LabelSerializer;
+import org.mastodon.labels.LabelMapping;
+import org.mastodon.labels.LabelMapping.SerialisationAccess;
+import org.mastodon.labels.LabelSets;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * De/serialize {@link LabelSets} in columnar layout.
+ * <p>
+ * The label sets that are in use are written once, as in
+ * {@link LabelSetsSerializer}. The backing property is then written as a
+ * column sorted by file id: one block of file id deltas, followed by one block
+ * of label set indices. Both blocks are run-length encoded as pairs of
+ * {@link VarInts varint} value and varint run length. Typically, most objects
+ * share a handful of label sets, so this is much more compact than the
+ * per-entry layout of {@link LabelSetsSerializer}. The two layouts are not
+ * compatible.
+ *
+ * @param <O>
+ *            type of object which the labels are attached to.
+ * @param <T>
+ *            type of labels.
+ */
+public class ColumnarLabelSetsSerializer< O, T >
+{
+	public static < O, T > void writePropertyMap(
+			final LabelSets< O, T > propertyMap,
+			final LabelSerializer< T > labelSerializer,
+			final ObjectToFileIdMap< O > idmap,
+			final ObjectOutputStream oos )
+			throws IOException
+	{
+		final LabelMapping< T > mapping = propertyMap.getLabelMapping();
+		final RefIntMap< O > pmap = propertyMap.getBackingProperty().getMap();
+
+		// COLLECT ENTRIES, SORTED BY FILE ID, AND USED LABEL SETS
+		final int size = pmap.size();
+		final long[] order = new long[ size ];
+		final int[] unsorted = new int[ size ];
+		final TIntArrayList used = new TIntArrayList();
+		final TIntIntHashMap mappingIndexToFileIndex = new TIntIntHashMap( 10, 0.5f, -1, -1 );
+		used.add( 0 );
+		mappingIndexToFileIndex.put( 0, 0 );
+		final int[] i = { 0 };
+		pmap.forEachEntry( ( final O key, final int value ) -> {
+			int fileIndex = mappingIndexToFileIndex.get( value );
+			if ( fileIndex < 0 )
+			{
+				fileIndex = used.size();
+				mappingIndexToFileIndex.put( value, fileIndex );
+				used.add( value );
+			}
+			order[ i[ 0 ] ] = ( ( long ) idmap.getId( key ) << 32 ) | i[ 0 ];
+			unsorted[ i[ 0 ] ] = fileIndex;
+			++i[ 0 ];
+			return true;
+		} );
+		Arrays.sort( order );
+		final int[] keys = new int[ size ];
+		final int[] values = new int[ size ];
+		for ( int j = 0; j < size; ++j )
+		{
+			keys[ j ] = ( int ) ( order[ j ] >> 32 );
+			values[ j ] = unsorted[ ( int ) order[ j ] ];
+		}
+
+		// NUMBER OF LABEL SETS
+		oos.writeInt( used.size() );
+
+		// LABEL SETS
+		for ( int j = 0; j < used.size(); ++j )
+		{
+			final Set< T > labels = mapping.labelsAtIndex( used.get( j ) );
+
+			// NUMBER OF LABELS IN SET
+			oos.writeInt( labels.size() );
+
+			// LABELS
+			for ( final T label : labels )
+				labelSerializer.writeLabel( label, oos );
+		}
+
+		// NUMBER OF ENTRIES
+		oos.writeInt( size );
+
+		// KEYS
+		int previous = 0;
+		for ( int j = 0; j < size; ++j )
+		{
+			final int key = keys[ j ];
+			keys[ j ] = ( j == 0 ) ? VarInts.zigZagEncode( key ) : key - previous;
+			previous = key;
+		}
+		final byte[] keyBytes = encodeRuns( keys, size );
+		oos.writeInt( keyBytes.length );
+		oos.write( keyBytes );
+
+		// VALUES
+		final byte[] runBytes = encodeRuns( values, size );
+		oos.writeInt( runBytes.length );
+		oos.write( runBytes );
+	}
+
+	public static < O, T > void readPropertyMap(
+			final LabelSets< O, T > propertyMap,
+			final LabelSerializer< T > labelSerializer,
+			final FileIdToObjectMap< O > idmap,
+			final ObjectInputStream ois )
+			throws IOException
+	{
+		propertyMap.clear();
+
+		final LabelMapping< T > mapping = propertyMap.getLabelMapping();
+		final RefIntMap< O > pmap = propertyMap.getBackingProperty().getMap();
+
+		// NUMBER OF LABEL SETS
+		final int numSets = ois.readInt();
+
+		// LABEL SETS
+		final ArrayList< Set< T > > labelSets = new ArrayList<>();
+		for ( int i = 0; i < numSets; i++ )
+		{
+			// NUMBER OF LABELS IN SET
+			final int numLabels = ois.readInt();
+
+			// LABELS
+			final Set< T > labels = new HashSet< T >();
+			for ( int j = 0; j < numLabels; j++ )
+				labels.add( labelSerializer.readLabel( ois ) );
+
+			labelSets.add( labels );
+		}
+
+		new SerialisationAccess< T >( mapping ) {{setLabelSets( labelSets );}};
+
+		// NUMBER OF ENTRIES
+		final int size = ois.readInt();
+		if ( pmap instanceof AbstractRefIntMap )
+			( ( AbstractRefIntMap< O > ) pmap ).ensureCapacity( size );
+
+		// KEYS
+		final byte[] keyBytes = new byte[ ois.readInt() ];
+		ois.readFully( keyBytes );
+		final int[] keys = new int[ size ];
+		decodeRuns( ByteBuffer.wrap( keyBytes ), keys, size );
+		int previous = 0;
+		for ( int i = 0; i < size; ++i )
+		{
+			previous = ( i == 0 ) ? VarInts.zigZagDecode( keys[ 0 ] ) : previous + keys[ i ];
+			keys[ i ] = previous;
+		}
+
+		// VALUES
+		final byte[] runBytes = new byte[ ois.readInt() ];
+		ois.readFully( runBytes );
+		final int[] values = new int[ size ];
+		decodeRuns( ByteBuffer.wrap( runBytes ), values, size );
+		for ( int i = 0; i < size; i++ )
+			if ( values[ i ] < 0 || values[ i ] >= numSets )
+				throw new IOException( "label set index out of bounds" );
+
+		// ENTRIES
+		final O ref = idmap.createRef();
+		final RefList< O > labeled = new RefArrayList<>( propertyMap.getPool(), size );
+		for ( int i = 0; i < size; i++ )
+		{
+			final O object = idmap.getObject( keys[ i ], ref );
+			labeled.add( object );
+			pmap.put( object, values[ i ] );
+		}
+		propertyMap.recomputeLabelToObjects( labeled );
+		idmap.releaseRef( ref );
+	}
+
+	/**
+	 * Run-length encodes the first {@code n} elements of {@code values} as
+	 * pairs of varint value and varint run length.
+	 */
+	static byte[] encodeRuns( final int[] values, final int n )
+	{
+		int numBytes = 0;
+		for ( int i = 0; i < n; )
+		{
+			final int start = i;
+			while ( i < n && values[ i ] == values[ start ] )
+				++i;
+			numBytes += VarInts.size( values[ start ] ) + VarInts.size( i - start );
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate( numBytes );
+		for ( int i = 0; i < n; )
+		{
+			final int start = i;
+			while ( i < n && values[ i ] == values[ start ] )
+				++i;
+			VarInts.write( values[ start ], buffer );
+			VarInts.write( i - start, buffer );
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Decodes {@code n} values encoded by {@link #encodeRuns(int[], int)} from
+	 * {@code buffer} into {@code values}.
+	 */
+	static void decodeRuns( final ByteBuffer buffer, final int[] values, final int n ) throws IOException
+	{
+		try
+		{
+			for ( int i = 0; i < n; )
+			{
+				final int value = VarInts.read( buffer );
+				final int length = VarInts.read( buffer );
+				if ( length <= 0 || length > n - i )
+					throw new IOException( "malformed run block" );
+				Arrays.fill( values, i, i + length, value );
+				i += length;
+			}
+		}
+		catch ( final BufferUnderflowException | IllegalArgumentException e )
+		{
+			throw new IOException( "malformed run block", e );
+		}
+	}
+
+	private final LabelSets< O, T > propertyMap;
+
+	private final LabelSerializer< T > labelSerializer;
+
+	public ColumnarLabelSetsSerializer( final LabelSets< O, T > propertyMap, final LabelSerializer< T > labelSerializer )
+	{
+		this.propertyMap = propertyMap;
+		this.labelSerializer = labelSerializer;
+	}
+
+	public void writePropertyMap(
+			final ObjectToFileIdMap< O > idmap,
+			final ObjectOutputStream oos )
+			throws IOException
+	{
+		writePropertyMap( propertyMap, labelSerializer, idmap, oos );
+	}
+
+	public void readPropertyMap(
+			final FileIdToObjectMap< O > idmap,
+			final ObjectInputStream ois )
+			throws IOException, ClassNotFoundException
+	{
+		readPropertyMap( propertyMap, labelSerializer, idmap, ois );
+	}
+}
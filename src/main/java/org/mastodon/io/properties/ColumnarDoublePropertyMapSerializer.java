@@ -0,0 +1,218 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io.properties;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.mastodon.collection.RefDoubleMap;
+import org.mastodon.collection.ref.AbstractRefDoubleMap;
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+import org.mastodon.io.VarInts;
+import org.mastodon.properties.DoublePropertyMap;
+
+/**
+ * De/serialize a {@link DoublePropertyMap} in columnar layout.
+ * <p>
+ * Entries are sorted by file id. The file ids are written as one block of
+ * delta-encoded {@link VarInts varints}, followed by one block of the
+ * corresponding values. This is more compact and considerably faster to read
+ * and write than the per-entry layout of {@link DoublePropertyMapSerializer}.
+ * The two layouts are not compatible.
+ *
+ * @param <O>
+ *            type of object which the property is attached to.
+ */
+public class ColumnarDoublePropertyMapSerializer< O > implements DoubleEntryStreamable< O, DoublePropertyMap< O > >
+{
+	/**
+	 * Maximum number of values that are copied through one block buffer.
+	 */
+	private static final int VALUES_PER_BLOCK = 8192;
+
+	private final DoublePropertyMap< O > propertyMap;
+
+	public ColumnarDoublePropertyMapSerializer( final DoublePropertyMap< O > propertyMap )
+	{
+		this.propertyMap = propertyMap;
+	}
+
+	@Override
+	public void writePropertyMap(
+			final ObjectToFileIdMap< O > idmap,
+			final ObjectOutputStream oos )
+					throws IOException
+	{
+		final RefDoubleMap< O > pmap = propertyMap.getMap();
+
+		// COLLECT ENTRIES, SORTED BY FILE ID
+		final int size = pmap.size();
+		final long[] order = new long[ size ];
+		final double[] unsorted = new double[ size ];
+		final int[] i = { 0 };
+		pmap.forEachEntry( ( final O key, final double value ) -> {
+			order[ i[ 0 ] ] = ( ( long ) idmap.getId( key ) << 32 ) | i[ 0 ];
+			unsorted[ i[ 0 ] ] = value;
+			++i[ 0 ];
+			return true;
+		} );
+		Arrays.sort( order );
+		final int[] keys = new int[ size ];
+		final double[] values = new double[ size ];
+		for ( int j = 0; j < size; ++j )
+		{
+			keys[ j ] = ( int ) ( order[ j ] >> 32 );
+			values[ j ] = unsorted[ ( int ) order[ j ] ];
+		}
+
+		// NUMBER OF ENTRIES
+		oos.writeInt( size );
+
+		// KEYS
+		final byte[] keyBytes = VarInts.encodeSortedDeltas( keys, size );
+		oos.writeInt( keyBytes.length );
+		oos.write( keyBytes );
+
+		// VALUES
+		final ByteBuffer buffer = ByteBuffer.allocate( Math.min( size, VALUES_PER_BLOCK ) * Double.BYTES );
+		for ( int j = 0; j < size; j += VALUES_PER_BLOCK )
+		{
+			final int n = Math.min( VALUES_PER_BLOCK, size - j );
+			buffer.clear();
+			buffer.asDoubleBuffer().put( values, j, n );
+			oos.write( buffer.array(), 0, n * Double.BYTES );
+		}
+	}
+
+	@Override
+	public void readPropertyMap(
+			final FileIdToObjectMap< O > idmap,
+			final ObjectInputStream ois )
+			throws IOException, ClassNotFoundException
+	{
+		final RefDoubleMap< O > pmap = propertyMap.getMap();
+		pmap.clear();
+
+		// NUMBER OF ENTRIES
+		final int size = ois.readInt();
+		if ( pmap instanceof AbstractRefDoubleMap )
+			( ( AbstractRefDoubleMap< O > ) pmap ).ensureCapacity( size );
+
+		// KEYS
+		final byte[] keyBytes = new byte[ ois.readInt() ];
+		ois.readFully( keyBytes );
+		final int[] keys = new int[ size ];
+		VarInts.decodeSortedDeltas( ByteBuffer.wrap( keyBytes ), keys, size );
+
+		// VALUES
+		final O ref = idmap.createRef();
+		final byte[] bytes = new byte[ Math.min( size, VALUES_PER_BLOCK ) * Double.BYTES ];
+		final double[] values = new double[ Math.min( size, VALUES_PER_BLOCK ) ];
+		for ( int j = 0; j < size; j += VALUES_PER_BLOCK )
+		{
+			final int n = Math.min( VALUES_PER_BLOCK, size - j );
+			ois.readFully( bytes, 0, n * Double.BYTES );
+			ByteBuffer.wrap( bytes ).asDoubleBuffer().get( values, 0, n );
+			for ( int k = 0; k < n; ++k )
+				pmap.put( idmap.getObject( keys[ j + k ], ref ), values[ k ] );
+		}
+		idmap.releaseRef( ref );
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The delta-encoded key block is buffered, values are streamed in blocks.
+	 * </p>
+	 */
+	@Override
+	public void streamDoubleEntries(
+			final ObjectInputStream ois,
+			final DoubleEntryConsumer consumer )
+					throws IOException
+	{
+		// NUMBER OF ENTRIES
+		final int size = ois.readInt();
+
+		// KEYS
+		final byte[] keyBytes = new byte[ ois.readInt() ];
+		ois.readFully( keyBytes );
+		final ByteBuffer keys = ByteBuffer.wrap( keyBytes );
+		int key = 0;
+
+		// VALUES
+		final byte[] bytes = new byte[ Math.min( size, VALUES_PER_BLOCK ) * Double.BYTES ];
+		final double[] values = new double[ Math.min( size, VALUES_PER_BLOCK ) ];
+		for ( int j = 0; j < size; j += VALUES_PER_BLOCK )
+		{
+			final int n = Math.min( VALUES_PER_BLOCK, size - j );
+			ois.readFully( bytes, 0, n * Double.BYTES );
+			ByteBuffer.wrap( bytes ).asDoubleBuffer().get( values, 0, n );
+			for ( int k = 0; k < n; ++k )
+			{
+				key = nextKey( keys, j + k, key );
+				consumer.accept( key, values[ k ] );
+			}
+		}
+	}
+
+	/**
+	 * Decodes the next key of a block written by
+	 * {@link VarInts#encodeSortedDeltas(int[], int)}.
+	 */
+	private static int nextKey( final ByteBuffer keys, final int i, final int previous ) throws IOException
+	{
+		try
+		{
+			final int v = VarInts.read( keys );
+			return ( i == 0 ) ? VarInts.zigZagDecode( v ) : previous + v;
+		}
+		catch ( final BufferUnderflowException | IllegalArgumentException e )
+		{
+			throw new IOException( "malformed key block", e );
+		}
+	}
+
+	@Override
+	public DoublePropertyMap< O > getPropertyMap()
+	{
+		return propertyMap;
+	}
+
+	@Override
+	public ColumnarDoublePropertyMapSerializer< O > frozenCopy()
+	{
+		return new ColumnarDoublePropertyMapSerializer<>( propertyMap.snapshot() );
+	}
+}
@@ -0,0 +1,183 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io.properties;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.mastodon.collection.RefObjectMap;
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+import org.mastodon.io.VarInts;
+import org.mastodon.properties.ObjPropertyMap;
+
+/**
+ * De/serialize a {@code String} {@link ObjPropertyMap} using dictionary
+ * encoding.
+ * <p>
+ * Each distinct value is written once. Entries are sorted by file id, and
+ * written as a block of delta-encoded {@link VarInts varint} file ids,
+ * followed by a block of varint dictionary codes. String properties typically
+ * have very few distinct values (cell types, track names, tags, ...), so this
+ * is much more compact than the layout of {@link StringPropertyMapSerializer}.
+ * The two layouts are not compatible.
+ * <p>
+ * When reading, all entries with the same value share the one
+ * {@code String} instance read from the dictionary.
+ *
+ * @param <O>
+ *            type of object which the property is attached to.
+ */
+public class DictionaryStringPropertyMapSerializer< O > implements PropertyMapSerializer< O, ObjPropertyMap< O, String > >
+{
+	private final ObjPropertyMap< O, String > propertyMap;
+
+	public DictionaryStringPropertyMapSerializer( final ObjPropertyMap< O, String > propertyMap )
+	{
+		this.propertyMap = propertyMap;
+	}
+
+	@Override
+	public void writePropertyMap(
+			final ObjectToFileIdMap< O > idmap,
+			final ObjectOutputStream oos )
+					throws IOException
+	{
+		final RefObjectMap< O, String > pmap = propertyMap.getMap();
+
+		// COLLECT ENTRIES AND BUILD DICTIONARY
+		final int size = pmap.size();
+		final long[] order = new long[ size ];
+		final int[] unsorted = new int[ size ];
+		final Map< String, Integer > codes = new HashMap<>();
+		final ArrayList< String > dictionary = new ArrayList<>();
+		int i = 0;
+		for ( final Entry< O, String > e : pmap.entrySet() )
+		{
+			final String value = e.getValue();
+			Integer code = codes.get( value );
+			if ( code == null )
+			{
+				code = dictionary.size();
+				codes.put( value, code );
+				dictionary.add( value );
+			}
+			order[ i ] = ( ( long ) idmap.getId( e.getKey() ) << 32 ) | i;
+			unsorted[ i ] = code;
+			++i;
+		}
+
+		// SORT BY FILE ID
+		Arrays.sort( order );
+		final int[] keys = new int[ size ];
+		int numCodeBytes = 0;
+		for ( int j = 0; j < size; ++j )
+		{
+			keys[ j ] = ( int ) ( order[ j ] >> 32 );
+			numCodeBytes += VarInts.size( unsorted[ ( int ) order[ j ] ] );
+		}
+		final ByteBuffer codeBytes = ByteBuffer.allocate( numCodeBytes );
+		for ( int j = 0; j < size; ++j )
+			VarInts.write( unsorted[ ( int ) order[ j ] ], codeBytes );
+
+		// DICTIONARY
+		oos.writeInt( dictionary.size() );
+		for ( final String value : dictionary )
+			oos.writeUTF( value );
+
+		// NUMBER OF ENTRIES
+		oos.writeInt( size );
+
+		// KEYS
+		final byte[] keyBytes = VarInts.encodeSortedDeltas( keys, size );
+		oos.writeInt( keyBytes.length );
+		oos.write( keyBytes );
+
+		// CODES
+		oos.writeInt( numCodeBytes );
+		oos.write( codeBytes.array() );
+	}
+
+	@Override
+	public void readPropertyMap(
+			final FileIdToObjectMap< O > idmap,
+			final ObjectInputStream ois )
+					throws IOException, ClassNotFoundException
+	{
+		final RefObjectMap< O, String > pmap = propertyMap.getMap();
+		pmap.clear();
+
+		// DICTIONARY
+		final String[] dictionary = new String[ ois.readInt() ];
+		for ( int i = 0; i < dictionary.length; ++i )
+			dictionary[ i ] = ois.readUTF();
+
+		// NUMBER OF ENTRIES
+		final int size = ois.readInt();
+
+		// KEYS
+		final byte[] keyBytes = new byte[ ois.readInt() ];
+		ois.readFully( keyBytes );
+		final int[] keys = new int[ size ];
+		VarInts.decodeSortedDeltas( ByteBuffer.wrap( keyBytes ), keys, size );
+
+		// CODES
+		final byte[] codeBytes = new byte[ ois.readInt() ];
+		ois.readFully( codeBytes );
+		final ByteBuffer codes = ByteBuffer.wrap( codeBytes );
+		final O ref = idmap.createRef();
+		try
+		{
+			for ( int j = 0; j < size; ++j )
+				pmap.put( idmap.getObject( keys[ j ], ref ), dictionary[ VarInts.read( codes ) ] );
+		}
+		catch ( final BufferUnderflowException | IllegalArgumentException | ArrayIndexOutOfBoundsException e )
+		{
+			throw new IOException( "malformed code block", e );
+		}
+		finally
+		{
+			idmap.releaseRef( ref );
+		}
+	}
+
+	@Override
+	public ObjPropertyMap< O, String > getPropertyMap()
+	{
+		return propertyMap;
+	}
+}
@@ -38,7 +38,7 @@ import org.mastodon.io.FileIdToObjectMap;
 import org.mastodon.io.ObjectToFileIdMap;
 import org.mastodon.properties.DoublePropertyMap;
 
-public class DoublePropertyMapSerializer< O > implements PropertyMapSerializer< O, DoublePropertyMap< O > >
+public class DoublePropertyMapSerializer< O > implements DoubleEntryStreamable< O, DoublePropertyMap< O > >
 {
 	private final DoublePropertyMap< O > propertyMap;
 
@@ -103,9 +103,33 @@ public class DoublePropertyMapSerializer< O > implements PropertyMapSerializer<
 		idmap.releaseRef( ref );
 	}
 
+	@Override
+	public void streamDoubleEntries(
+			final ObjectInputStream ois,
+			final DoubleEntryConsumer consumer )
+					throws IOException
+	{
+		// NUMBER OF ENTRIES
+		final int size = ois.readInt();
+
+		// ENTRIES
+		for ( int i = 0; i < size; i++ )
+		{
+			final int key = ois.readInt();
+			final double value = ois.readDouble();
+			consumer.accept( key, value );
+		}
+	}
+
 	@Override
 	public DoublePropertyMap< O > getPropertyMap()
 	{
 		return propertyMap;
 	}
+
+	@Override
+	public DoublePropertyMapSerializer< O > frozenCopy()
+	{
+		return new DoublePropertyMapSerializer<>( propertyMap.snapshot() );
+	}
 }
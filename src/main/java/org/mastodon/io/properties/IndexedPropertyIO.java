@@ -0,0 +1,531 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io.properties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+import org.mastodon.properties.PropertyMaps;
+
+/**
+ * Write a collection of {@link PropertyMaps} to a {@link FileChannel} in an
+ * indexed container format, such that individual property maps can later be
+ * read on demand with {@link IndexedPropertyReader}.
+ * <p>
+ * The container consists of a fixed-size header, followed by one section per
+ * property map, followed by a table of contents. Each section holds the output
+ * of one
+ * {@link PropertyMapSerializer#writePropertyMap(ObjectToFileIdMap, ObjectOutputStream)}
+ * call, written to its own {@link ObjectOutputStream}. The table of contents
+ * lists for each section the property map key, offset, length, codec, and a
+ * CRC32 checksum. The header contains the position and size of the table of
+ * contents and is written last, so that a reader never looks past the end of
+ * the container.
+ * </p>
+ * <p>
+ * All offsets are relative to the channel position at which the container
+ * starts.
+ * </p>
+ */
+public class IndexedPropertyIO
+{
+	/**
+	 * Codec for sections that are stored uncompressed.
+	 */
+	public static final int RAW = 0;
+
+	/**
+	 * Codec for sections that are compressed with {@link Deflater}.
+	 */
+	public static final int DEFLATE = 1;
+
+	static final int MAGIC = 0x4D504958; // "MPIX"
+
+	static final int VERSION = 1;
+
+	/**
+	 * magic (int), version (int), number of sections (int), offset of table
+	 * of contents (long), size of table of contents (int).
+	 */
+	static final int HEADER_SIZE = 24;
+
+	/**
+	 * Write a collection of {@link PropertyMaps} to a file channel, starting
+	 * at the current channel position. On return, the channel is positioned at
+	 * the end of the container.
+	 *
+	 * @param idmap
+	 *            the object-to-file id map.
+	 * @param serializers
+	 *            collection of serializers to write property maps. The
+	 *            contained keys and property maps are written to the channel.
+	 * @param channel
+	 *            the channel to write to.
+	 * @param <O>
+	 *            the type of objects for which the maps are defined.
+	 * @throws IOException
+	 *             if there is a problem writing to the channel.
+	 */
+	public static < O > void writePropertyMaps(
+			final ObjectToFileIdMap< O > idmap,
+			final PropertyMapSerializers< O > serializers,
+			final FileChannel channel )
+					throws IOException
+	{
+		final long base = channel.position();
+		final List< Section > sections = new ArrayList<>();
+		long offset = HEADER_SIZE;
+		channel.position( base + offset );
+		for ( final String key : serializers.getKeys() )
+		{
+			final ByteBuffer data = encode( serializers.getPropertyMap( key ), idmap );
+			final Section section = new Section( key, offset, data.remaining(), RAW, checksum( data ) );
+			writeFully( data, channel );
+			sections.add( section );
+			offset += section.length;
+		}
+		finish( sections, base, offset, channel );
+	}
+
+	/**
+	 * Write a collection of {@link PropertyMaps} to a file channel, starting
+	 * at the current channel position. Each property map is serialized into
+	 * its own buffer as a separate task on {@code executor}. The buffers are
+	 * then written to the channel with gathering writes, in the order of
+	 * keys. On return, the channel is positioned at the end of the container.
+	 * <p>
+	 * The container is identical to the one written by
+	 * {@link #writePropertyMaps(ObjectToFileIdMap, PropertyMapSerializers, FileChannel)}.
+	 * Property maps must not be modified while this method is running.
+	 * </p>
+	 *
+	 * @param idmap
+	 *            the object-to-file id map.
+	 * @param serializers
+	 *            collection of serializers to write property maps. The
+	 *            contained keys and property maps are written to the channel.
+	 * @param channel
+	 *            the channel to write to.
+	 * @param executor
+	 *            the executor to run serialization tasks on.
+	 * @param <O>
+	 *            the type of objects for which the maps are defined.
+	 * @throws IOException
+	 *             if serializing any of the property maps fails, or if there
+	 *             is a problem writing to the channel.
+	 */
+	public static < O > void writePropertyMaps(
+			final ObjectToFileIdMap< O > idmap,
+			final PropertyMapSerializers< O > serializers,
+			final FileChannel channel,
+			final ExecutorService executor )
+					throws IOException
+	{
+		writePropertyMaps( idmap, serializers, channel, executor, RAW );
+	}
+
+	/**
+	 * Like
+	 * {@link #writePropertyMaps(ObjectToFileIdMap, PropertyMapSerializers, FileChannel, ExecutorService)},
+	 * but encodes sections with the specified {@code codec}. Compression, if
+	 * any, also runs on {@code executor}.
+	 *
+	 * @param idmap
+	 *            the object-to-file id map.
+	 * @param serializers
+	 *            collection of serializers to write property maps.
+	 * @param channel
+	 *            the channel to write to.
+	 * @param executor
+	 *            the executor to run serialization tasks on.
+	 * @param codec
+	 *            {@link #RAW} or {@link #DEFLATE}.
+	 * @param <O>
+	 *            the type of objects for which the maps are defined.
+	 * @throws IOException
+	 *             if serializing any of the property maps fails, or if there
+	 *             is a problem writing to the channel.
+	 */
+	public static < O > void writePropertyMaps(
+			final ObjectToFileIdMap< O > idmap,
+			final PropertyMapSerializers< O > serializers,
+			final FileChannel channel,
+			final ExecutorService executor,
+			final int codec )
+					throws IOException
+	{
+		final List< String > keys = serializers.getKeys();
+		final List< Future< Encoded > > futures = new ArrayList<>( keys.size() );
+		for ( final String key : keys )
+		{
+			final PropertyMapSerializer< O, ? > serializer = serializers.getPropertyMap( key );
+			futures.add( executor.submit( () -> {
+				final ByteBuffer data = encode( serializer, idmap, codec );
+				return new Encoded( data, checksum( data ) );
+			} ) );
+		}
+
+		final List< ByteBuffer > buffers = new ArrayList<>( keys.size() );
+		final long[] checksums = new long[ keys.size() ];
+		for ( int i = 0; i < keys.size(); ++i )
+		{
+			final Encoded encoded = get( futures.get( i ), futures );
+			buffers.add( encoded.data );
+			checksums[ i ] = encoded.checksum;
+		}
+		writeSections( keys, buffers, checksums, codec, channel );
+	}
+
+	/**
+	 * Write a container of already {@link #encode(PropertyMapSerializer,
+	 * ObjectToFileIdMap) encoded} property maps to a file channel, starting at
+	 * the current channel position. The sections are written with gathering
+	 * writes. On return, the channel is positioned at the end of the
+	 * container.
+	 *
+	 * @param keys
+	 *            the property map keys.
+	 * @param sections
+	 *            the encoded property maps, in the order of {@code keys}.
+	 * @param channel
+	 *            the channel to write to.
+	 * @throws IOException
+	 *             if there is a problem writing to the channel.
+	 */
+	public static void writeSections(
+			final List< String > keys,
+			final List< ByteBuffer > sections,
+			final FileChannel channel )
+					throws IOException
+	{
+		writeSections( keys, sections, RAW, channel );
+	}
+
+	/**
+	 * Like {@link #writeSections(List, List, FileChannel)}, for sections
+	 * {@link #encode(PropertyMapSerializer, ObjectToFileIdMap, int) encoded}
+	 * with the specified {@code codec}.
+	 *
+	 * @param keys
+	 *            the property map keys.
+	 * @param sections
+	 *            the encoded property maps, in the order of {@code keys}.
+	 * @param codec
+	 *            the codec used to encode all sections.
+	 * @param channel
+	 *            the channel to write to.
+	 * @throws IOException
+	 *             if there is a problem writing to the channel.
+	 */
+	public static void writeSections(
+			final List< String > keys,
+			final List< ByteBuffer > sections,
+			final int codec,
+			final FileChannel channel )
+					throws IOException
+	{
+		final long[] checksums = new long[ keys.size() ];
+		for ( int i = 0; i < keys.size(); ++i )
+			checksums[ i ] = checksum( sections.get( i ) );
+		writeSections( keys, sections, checksums, codec, channel );
+	}
+
+	private static void writeSections(
+			final List< String > keys,
+			final List< ByteBuffer > sections,
+			final long[] checksums,
+			final int codec,
+			final FileChannel channel )
+					throws IOException
+	{
+		final ByteBuffer[] buffers = new ByteBuffer[ keys.size() ];
+		final List< Section > toc = new ArrayList<>( keys.size() );
+		long offset = HEADER_SIZE;
+		for ( int i = 0; i < keys.size(); ++i )
+		{
+			final ByteBuffer data = sections.get( i ).duplicate();
+			buffers[ i ] = data;
+			final Section section = new Section( keys.get( i ), offset, data.remaining(), codec, checksums[ i ] );
+			toc.add( section );
+			offset += section.length;
+		}
+
+		final long base = channel.position();
+		channel.position( base + HEADER_SIZE );
+		for ( int i = 0; i < buffers.length; )
+		{
+			channel.write( buffers, i, buffers.length - i );
+			while ( i < buffers.length && !buffers[ i ].hasRemaining() )
+				++i;
+		}
+		finish( toc, base, offset, channel );
+	}
+
+	private static < T > T get( final Future< T > future, final List< ? extends Future< ? > > all ) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			all.forEach( f -> f.cancel( true ) );
+			Thread.currentThread().interrupt();
+			throw new IOException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			all.forEach( f -> f.cancel( true ) );
+			final Throwable cause = e.getCause();
+			if ( cause instanceof IOException )
+				throw ( IOException ) cause;
+			throw new IOException( cause );
+		}
+	}
+
+	/**
+	 * Serialize one property map into a buffer, as stored in one section of
+	 * the container.
+	 *
+	 * @param serializer
+	 *            the serializer of the property map.
+	 * @param idmap
+	 *            the object-to-file id map.
+	 * @param <O>
+	 *            the type of objects for which the map is defined.
+	 * @return a buffer containing the serialized property map, positioned at
+	 *         0.
+	 * @throws IOException
+	 *             if serializing fails.
+	 */
+	public static < O > ByteBuffer encode(
+			final PropertyMapSerializer< O, ? > serializer,
+			final ObjectToFileIdMap< O > idmap )
+					throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream oos = new ObjectOutputStream( bytes ))
+		{
+			serializer.writePropertyMap( idmap, oos );
+		}
+		return ByteBuffer.wrap( bytes.toByteArray() );
+	}
+
+	/**
+	 * Serialize one property map into a buffer, encoded with the specified
+	 * {@code codec}.
+	 *
+	 * @param serializer
+	 *            the serializer of the property map.
+	 * @param idmap
+	 *            the object-to-file id map.
+	 * @param codec
+	 *            {@link #RAW} or {@link #DEFLATE}.
+	 * @param <O>
+	 *            the type of objects for which the map is defined.
+	 * @return a buffer containing the encoded property map, positioned at 0.
+	 * @throws IOException
+	 *             if serializing fails.
+	 */
+	public static < O > ByteBuffer encode(
+			final PropertyMapSerializer< O, ? > serializer,
+			final ObjectToFileIdMap< O > idmap,
+			final int codec )
+					throws IOException
+	{
+		switch ( codec )
+		{
+		case RAW:
+			return encode( serializer, idmap );
+		case DEFLATE:
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+			try (final ObjectOutputStream oos = new ObjectOutputStream( new DeflaterOutputStream( bytes, deflater, 64 * 1024 ) ))
+			{
+				serializer.writePropertyMap( idmap, oos );
+			}
+			finally
+			{
+				deflater.end();
+			}
+			return ByteBuffer.wrap( bytes.toByteArray() );
+		default:
+			throw new IllegalArgumentException( "unknown codec " + codec );
+		}
+	}
+
+	static long checksum( final ByteBuffer data )
+	{
+		final CRC32 crc = new CRC32();
+		if ( data.hasArray() )
+			crc.update( data.array(), data.arrayOffset() + data.position(), data.remaining() );
+		else
+		{
+			final ByteBuffer src = data.duplicate();
+			final byte[] tmp = new byte[ Math.min( src.remaining(), 64 * 1024 ) ];
+			while ( src.hasRemaining() )
+			{
+				final int n = Math.min( tmp.length, src.remaining() );
+				src.get( tmp, 0, n );
+				crc.update( tmp, 0, n );
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Write table of contents at {@code base + tocOffset}, then patch the
+	 * header at {@code base}. Leaves the channel positioned at the end of the
+	 * container.
+	 */
+	static void finish(
+			final List< Section > sections,
+			final long base,
+			final long tocOffset,
+			final FileChannel channel )
+					throws IOException
+	{
+		int tocSize = 0;
+		final List< byte[] > names = new ArrayList<>( sections.size() );
+		for ( final Section section : sections )
+		{
+			final byte[] name = section.key.getBytes( StandardCharsets.UTF_8 );
+			names.add( name );
+			tocSize += Section.SIZE + name.length;
+		}
+		final ByteBuffer toc = ByteBuffer.allocate( tocSize );
+		for ( int i = 0; i < sections.size(); ++i )
+			sections.get( i ).write( names.get( i ), toc );
+		toc.flip();
+		channel.position( base + tocOffset );
+		writeFully( toc, channel );
+		final long end = channel.position();
+
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		header.putInt( MAGIC );
+		header.putInt( VERSION );
+		header.putInt( sections.size() );
+		header.putLong( tocOffset );
+		header.putInt( tocSize );
+		header.flip();
+		channel.position( base );
+		writeFully( header, channel );
+		channel.position( end );
+	}
+
+	static void writeFully( final ByteBuffer buffer, final FileChannel channel ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+			channel.write( buffer );
+	}
+
+	/**
+	 * An encoded section and its checksum, as produced by a serialization
+	 * task.
+	 */
+	private static final class Encoded
+	{
+		final ByteBuffer data;
+
+		final long checksum;
+
+		Encoded( final ByteBuffer data, final long checksum )
+		{
+			this.data = data;
+			this.checksum = checksum;
+		}
+	}
+
+	/**
+	 * Table of contents entry.
+	 */
+	static final class Section
+	{
+		/**
+		 * Fixed size of an entry (without the key bytes): key length (int),
+		 * offset (long), length (long), codec (int), checksum (long).
+		 */
+		static final int SIZE = 32;
+
+		final String key;
+
+		final long offset;
+
+		final long length;
+
+		final int codec;
+
+		final long checksum;
+
+		Section( final String key, final long offset, final long length, final int codec, final long checksum )
+		{
+			this.key = key;
+			this.offset = offset;
+			this.length = length;
+			this.codec = codec;
+			this.checksum = checksum;
+		}
+
+		void write( final byte[] name, final ByteBuffer buffer )
+		{
+			buffer.putInt( name.length );
+			buffer.put( name );
+			buffer.putLong( offset );
+			buffer.putLong( length );
+			buffer.putInt( codec );
+			buffer.putLong( checksum );
+		}
+
+		static Section read( final ByteBuffer buffer )
+		{
+			final byte[] name = new byte[ buffer.getInt() ];
+			buffer.get( name );
+			final String key = new String( name, StandardCharsets.UTF_8 );
+			final long offset = buffer.getLong();
+			final long length = buffer.getLong();
+			final int codec = buffer.getInt();
+			final long checksum = buffer.getLong();
+			return new Section( key, offset, length, codec, checksum );
+		}
+	}
+}
@@ -0,0 +1,413 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io.properties;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.InflaterInputStream;
+
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.properties.IndexedPropertyIO.Section;
+
+/**
+ * Reads individual property maps from a container written by
+ * {@link IndexedPropertyIO}. Only the table of contents is read on
+ * construction. Property maps are read on demand, using positional reads on
+ * the {@link FileChannel}, so several maps can be read concurrently.
+ */
+public class IndexedPropertyReader
+{
+	/**
+	 * Size of the buffer for streaming sections.
+	 */
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+
+	private final long base;
+
+	private final LinkedHashMap< String, Section > sections;
+
+	/**
+	 * Reads the header and table of contents of the container that starts at
+	 * the current position of {@code channel}.
+	 *
+	 * @param channel
+	 *            the channel to read from. The channel is not closed by this
+	 *            reader.
+	 * @throws IOException
+	 *             if the channel does not contain a valid container, or for
+	 *             usual I/O errors.
+	 */
+	public IndexedPropertyReader( final FileChannel channel ) throws IOException
+	{
+		this.channel = channel;
+		this.base = channel.position();
+
+		final ByteBuffer header = read( 0, IndexedPropertyIO.HEADER_SIZE );
+		if ( header.getInt() != IndexedPropertyIO.MAGIC )
+			throw new IOException( "not an indexed property map container" );
+		final int version = header.getInt();
+		if ( version != IndexedPropertyIO.VERSION )
+			throw new IOException( "unsupported container version " + version );
+		final int numSections = header.getInt();
+		final long tocOffset = header.getLong();
+		final int tocSize = header.getInt();
+
+		final ByteBuffer toc = read( tocOffset, tocSize );
+		sections = new LinkedHashMap<>();
+		for ( int i = 0; i < numSections; ++i )
+		{
+			final Section section = Section.read( toc );
+			sections.put( section.key, section );
+		}
+	}
+
+	/**
+	 * Get the keys of all property maps in the container, in the order in
+	 * which they were written.
+	 *
+	 * @return list of property map keys.
+	 */
+	public List< String > getKeys()
+	{
+		return Collections.unmodifiableList( new ArrayList<>( sections.keySet() ) );
+	}
+
+	/**
+	 * Check whether the container contains a property map with the given key.
+	 *
+	 * @param key
+	 *            the property map key.
+	 * @return {@code true} if a section for {@code key} exists.
+	 */
+	public boolean contains( final String key )
+	{
+		return sections.containsKey( key );
+	}
+
+	/**
+	 * Read one property map. The section is read from the channel, its
+	 * checksum is verified, and it is passed to the serializer registered for
+	 * {@code key} in {@code serializers}.
+	 *
+	 * @param key
+	 *            the property map key.
+	 * @param idmap
+	 *            the file id-to-object map.
+	 * @param serializers
+	 *            collection of serializers. This must contain a serializer for
+	 *            {@code key}.
+	 * @param <O>
+	 *            the type of objects for which the maps are defined.
+	 * @throws IOException
+	 *             if the container or the serializers have no entry for
+	 *             {@code key}, the checksum does not match, or for usual I/O
+	 *             errors.
+	 */
+	public < O > void readPropertyMap(
+			final String key,
+			final FileIdToObjectMap< O > idmap,
+			final PropertyMapSerializers< O > serializers )
+					throws IOException
+	{
+		final Section section = sections.get( key );
+		if ( section == null )
+			throw new IOException( "no property map \"" + key + "\" in container" );
+		final PropertyMapSerializer< O, ? > serializer = serializers.getPropertyMap( key );
+		if ( serializer == null )
+			throw new IOException( "no serializer for property map \"" + key + "\"" );
+
+		final ByteBuffer data = read( section.offset, section.length );
+		if ( IndexedPropertyIO.checksum( data ) != section.checksum )
+			throw new IOException( "checksum mismatch in property map \"" + key + "\"" );
+		try (final ObjectInputStream ois = new ObjectInputStream( decode( section, data ) ))
+		{
+			serializer.readPropertyMap( idmap, ois );
+		}
+		catch ( final ClassNotFoundException e )
+		{
+			throw new IOException( e );
+		}
+	}
+
+	/**
+	 * Open one property map section for streaming. The section is read from
+	 * the channel in small blocks as the returned stream is consumed, so
+	 * memory use does not depend on the size of the section. Unlike
+	 * {@link #readPropertyMap(String, FileIdToObjectMap, PropertyMapSerializers)},
+	 * the checksum is not verified.
+	 * <p>
+	 * The returned stream can be passed to
+	 * {@link DoubleEntryStreamable#streamDoubleEntries(ObjectInputStream, DoubleEntryConsumer)}
+	 * or
+	 * {@link IntEntryStreamable#streamIntEntries(ObjectInputStream, IntEntryConsumer)}
+	 * of a serializer for the same format, see also
+	 * {@link #streamDoubleEntries(String, PropertyMapSerializers, DoubleEntryConsumer)}
+	 * and
+	 * {@link #streamIntEntries(String, PropertyMapSerializers, IntEntryConsumer)}.
+	 * </p>
+	 *
+	 * @param key
+	 *            the property map key.
+	 * @return a stream over the section.
+	 * @throws IOException
+	 *             if the container has no entry for {@code key}, or for usual
+	 *             I/O errors.
+	 */
+	public ObjectInputStream openPropertyMap( final String key ) throws IOException
+	{
+		final Section section = sections.get( key );
+		if ( section == null )
+			throw new IOException( "no property map \"" + key + "\" in container" );
+		final InputStream in = new BufferedInputStream( new SectionInputStream( base + section.offset, section.length ), STREAM_BUFFER_SIZE );
+		switch ( section.codec )
+		{
+		case IndexedPropertyIO.RAW:
+			return new ObjectInputStream( in );
+		case IndexedPropertyIO.DEFLATE:
+			return new ObjectInputStream( new InflaterInputStream( in ) );
+		default:
+			throw new IOException( "unknown codec " + section.codec + " for property map \"" + section.key + "\"" );
+		}
+	}
+
+	/**
+	 * Stream the entries of one {@code double} property map, see
+	 * {@link #openPropertyMap(String)}.
+	 *
+	 * @param key
+	 *            the property map key.
+	 * @param serializers
+	 *            collection of serializers. This must contain a
+	 *            {@link DoubleEntryStreamable} serializer for {@code key}.
+	 * @param consumer
+	 *            receives file id and value of each entry.
+	 * @throws IOException
+	 *             if the container has no entry for {@code key}, the
+	 *             serializer for {@code key} cannot stream {@code double}
+	 *             entries, or for usual I/O errors.
+	 */
+	public void streamDoubleEntries(
+			final String key,
+			final PropertyMapSerializers< ? > serializers,
+			final DoubleEntryConsumer consumer )
+					throws IOException
+	{
+		final PropertyMapSerializer< ?, ? > serializer = serializers.getPropertyMap( key );
+		if ( !( serializer instanceof DoubleEntryStreamable ) )
+			throw new IOException( "no serializer streaming double entries for property map \"" + key + "\"" );
+		try (final ObjectInputStream ois = openPropertyMap( key ))
+		{
+			( ( DoubleEntryStreamable< ?, ? > ) serializer ).streamDoubleEntries( ois, consumer );
+		}
+	}
+
+	/**
+	 * Stream the entries of one {@code int} property map, see
+	 * {@link #openPropertyMap(String)}.
+	 *
+	 * @param key
+	 *            the property map key.
+	 * @param serializers
+	 *            collection of serializers. This must contain an
+	 *            {@link IntEntryStreamable} serializer for {@code key}.
+	 * @param consumer
+	 *            receives file id and value of each entry.
+	 * @throws IOException
+	 *             if the container has no entry for {@code key}, the
+	 *             serializer for {@code key} cannot stream {@code int}
+	 *             entries, or for usual I/O errors.
+	 */
+	public void streamIntEntries(
+			final String key,
+			final PropertyMapSerializers< ? > serializers,
+			final IntEntryConsumer consumer )
+					throws IOException
+	{
+		final PropertyMapSerializer< ?, ? > serializer = serializers.getPropertyMap( key );
+		if ( !( serializer instanceof IntEntryStreamable ) )
+			throw new IOException( "no serializer streaming int entries for property map \"" + key + "\"" );
+		try (final ObjectInputStream ois = openPropertyMap( key ))
+		{
+			( ( IntEntryStreamable< ?, ? > ) serializer ).streamIntEntries( ois, consumer );
+		}
+	}
+
+	/**
+	 * Read all property maps that occur in both the container and
+	 * {@code serializers}. Each property map is read as a separate task on
+	 * {@code executor}. This method blocks until all maps are read.
+	 *
+	 * @param idmap
+	 *            the file id-to-object map.
+	 * @param serializers
+	 *            collection of serializers.
+	 * @param executor
+	 *            the executor to run read tasks on.
+	 * @param <O>
+	 *            the type of objects for which the maps are defined.
+	 * @throws IOException
+	 *             if reading any of the property maps fails.
+	 */
+	public < O > void readPropertyMaps(
+			final FileIdToObjectMap< O > idmap,
+			final PropertyMapSerializers< O > serializers,
+			final ExecutorService executor )
+					throws IOException
+	{
+		final List< Future< ? > > futures = new ArrayList<>();
+		for ( final String key : sections.keySet() )
+		{
+			if ( serializers.getPropertyMap( key ) != null )
+				futures.add( executor.submit( () -> {
+					readPropertyMap( key, idmap, serializers );
+					return null;
+				} ) );
+		}
+
+		IOException exception = null;
+		for ( final Future< ? > future : futures )
+		{
+			try
+			{
+				future.get();
+			}
+			catch ( final InterruptedException e )
+			{
+				futures.forEach( f -> f.cancel( true ) );
+				Thread.currentThread().interrupt();
+				throw new IOException( e );
+			}
+			catch ( final ExecutionException e )
+			{
+				if ( exception == null )
+					exception = e.getCause() instanceof IOException
+							? ( IOException ) e.getCause()
+							: new IOException( e.getCause() );
+			}
+		}
+		if ( exception != null )
+			throw exception;
+	}
+
+	private InputStream decode( final Section section, final ByteBuffer data ) throws IOException
+	{
+		switch ( section.codec )
+		{
+		case IndexedPropertyIO.RAW:
+			return new ByteArrayInputStream( data.array(), data.arrayOffset() + data.position(), data.remaining() );
+		case IndexedPropertyIO.DEFLATE:
+			return new InflaterInputStream( new ByteArrayInputStream( data.array(), data.arrayOffset() + data.position(), data.remaining() ) );
+		default:
+			throw new IOException( "unknown codec " + section.codec + " for property map \"" + section.key + "\"" );
+		}
+	}
+
+	private ByteBuffer read( final long offset, final long length ) throws IOException
+	{
+		if ( length > Integer.MAX_VALUE )
+			throw new IOException( "section too large" );
+		final ByteBuffer buffer = ByteBuffer.allocate( ( int ) length );
+		long position = base + offset;
+		while ( buffer.hasRemaining() )
+		{
+			final int n = channel.read( buffer, position );
+			if ( n < 0 )
+				throw new EOFException();
+			position += n;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Reads a range of the channel using positional reads.
+	 */
+	private class SectionInputStream extends InputStream
+	{
+		private long position;
+
+		private final long end;
+
+		SectionInputStream( final long position, final long length )
+		{
+			this.position = position;
+			this.end = position + length;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final byte[] b = new byte[ 1 ];
+			return read( b, 0, 1 ) < 0 ? -1 : b[ 0 ] & 0xff;
+		}
+
+		@Override
+		public int read( final byte[] b, final int off, final int len ) throws IOException
+		{
+			if ( len == 0 )
+				return 0;
+			if ( position >= end )
+				return -1;
+			final int n = channel.read( ByteBuffer.wrap( b, off, ( int ) Math.min( len, end - position ) ), position );
+			if ( n < 0 )
+				throw new EOFException();
+			position += n;
+			return n;
+		}
+
+		@Override
+		public long skip( final long n )
+		{
+			final long skipped = Math.max( 0, Math.min( n, end - position ) );
+			position += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available()
+		{
+			return ( int ) Math.min( Integer.MAX_VALUE, end - position );
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io.properties;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.properties.PropertyMap;
+
+/**
+ * A {@link PropertyMapSerializer} for {@code int} property maps that can
+ * stream the entries of a serialized map without building it.
+ *
+ * @param <O>
+ *            type of object which the property is attached to.
+ * @param <M>
+ *            the property map type
+ */
+public interface IntEntryStreamable< O, M extends PropertyMap< O, ? > > extends PropertyMapSerializer< O, M >
+{
+	/**
+	 * Reads the entries of a serialized {@code int} property map and passes
+	 * them to {@code consumer} one at a time, without building a map. This
+	 * reads the same format as
+	 * {@link #readPropertyMap(FileIdToObjectMap, ObjectInputStream)}.
+	 *
+	 * @param ois
+	 *            the stream to read from.
+	 * @param consumer
+	 *            receives file id and value of each entry.
+	 * @throws IOException
+	 *             if reading fails, or if {@code consumer} throws.
+	 */
+	public void streamIntEntries(
+			final ObjectInputStream ois,
+			final IntEntryConsumer consumer )
+					throws IOException;
+}
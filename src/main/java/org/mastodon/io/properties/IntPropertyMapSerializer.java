@@ -38,7 +38,7 @@ import org.mastodon.io.FileIdToObjectMap;
 import org.mastodon.io.ObjectToFileIdMap;
 import org.mastodon.properties.IntPropertyMap;
 
-public class IntPropertyMapSerializer< O > implements PropertyMapSerializer< O, IntPropertyMap< O > >
+public class IntPropertyMapSerializer< O > implements IntEntryStreamable< O, IntPropertyMap< O > >
 {
 	private final IntPropertyMap< O > propertyMap;
 
@@ -103,9 +103,33 @@ public class IntPropertyMapSerializer< O > implements PropertyMapSerializer< O,
 		idmap.releaseRef( ref );
 	}
 
+	@Override
+	public void streamIntEntries(
+			final ObjectInputStream ois,
+			final IntEntryConsumer consumer )
+					throws IOException
+	{
+		// NUMBER OF ENTRIES
+		final int size = ois.readInt();
+
+		// ENTRIES
+		for ( int i = 0; i < size; i++ )
+		{
+			final int key = ois.readInt();
+			final int value = ois.readInt();
+			consumer.accept( key, value );
+		}
+	}
+
 	@Override
 	public IntPropertyMap< O > getPropertyMap()
 	{
 		return propertyMap;
 	}
+
+	@Override
+	public IntPropertyMapSerializer< O > frozenCopy()
+	{
+		return new IntPropertyMapSerializer<>( propertyMap.snapshot() );
+	}
 }
@@ -0,0 +1,433 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io.properties;
+
+import java.nio.DoubleBuffer;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.mastodon.collection.RefDoubleMap;
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+
+import gnu.trove.TCollections;
+import gnu.trove.TDoubleCollection;
+import gnu.trove.function.TDoubleFunction;
+import gnu.trove.iterator.TObjectDoubleIterator;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.procedure.TDoubleProcedure;
+import gnu.trove.procedure.TObjectDoubleProcedure;
+import gnu.trove.procedure.TObjectProcedure;
+
+/**
+ * Read-only {@link RefDoubleMap} that is backed by a sorted key/value section
+ * written by {@link SortedPropertyIO}, typically memory-mapped. Lookups search
+ * the sorted file ids directly, no hash map is built.
+ * <p>
+ * All modifying methods throw {@link UnsupportedOperationException}.
+ *
+ * @param <K>
+ *            key type.
+ */
+public class MappedRefDoubleMap< K > implements RefDoubleMap< K >
+{
+	private final SortedKeys keys;
+
+	private final DoubleBuffer values;
+
+	private final double noEntryValue;
+
+	private final ObjectToFileIdMap< K > objectToFileId;
+
+	private final FileIdToObjectMap< K > fileIdToObject;
+
+	private final Class< ? > keyType;
+
+	MappedRefDoubleMap(
+			final SortedKeys keys,
+			final DoubleBuffer values,
+			final double noEntryValue,
+			final ObjectToFileIdMap< K > objectToFileId,
+			final FileIdToObjectMap< K > fileIdToObject )
+	{
+		this.keys = keys;
+		this.values = values;
+		this.noEntryValue = noEntryValue;
+		this.objectToFileId = objectToFileId;
+		this.fileIdToObject = fileIdToObject;
+		final K ref = fileIdToObject.createRef();
+		this.keyType = ref.getClass();
+		fileIdToObject.releaseRef( ref );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private int indexOf( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+			return keys.indexOf( objectToFileId.getId( ( K ) key ) );
+		else
+			return -1;
+	}
+
+	@Override
+	public double getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		return keys.size();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return keys.size() == 0;
+	}
+
+	@Override
+	public boolean containsKey( final Object key )
+	{
+		return indexOf( key ) >= 0;
+	}
+
+	@Override
+	public boolean containsValue( final double value )
+	{
+		for ( int i = 0; i < keys.size(); ++i )
+			if ( values.get( i ) == value )
+				return true;
+		return false;
+	}
+
+	@Override
+	public double get( final Object key )
+	{
+		final int i = indexOf( key );
+		return i < 0 ? noEntryValue : values.get( i );
+	}
+
+	@Override
+	public Set< K > keySet()
+	{
+		return new KeySet();
+	}
+
+	@Override
+	public Object[] keys()
+	{
+		return keySet().toArray();
+	}
+
+	@Override
+	public K[] keys( final K[] array )
+	{
+		return keySet().toArray( array );
+	}
+
+	/**
+	 * Returns an unmodifiable copy of the values.
+	 */
+	@Override
+	public TDoubleCollection valueCollection()
+	{
+		return TCollections.unmodifiableCollection( TDoubleArrayList.wrap( values() ) );
+	}
+
+	@Override
+	public double[] values()
+	{
+		return values( new double[ keys.size() ] );
+	}
+
+	@Override
+	public double[] values( final double[] array )
+	{
+		final int size = keys.size();
+		final double[] dest = array.length >= size ? array : new double[ size ];
+		values.duplicate().get( dest, 0, size );
+		if ( dest.length > size )
+			dest[ size ] = noEntryValue;
+		return dest;
+	}
+
+	@Override
+	public TObjectDoubleIterator< K > iterator()
+	{
+		return new MappedIterator();
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure, final K ref )
+	{
+		for ( int i = 0; i < keys.size(); ++i )
+			if ( !procedure.execute( fileIdToObject.getObject( keys.get( i ), ref ) ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		final boolean result = forEachKey( procedure, ref );
+		releaseRef( ref );
+		return result;
+	}
+
+	@Override
+	public boolean forEachValue( final TDoubleProcedure procedure )
+	{
+		for ( int i = 0; i < keys.size(); ++i )
+			if ( !procedure.execute( values.get( i ) ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectDoubleProcedure< ? super K > procedure, final K ref )
+	{
+		for ( int i = 0; i < keys.size(); ++i )
+			if ( !procedure.execute( fileIdToObject.getObject( keys.get( i ), ref ), values.get( i ) ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectDoubleProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		final boolean result = forEachEntry( procedure, ref );
+		releaseRef( ref );
+		return result;
+	}
+
+	@Override
+	public K createRef()
+	{
+		return fileIdToObject.createRef();
+	}
+
+	@Override
+	public void releaseRef( final K obj )
+	{
+		fileIdToObject.releaseRef( obj );
+	}
+
+	/*
+	 * UNSUPPORTED MODIFICATIONS
+	 */
+
+	@Override
+	public double put( final K key, final double value )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public double putIfAbsent( final K key, final double value )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public double remove( final Object key )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public void putAll( final Map< ? extends K, ? extends Double > map )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public void putAll( final TObjectDoubleMap< ? extends K > map )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public void clear()
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public boolean increment( final K key )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public boolean adjustValue( final K key, final double amount )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public double adjustOrPutValue( final K key, final double adjust_amount, final double put_amount )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public void transformValues( final TDoubleFunction function )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectDoubleProcedure< ? super K > procedure, final K ref )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectDoubleProcedure< ? super K > procedure )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( !( o instanceof TObjectDoubleMap ) )
+			return false;
+
+		@SuppressWarnings( "unchecked" )
+		final TObjectDoubleMap< K > that = ( TObjectDoubleMap< K > ) o;
+		if ( that.size() != size() )
+			return false;
+		return forEachEntry( ( key, value ) -> that.containsKey( key ) && that.get( key ) == value );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int result = 0;
+		for ( int i = 0; i < keys.size(); ++i )
+			result += keys.get( i ) ^ Double.hashCode( values.get( i ) );
+		return result;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private class MappedIterator implements TObjectDoubleIterator< K >
+	{
+		private int i = -1;
+
+		private final K obj = createRef();
+
+		@Override
+		public void advance()
+		{
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+			++i;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return i + 1 < keys.size();
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException( "read-only map" );
+		}
+
+		@Override
+		public K key()
+		{
+			return fileIdToObject.getObject( keys.get( i ), obj );
+		}
+
+		@Override
+		public double value()
+		{
+			return values.get( i );
+		}
+
+		@Override
+		public double setValue( final double val )
+		{
+			throw new UnsupportedOperationException( "read-only map" );
+		}
+	}
+
+	private class KeySet extends AbstractSet< K >
+	{
+		@Override
+		public Iterator< K > iterator()
+		{
+			final MappedIterator it = new MappedIterator();
+			return new Iterator< K >()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public K next()
+				{
+					it.advance();
+					return it.key();
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return keys.size();
+		}
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			return containsKey( o );
+		}
+	}
+}
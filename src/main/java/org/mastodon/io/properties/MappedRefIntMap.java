@@ -0,0 +1,433 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io.properties;
+
+import java.nio.IntBuffer;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.mastodon.collection.RefIntMap;
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+
+import gnu.trove.TCollections;
+import gnu.trove.TIntCollection;
+import gnu.trove.function.TIntFunction;
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.procedure.TObjectIntProcedure;
+import gnu.trove.procedure.TObjectProcedure;
+
+/**
+ * Read-only {@link RefIntMap} that is backed by a sorted key/value section
+ * written by {@link SortedPropertyIO}, typically memory-mapped. Lookups search
+ * the sorted file ids directly, no hash map is built.
+ * <p>
+ * All modifying methods throw {@link UnsupportedOperationException}.
+ *
+ * @param <K>
+ *            key type.
+ */
+public class MappedRefIntMap< K > implements RefIntMap< K >
+{
+	private final SortedKeys keys;
+
+	private final IntBuffer values;
+
+	private final int noEntryValue;
+
+	private final ObjectToFileIdMap< K > objectToFileId;
+
+	private final FileIdToObjectMap< K > fileIdToObject;
+
+	private final Class< ? > keyType;
+
+	MappedRefIntMap(
+			final SortedKeys keys,
+			final IntBuffer values,
+			final int noEntryValue,
+			final ObjectToFileIdMap< K > objectToFileId,
+			final FileIdToObjectMap< K > fileIdToObject )
+	{
+		this.keys = keys;
+		this.values = values;
+		this.noEntryValue = noEntryValue;
+		this.objectToFileId = objectToFileId;
+		this.fileIdToObject = fileIdToObject;
+		final K ref = fileIdToObject.createRef();
+		this.keyType = ref.getClass();
+		fileIdToObject.releaseRef( ref );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private int indexOf( final Object key )
+	{
+		if ( keyType.isInstance( key ) )
+			return keys.indexOf( objectToFileId.getId( ( K ) key ) );
+		else
+			return -1;
+	}
+
+	@Override
+	public int getNoEntryValue()
+	{
+		return noEntryValue;
+	}
+
+	@Override
+	public int size()
+	{
+		return keys.size();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return keys.size() == 0;
+	}
+
+	@Override
+	public boolean containsKey( final Object key )
+	{
+		return indexOf( key ) >= 0;
+	}
+
+	@Override
+	public boolean containsValue( final int value )
+	{
+		for ( int i = 0; i < keys.size(); ++i )
+			if ( values.get( i ) == value )
+				return true;
+		return false;
+	}
+
+	@Override
+	public int get( final Object key )
+	{
+		final int i = indexOf( key );
+		return i < 0 ? noEntryValue : values.get( i );
+	}
+
+	@Override
+	public Set< K > keySet()
+	{
+		return new KeySet();
+	}
+
+	@Override
+	public Object[] keys()
+	{
+		return keySet().toArray();
+	}
+
+	@Override
+	public K[] keys( final K[] array )
+	{
+		return keySet().toArray( array );
+	}
+
+	/**
+	 * Returns an unmodifiable copy of the values.
+	 */
+	@Override
+	public TIntCollection valueCollection()
+	{
+		return TCollections.unmodifiableCollection( TIntArrayList.wrap( values() ) );
+	}
+
+	@Override
+	public int[] values()
+	{
+		return values( new int[ keys.size() ] );
+	}
+
+	@Override
+	public int[] values( final int[] array )
+	{
+		final int size = keys.size();
+		final int[] dest = array.length >= size ? array : new int[ size ];
+		values.duplicate().get( dest, 0, size );
+		if ( dest.length > size )
+			dest[ size ] = noEntryValue;
+		return dest;
+	}
+
+	@Override
+	public TObjectIntIterator< K > iterator()
+	{
+		return new MappedIterator();
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure, final K ref )
+	{
+		for ( int i = 0; i < keys.size(); ++i )
+			if ( !procedure.execute( fileIdToObject.getObject( keys.get( i ), ref ) ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachKey( final TObjectProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		final boolean result = forEachKey( procedure, ref );
+		releaseRef( ref );
+		return result;
+	}
+
+	@Override
+	public boolean forEachValue( final TIntProcedure procedure )
+	{
+		for ( int i = 0; i < keys.size(); ++i )
+			if ( !procedure.execute( values.get( i ) ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectIntProcedure< ? super K > procedure, final K ref )
+	{
+		for ( int i = 0; i < keys.size(); ++i )
+			if ( !procedure.execute( fileIdToObject.getObject( keys.get( i ), ref ), values.get( i ) ) )
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean forEachEntry( final TObjectIntProcedure< ? super K > procedure )
+	{
+		final K ref = createRef();
+		final boolean result = forEachEntry( procedure, ref );
+		releaseRef( ref );
+		return result;
+	}
+
+	@Override
+	public K createRef()
+	{
+		return fileIdToObject.createRef();
+	}
+
+	@Override
+	public void releaseRef( final K obj )
+	{
+		fileIdToObject.releaseRef( obj );
+	}
+
+	/*
+	 * UNSUPPORTED MODIFICATIONS
+	 */
+
+	@Override
+	public int put( final K key, final int value )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public int putIfAbsent( final K key, final int value )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public int remove( final Object key )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public void putAll( final Map< ? extends K, ? extends Integer > map )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public void putAll( final TObjectIntMap< ? extends K > map )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public void clear()
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public boolean increment( final K key )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public boolean adjustValue( final K key, final int amount )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public int adjustOrPutValue( final K key, final int adjust_amount, final int put_amount )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public void transformValues( final TIntFunction function )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectIntProcedure< ? super K > procedure, final K ref )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public boolean retainEntries( final TObjectIntProcedure< ? super K > procedure )
+	{
+		throw new UnsupportedOperationException( "read-only map" );
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( !( o instanceof TObjectIntMap ) )
+			return false;
+
+		@SuppressWarnings( "unchecked" )
+		final TObjectIntMap< K > that = ( TObjectIntMap< K > ) o;
+		if ( that.size() != size() )
+			return false;
+		return forEachEntry( ( key, value ) -> that.containsKey( key ) && that.get( key ) == value );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int result = 0;
+		for ( int i = 0; i < keys.size(); ++i )
+			result += keys.get( i ) ^ values.get( i );
+		return result;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private class MappedIterator implements TObjectIntIterator< K >
+	{
+		private int i = -1;
+
+		private final K obj = createRef();
+
+		@Override
+		public void advance()
+		{
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+			++i;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return i + 1 < keys.size();
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException( "read-only map" );
+		}
+
+		@Override
+		public K key()
+		{
+			return fileIdToObject.getObject( keys.get( i ), obj );
+		}
+
+		@Override
+		public int value()
+		{
+			return values.get( i );
+		}
+
+		@Override
+		public int setValue( final int val )
+		{
+			throw new UnsupportedOperationException( "read-only map" );
+		}
+	}
+
+	private class KeySet extends AbstractSet< K >
+	{
+		@Override
+		public Iterator< K > iterator()
+		{
+			final MappedIterator it = new MappedIterator();
+			return new Iterator< K >()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public K next()
+				{
+					it.advance();
+					return it.key();
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return keys.size();
+		}
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			return containsKey( o );
+		}
+	}
+}
@@ -59,4 +59,22 @@ public interface PropertyMapSerializer< O, M extends PropertyMap< O, ? > >
 					throws IOException, ClassNotFoundException;
 
 	public M getPropertyMap();
+
+	/**
+	 * Creates a serializer for a detached copy of the property map, which is
+	 * not affected by later modifications and can be written from another
+	 * thread (see for example {@link org.mastodon.properties.DoublePropertyMap#snapshot()}).
+	 * <p>
+	 * The default implementation returns {@code null}, indicating that no
+	 * detached copy can be made. Such property maps must be written while
+	 * the original map is not modified.
+	 * </p>
+	 *
+	 * @return a serializer for a detached copy, or {@code null} if not
+	 *         supported.
+	 */
+	public default PropertyMapSerializer< O, M > frozenCopy()
+	{
+		return null;
+	}
 }
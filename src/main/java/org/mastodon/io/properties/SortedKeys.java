@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io.properties;
+
+import java.nio.IntBuffer;
+
+/**
+ * Ascending sorted, distinct {@code int} keys in an {@link IntBuffer},
+ * typically a view of a memory-mapped file section. Keys are looked up by
+ * interpolation search, falling back to binary search if the keys are not
+ * evenly distributed.
+ */
+final class SortedKeys
+{
+	/**
+	 * Maximum number of interpolation steps before falling back to bisection.
+	 * Interpolation finds evenly distributed keys (such as file ids of a
+	 * compact pool) in one or two steps, but degrades to linear time for
+	 * skewed distributions.
+	 */
+	private static final int MAX_INTERPOLATION_STEPS = 4;
+
+	private final IntBuffer keys;
+
+	private final int size;
+
+	SortedKeys( final IntBuffer keys )
+	{
+		this.keys = keys;
+		this.size = keys.limit();
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	int get( final int index )
+	{
+		return keys.get( index );
+	}
+
+	/**
+	 * Returns the index of {@code key}, or -1 if {@code key} is not contained.
+	 */
+	int indexOf( final int key )
+	{
+		int lo = 0;
+		int hi = size - 1;
+		int step = 0;
+		while ( lo <= hi )
+		{
+			final int lk = keys.get( lo );
+			final int hk = keys.get( hi );
+			if ( key < lk || key > hk )
+				return -1;
+			if ( lk == hk )
+				return lo;
+
+			final int mid;
+			if ( step++ < MAX_INTERPOLATION_STEPS )
+				mid = lo + ( int ) ( ( double ) ( ( long ) key - lk ) / ( ( long ) hk - lk ) * ( hi - lo ) );
+			else
+				mid = ( lo + hi ) >>> 1;
+
+			final int k = keys.get( mid );
+			if ( k < key )
+				lo = mid + 1;
+			else if ( k > key )
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,342 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io.properties;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import org.mastodon.collection.RefDoubleMap;
+import org.mastodon.collection.RefIntMap;
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+import org.mastodon.properties.DoublePropertyMap;
+import org.mastodon.properties.IntPropertyMap;
+
+/**
+ * Write {@link DoublePropertyMap}s and {@link IntPropertyMap}s as sorted
+ * key/value sections that can be memory-mapped and queried without loading
+ * them.
+ * <p>
+ * A section consists of a fixed-size header, followed by the file ids of all
+ * entries in ascending order, followed by the corresponding values. Keys and
+ * values are fixed-width and big-endian. The values start at an 8-byte aligned
+ * offset relative to the start of the section.
+ * </p>
+ * <p>
+ * {@link #mapDoublePropertyMap(FileChannel, long, ObjectToFileIdMap, FileIdToObjectMap)}
+ * and
+ * {@link #mapIntPropertyMap(FileChannel, long, ObjectToFileIdMap, FileIdToObjectMap)}
+ * map a section into memory and return a read-only property map that looks
+ * up values by searching the sorted keys. Opening a section takes constant
+ * time, and values are paged in by the operating system as they are accessed.
+ * </p>
+ */
+public class SortedPropertyIO
+{
+	static final int MAGIC = 0x4D50534B; // "MPSK"
+
+	static final int VERSION = 1;
+
+	static final int DOUBLE = 0;
+
+	static final int INT = 1;
+
+	/**
+	 * magic (int), version (int), value type (int), number of entries (int),
+	 * no-entry value (8 bytes), reserved (8 bytes).
+	 */
+	static final int HEADER_SIZE = 32;
+
+	/**
+	 * Maximum number of keys or values that are copied through one block
+	 * buffer.
+	 */
+	private static final int VALUES_PER_BLOCK = 8192;
+
+	/**
+	 * Write {@code propertyMap} as a sorted key/value section to
+	 * {@code channel}, starting at the current channel position. On return,
+	 * the channel is positioned at the end of the section.
+	 *
+	 * @param propertyMap
+	 *            the property map to write.
+	 * @param idmap
+	 *            the object-to-file id map.
+	 * @param channel
+	 *            the channel to write to.
+	 * @param <O>
+	 *            the type of objects for which the map is defined.
+	 * @return the length of the section in bytes.
+	 * @throws IOException
+	 *             if there is a problem writing to the channel.
+	 */
+	public static < O > long writeDoublePropertyMap(
+			final DoublePropertyMap< O > propertyMap,
+			final ObjectToFileIdMap< O > idmap,
+			final FileChannel channel )
+			throws IOException
+	{
+		final RefDoubleMap< O > pmap = propertyMap.getMap();
+		final int size = pmap.size();
+		final long[] order = new long[ size ];
+		final double[] unsorted = new double[ size ];
+		final int[] i = { 0 };
+		pmap.forEachEntry( ( final O key, final double value ) -> {
+			order[ i[ 0 ] ] = ( ( long ) idmap.getId( key ) << 32 ) | i[ 0 ];
+			unsorted[ i[ 0 ] ] = value;
+			++i[ 0 ];
+			return true;
+		} );
+		final int[] keys = sortedKeys( order );
+
+		final long start = channel.position();
+		writeHeader( DOUBLE, size, Double.doubleToRawLongBits( propertyMap.getNoEntryValue() ), channel );
+		writeKeys( keys, channel );
+		final ByteBuffer buffer = ByteBuffer.allocate( Math.min( size, VALUES_PER_BLOCK ) * Double.BYTES );
+		for ( int j = 0; j < size; j += VALUES_PER_BLOCK )
+		{
+			final int n = Math.min( VALUES_PER_BLOCK, size - j );
+			buffer.clear();
+			for ( int k = 0; k < n; ++k )
+				buffer.putDouble( unsorted[ ( int ) order[ j + k ] ] );
+			buffer.flip();
+			IndexedPropertyIO.writeFully( buffer, channel );
+		}
+		return channel.position() - start;
+	}
+
+	/**
+	 * Write {@code propertyMap} as a sorted key/value section to
+	 * {@code channel}, starting at the current channel position. On return,
+	 * the channel is positioned at the end of the section.
+	 *
+	 * @param propertyMap
+	 *            the property map to write.
+	 * @param idmap
+	 *            the object-to-file id map.
+	 * @param channel
+	 *            the channel to write to.
+	 * @param <O>
+	 *            the type of objects for which the map is defined.
+	 * @return the length of the section in bytes.
+	 * @throws IOException
+	 *             if there is a problem writing to the channel.
+	 */
+	public static < O > long writeIntPropertyMap(
+			final IntPropertyMap< O > propertyMap,
+			final ObjectToFileIdMap< O > idmap,
+			final FileChannel channel )
+			throws IOException
+	{
+		final RefIntMap< O > pmap = propertyMap.getMap();
+		final int size = pmap.size();
+		final long[] order = new long[ size ];
+		final int[] unsorted = new int[ size ];
+		final int[] i = { 0 };
+		pmap.forEachEntry( ( final O key, final int value ) -> {
+			order[ i[ 0 ] ] = ( ( long ) idmap.getId( key ) << 32 ) | i[ 0 ];
+			unsorted[ i[ 0 ] ] = value;
+			++i[ 0 ];
+			return true;
+		} );
+		final int[] keys = sortedKeys( order );
+
+		final long start = channel.position();
+		writeHeader( INT, size, propertyMap.getNoEntryValue(), channel );
+		writeKeys( keys, channel );
+		final ByteBuffer buffer = ByteBuffer.allocate( Math.min( size, VALUES_PER_BLOCK ) * Integer.BYTES );
+		for ( int j = 0; j < size; j += VALUES_PER_BLOCK )
+		{
+			final int n = Math.min( VALUES_PER_BLOCK, size - j );
+			buffer.clear();
+			for ( int k = 0; k < n; ++k )
+				buffer.putInt( unsorted[ ( int ) order[ j + k ] ] );
+			buffer.flip();
+			IndexedPropertyIO.writeFully( buffer, channel );
+		}
+		return channel.position() - start;
+	}
+
+	/**
+	 * Map a section written by
+	 * {@link #writeDoublePropertyMap(DoublePropertyMap, ObjectToFileIdMap, FileChannel)}
+	 * into memory. The returned property map is read-only, and is not
+	 * registered with the pool. It remains valid after {@code channel} is
+	 * closed.
+	 *
+	 * @param channel
+	 *            the channel to read from.
+	 * @param position
+	 *            the position of the section in {@code channel}.
+	 * @param objectToFileId
+	 *            the object-to-file id map, used for lookups.
+	 * @param fileIdToObject
+	 *            the file-to-object id map, used for iteration.
+	 * @param <O>
+	 *            the type of objects for which the map is defined.
+	 * @return a read-only property map backed by the mapped section.
+	 * @throws IOException
+	 *             if the section is malformed or cannot be mapped.
+	 */
+	public static < O > DoublePropertyMap< O > mapDoublePropertyMap(
+			final FileChannel channel,
+			final long position,
+			final ObjectToFileIdMap< O > objectToFileId,
+			final FileIdToObjectMap< O > fileIdToObject )
+			throws IOException
+	{
+		final ByteBuffer header = readHeader( channel, position, DOUBLE );
+		final int size = header.getInt( 12 );
+		final double noEntryValue = Double.longBitsToDouble( header.getLong( 16 ) );
+		final SortedKeys keys = new SortedKeys( map( channel, position + HEADER_SIZE, size, Integer.BYTES ).asIntBuffer() );
+		final MappedByteBuffer values = map( channel, position + valuesOffset( size ), size, Double.BYTES );
+		return new DoublePropertyMap<>( new MappedRefDoubleMap<>( keys, values.asDoubleBuffer(), noEntryValue, objectToFileId, fileIdToObject ) );
+	}
+
+	/**
+	 * Map a section written by
+	 * {@link #writeIntPropertyMap(IntPropertyMap, ObjectToFileIdMap, FileChannel)}
+	 * into memory. The returned property map is read-only, and is not
+	 * registered with the pool. It remains valid after {@code channel} is
+	 * closed.
+	 *
+	 * @param channel
+	 *            the channel to read from.
+	 * @param position
+	 *            the position of the section in {@code channel}.
+	 * @param objectToFileId
+	 *            the object-to-file id map, used for lookups.
+	 * @param fileIdToObject
+	 *            the file-to-object id map, used for iteration.
+	 * @param <O>
+	 *            the type of objects for which the map is defined.
+	 * @return a read-only property map backed by the mapped section.
+	 * @throws IOException
+	 *             if the section is malformed or cannot be mapped.
+	 */
+	public static < O > IntPropertyMap< O > mapIntPropertyMap(
+			final FileChannel channel,
+			final long position,
+			final ObjectToFileIdMap< O > objectToFileId,
+			final FileIdToObjectMap< O > fileIdToObject )
+			throws IOException
+	{
+		final ByteBuffer header = readHeader( channel, position, INT );
+		final int size = header.getInt( 12 );
+		final int noEntryValue = ( int ) header.getLong( 16 );
+		final SortedKeys keys = new SortedKeys( map( channel, position + HEADER_SIZE, size, Integer.BYTES ).asIntBuffer() );
+		final MappedByteBuffer values = map( channel, position + valuesOffset( size ), size, Integer.BYTES );
+		return new IntPropertyMap<>( new MappedRefIntMap<>( keys, values.asIntBuffer(), noEntryValue, objectToFileId, fileIdToObject ) );
+	}
+
+	private static int[] sortedKeys( final long[] order )
+	{
+		Arrays.sort( order );
+		final int[] keys = new int[ order.length ];
+		for ( int j = 0; j < order.length; ++j )
+		{
+			keys[ j ] = ( int ) ( order[ j ] >> 32 );
+			if ( j > 0 && keys[ j ] == keys[ j - 1 ] )
+				throw new IllegalArgumentException( "duplicate file id " + keys[ j ] );
+		}
+		return keys;
+	}
+
+	/**
+	 * Offset of the values relative to the start of the section.
+	 */
+	private static long valuesOffset( final int size )
+	{
+		return ( HEADER_SIZE + ( long ) size * Integer.BYTES + 7 ) & ~7L;
+	}
+
+	private static void writeHeader( final int type, final int size, final long noEntryValue, final FileChannel channel ) throws IOException
+	{
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		header.putInt( MAGIC );
+		header.putInt( VERSION );
+		header.putInt( type );
+		header.putInt( size );
+		header.putLong( noEntryValue );
+		header.putLong( 0 );
+		header.flip();
+		IndexedPropertyIO.writeFully( header, channel );
+	}
+
+	private static void writeKeys( final int[] keys, final FileChannel channel ) throws IOException
+	{
+		final int size = keys.length;
+		final ByteBuffer buffer = ByteBuffer.allocate( Math.min( size, VALUES_PER_BLOCK ) * Integer.BYTES );
+		for ( int j = 0; j < size; j += VALUES_PER_BLOCK )
+		{
+			final int n = Math.min( VALUES_PER_BLOCK, size - j );
+			buffer.clear();
+			buffer.asIntBuffer().put( keys, j, n );
+			buffer.limit( n * Integer.BYTES );
+			IndexedPropertyIO.writeFully( buffer, channel );
+		}
+		final int padding = ( int ) ( valuesOffset( size ) - HEADER_SIZE - ( long ) size * Integer.BYTES );
+		if ( padding > 0 )
+			IndexedPropertyIO.writeFully( ByteBuffer.allocate( padding ), channel );
+	}
+
+	private static ByteBuffer readHeader( final FileChannel channel, final long position, final int type ) throws IOException
+	{
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		while ( header.hasRemaining() )
+			if ( channel.read( header, position + header.position() ) < 0 )
+				throw new IOException( "unexpected end of file" );
+		if ( header.getInt( 0 ) != MAGIC )
+			throw new IOException( "not a sorted property section" );
+		if ( header.getInt( 4 ) != VERSION )
+			throw new IOException( "unsupported version " + header.getInt( 4 ) );
+		if ( header.getInt( 8 ) != type )
+			throw new IOException( "unexpected value type " + header.getInt( 8 ) );
+		if ( header.getInt( 12 ) < 0 )
+			throw new IOException( "negative number of entries" );
+		return header;
+	}
+
+	private static MappedByteBuffer map( final FileChannel channel, final long position, final int size, final int bytesPerElement ) throws IOException
+	{
+		final long length = ( long ) size * bytesPerElement;
+		if ( length > Integer.MAX_VALUE )
+			throw new IOException( "section too large to map" );
+		if ( position + length > channel.size() )
+			throw new IOException( "unexpected end of file" );
+		final MappedByteBuffer buffer = channel.map( MapMode.READ_ONLY, position, length );
+		buffer.order( ByteOrder.BIG_ENDIAN );
+		return buffer;
+	}
+}
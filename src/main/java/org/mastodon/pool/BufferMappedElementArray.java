@@ -115,6 +115,36 @@ public class BufferMappedElementArray implements MappedElementArray< BufferMappe
 		}
 	}
 
+	@Override
+	public void getElementBytes( final int index, final int numElements, final ByteBuffer dst )
+	{
+		dst.put( slice( index, numElements ) );
+	}
+
+	@Override
+	public void putElementBytes( final int index, final int numElements, final ByteBuffer src )
+	{
+		final ByteBuffer slice = slice( index, numElements );
+		final ByteBuffer s = src.duplicate();
+		s.limit( s.position() + slice.remaining() );
+		slice.put( s );
+		src.position( s.position() );
+	}
+
+	/**
+	 * Get a view of the memory of {@code numElements} elements, starting at
+	 * element {@code index}. The view has position 0 and limit
+	 * {@code numElements * bytesPerElement}.
+	 */
+	ByteBuffer slice( final int index, final int numElements )
+	{
+		final ByteBuffer buf = data.duplicate();
+		final int offset = index * bytesPerElement;
+		buf.limit( offset + numElements * bytesPerElement );
+		buf.position( offset );
+		return buf.slice();
+	}
+
 	/**
 	 * {@inheritDoc} The storage array is reallocated and the old contents
 	 * copied over.
@@ -28,6 +28,7 @@
  */
 package org.mastodon.pool;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -113,6 +114,18 @@ public class ByteMappedElementArray implements MappedElementArray< ByteMappedEle
 		System.arraycopy( swapTmp, 0, array.data, arrayBaseOffset, bytesPerElement );
 	}
 
+	@Override
+	public void getElementBytes( final int index, final int numElements, final ByteBuffer dst )
+	{
+		dst.put( data, index * bytesPerElement, numElements * bytesPerElement );
+	}
+
+	@Override
+	public void putElementBytes( final int index, final int numElements, final ByteBuffer src )
+	{
+		src.get( data, index * bytesPerElement, numElements * bytesPerElement );
+	}
+
 	/**
 	 * {@inheritDoc} The storage array is reallocated and the old contents
 	 * copied over.
@@ -0,0 +1,374 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.pool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mastodon.RefPool;
+import org.mastodon.properties.Property;
+import org.mastodon.properties.PropertyChangeListener;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * An append-only log of changes to the objects of a {@link Pool}. Every
+ * record is a triple {@code (op, index, attributeId)} of primitive
+ * {@code int}s, where {@code op} is one of {@link #CREATED},
+ * {@link #DELETED}, {@link #MODIFIED}, {@link #CLEARED}, {@code index} is the
+ * internal pool index of the affected object, and {@code attributeId}
+ * identifies the modified {@link Property} (see {@link #track(Property)}), or
+ * is {@link #NO_ATTRIBUTE} for structural changes.
+ * <p>
+ * Consumers (for example spatial indices or caches) obtain a {@link Cursor}
+ * and {@link Cursor#poll(ChangeConsumer) poll} the records appended since
+ * their last poll. Records are discarded as soon as all open cursors have
+ * passed them. If no cursor is open, nothing is recorded at all.
+ * </p>
+ * <p>
+ * Modifications are recorded via {@link PropertyChangeListener}s. Therefore,
+ * quiet modifications (for example {@code setQuiet()} of attributes), and
+ * modifications while listeners are paused are not recorded.
+ * </p>
+ * <p>
+ * <em>Note that this class is not thread-safe!</em>
+ * </p>
+ *
+ * @param <O>
+ *            type of objects in the pool.
+ */
+public class ChangeJournal< O >
+{
+	/**
+	 * Op code of a record for a newly created object.
+	 */
+	public static final int CREATED = 0;
+
+	/**
+	 * Op code of a record for an object that is about to be deleted.
+	 */
+	public static final int DELETED = 1;
+
+	/**
+	 * Op code of a record for a modified property of an object.
+	 */
+	public static final int MODIFIED = 2;
+
+	/**
+	 * Op code of a record for clearing the whole pool. The index of this
+	 * record is {@code -1}.
+	 */
+	public static final int CLEARED = 3;
+
+	/**
+	 * Attribute id of records that do not refer to a {@link Property}.
+	 */
+	public static final int NO_ATTRIBUTE = -1;
+
+	/**
+	 * Number of {@code int}s per record.
+	 */
+	private static final int RECORD_SIZE = 3;
+
+	/**
+	 * Receives journal records.
+	 */
+	@FunctionalInterface
+	public interface ChangeConsumer
+	{
+		void change( int op, int index, int attributeId );
+	}
+
+	private final RefPool< O > pool;
+
+	/**
+	 * Records, {@link #RECORD_SIZE} {@code int}s each. The first
+	 * {@code head} records are already consumed by all cursors and will be
+	 * removed on the next compaction.
+	 */
+	private final TIntArrayList log;
+
+	/**
+	 * Number of leading records in {@link #log} that are consumed by all
+	 * cursors.
+	 */
+	private int head;
+
+	/**
+	 * Sequence number of the first record in {@link #log}.
+	 */
+	private long firstSequence;
+
+	private final ArrayList< Cursor > cursors;
+
+	private final ArrayList< Property< O > > tracked;
+
+	public ChangeJournal( final RefPool< O > pool )
+	{
+		this.pool = pool;
+		this.log = new TIntArrayList();
+		this.head = 0;
+		this.firstSequence = 0;
+		this.cursors = new ArrayList<>();
+		this.tracked = new ArrayList<>();
+	}
+
+	/**
+	 * Record modifications of the specified {@code property}. If the property
+	 * is already tracked, its existing attribute id is returned.
+	 *
+	 * @param property
+	 *            the property to track.
+	 * @return the attribute id used in {@link #MODIFIED} records of the
+	 *         property.
+	 */
+	public int track( final Property< O > property )
+	{
+		final int existing = getAttributeId( property );
+		if ( existing != NO_ATTRIBUTE )
+			return existing;
+
+		final int attributeId = tracked.size();
+		tracked.add( property );
+		property.propertyChangeListeners().add( new ModificationRecorder( attributeId ) );
+		return attributeId;
+	}
+
+	/**
+	 * Get the attribute id of the specified {@code property}.
+	 *
+	 * @param property
+	 *            a property.
+	 * @return the attribute id of {@code property} or {@link #NO_ATTRIBUTE} if
+	 *         it is not tracked.
+	 */
+	public int getAttributeId( final Property< O > property )
+	{
+		for ( int i = 0; i < tracked.size(); ++i )
+			if ( tracked.get( i ) == property )
+				return i;
+		return NO_ATTRIBUTE;
+	}
+
+	/**
+	 * Get the tracked properties, ordered by attribute id.
+	 *
+	 * @return unmodifiable list of tracked properties.
+	 */
+	public List< Property< O > > getTrackedProperties()
+	{
+		return Collections.unmodifiableList( tracked );
+	}
+
+	/**
+	 * Open a new cursor, positioned after the last record currently in the
+	 * journal.
+	 *
+	 * @return a new cursor.
+	 */
+	public Cursor createCursor()
+	{
+		final Cursor cursor = new Cursor( this, endSequence() );
+		cursors.add( cursor );
+		return cursor;
+	}
+
+	/**
+	 * Get the number of records currently retained in the journal.
+	 *
+	 * @return number of retained records.
+	 */
+	public int size()
+	{
+		return log.size() / RECORD_SIZE - head;
+	}
+
+	void objectCreated( final int index )
+	{
+		append( CREATED, index, NO_ATTRIBUTE );
+	}
+
+	void beforeDeleteObject( final int index )
+	{
+		append( DELETED, index, NO_ATTRIBUTE );
+	}
+
+	void beforeClearPool()
+	{
+		append( CLEARED, -1, NO_ATTRIBUTE );
+	}
+
+	private void append( final int op, final int index, final int attributeId )
+	{
+		if ( cursors.isEmpty() )
+			return;
+		log.add( op );
+		log.add( index );
+		log.add( attributeId );
+	}
+
+	private long endSequence()
+	{
+		return firstSequence + log.size() / RECORD_SIZE;
+	}
+
+	/**
+	 * Discard records that were passed by all cursors.
+	 */
+	private void truncate()
+	{
+		final long end = endSequence();
+		long min = end;
+		for ( final Cursor cursor : cursors )
+			min = Math.min( min, cursor.position );
+		head = ( int ) ( min - firstSequence );
+
+		if ( head == log.size() / RECORD_SIZE )
+		{
+			log.resetQuick();
+			firstSequence = end;
+			head = 0;
+		}
+		else if ( head > log.size() / ( 2 * RECORD_SIZE ) )
+		{
+			// amortized compaction: only shift when more than half is garbage
+			log.remove( 0, head * RECORD_SIZE );
+			firstSequence += head;
+			head = 0;
+		}
+	}
+
+	/**
+	 * A position in the journal. Each consumer should have its own cursor.
+	 * Cursors that are no longer needed must be {@link #close() closed},
+	 * otherwise the journal grows without bounds.
+	 */
+	public static class Cursor
+	{
+		private final ChangeJournal< ? > journal;
+
+		private long position;
+
+		private boolean closed;
+
+		private Cursor( final ChangeJournal< ? > journal, final long position )
+		{
+			this.journal = journal;
+			this.position = position;
+			this.closed = false;
+		}
+
+		/**
+		 * Get the number of records that are available for polling.
+		 *
+		 * @return number of pending records.
+		 */
+		public int pending()
+		{
+			return closed ? 0 : ( int ) ( journal.endSequence() - position );
+		}
+
+		/**
+		 * Pass all pending records to {@code consumer}, in the order they were
+		 * appended.
+		 *
+		 * @param consumer
+		 *            receives the records.
+		 * @return the number of records passed to {@code consumer}.
+		 */
+		public int poll( final ChangeConsumer consumer )
+		{
+			return poll( consumer, Integer.MAX_VALUE );
+		}
+
+		/**
+		 * Pass at most {@code maxRecords} pending records to {@code consumer},
+		 * in the order they were appended.
+		 *
+		 * @param consumer
+		 *            receives the records.
+		 * @param maxRecords
+		 *            maximum number of records to pass.
+		 * @return the number of records passed to {@code consumer}.
+		 */
+		public int poll( final ChangeConsumer consumer, final int maxRecords )
+		{
+			final int n = Math.min( pending(), maxRecords );
+			int i = ( int ) ( position - journal.firstSequence ) * RECORD_SIZE;
+			for ( int r = 0; r < n; ++r, i += RECORD_SIZE )
+				consumer.change( journal.log.getQuick( i ), journal.log.getQuick( i + 1 ), journal.log.getQuick( i + 2 ) );
+			position += n;
+			journal.truncate();
+			return n;
+		}
+
+		/**
+		 * Skip all pending records.
+		 */
+		public void skip()
+		{
+			if ( !closed )
+			{
+				position = journal.endSequence();
+				journal.truncate();
+			}
+		}
+
+		/**
+		 * Close this cursor. Records that are only retained for this cursor
+		 * are discarded.
+		 */
+		public void close()
+		{
+			if ( !closed )
+			{
+				closed = true;
+				journal.cursors.remove( this );
+				journal.truncate();
+			}
+		}
+	}
+
+	private class ModificationRecorder implements PropertyChangeListener< O >
+	{
+		private final int attributeId;
+
+		ModificationRecorder( final int attributeId )
+		{
+			this.attributeId = attributeId;
+		}
+
+		@Override
+		public void propertyChanged( final O object )
+		{
+			append( MODIFIED, pool.getId( object ), attributeId );
+		}
+	}
+}
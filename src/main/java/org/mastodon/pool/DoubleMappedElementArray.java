@@ -28,6 +28,7 @@
  */
 package org.mastodon.pool;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -56,6 +57,12 @@ public class DoubleMappedElementArray implements MappedElementArray< DoubleMappe
 	 */
 	private int size;
 
+	/**
+	 * Size of temporary {@code byte[]} arrays used for copying to and from
+	 * direct buffers.
+	 */
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
 	private long doubleSizeFromByteSize( final long byteSize )
 	{
 		return ( byteSize + ByteUtils.DOUBLE_SIZE - 1 ) / ByteUtils.DOUBLE_SIZE;
@@ -118,6 +125,60 @@ public class DoubleMappedElementArray implements MappedElementArray< DoubleMappe
 		DoubleUtils.copyBytes( swapTmp, 0, array.data, arrayBaseOffset, bytesPerElement );
 	}
 
+	/**
+	 * {@inheritDoc} If {@code dst} is not backed by an accessible array, data
+	 * is copied through a temporary {@code byte[]} array.
+	 */
+	@Override
+	public void getElementBytes( final int index, final int numElements, final ByteBuffer dst )
+	{
+		final long offset = ( long ) index * bytesPerElement;
+		final int length = numElements * bytesPerElement;
+		if ( dst.hasArray() )
+		{
+			DoubleUtils.copyBytes( data, offset, dst.array(), dst.arrayOffset() + dst.position(), length );
+			dst.position( dst.position() + length );
+		}
+		else
+		{
+			final byte[] tmp = new byte[ Math.min( length, COPY_BUFFER_SIZE ) ];
+			for ( int done = 0; done < length; )
+			{
+				final int n = Math.min( tmp.length, length - done );
+				DoubleUtils.copyBytes( data, offset + done, tmp, 0, n );
+				dst.put( tmp, 0, n );
+				done += n;
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc} If {@code src} is not backed by an accessible array, data
+	 * is copied through a temporary {@code byte[]} array.
+	 */
+	@Override
+	public void putElementBytes( final int index, final int numElements, final ByteBuffer src )
+	{
+		final long offset = ( long ) index * bytesPerElement;
+		final int length = numElements * bytesPerElement;
+		if ( src.hasArray() )
+		{
+			DoubleUtils.copyBytes( src.array(), src.arrayOffset() + src.position(), data, offset, length );
+			src.position( src.position() + length );
+		}
+		else
+		{
+			final byte[] tmp = new byte[ Math.min( length, COPY_BUFFER_SIZE ) ];
+			for ( int done = 0; done < length; )
+			{
+				final int n = Math.min( tmp.length, length - done );
+				src.get( tmp, 0, n );
+				DoubleUtils.copyBytes( tmp, 0, data, offset + done, n );
+				done += n;
+			}
+		}
+	}
+
 	/**
 	 * {@inheritDoc} The storage array is reallocated and the old contents
 	 * copied over.
@@ -133,6 +133,18 @@ public class DoubleUtils
 		return getInt( array, offset );
 	}
 
+	// Note: offsets in bytes!
+	public static void copyBytes( final double[] srcArray, final long srcOffset, final byte[] dstArray, final int dstOffset, final int size )
+	{
+		UNSAFE.copyMemory( srcArray, DOUBLE_ARRAY_OFFSET + srcOffset, dstArray, BYTE_ARRAY_OFFSET + dstOffset, size );
+	}
+
+	// Note: offsets in bytes!
+	public static void copyBytes( final byte[] srcArray, final int srcOffset, final double[] dstArray, final long dstOffset, final int size )
+	{
+		UNSAFE.copyMemory( srcArray, BYTE_ARRAY_OFFSET + srcOffset, dstArray, DOUBLE_ARRAY_OFFSET + dstOffset, size );
+	}
+
 	// Note: offsets in bytes!
 	public static void copyBytes( final double[] srcArray, final long srcOffset, final double[] dstArray, final long dstOffset, final int size )
 	{
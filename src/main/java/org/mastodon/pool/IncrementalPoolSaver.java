@@ -0,0 +1,798 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.pool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+import org.mastodon.io.properties.PropertyMapSerializer;
+import org.mastodon.io.properties.PropertyMapSerializers;
+
+import gnu.trove.iterator.TIntLongIterator;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntLongHashMap;
+
+/**
+ * Saves a {@link Pool} and its property maps incrementally to a
+ * log-structured file.
+ * <p>
+ * The first {@link #save()} writes the complete pool memory (in chunks of
+ * {@link #CHUNK_SIZE} elements) and all property maps. Every following
+ * {@link #save()} appends only the chunks and property maps that changed in
+ * the meantime. Changes are tracked using the {@link ChangeJournal} of the
+ * pool. Each save ends with a commit record; when {@link #read(Pool,
+ * PropertyMapSerializers, Path) reading}, records after the last commit (for
+ * example from an interrupted save) are ignored, and for each chunk and
+ * property map the most recently committed record is used.
+ * </p>
+ * <p>
+ * Superseded records are removed by {@link #consolidate()}, which rewrites
+ * the file from its own contents (without touching the pool) and atomically
+ * replaces it. Consolidation can be run in the background, see
+ * {@link #setConsolidationExecutor(ExecutorService)}. It holds the lock of
+ * the saver only to take a snapshot of the log and to swap the files, so
+ * {@link #save()} can proceed while it copies.
+ * </p>
+ * <p>
+ * Property maps are written with file ids equal to pool indices, see
+ * {@link ObjectToFileIdMap#identity(org.mastodon.RefPool)}. Note that only
+ * changes that are reported to the {@link ChangeJournal} are detected, so
+ * quiet modifications (for example {@code setQuiet()} of attributes) are only
+ * saved if they coincide with a reported change in the same chunk. Use
+ * {@link #markAllDirty()} to force a full save. Deleting objects marks all
+ * property maps dirty, because their entries for the deleted objects are
+ * removed.
+ * </p>
+ * <p>
+ * <em>The pool and its property maps must not be modified during
+ * {@link #save()}.</em>
+ * </p>
+ *
+ * @param <O>
+ *            type of objects in the pool.
+ */
+public class IncrementalPoolSaver< O extends PoolObject< O, ?, ? > >
+{
+	/**
+	 * Number of elements per chunk of pool memory.
+	 */
+	public static final int CHUNK_SIZE = 4096;
+
+	private static final int CHUNK_SHIFT = 12;
+
+	private static final int MAGIC = 0x4D504C47; // "MPLG"
+
+	private static final int VERSION = 1;
+
+	/**
+	 * magic (int), version (int), chunk size (int).
+	 */
+	private static final int FILE_HEADER_SIZE = 12;
+
+	/**
+	 * type (int) and payload length (int) before the payload, and CRC32 (int)
+	 * of the payload after it.
+	 */
+	private static final int RECORD_OVERHEAD = 12;
+
+	private static final int POOL_HEADER = 1;
+
+	private static final int POOL_CHUNK = 2;
+
+	private static final int PROPERTY_MAP = 3;
+
+	private static final int COMMIT = 4;
+
+	/**
+	 * bytesPerElement (int), layout fingerprint (long), size (int),
+	 * allocatedSize (int), firstFreeIndex (int).
+	 */
+	private static final int POOL_HEADER_SIZE = 24;
+
+	private final Pool< O, ? > pool;
+
+	private final MemPool< ? > memPool;
+
+	private final PropertyMapSerializers< O > serializers;
+
+	private final List< String > keys;
+
+	private final Path path;
+
+	private final ChangeJournal.Cursor cursor;
+
+	/**
+	 * Maps journal attribute ids of property maps to indices into
+	 * {@link #keys}.
+	 */
+	private final TIntIntHashMap attributeToMap;
+
+	private final BitSet dirtyChunks;
+
+	private final boolean[] dirtyMaps;
+
+	private boolean allDirty;
+
+	/**
+	 * Size of the most recent record for each chunk.
+	 */
+	private final TIntIntHashMap liveChunkBytes;
+
+	/**
+	 * Size of the most recent record for each property map.
+	 */
+	private final long[] liveMapBytes;
+
+	private FileChannel channel;
+
+	private long sequence;
+
+	private ExecutorService consolidationExecutor;
+
+	private Future< ? > consolidation;
+
+	/**
+	 * Serializes {@link #consolidate()} calls. Acquired before the lock of the
+	 * saver, never after it.
+	 */
+	private final Object consolidationLock = new Object();
+
+	/**
+	 * Create a saver for {@code pool}, writing to {@code path}. The first
+	 * {@link #save()} replaces any existing file at {@code path}.
+	 *
+	 * @param pool
+	 *            the pool to save.
+	 * @param serializers
+	 *            serializers of the property maps to save.
+	 * @param path
+	 *            the file to write.
+	 */
+	public IncrementalPoolSaver( final Pool< O, ? > pool, final PropertyMapSerializers< O > serializers, final Path path )
+	{
+		this.pool = pool;
+		this.memPool = pool.getMemPool();
+		this.serializers = serializers;
+		this.keys = serializers.getKeys();
+		this.path = path;
+
+		final ChangeJournal< O > journal = pool.getChangeJournal();
+		attributeToMap = new TIntIntHashMap( 10, 0.5f, -1, -1 );
+		for ( int i = 0; i < keys.size(); ++i )
+			attributeToMap.put( journal.track( serializers.getPropertyMap( keys.get( i ) ).getPropertyMap() ), i );
+		cursor = journal.createCursor();
+
+		dirtyChunks = new BitSet();
+		dirtyMaps = new boolean[ keys.size() ];
+		allDirty = true;
+		liveChunkBytes = new TIntIntHashMap( 10, 0.5f, -1, 0 );
+		liveMapBytes = new long[ keys.size() ];
+	}
+
+	/**
+	 * Mark all chunks and property maps dirty, such that the next
+	 * {@link #save()} writes everything.
+	 */
+	public synchronized void markAllDirty()
+	{
+		allDirty = true;
+	}
+
+	/**
+	 * Append all chunks and property maps that changed since the last save
+	 * (or everything, on the first save) to the file.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void save() throws IOException
+	{
+		pollChanges();
+		final boolean created = channel == null;
+		if ( created )
+		{
+			channel = FileChannel.open( path,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE );
+			allDirty = true;
+		}
+
+		final long start = channel.position();
+		final TIntIntHashMap newChunkBytes = new TIntIntHashMap( 10, 0.5f, -1, 0 );
+		final long[] newMapBytes = liveMapBytes.clone();
+		try
+		{
+			if ( created )
+				writeFileHeader( channel );
+			writeSave( newChunkBytes, newMapBytes );
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			rollback( start, created, e );
+			throw e;
+		}
+
+		++sequence;
+		liveChunkBytes.putAll( newChunkBytes );
+		System.arraycopy( newMapBytes, 0, liveMapBytes, 0, liveMapBytes.length );
+		dirtyChunks.clear();
+		for ( int i = 0; i < dirtyMaps.length; ++i )
+			dirtyMaps[ i ] = false;
+		allDirty = false;
+
+		if ( consolidationExecutor != null && needsConsolidation()
+				&& ( consolidation == null || consolidation.isDone() ) )
+			consolidation = consolidateInBackground( consolidationExecutor );
+	}
+
+	/**
+	 * Append the records of one save, ending with its commit record. The sizes
+	 * of the written chunk and property map records are stored into
+	 * {@code chunkBytes} and {@code mapBytes}.
+	 */
+	private void writeSave( final TIntIntHashMap chunkBytes, final long[] mapBytes ) throws IOException
+	{
+		final int bytesPerElement = memPool.getBytesPerElement();
+		final int allocatedSize = memPool.getAllocatedSize();
+		final int numChunks = ( allocatedSize + CHUNK_SIZE - 1 ) >> CHUNK_SHIFT;
+
+		// POOL HEADER
+		final ByteBuffer header = ByteBuffer.allocate( POOL_HEADER_SIZE );
+		header.putInt( bytesPerElement );
+		header.putLong( pool.getLayoutFingerprint() );
+		header.putInt( memPool.size() );
+		header.putInt( allocatedSize );
+		header.putInt( memPool.getFirstFreeIndex() );
+		header.flip();
+		writeRecord( POOL_HEADER, header );
+
+		// POOL CHUNKS
+		if ( allDirty )
+			dirtyChunks.set( 0, numChunks );
+		final ByteBuffer chunk = ByteBuffer.allocate( 4 + CHUNK_SIZE * bytesPerElement );
+		for ( int c = dirtyChunks.nextSetBit( 0 ); c >= 0 && c < numChunks; c = dirtyChunks.nextSetBit( c + 1 ) )
+		{
+			final int start = c << CHUNK_SHIFT;
+			final int n = Math.min( CHUNK_SIZE, allocatedSize - start );
+			chunk.clear();
+			chunk.putInt( c );
+			memPool.getElementBytes( start, n, chunk );
+			chunk.flip();
+			chunkBytes.put( c, writeRecord( POOL_CHUNK, chunk ) );
+		}
+
+		// PROPERTY MAPS
+		final ObjectToFileIdMap< O > idmap = ObjectToFileIdMap.identity( pool );
+		for ( int i = 0; i < keys.size(); ++i )
+		{
+			if ( allDirty || dirtyMaps[ i ] )
+			{
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final byte[] key = keys.get( i ).getBytes( StandardCharsets.UTF_8 );
+				bytes.write( key.length >>> 24 );
+				bytes.write( key.length >>> 16 );
+				bytes.write( key.length >>> 8 );
+				bytes.write( key.length );
+				bytes.write( key );
+				try (final ObjectOutputStream oos = new ObjectOutputStream( bytes ))
+				{
+					serializers.getPropertyMap( keys.get( i ) ).writePropertyMap( idmap, oos );
+				}
+				mapBytes[ i ] = writeRecord( PROPERTY_MAP, ByteBuffer.wrap( bytes.toByteArray() ) );
+			}
+		}
+
+		// COMMIT
+		final ByteBuffer commit = ByteBuffer.allocate( 8 );
+		commit.putLong( sequence );
+		commit.flip();
+		writeRecord( COMMIT, commit );
+	}
+
+	/**
+	 * Remove everything a failed {@link #save()} appended after
+	 * {@code position}, so that the next save appends right after the last
+	 * commit. Otherwise a torn record would hide all later saves from
+	 * {@link #read(Pool, PropertyMapSerializers, Path)}. If the file was
+	 * created by the failed save, or cannot be truncated, it is closed, and
+	 * the next save starts a new file.
+	 */
+	private void rollback( final long position, final boolean created, final Throwable cause )
+	{
+		try
+		{
+			if ( !created )
+			{
+				channel.truncate( position );
+				channel.position( position );
+				return;
+			}
+		}
+		catch ( final IOException e )
+		{
+			cause.addSuppressed( e );
+		}
+		try
+		{
+			channel.close();
+		}
+		catch ( final IOException e )
+		{
+			cause.addSuppressed( e );
+		}
+		channel = null;
+		allDirty = true;
+	}
+
+	/**
+	 * Set the executor on which consolidation is triggered automatically
+	 * after {@link #save()}, whenever {@link #needsConsolidation()}. If
+	 * {@code null}, no automatic consolidation takes place.
+	 *
+	 * @param executor
+	 *            the executor for background consolidation, or {@code null}.
+	 */
+	public synchronized void setConsolidationExecutor( final ExecutorService executor )
+	{
+		this.consolidationExecutor = executor;
+	}
+
+	/**
+	 * Check whether superseded records take up more than half of the file.
+	 *
+	 * @return {@code true} if the file should be {@link #consolidate()
+	 *         consolidated}.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized boolean needsConsolidation() throws IOException
+	{
+		return channel != null && channel.size() > 2 * liveBytes();
+	}
+
+	private long liveBytes()
+	{
+		long live = FILE_HEADER_SIZE + 2 * RECORD_OVERHEAD + POOL_HEADER_SIZE + 8;
+		for ( final int b : liveChunkBytes.values() )
+			live += b;
+		for ( final long b : liveMapBytes )
+			live += b;
+		return live;
+	}
+
+	/**
+	 * Submit {@link #consolidate()} to {@code executor}.
+	 *
+	 * @param executor
+	 *            the executor to run consolidation on.
+	 * @return a future representing pending completion of the consolidation.
+	 */
+	public Future< ? > consolidateInBackground( final ExecutorService executor )
+	{
+		return executor.submit( () -> {
+			consolidate();
+			return null;
+		} );
+	}
+
+	/**
+	 * Rewrite the file, keeping only the most recently committed record of
+	 * each chunk and property map. The new file is written next to the
+	 * current one and then atomically moved into place. This reads only the
+	 * file, not the pool.
+	 * <p>
+	 * The log is copied without holding the lock of the saver, so
+	 * {@link #save()} is blocked only while the files are swapped. Records
+	 * appended by saves during the copy are carried over to the new file.
+	 * </p>
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void consolidate() throws IOException
+	{
+		consolidate( () -> {} );
+	}
+
+	/**
+	 * {@link #consolidate()}, calling {@code beforeSwap} after copying the
+	 * snapshot and before swapping the files.
+	 */
+	void consolidate( final Runnable beforeSwap ) throws IOException
+	{
+		synchronized ( consolidationLock )
+		{
+			final FileChannel src;
+			final long end;
+			synchronized ( this )
+			{
+				if ( channel == null )
+					return;
+				src = channel;
+				end = channel.size();
+			}
+
+			final LogIndex index = LogIndex.scan( src, end );
+			final Path tmp = path.resolveSibling( path.getFileName() + ".tmp" );
+			try (final FileChannel out = FileChannel.open( tmp,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ))
+			{
+				writeFileHeader( out );
+				transfer( src, index.header, out );
+				for ( final TIntLongIterator it = index.chunks.iterator(); it.hasNext(); )
+				{
+					it.advance();
+					transfer( src, it.value(), out );
+				}
+				for ( final long position : index.maps.values() )
+					transfer( src, position, out );
+				transfer( src, index.commit, out );
+				out.force( true );
+				beforeSwap.run();
+
+				synchronized ( this )
+				{
+					if ( channel != src )
+					{
+						// the file was closed or replaced in the meantime
+						Files.deleteIfExists( tmp );
+						return;
+					}
+					final long size = channel.size();
+					transferRange( channel, end, size - end, out );
+					out.force( true );
+					channel.close();
+					channel = null;
+					Files.move( tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+					channel = FileChannel.open( path, StandardOpenOption.READ, StandardOpenOption.WRITE );
+					channel.position( channel.size() );
+				}
+			}
+			catch ( final IOException | RuntimeException e )
+			{
+				try
+				{
+					Files.deleteIfExists( tmp );
+				}
+				catch ( final IOException suppressed )
+				{
+					e.addSuppressed( suppressed );
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Close the file and stop tracking changes. Changes since the last
+	 * {@link #save()} are not saved.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void close() throws IOException
+	{
+		cursor.close();
+		if ( channel != null )
+			channel.close();
+		channel = null;
+	}
+
+	/**
+	 * Read the state of the most recent committed save in {@code path} into
+	 * {@code pool}. The pool is {@link Pool#clear() cleared} first.
+	 *
+	 * @param pool
+	 *            the pool to read into.
+	 * @param serializers
+	 *            serializers of the property maps to read. Property maps in
+	 *            the file without a serializer are ignored.
+	 * @param path
+	 *            the file to read.
+	 * @param <O>
+	 *            type of objects in the pool.
+	 * @throws IOException
+	 *             if the file does not contain a committed save compatible
+	 *             with {@code pool}, or for usual I/O errors.
+	 */
+	public static < O extends PoolObject< O, ?, ? > > void read(
+			final Pool< O, ? > pool,
+			final PropertyMapSerializers< O > serializers,
+			final Path path )
+					throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ))
+		{
+			final LogIndex index = LogIndex.scan( channel, channel.size() );
+			final MemPool< ? > memPool = pool.getMemPool();
+			final int bytesPerElement = memPool.getBytesPerElement();
+
+			final ByteBuffer header = readPayload( channel, index.header );
+			if ( header.getInt() != bytesPerElement || header.getLong() != pool.getLayoutFingerprint() )
+				throw new IOException( "pool layout does not match layout in file" );
+			final int size = header.getInt();
+			final int allocatedSize = header.getInt();
+			final int firstFreeIndex = header.getInt();
+
+			pool.clear();
+			memPool.ensureCapacity( allocatedSize );
+			for ( final TIntLongIterator it = index.chunks.iterator(); it.hasNext(); )
+			{
+				it.advance();
+				final ByteBuffer chunk = readPayload( channel, it.value() );
+				final int start = chunk.getInt() << CHUNK_SHIFT;
+				final int n = Math.min( chunk.remaining() / bytesPerElement, allocatedSize - start );
+				if ( n > 0 )
+					memPool.putElementBytes( start, n, chunk );
+			}
+			memPool.restoreState( size, allocatedSize, firstFreeIndex );
+
+			final FileIdToObjectMap< O > idmap = FileIdToObjectMap.identity( pool );
+			for ( final long position : index.maps.values() )
+			{
+				final ByteBuffer data = readPayload( channel, position );
+				final byte[] key = new byte[ data.getInt() ];
+				data.get( key );
+				final PropertyMapSerializer< O, ? > serializer = serializers.getPropertyMap( new String( key, StandardCharsets.UTF_8 ) );
+				if ( serializer == null )
+					continue;
+				try (final ObjectInputStream ois = new ObjectInputStream(
+						new ByteArrayInputStream( data.array(), data.position(), data.remaining() ) ))
+				{
+					serializer.readPropertyMap( idmap, ois );
+				}
+				catch ( final ClassNotFoundException e )
+				{
+					throw new IOException( e );
+				}
+			}
+		}
+	}
+
+	private void pollChanges()
+	{
+		cursor.poll( ( op, index, attributeId ) -> {
+			switch ( op )
+			{
+			case ChangeJournal.CREATED:
+				dirtyChunks.set( index >> CHUNK_SHIFT );
+				break;
+			case ChangeJournal.DELETED:
+				dirtyChunks.set( index >> CHUNK_SHIFT );
+				for ( int i = 0; i < dirtyMaps.length; ++i )
+					dirtyMaps[ i ] = true;
+				break;
+			case ChangeJournal.MODIFIED:
+				final int map = attributeToMap.get( attributeId );
+				if ( map >= 0 )
+					dirtyMaps[ map ] = true;
+				else
+					dirtyChunks.set( index >> CHUNK_SHIFT );
+				break;
+			case ChangeJournal.CLEARED:
+				allDirty = true;
+				liveChunkBytes.clear();
+				break;
+			}
+		} );
+	}
+
+	/**
+	 * Append a record with the given {@code payload} to {@link #channel}.
+	 *
+	 * @return the size of the record in bytes.
+	 */
+	private int writeRecord( final int type, final ByteBuffer payload ) throws IOException
+	{
+		final int length = payload.remaining();
+		final ByteBuffer head = ByteBuffer.allocate( 8 );
+		head.putInt( type );
+		head.putInt( length );
+		head.flip();
+		final ByteBuffer tail = ByteBuffer.allocate( 4 );
+		tail.putInt( checksum( payload ) );
+		tail.flip();
+		final ByteBuffer[] buffers = { head, payload, tail };
+		while ( tail.hasRemaining() )
+			channel.write( buffers );
+		return length + RECORD_OVERHEAD;
+	}
+
+	/**
+	 * Copy the record at {@code position} in {@code src} to {@code out}.
+	 */
+	private static void transfer( final FileChannel src, final long position, final FileChannel out ) throws IOException
+	{
+		final ByteBuffer head = ByteBuffer.allocate( 8 );
+		readFully( src, head, position );
+		transferRange( src, position, head.getInt( 4 ) + RECORD_OVERHEAD, out );
+	}
+
+	private static void transferRange( final FileChannel src, final long position, final long length, final FileChannel out ) throws IOException
+	{
+		for ( long done = 0; done < length; )
+			done += src.transferTo( position + done, length - done, out );
+	}
+
+	private static void writeFileHeader( final FileChannel channel ) throws IOException
+	{
+		final ByteBuffer header = ByteBuffer.allocate( FILE_HEADER_SIZE );
+		header.putInt( MAGIC );
+		header.putInt( VERSION );
+		header.putInt( CHUNK_SIZE );
+		header.flip();
+		while ( header.hasRemaining() )
+			channel.write( header );
+	}
+
+	private static int checksum( final ByteBuffer payload )
+	{
+		final CRC32 crc = new CRC32();
+		crc.update( payload.array(), payload.arrayOffset() + payload.position(), payload.remaining() );
+		return ( int ) crc.getValue();
+	}
+
+	private static void readFully( final FileChannel channel, final ByteBuffer buffer, long position ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+		{
+			final int n = channel.read( buffer, position );
+			if ( n < 0 )
+				throw new EOFException();
+			position += n;
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Read and verify the payload of the record at {@code position}.
+	 */
+	private static ByteBuffer readPayload( final FileChannel channel, final long position ) throws IOException
+	{
+		final ByteBuffer head = ByteBuffer.allocate( 8 );
+		readFully( channel, head, position );
+		head.getInt();
+		final ByteBuffer record = ByteBuffer.allocate( head.getInt() + 4 );
+		readFully( channel, record, position + 8 );
+		final ByteBuffer payload = ByteBuffer.wrap( record.array(), 0, record.limit() - 4 );
+		if ( checksum( payload ) != record.getInt( record.limit() - 4 ) )
+			throw new IOException( "checksum mismatch in record at position " + position );
+		return payload;
+	}
+
+	/**
+	 * Positions of the most recently committed records.
+	 */
+	private static final class LogIndex
+	{
+		long header = -1;
+
+		long commit = -1;
+
+		int numChunks;
+
+		final TIntLongHashMap chunks = new TIntLongHashMap();
+
+		final Map< String, Long > maps = new HashMap<>();
+
+		/**
+		 * Scan the records in {@code channel} up to {@code end}. Records after
+		 * the last commit record, and records that are truncated or fail the
+		 * checksum test, are ignored. Chunks beyond the allocated size of the
+		 * last committed pool header (left over from before the pool was
+		 * cleared) are dropped.
+		 */
+		static LogIndex scan( final FileChannel channel, final long end ) throws IOException
+		{
+			final ByteBuffer fileHeader = ByteBuffer.allocate( FILE_HEADER_SIZE );
+			readFully( channel, fileHeader, 0 );
+			if ( fileHeader.getInt() != MAGIC )
+				throw new IOException( "not an incremental pool file" );
+			if ( fileHeader.getInt() != VERSION )
+				throw new IOException( "unsupported incremental pool file version" );
+			if ( fileHeader.getInt() != CHUNK_SIZE )
+				throw new IOException( "unsupported chunk size" );
+
+			final LogIndex index = new LogIndex();
+			final LogIndex pending = new LogIndex();
+			final ByteBuffer head = ByteBuffer.allocate( 8 );
+			long position = FILE_HEADER_SIZE;
+			while ( position + RECORD_OVERHEAD <= end )
+			{
+				head.clear();
+				readFully( channel, head, position );
+				final int type = head.getInt();
+				final int length = head.getInt();
+				if ( length < 0 || position + length + RECORD_OVERHEAD > end )
+					break;
+				final ByteBuffer payload;
+				try
+				{
+					payload = readPayload( channel, position );
+				}
+				catch ( final IOException e )
+				{
+					break;
+				}
+				switch ( type )
+				{
+				case POOL_HEADER:
+					pending.header = position;
+					payload.getInt(); // bytesPerElement
+					payload.getLong(); // layout fingerprint
+					payload.getInt(); // size
+					pending.numChunks = ( payload.getInt() + CHUNK_SIZE - 1 ) >> CHUNK_SHIFT;
+					break;
+				case POOL_CHUNK:
+					pending.chunks.put( payload.getInt(), position );
+					break;
+				case PROPERTY_MAP:
+					final byte[] key = new byte[ payload.getInt() ];
+					payload.get( key );
+					pending.maps.put( new String( key, StandardCharsets.UTF_8 ), position );
+					break;
+				case COMMIT:
+					index.header = pending.header;
+					index.numChunks = pending.numChunks;
+					index.chunks.putAll( pending.chunks );
+					index.chunks.retainEntries( ( chunk, p ) -> chunk < index.numChunks );
+					index.maps.putAll( pending.maps );
+					index.commit = position;
+					pending.chunks.clear();
+					pending.maps.clear();
+					break;
+				}
+				position += length + RECORD_OVERHEAD;
+			}
+			if ( index.commit < 0 )
+				throw new IOException( "no committed save in file" );
+			return index;
+		}
+	}
+}
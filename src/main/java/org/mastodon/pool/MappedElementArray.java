@@ -28,6 +28,8 @@
  */
 package org.mastodon.pool;
 
+import java.nio.ByteBuffer;
+
 /**
  * An array of {@link MappedElement MappedElements}. The array can grow, see
  * {@link #resize(int)}, which involves reallocating and copying the underlying
@@ -105,6 +107,42 @@ public interface MappedElementArray< A extends MappedElementArray< A, T >, T ext
 	 */
 	public void swapElement( final int index, final A array, final int arrayIndex );
 
+	/**
+	 * Copies the raw data of {@code numElements} elements, starting at element
+	 * {@code index}, into {@code dst}. The bytes are written starting at the
+	 * current position of {@code dst}, and the position is advanced by the
+	 * number of bytes copied.
+	 * <p>
+	 * <b>For internal use only!</b>
+	 * </p>
+	 *
+	 * @param index
+	 *            index of the first element to copy.
+	 * @param numElements
+	 *            number of elements to copy.
+	 * @param dst
+	 *            the buffer to copy into.
+	 */
+	public void getElementBytes( final int index, final int numElements, final ByteBuffer dst );
+
+	/**
+	 * Copies raw data for {@code numElements} elements, starting at element
+	 * {@code index}, from {@code src}. The bytes are read starting at the
+	 * current position of {@code src}, and the position is advanced by the
+	 * number of bytes copied.
+	 * <p>
+	 * <b>For internal use only!</b>
+	 * </p>
+	 *
+	 * @param index
+	 *            index of the first element to overwrite.
+	 * @param numElements
+	 *            number of elements to overwrite.
+	 * @param src
+	 *            the buffer to copy from.
+	 */
+	public void putElementBytes( final int index, final int numElements, final ByteBuffer src );
+
 	/**
 	 * A factory for {@link MappedElementArray}.
 	 *
@@ -28,6 +28,7 @@
  */
 package org.mastodon.pool;
 
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 import org.mastodon.Options;
@@ -216,6 +217,51 @@ public abstract class MemPool< T extends MappedElement >
 		}
 	}
 
+	/**
+	 * Gets the max size this pool ever had, that is, the number of allocated
+	 * elements plus the number of elements in the free-element list. Element
+	 * indices are in the range {@code [0, getAllocatedSize())}.
+	 *
+	 * @return allocated size.
+	 */
+	int getAllocatedSize()
+	{
+		return allocatedSize;
+	}
+
+	/**
+	 * Gets the element index of the start of the free-element list.
+	 *
+	 * @return the first free element index, or {@code -1} if the free-element
+	 *         list is empty.
+	 */
+	int getFirstFreeIndex()
+	{
+		return firstFreeIndex;
+	}
+
+	/**
+	 * Sets the bookkeeping state of this pool. This is used after the raw
+	 * element data has been restored via
+	 * {@link #putElementBytes(int, int, ByteBuffer)}. The free-element list is
+	 * assumed to be threaded through the restored data.
+	 *
+	 * @param size
+	 *            the number of allocated elements.
+	 * @param allocatedSize
+	 *            the number of allocated elements plus the number of elements
+	 *            in the free-element list.
+	 * @param firstFreeIndex
+	 *            the element index of the first free element, or {@code -1}.
+	 */
+	void restoreState( final int size, final int allocatedSize, final int firstFreeIndex )
+	{
+		ensureCapacity( allocatedSize );
+		this.size = size;
+		this.allocatedSize = allocatedSize;
+		this.firstFreeIndex = firstFreeIndex;
+	}
+
 	boolean isFree( final T access, final int index )
 	{
 		switch ( freeElementPolicy )
@@ -276,6 +322,62 @@ public abstract class MemPool< T extends MappedElement >
 	 */
 	public abstract void swap( final int index0, final int index1 );
 
+	/**
+	 * Grows the underlying storage such that it can hold at least
+	 * {@code minCapacity} elements.
+	 *
+	 * @param minCapacity
+	 *            the desired minimum capacity.
+	 */
+	public abstract void ensureCapacity( final int minCapacity );
+
+	/**
+	 * Copies the raw data of {@code numElements} elements, starting at element
+	 * {@code index}, into {@code dst}. The data is written starting at the
+	 * current position of {@code dst}, and the position is advanced by
+	 * {@code numElements * bytesPerElement}.
+	 * <p>
+	 * <b>For internal use only!</b>
+	 * </p>
+	 *
+	 * @param index
+	 *            index of the first element to copy.
+	 * @param numElements
+	 *            number of elements to copy.
+	 * @param dst
+	 *            the buffer to copy into.
+	 */
+	public abstract void getElementBytes( final int index, final int numElements, final ByteBuffer dst );
+
+	/**
+	 * Overwrites the raw data of {@code numElements} elements, starting at
+	 * element {@code index}, with data from {@code src}. The data is read
+	 * starting at the current position of {@code src}, and the position is
+	 * advanced by {@code numElements * bytesPerElement}. The elements must be
+	 * within the current capacity of the pool.
+	 * <p>
+	 * <b>For internal use only!</b>
+	 * </p>
+	 *
+	 * @param index
+	 *            index of the first element to overwrite.
+	 * @param numElements
+	 *            number of elements to overwrite.
+	 * @param src
+	 *            the buffer to copy from.
+	 */
+	public abstract void putElementBytes( final int index, final int numElements, final ByteBuffer src );
+
+	/**
+	 * Gets the number of bytes each element occupies.
+	 *
+	 * @return bytes per element.
+	 */
+	public int getBytesPerElement()
+	{
+		return bytesPerElement;
+	}
+
 	/**
 	 * Appends a new element at the end of the list. Must be implemented in
 	 * subclasses. It is called when allocating an element and the free-element
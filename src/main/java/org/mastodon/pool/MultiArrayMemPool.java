@@ -28,6 +28,7 @@
  */
 package org.mastodon.pool;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -121,6 +122,55 @@ public class MultiArrayMemPool< A extends MappedElementArray< A, T >, T extends
 		data.get( i0 ).swapElement( j0, data.get( i1 ), j1 );
 	}
 
+	@Override
+	public void ensureCapacity( final int minCapacity )
+	{
+		while ( capacity < minCapacity )
+		{
+			final int last = data.size() - 1;
+			final A lastArray = data.get( last );
+			final int lastCapacity = lastArray.size();
+			if ( lastCapacity == elementsPerArray )
+			{
+				data.add( arrayFactory.createArray( Math.min( minCapacity - capacity, elementsPerArray ), this.bytesPerElement ) );
+				capacity += data.get( last + 1 ).size();
+			}
+			else
+			{
+				lastArray.resize( ( int ) Math.min( ( long ) lastCapacity + minCapacity - capacity, elementsPerArray ) );
+				capacity += lastArray.size() - lastCapacity;
+			}
+		}
+	}
+
+	@Override
+	public void getElementBytes( int index, int numElements, final ByteBuffer dst )
+	{
+		while ( numElements > 0 )
+		{
+			final int i = index / elementsPerArray;
+			final int j = index - i * elementsPerArray;
+			final int n = Math.min( numElements, elementsPerArray - j );
+			data.get( i ).getElementBytes( j, n, dst );
+			index += n;
+			numElements -= n;
+		}
+	}
+
+	@Override
+	public void putElementBytes( int index, int numElements, final ByteBuffer src )
+	{
+		while ( numElements > 0 )
+		{
+			final int i = index / elementsPerArray;
+			final int j = index - i * elementsPerArray;
+			final int n = Math.min( numElements, elementsPerArray - j );
+			data.get( i ).putElementBytes( j, n, src );
+			index += n;
+			numElements -= n;
+		}
+	}
+
 	/**
 	 * Creates a factory for {@link MultiArrayMemPool}s that use the specified
 	 * {@code arrayFactory} for creating their storage
@@ -28,16 +28,25 @@
  */
 package org.mastodon.pool;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import org.mastodon.Options;
 import org.mastodon.RefPool;
 import org.mastodon.pool.MemPool.PoolIterator;
+import org.mastodon.properties.DoublePropertyMap;
 import org.mastodon.properties.HasPropertyMaps;
+import org.mastodon.properties.IntPropertyMap;
+import org.mastodon.properties.Property;
 import org.mastodon.properties.PropertyMap;
 import org.mastodon.properties.PropertyMaps;
 
+import gnu.trove.TIntCollection;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
 /**
  * A pool of {@link PoolObject PoolObjects} all stored in a common
  * {@link MemPool}. Provides methods to {@link #createRef() create} and
@@ -55,10 +64,17 @@ import org.mastodon.properties.PropertyMaps;
 @SuppressWarnings( "unused" )
 public abstract class Pool< O extends PoolObject< O, ?, T >, T extends MappedElement > implements RefPool< O >, Iterable< O >, HasPropertyMaps< O >
 {
+	/**
+	 * Size in bytes of the buffer used for bulk copying between pools.
+	 */
+	private static final int COPY_BLOCK_SIZE = 8 * 1024 * 1024;
+
 	private final Class< O > poolObjectClass;
 
 	private final MemPool< T > memPool;
 
+	private final long layoutFingerprint;
+
 	private final ThreadLocalSoftReferencePool< O > tmpObjRefs;
 
 	private final PoolCollectionWrapper< O > asRefCollection;
@@ -67,6 +83,8 @@ public abstract class Pool< O extends PoolObject< O, ?, T >, T extends MappedEle
 
 	protected final Properties< O > properties;
 
+	private ChangeJournal< O > changeJournal;
+
 	public Pool(
 			final int initialCapacity,
 			final PoolObjectLayout poolObjectLayout,
@@ -85,6 +103,7 @@ public abstract class Pool< O extends PoolObject< O, ?, T >, T extends MappedEle
 	{
 		this.poolObjectClass = poolObjectClass;
 		this.memPool = memPoolFactory.createPool( initialCapacity, poolObjectLayout.getSizeInBytes(), freeElementPolicy );
+		this.layoutFingerprint = poolObjectLayout.getFingerprint();
 		this.tmpObjRefs = new ThreadLocalSoftReferencePool<>();
 		this.asRefCollection = new PoolCollectionWrapper<>( this );
 		this.propertyMaps = new PropertyMaps<>();
@@ -99,6 +118,8 @@ public abstract class Pool< O extends PoolObject< O, ?, T >, T extends MappedEle
 	 */
 	public void clear()
 	{
+		if ( changeJournal != null )
+			changeJournal.beforeClearPool();
 		propertyMaps.beforeClearPool();
 		memPool.clear();
 	}
@@ -251,6 +272,27 @@ public abstract class Pool< O extends PoolObject< O, ?, T >, T extends MappedEle
 	protected void registerPropertyMap( final PropertyMap< O, ? > propertyMap )
 	{
 		properties.add( propertyMap );
+		if ( changeJournal != null )
+			changeJournal.track( propertyMap );
+	}
+
+	/**
+	 * Get the {@link ChangeJournal} of this pool. The journal is created on
+	 * the first call, until then no changes are recorded. All
+	 * {@link #getProperties() properties} of the pool are tracked by the
+	 * journal. Other properties (for example temporary {@link PropertyMap}s)
+	 * can be added using {@link ChangeJournal#track(Property)}.
+	 *
+	 * @return the change journal of this pool.
+	 */
+	public ChangeJournal< O > getChangeJournal()
+	{
+		if ( changeJournal == null )
+		{
+			changeJournal = new ChangeJournal<>( this );
+			properties.forEach( changeJournal::track );
+		}
+		return changeJournal;
 	}
 
 	protected MemPool< T > getMemPool()
@@ -258,21 +300,221 @@ public abstract class Pool< O extends PoolObject< O, ?, T >, T extends MappedEle
 		return memPool;
 	}
 
+	/**
+	 * Get the {@link PoolObjectLayout#getFingerprint() fingerprint} of the
+	 * layout of objects in this pool.
+	 *
+	 * @return the layout fingerprint.
+	 */
+	long getLayoutFingerprint()
+	{
+		return layoutFingerprint;
+	}
+
 	protected O create( final O obj )
 	{
 		final int index = memPool.create();
 		obj.updateAccess( this, index );
 		obj.setToUninitializedState();
 		propertyMaps.objectCreated( obj );
+		if ( changeJournal != null )
+			changeJournal.objectCreated( index );
 		return obj;
 	}
 
 	protected void delete( final O obj )
 	{
+		if ( changeJournal != null )
+			changeJournal.beforeDeleteObject( obj.getInternalPoolIndex() );
 		propertyMaps.beforeDeleteObject( obj );
 		memPool.free( obj.getInternalPoolIndex() );
 	}
 
+	/**
+	 * Make this pool an exact copy of {@code src}. This pool is
+	 * {@link #clear() cleared}, and the memory of {@code src} is copied in
+	 * bulk. Objects keep their indices, that is, the object at index
+	 * {@code i} in this pool is a copy of the object at index {@code i} in
+	 * {@code src}.
+	 * <p>
+	 * If {@code copyPropertyMaps} is {@code true}, the values of all
+	 * {@link PropertyMap}s {@link #registerPropertyMap(PropertyMap) registered}
+	 * with {@code src} are copied to the corresponding property maps of this
+	 * pool. This requires that both pools are of the same class.
+	 * </p>
+	 * <p>
+	 * Note, that existing proxies refer to invalid data after calling this
+	 * method!
+	 * </p>
+	 *
+	 * @param src
+	 *            the pool to copy.
+	 * @param copyPropertyMaps
+	 *            whether to copy registered property maps.
+	 * @throws IllegalArgumentException
+	 *             if {@code src} is this pool, or if the object layout of
+	 *             {@code src} does not match this pool.
+	 */
+	public void copyFrom( final Pool< O, ? > src, final boolean copyPropertyMaps )
+	{
+		if ( src == this )
+			throw new IllegalArgumentException( "cannot copy a pool into itself" );
+		checkCompatible( src, copyPropertyMaps );
+
+		clear();
+		final MemPool< ? > srcMemPool = src.getMemPool();
+		final int allocatedSize = srcMemPool.getAllocatedSize();
+		memPool.ensureCapacity( allocatedSize );
+		final int bytesPerElement = memPool.getBytesPerElement();
+		final int elementsPerBlock = Math.max( 1, COPY_BLOCK_SIZE / bytesPerElement );
+		final ByteBuffer buffer = ByteBuffer.allocate( Math.max( 1, Math.min( elementsPerBlock, allocatedSize ) ) * bytesPerElement );
+		for ( int i = 0; i < allocatedSize; i += elementsPerBlock )
+		{
+			final int n = Math.min( elementsPerBlock, allocatedSize - i );
+			buffer.clear();
+			srcMemPool.getElementBytes( i, n, buffer );
+			buffer.flip();
+			memPool.putElementBytes( i, n, buffer );
+		}
+		memPool.restoreState( srcMemPool.size(), allocatedSize, srcMemPool.getFirstFreeIndex() );
+
+		final O ref = createRef();
+		for ( final Iterator< O > it = iterator( ref ); it.hasNext(); )
+			objectCopied( it.next() );
+		if ( copyPropertyMaps )
+			for ( final O srcObj : src.asRefCollection() )
+				copyPropertyValues( src, srcObj, getObject( srcObj.getInternalPoolIndex(), ref ) );
+		releaseRef( ref );
+	}
+
+	/**
+	 * Append copies of the objects at {@code indices} in {@code src} to this
+	 * pool. Runs of consecutive indices that are copied to consecutive indices
+	 * in this pool are copied in bulk.
+	 * <p>
+	 * If {@code copyPropertyMaps} is {@code true}, the values of all
+	 * {@link PropertyMap}s {@link #registerPropertyMap(PropertyMap) registered}
+	 * with {@code src} are copied to the corresponding property maps of this
+	 * pool. This requires that both pools are of the same class.
+	 * </p>
+	 * <p>
+	 * Note, that the copied objects may refer to other objects by index (for
+	 * example edges referring to vertices). Such references are copied
+	 * verbatim, and must be remapped by the caller using the returned map.
+	 * </p>
+	 *
+	 * @param src
+	 *            the pool to copy from.
+	 * @param indices
+	 *            indices of the objects in {@code src} to copy.
+	 * @param copyPropertyMaps
+	 *            whether to copy registered property maps.
+	 * @return map from indices in {@code src} to indices of the copies in this
+	 *         pool.
+	 * @throws IllegalArgumentException
+	 *             if the object layout of {@code src} does not match this pool,
+	 *             or if {@code indices} contains an index that is not an
+	 *             object in {@code src}.
+	 */
+	public TIntIntMap copyFrom( final Pool< O, ? > src, final TIntCollection indices, final boolean copyPropertyMaps )
+	{
+		checkCompatible( src, copyPropertyMaps );
+
+		final int[] srcIndices = indices.toArray();
+		Arrays.sort( srcIndices );
+		int n = 0;
+		for ( int i = 0; i < srcIndices.length; ++i )
+			if ( i == 0 || srcIndices[ i ] != srcIndices[ i - 1 ] )
+				srcIndices[ n++ ] = srcIndices[ i ];
+
+		final O srcRef = src.createRef();
+		for ( int i = 0; i < n; ++i )
+			if ( src.getObjectIfExists( srcIndices[ i ], srcRef ) == null )
+				throw new IllegalArgumentException( "index " + srcIndices[ i ] + " is not an object in the source pool" );
+
+		final int[] dstIndices = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			dstIndices[ i ] = memPool.create();
+
+		final MemPool< ? > srcMemPool = src.getMemPool();
+		final int bytesPerElement = memPool.getBytesPerElement();
+		final int elementsPerBlock = Math.max( 1, COPY_BLOCK_SIZE / bytesPerElement );
+		final ByteBuffer buffer = ByteBuffer.allocate( Math.max( 1, Math.min( elementsPerBlock, n ) ) * bytesPerElement );
+		for ( int i = 0; i < n; )
+		{
+			int j = i + 1;
+			while ( j < n && j - i < elementsPerBlock
+					&& srcIndices[ j ] == srcIndices[ j - 1 ] + 1
+					&& dstIndices[ j ] == dstIndices[ j - 1 ] + 1 )
+				++j;
+			buffer.clear();
+			srcMemPool.getElementBytes( srcIndices[ i ], j - i, buffer );
+			buffer.flip();
+			memPool.putElementBytes( dstIndices[ i ], j - i, buffer );
+			i = j;
+		}
+
+		final TIntIntMap srcToDst = new TIntIntHashMap( Math.max( 1, 2 * n ), 0.5f, -1, -1 );
+		final O ref = createRef();
+		for ( int i = 0; i < n; ++i )
+		{
+			srcToDst.put( srcIndices[ i ], dstIndices[ i ] );
+			final O obj = getObject( dstIndices[ i ], ref );
+			objectCopied( obj );
+			if ( copyPropertyMaps )
+				copyPropertyValues( src, src.getObject( srcIndices[ i ], srcRef ), obj );
+		}
+		releaseRef( ref );
+		src.releaseRef( srcRef );
+		return srcToDst;
+	}
+
+	private void checkCompatible( final Pool< O, ? > src, final boolean copyPropertyMaps )
+	{
+		if ( src.getLayoutFingerprint() != layoutFingerprint
+				|| src.getMemPool().getBytesPerElement() != memPool.getBytesPerElement() )
+			throw new IllegalArgumentException( "object layout of source pool does not match this pool" );
+		if ( copyPropertyMaps && ( src.getClass() != getClass() || src.properties.size() != properties.size() ) )
+			throw new IllegalArgumentException( "property maps can only be copied between pools of the same class" );
+	}
+
+	private void objectCopied( final O obj )
+	{
+		propertyMaps.objectCreated( obj );
+		if ( changeJournal != null )
+			changeJournal.objectCreated( obj.getInternalPoolIndex() );
+	}
+
+	private void copyPropertyValues( final Pool< O, ? > src, final O srcObj, final O obj )
+	{
+		for ( int i = 0; i < properties.size(); ++i )
+		{
+			final Property< O > from = src.properties.get( i );
+			final Property< O > to = properties.get( i );
+			if ( from instanceof DoublePropertyMap )
+			{
+				final DoublePropertyMap< O > map = ( DoublePropertyMap< O > ) from;
+				if ( map.isSet( srcObj ) )
+					( ( DoublePropertyMap< O > ) to ).set( obj, map.getDouble( srcObj ) );
+			}
+			else if ( from instanceof IntPropertyMap )
+			{
+				final IntPropertyMap< O > map = ( IntPropertyMap< O > ) from;
+				if ( map.isSet( srcObj ) )
+					( ( IntPropertyMap< O > ) to ).set( obj, map.getInt( srcObj ) );
+			}
+			else if ( from instanceof PropertyMap )
+				copyValue( ( PropertyMap< O, ? > ) from, ( PropertyMap< O, ? > ) to, srcObj, obj );
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private static < O, V > void copyValue( final PropertyMap< O, V > from, final PropertyMap< O, ? > to, final O srcObj, final O obj )
+	{
+		if ( from.isSet( srcObj ) )
+			( ( PropertyMap< O, V > ) to ).set( obj, from.get( srcObj ) );
+	}
+
 	public PoolCollectionWrapper< O > asRefCollection()
 	{
 		return asRefCollection;
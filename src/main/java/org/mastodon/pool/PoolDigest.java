@@ -0,0 +1,614 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.pool;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.mastodon.pool.PoolObjectLayout.PrimitiveField;
+import org.mastodon.properties.DoublePropertyMap;
+import org.mastodon.properties.IntPropertyMap;
+import org.mastodon.properties.ObjPropertyMap;
+import org.mastodon.properties.Property;
+import org.mastodon.properties.PropertyMap;
+
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * A content digest of a {@link Pool}, to verify that two pools are identical,
+ * and to {@link #diff(Pool, PoolDigest, Pool, PoolDigest) find} the objects
+ * that differ between two pools.
+ * <p>
+ * The allocated elements of the pool are divided into chunks of
+ * {@link #getChunkSize()} elements. For each chunk, a 64-bit hash of the raw
+ * element memory is combined with a hash of the values of the
+ * {@link PropertyMap}s registered with the pool for the objects in that chunk.
+ * Chunks are hashed in parallel. The chunk hashes are combined pairwise into a
+ * Merkle-style {@link #getRoot() root hash}, together with the size and free
+ * list of the pool.
+ * </p>
+ * <p>
+ * Hashes are not cryptographic. They are computed from native-order memory,
+ * and are only comparable between digests computed with the same chunk size
+ * on the same platform.
+ * </p>
+ */
+public final class PoolDigest
+{
+	/**
+	 * Default number of elements per chunk.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	private static final long P1 = 0x9E3779B97F4A7C15L;
+
+	private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+
+	private final int chunkSize;
+
+	private final long[] chunkHashes;
+
+	private final long root;
+
+	private PoolDigest( final int chunkSize, final long[] chunkHashes, final long root )
+	{
+		this.chunkSize = chunkSize;
+		this.chunkHashes = chunkHashes;
+		this.root = root;
+	}
+
+	/**
+	 * Computes the digest of {@code pool} with {@link #DEFAULT_CHUNK_SIZE}.
+	 * The pool must not be modified while the digest is computed.
+	 *
+	 * @param pool
+	 *            the pool to hash.
+	 * @param executor
+	 *            the executor to run hashing tasks on.
+	 * @return the digest.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for hashing tasks.
+	 */
+	public static PoolDigest compute( final Pool< ?, ? > pool, final ExecutorService executor ) throws InterruptedException
+	{
+		return compute( pool, DEFAULT_CHUNK_SIZE, executor );
+	}
+
+	/**
+	 * Computes the digest of {@code pool}. The pool must not be modified while
+	 * the digest is computed.
+	 *
+	 * @param pool
+	 *            the pool to hash.
+	 * @param chunkSize
+	 *            number of elements per chunk.
+	 * @param executor
+	 *            the executor to run hashing tasks on.
+	 * @return the digest.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for hashing tasks.
+	 */
+	public static PoolDigest compute( final Pool< ?, ? > pool, final int chunkSize, final ExecutorService executor ) throws InterruptedException
+	{
+		if ( chunkSize <= 0 )
+			throw new IllegalArgumentException( "chunkSize must be positive" );
+
+		final MemPool< ? > memPool = pool.getMemPool();
+		final int allocatedSize = memPool.getAllocatedSize();
+		final int bytesPerElement = memPool.getBytesPerElement();
+		final int numChunks = ( int ) ( ( allocatedSize + ( long ) chunkSize - 1 ) / chunkSize );
+
+		final List< Future< Long > > memoryHashes = new ArrayList<>( numChunks );
+		for ( int c = 0; c < numChunks; ++c )
+		{
+			final int start = c * chunkSize;
+			final int n = Math.min( chunkSize, allocatedSize - start );
+			memoryHashes.add( executor.submit( () -> {
+				final ByteBuffer buffer = ByteBuffer.allocate( n * bytesPerElement ).order( ByteOrder.nativeOrder() );
+				memPool.getElementBytes( start, n, buffer );
+				buffer.flip();
+				return hash( buffer );
+			} ) );
+		}
+		final long[] propertyHashes = hashPropertyMaps( pool, chunkSize, numChunks, executor );
+
+		final long[] chunkHashes = new long[ numChunks ];
+		for ( int c = 0; c < numChunks; ++c )
+			chunkHashes[ c ] = combine( get( memoryHashes.get( c ), memoryHashes ), propertyHashes[ c ] );
+
+		long root = merkleRoot( chunkHashes );
+		root = combine( root, pool.getLayoutFingerprint() );
+		root = combine( root, memPool.size() );
+		root = combine( root, allocatedSize );
+		root = combine( root, memPool.getFirstFreeIndex() );
+		return new PoolDigest( chunkSize, chunkHashes, root );
+	}
+
+	/**
+	 * Returns the number of elements per chunk.
+	 *
+	 * @return the number of elements per chunk.
+	 */
+	public int getChunkSize()
+	{
+		return chunkSize;
+	}
+
+	/**
+	 * Returns the number of chunks.
+	 *
+	 * @return the number of chunks.
+	 */
+	public int numChunks()
+	{
+		return chunkHashes.length;
+	}
+
+	/**
+	 * Returns the hash of chunk {@code i}, that is, of the elements
+	 * {@code [i * chunkSize, (i + 1) * chunkSize)}.
+	 *
+	 * @param i
+	 *            the chunk index.
+	 * @return the chunk hash.
+	 */
+	public long getChunkHash( final int i )
+	{
+		return chunkHashes[ i ];
+	}
+
+	/**
+	 * Returns the root hash, combining all chunk hashes and the size and free
+	 * list of the pool.
+	 *
+	 * @return the root hash.
+	 */
+	public long getRoot()
+	{
+		return root;
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( o == null || getClass() != o.getClass() )
+			return false;
+
+		final PoolDigest that = ( PoolDigest ) o;
+		return chunkSize == that.chunkSize && root == that.root && Arrays.equals( chunkHashes, that.chunkHashes );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Long.hashCode( root );
+	}
+
+	/**
+	 * Computes the differences between two pools of the same class, for
+	 * example a model and its reloaded or edited version.
+	 *
+	 * @param from
+	 *            the old pool.
+	 * @param to
+	 *            the new pool.
+	 * @param executor
+	 *            the executor to run hashing tasks on.
+	 * @param <O>
+	 *            the object type.
+	 * @return the differences.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for hashing tasks.
+	 */
+	public static < O extends PoolObject< O, ?, ? > > Diff< O > diff(
+			final Pool< O, ? > from,
+			final Pool< O, ? > to,
+			final ExecutorService executor )
+			throws InterruptedException
+	{
+		return diff( from, compute( from, executor ), to, compute( to, executor ) );
+	}
+
+	/**
+	 * Computes the differences between two pools of the same class, given
+	 * their digests. Only chunks whose hashes differ are compared element by
+	 * element.
+	 *
+	 * @param from
+	 *            the old pool.
+	 * @param fromDigest
+	 *            the digest of {@code from}.
+	 * @param to
+	 *            the new pool.
+	 * @param toDigest
+	 *            the digest of {@code to}.
+	 * @param <O>
+	 *            the object type.
+	 * @return the differences.
+	 */
+	public static < O extends PoolObject< O, ?, ? > > Diff< O > diff(
+			final Pool< O, ? > from,
+			final PoolDigest fromDigest,
+			final Pool< O, ? > to,
+			final PoolDigest toDigest )
+	{
+		if ( from.getClass() != to.getClass() || from.getLayoutFingerprint() != to.getLayoutFingerprint() )
+			throw new IllegalArgumentException( "pools must be of the same class" );
+		if ( fromDigest.chunkSize != toDigest.chunkSize )
+			throw new IllegalArgumentException( "digests must have the same chunk size" );
+
+		final Diff< O > diff = new Diff<>( to.properties );
+		final int chunkSize = fromDigest.chunkSize;
+		final int numChunks = Math.max( fromDigest.numChunks(), toDigest.numChunks() );
+		final int bytesPerElement = from.getMemPool().getBytesPerElement();
+		final ByteBuffer fromBytes = ByteBuffer.allocate( bytesPerElement );
+		final ByteBuffer toBytes = ByteBuffer.allocate( bytesPerElement );
+		final int fromAllocatedSize = from.getMemPool().getAllocatedSize();
+		final int toAllocatedSize = to.getMemPool().getAllocatedSize();
+		final O fromRef = from.createRef();
+		final O toRef = to.createRef();
+		for ( int c = 0; c < numChunks; ++c )
+		{
+			if ( c < fromDigest.numChunks() && c < toDigest.numChunks() && fromDigest.chunkHashes[ c ] == toDigest.chunkHashes[ c ] )
+				continue;
+
+			final int end = Math.min( ( c + 1 ) * chunkSize, Math.max( fromAllocatedSize, toAllocatedSize ) );
+			for ( int i = c * chunkSize; i < end; ++i )
+			{
+				final O fromObj = i < fromAllocatedSize ? from.getObjectIfExists( i, fromRef ) : null;
+				final O toObj = i < toAllocatedSize ? to.getObjectIfExists( i, toRef ) : null;
+				if ( fromObj == null && toObj != null )
+					diff.created.add( i );
+				else if ( fromObj != null && toObj == null )
+					diff.deleted.add( i );
+				else if ( fromObj != null )
+					compare( from, fromObj, fromBytes, to, toObj, toBytes, diff );
+			}
+		}
+		from.releaseRef( fromRef );
+		to.releaseRef( toRef );
+		return diff;
+	}
+
+	/**
+	 * The differences between two pools, as computed by
+	 * {@link PoolDigest#diff(Pool, PoolDigest, Pool, PoolDigest)}. All sets
+	 * contain object indices.
+	 *
+	 * @param <O>
+	 *            the object type.
+	 */
+	public static final class Diff< O >
+	{
+		private final Properties< O > properties;
+
+		private final TIntSet created = new TIntHashSet();
+
+		private final TIntSet deleted = new TIntHashSet();
+
+		private final TIntSet modified = new TIntHashSet();
+
+		private final TIntSet[] modifiedByProperty;
+
+		private Diff( final Properties< O > properties )
+		{
+			this.properties = properties;
+			modifiedByProperty = new TIntSet[ properties.size() ];
+			for ( int i = 0; i < modifiedByProperty.length; ++i )
+				modifiedByProperty[ i ] = new TIntHashSet();
+		}
+
+		/**
+		 * Returns the indices of objects that exist only in the new pool.
+		 *
+		 * @return indices of created objects.
+		 */
+		public TIntSet getCreated()
+		{
+			return created;
+		}
+
+		/**
+		 * Returns the indices of objects that exist only in the old pool.
+		 *
+		 * @return indices of deleted objects.
+		 */
+		public TIntSet getDeleted()
+		{
+			return deleted;
+		}
+
+		/**
+		 * Returns the indices of objects that exist in both pools and differ
+		 * in any attribute, property map, or other memory.
+		 *
+		 * @return indices of modified objects.
+		 */
+		public TIntSet getModified()
+		{
+			return modified;
+		}
+
+		/**
+		 * Returns the indices of objects that exist in both pools and differ
+		 * in {@code property}, which is an attribute or registered property
+		 * map of the new pool.
+		 *
+		 * @param property
+		 *            an attribute or property map of the new pool.
+		 * @return indices of objects modified in {@code property}.
+		 * @throws IllegalArgumentException
+		 *             if {@code property} is not registered with the new
+		 *             pool.
+		 */
+		public TIntSet getModified( final Property< O > property )
+		{
+			for ( int i = 0; i < properties.size(); ++i )
+				if ( properties.get( i ) == property )
+					return modifiedByProperty[ i ];
+			throw new IllegalArgumentException( "property is not registered with the pool" );
+		}
+
+		/**
+		 * Returns {@code true} if the pools have no differences.
+		 *
+		 * @return whether the pools are equal.
+		 */
+		public boolean isEmpty()
+		{
+			return created.isEmpty() && deleted.isEmpty() && modified.isEmpty();
+		}
+	}
+
+	private static < O extends PoolObject< O, ?, ? > > void compare(
+			final Pool< O, ? > from,
+			final O fromObj,
+			final ByteBuffer fromBytes,
+			final Pool< O, ? > to,
+			final O toObj,
+			final ByteBuffer toBytes,
+			final Diff< O > diff )
+	{
+		final int index = toObj.getInternalPoolIndex();
+		fromBytes.clear();
+		from.getMemPool().getElementBytes( index, 1, fromBytes );
+		toBytes.clear();
+		to.getMemPool().getElementBytes( index, 1, toBytes );
+		if ( !Arrays.equals( fromBytes.array(), toBytes.array() ) )
+			diff.modified.add( index );
+
+		for ( int p = 0; p < to.properties.size(); ++p )
+		{
+			final Property< O > property = to.properties.get( p );
+			final boolean changed;
+			if ( property instanceof AbstractAttribute )
+			{
+				final PrimitiveField field = ( ( AbstractAttribute< ? > ) property ).field;
+				changed = !rangeEquals( fromBytes.array(), toBytes.array(), field.getOffset(), field.getSizeInBytes() );
+			}
+			else if ( property instanceof PropertyMap )
+			{
+				@SuppressWarnings( "unchecked" )
+				final PropertyMap< O, ? > fromMap = ( PropertyMap< O, ? > ) from.properties.get( p );
+				final PropertyMap< O, ? > toMap = ( PropertyMap< O, ? > ) property;
+				changed = fromMap.isSet( fromObj ) != toMap.isSet( toObj )
+						|| !Objects.equals( fromMap.get( fromObj ), toMap.get( toObj ) );
+			}
+			else
+				changed = false;
+			if ( changed )
+			{
+				diff.modified.add( index );
+				diff.modifiedByProperty[ p ].add( index );
+			}
+		}
+	}
+
+	private static boolean rangeEquals( final byte[] a, final byte[] b, final int offset, final int length )
+	{
+		for ( int i = offset; i < offset + length; ++i )
+			if ( a[ i ] != b[ i ] )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Computes per-chunk hashes of all {@link PropertyMap}s registered with
+	 * {@code pool}. Entry hashes are summed, so they do not depend on the
+	 * iteration order of the maps. Known map types are hashed in parallel,
+	 * other property maps by iterating the pool.
+	 */
+	private static < O extends PoolObject< O, ?, ? > > long[] hashPropertyMaps(
+			final Pool< O, ? > pool,
+			final int chunkSize,
+			final int numChunks,
+			final ExecutorService executor )
+			throws InterruptedException
+	{
+		final List< Future< long[] > > futures = new ArrayList<>();
+		final List< PropertyMap< O, ? > > others = new ArrayList<>();
+		final List< Integer > otherIds = new ArrayList<>();
+		for ( int p = 0; p < pool.properties.size(); ++p )
+		{
+			final int id = p;
+			final Property< O > property = pool.properties.get( p );
+			final Callable< long[] > task;
+			if ( property instanceof DoublePropertyMap )
+			{
+				final DoublePropertyMap< O > map = ( DoublePropertyMap< O > ) property;
+				task = () -> {
+					final long[] hashes = new long[ numChunks ];
+					map.getMap().forEachEntry( ( key, value ) -> {
+						final int i = key.getInternalPoolIndex();
+						hashes[ i / chunkSize ] += entryHash( id, i, Double.doubleToLongBits( value ) );
+						return true;
+					} );
+					return hashes;
+				};
+			}
+			else if ( property instanceof IntPropertyMap )
+			{
+				final IntPropertyMap< O > map = ( IntPropertyMap< O > ) property;
+				task = () -> {
+					final long[] hashes = new long[ numChunks ];
+					map.getMap().forEachEntry( ( key, value ) -> {
+						final int i = key.getInternalPoolIndex();
+						hashes[ i / chunkSize ] += entryHash( id, i, value );
+						return true;
+					} );
+					return hashes;
+				};
+			}
+			else if ( property instanceof ObjPropertyMap )
+			{
+				final ObjPropertyMap< O, ? > map = ( ObjPropertyMap< O, ? > ) property;
+				task = () -> {
+					final long[] hashes = new long[ numChunks ];
+					for ( final Map.Entry< O, ? > entry : map.getMap().entrySet() )
+					{
+						final int i = entry.getKey().getInternalPoolIndex();
+						hashes[ i / chunkSize ] += entryHash( id, i, Objects.hashCode( entry.getValue() ) );
+					}
+					return hashes;
+				};
+			}
+			else
+			{
+				if ( property instanceof PropertyMap )
+				{
+					others.add( ( PropertyMap< O, ? > ) property );
+					otherIds.add( id );
+				}
+				continue;
+			}
+			futures.add( executor.submit( task ) );
+		}
+
+		final long[] hashes = new long[ numChunks ];
+		if ( !others.isEmpty() )
+		{
+			for ( final O obj : pool )
+			{
+				final int i = obj.getInternalPoolIndex();
+				for ( int k = 0; k < others.size(); ++k )
+					if ( others.get( k ).isSet( obj ) )
+						hashes[ i / chunkSize ] += entryHash( otherIds.get( k ), i, Objects.hashCode( others.get( k ).get( obj ) ) );
+			}
+		}
+		for ( final Future< long[] > future : futures )
+		{
+			final long[] h = get( future, futures );
+			for ( int c = 0; c < numChunks; ++c )
+				hashes[ c ] += h[ c ];
+		}
+		return hashes;
+	}
+
+	private static long merkleRoot( final long[] chunkHashes )
+	{
+		if ( chunkHashes.length == 0 )
+			return 0;
+		long[] level = chunkHashes;
+		while ( level.length > 1 )
+		{
+			final long[] next = new long[ ( level.length + 1 ) / 2 ];
+			for ( int i = 0; i < next.length; ++i )
+				next[ i ] = 2 * i + 1 < level.length
+						? combine( level[ 2 * i ], level[ 2 * i + 1 ] )
+						: level[ 2 * i ];
+			level = next;
+		}
+		return level[ 0 ];
+	}
+
+	static long hash( final ByteBuffer buffer )
+	{
+		long h = P2 ^ buffer.remaining();
+		while ( buffer.remaining() >= Long.BYTES )
+			h = Long.rotateLeft( h ^ ( buffer.getLong() * P1 ), 31 ) * P2;
+		while ( buffer.hasRemaining() )
+			h = Long.rotateLeft( h ^ ( buffer.get() * P1 ), 31 ) * P2;
+		return mix( h );
+	}
+
+	private static long entryHash( final int propertyId, final int index, final long value )
+	{
+		return mix( combine( combine( propertyId, index ), value ) );
+	}
+
+	private static long combine( final long h, final long value )
+	{
+		return mix( h * P1 + value );
+	}
+
+	private static long mix( long h )
+	{
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static < T > T get( final Future< T > future, final List< ? extends Future< ? > > all ) throws InterruptedException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			all.forEach( f -> f.cancel( true ) );
+			throw e;
+		}
+		catch ( final ExecutionException e )
+		{
+			all.forEach( f -> f.cancel( true ) );
+			final Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException )
+				throw ( RuntimeException ) cause;
+			if ( cause instanceof Error )
+				throw ( Error ) cause;
+			throw new RuntimeException( cause );
+		}
+	}
+}
@@ -42,6 +42,8 @@ public abstract class PoolObjectLayout
 	protected static class CurrentSizeInBytes
 	{
 		int size = 0;
+
+		long fingerprint = 17;
 	}
 
 	protected final CurrentSizeInBytes currentSizeInBytes = new CurrentSizeInBytes();
@@ -58,6 +60,18 @@ public abstract class PoolObjectLayout
 		return currentSizeInBytes.size;
 	}
 
+	/**
+	 * Get a hash of the sequence of field types, offsets, and sizes of this
+	 * layout. This is used to check whether raw data written for one layout
+	 * can be interpreted with another.
+	 *
+	 * @return the layout fingerprint.
+	 */
+	public long getFingerprint()
+	{
+		return currentSizeInBytes.fingerprint;
+	}
+
 	public static class PrimitiveField
 	{
 		private final int offset;
@@ -69,6 +83,9 @@ public abstract class PoolObjectLayout
 			offset = sib.size;
 			sizeInBytes = elementSizeInBytes;
 			sib.size += elementSizeInBytes;
+			sib.fingerprint = 31 * sib.fingerprint + getClass().getName().hashCode();
+			sib.fingerprint = 31 * sib.fingerprint + offset;
+			sib.fingerprint = 31 * sib.fingerprint + sizeInBytes;
 		}
 
 		public int getOffset()
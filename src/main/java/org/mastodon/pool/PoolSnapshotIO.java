@@ -0,0 +1,307 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.pool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes and reads the raw memory of a {@link Pool} to and from a channel
+ * (typically a {@link java.nio.channels.FileChannel FileChannel}).
+ * <p>
+ * The element data is written as-is, in native byte order, including free
+ * elements and the free-element list threaded through them. Reading a snapshot
+ * therefore restores all object indices exactly, and does not require
+ * re-creating objects one by one. Snapshots can only be read on platforms with
+ * the same native byte order, into pools with the same
+ * {@link PoolObjectLayout#getFingerprint() layout}.
+ * <p>
+ * Only the pool memory is written. {@link org.mastodon.properties.PropertyMap
+ * PropertyMaps} registered with the pool must be serialized separately.
+ */
+public final class PoolSnapshotIO
+{
+	private static final int MAGIC = 0x4D50534E; // "MPSN"
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 40;
+
+	/**
+	 * Maximum number of bytes transferred with a single channel operation.
+	 */
+	private static final int BLOCK_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * Writes a raw snapshot of the memory of {@code pool} to {@code channel}.
+	 *
+	 * @param pool
+	 *            the pool to write.
+	 * @param channel
+	 *            the channel to write to.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static void write( final Pool< ?, ? > pool, final WritableByteChannel channel ) throws IOException
+	{
+		final MemPool< ? > memPool = pool.getMemPool();
+		final int bytesPerElement = memPool.getBytesPerElement();
+		final int allocatedSize = memPool.getAllocatedSize();
+
+		writeHeader( bytesPerElement, pool.getLayoutFingerprint(), memPool.size(), allocatedSize, memPool.getFirstFreeIndex(), channel );
+
+		if ( allocatedSize == 0 )
+			return;
+
+		final int elementsPerBlock = Math.max( 1, BLOCK_SIZE / bytesPerElement );
+		final ByteBuffer buffer = ByteBuffer.allocateDirect( Math.min( elementsPerBlock, allocatedSize ) * bytesPerElement );
+		for ( int i = 0; i < allocatedSize; i += elementsPerBlock )
+		{
+			final int n = Math.min( elementsPerBlock, allocatedSize - i );
+			buffer.clear();
+			memPool.getElementBytes( i, n, buffer );
+			buffer.flip();
+			writeFully( buffer, channel );
+		}
+	}
+
+	/**
+	 * Copies the memory of {@code pool} into a {@link Snapshot}, which can be
+	 * {@link Snapshot#write(WritableByteChannel) written} later, for example
+	 * on a background thread while the pool is modified. The written data is
+	 * identical to {@link #write(Pool, WritableByteChannel)} at the time of
+	 * capture.
+	 *
+	 * @param pool
+	 *            the pool to capture.
+	 * @return a snapshot of the pool memory.
+	 */
+	public static Snapshot capture( final Pool< ?, ? > pool )
+	{
+		final MemPool< ? > memPool = pool.getMemPool();
+		final int bytesPerElement = memPool.getBytesPerElement();
+		final int allocatedSize = memPool.getAllocatedSize();
+		final int elementsPerBlock = Math.max( 1, BLOCK_SIZE / bytesPerElement );
+		final int numBlocks = ( int ) ( ( ( long ) allocatedSize + elementsPerBlock - 1 ) / elementsPerBlock );
+		final ByteBuffer[] blocks = new ByteBuffer[ numBlocks ];
+		for ( int b = 0; b < numBlocks; ++b )
+		{
+			final int i = b * elementsPerBlock;
+			final int n = Math.min( elementsPerBlock, allocatedSize - i );
+			blocks[ b ] = ByteBuffer.allocate( n * bytesPerElement );
+			memPool.getElementBytes( i, n, blocks[ b ] );
+			blocks[ b ].flip();
+		}
+		return new Snapshot( bytesPerElement, pool.getLayoutFingerprint(), memPool.size(), allocatedSize, memPool.getFirstFreeIndex(), blocks );
+	}
+
+	/**
+	 * A copy of the memory of a pool, see {@link PoolSnapshotIO#capture(Pool)}.
+	 */
+	public static final class Snapshot
+	{
+		private final int bytesPerElement;
+
+		private final long fingerprint;
+
+		private final int size;
+
+		private final int allocatedSize;
+
+		private final int firstFreeIndex;
+
+		private final ByteBuffer[] blocks;
+
+		private Snapshot( final int bytesPerElement, final long fingerprint, final int size, final int allocatedSize, final int firstFreeIndex, final ByteBuffer[] blocks )
+		{
+			this.bytesPerElement = bytesPerElement;
+			this.fingerprint = fingerprint;
+			this.size = size;
+			this.allocatedSize = allocatedSize;
+			this.firstFreeIndex = firstFreeIndex;
+			this.blocks = blocks;
+		}
+
+		/**
+		 * Get the number of data blocks in this snapshot.
+		 *
+		 * @return number of blocks.
+		 */
+		public int numBlocks()
+		{
+			return blocks.length;
+		}
+
+		/**
+		 * Write the snapshot header to {@code channel}. Together with writing
+		 * all {@link #writeBlock(int, WritableByteChannel) blocks} in order,
+		 * this is equivalent to {@link #write(WritableByteChannel)}.
+		 *
+		 * @param channel
+		 *            the channel to write to.
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		public void writeHeader( final WritableByteChannel channel ) throws IOException
+		{
+			PoolSnapshotIO.writeHeader( bytesPerElement, fingerprint, size, allocatedSize, firstFreeIndex, channel );
+		}
+
+		/**
+		 * Write data block {@code i} to {@code channel}.
+		 *
+		 * @param i
+		 *            the block index.
+		 * @param channel
+		 *            the channel to write to.
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		public void writeBlock( final int i, final WritableByteChannel channel ) throws IOException
+		{
+			writeFully( blocks[ i ].duplicate(), channel );
+		}
+
+		/**
+		 * Write this snapshot to {@code channel}, in the format read by
+		 * {@link PoolSnapshotIO#read(Pool, ReadableByteChannel)}.
+		 *
+		 * @param channel
+		 *            the channel to write to.
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		public void write( final WritableByteChannel channel ) throws IOException
+		{
+			writeHeader( channel );
+			for ( int i = 0; i < blocks.length; ++i )
+				writeBlock( i, channel );
+		}
+	}
+
+	/**
+	 * Reads a raw snapshot from {@code channel} into {@code pool}. The pool is
+	 * {@link Pool#clear() cleared} first, and then holds exactly the objects
+	 * (with the same indices) as the pool that the snapshot was taken from.
+	 *
+	 * @param pool
+	 *            the pool to read into.
+	 * @param channel
+	 *            the channel to read from.
+	 * @throws IOException
+	 *             if an I/O error occurs, or if the snapshot is not compatible
+	 *             with {@code pool}.
+	 */
+	public static void read( final Pool< ?, ? > pool, final ReadableByteChannel channel ) throws IOException
+	{
+		final MemPool< ? > memPool = pool.getMemPool();
+		final int bytesPerElement = memPool.getBytesPerElement();
+
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.BIG_ENDIAN );
+		readFully( header, channel );
+		header.flip();
+		if ( header.getInt() != MAGIC )
+			throw new IOException( "not a pool snapshot" );
+		final int version = header.getInt();
+		if ( version != VERSION )
+			throw new IOException( "unsupported pool snapshot version " + version );
+		final ByteOrder order = header.getInt() == 1 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		if ( order != ByteOrder.nativeOrder() )
+			throw new IOException( "pool snapshot was written with " + order + " byte order" );
+		final int fileBytesPerElement = header.getInt();
+		final long fingerprint = header.getLong();
+		if ( fileBytesPerElement != bytesPerElement || fingerprint != pool.getLayoutFingerprint() )
+			throw new IOException( "pool snapshot layout does not match pool layout" );
+		final int size = header.getInt();
+		final int allocatedSize = header.getInt();
+		final int firstFreeIndex = header.getInt();
+
+		pool.clear();
+		memPool.ensureCapacity( allocatedSize );
+
+		if ( allocatedSize > 0 )
+		{
+			final int elementsPerBlock = Math.max( 1, BLOCK_SIZE / bytesPerElement );
+			final ByteBuffer buffer = ByteBuffer.allocateDirect( Math.min( elementsPerBlock, allocatedSize ) * bytesPerElement );
+			for ( int i = 0; i < allocatedSize; i += elementsPerBlock )
+			{
+				final int n = Math.min( elementsPerBlock, allocatedSize - i );
+				buffer.clear();
+				buffer.limit( n * bytesPerElement );
+				readFully( buffer, channel );
+				buffer.flip();
+				memPool.putElementBytes( i, n, buffer );
+			}
+		}
+
+		memPool.restoreState( size, allocatedSize, firstFreeIndex );
+	}
+
+	private static void writeHeader(
+			final int bytesPerElement,
+			final long fingerprint,
+			final int size,
+			final int allocatedSize,
+			final int firstFreeIndex,
+			final WritableByteChannel channel ) throws IOException
+	{
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.BIG_ENDIAN );
+		header.putInt( MAGIC );
+		header.putInt( VERSION );
+		header.putInt( ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 1 : 0 );
+		header.putInt( bytesPerElement );
+		header.putLong( fingerprint );
+		header.putInt( size );
+		header.putInt( allocatedSize );
+		header.putInt( firstFreeIndex );
+		header.putInt( 0 ); // reserved
+		header.flip();
+		writeFully( header, channel );
+	}
+
+	private static void writeFully( final ByteBuffer buffer, final WritableByteChannel channel ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+			channel.write( buffer );
+	}
+
+	private static void readFully( final ByteBuffer buffer, final ReadableByteChannel channel ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+			if ( channel.read( buffer ) < 0 )
+				throw new EOFException();
+	}
+
+	private PoolSnapshotIO()
+	{}
+}
@@ -29,6 +29,7 @@
 package org.mastodon.pool;
 
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
 import org.mastodon.properties.Property;
 import org.mastodon.properties.PropertyMap;
@@ -62,6 +63,21 @@ public class Properties< O >
 		properties.add( property );
 	}
 
+	void forEach( final Consumer< Property< O > > action )
+	{
+		properties.forEach( action );
+	}
+
+	int size()
+	{
+		return properties.size();
+	}
+
+	Property< O > get( final int i )
+	{
+		return properties.get( i );
+	}
+
 	/**
 	 * Forward to {@link Property#pauseListeners()} of all registered
 	 * properties.
@@ -28,6 +28,7 @@
  */
 package org.mastodon.pool;
 
+import java.nio.ByteBuffer;
 
 /**
  * A {@link MemPool} that keeps data in a single {@link MappedElementArray}.
@@ -83,6 +84,30 @@ public class SingleArrayMemPool< A extends MappedElementArray< A, T >, T extends
 		data.swapElement( index0, data, index1 );
 	}
 
+	@Override
+	public void ensureCapacity( final int minCapacity )
+	{
+		if ( minCapacity > capacity )
+		{
+			if ( minCapacity > data.maxSize() )
+				throw new IllegalArgumentException( "cannot store more than " + data.maxSize() + " elements" );
+			capacity = minCapacity;
+			data.resize( capacity );
+		}
+	}
+
+	@Override
+	public void getElementBytes( final int index, final int numElements, final ByteBuffer dst )
+	{
+		data.getElementBytes( index, numElements, dst );
+	}
+
+	@Override
+	public void putElementBytes( final int index, final int numElements, final ByteBuffer src )
+	{
+		data.putElementBytes( index, numElements, src );
+	}
+
 	/**
 	 * <b>For internal use only!</b>
 	 *
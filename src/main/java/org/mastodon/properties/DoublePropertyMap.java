@@ -30,12 +30,28 @@ package org.mastodon.properties;
 
 import org.mastodon.RefPool;
 import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.RefCollections;
 import org.mastodon.collection.RefDoubleMap;
 import org.mastodon.collection.RefMaps;
-import org.mastodon.collection.ref.RefDoubleHashMap;
+import org.mastodon.collection.ref.AbstractRefDoubleMap;
+import org.mastodon.collection.ref.RefDoubleAdaptiveMap;
+import org.mastodon.collection.wrap.RefDoubleMapWrapper;
 import org.mastodon.properties.undo.DoublePropertyUndoRedoStack;
 import org.mastodon.properties.undo.PropertyUndoRedoStack;
 
+import gnu.trove.impl.Constants;
+
+/**
+ * A property map with {@code double} values.
+ * <p>
+ * Property maps created for a {@link RefPool} are backed by a
+ * {@link RefDoubleAdaptiveMap}, which uses a hash map while few objects have a
+ * value, and switches to an array indexed by pool index when most objects
+ * have a value.
+ *
+ * @param <O>
+ *            the type of objects.
+ */
 public class DoublePropertyMap< O > extends AbstractPropertyMap< O, Double >
 {
 	private final RefDoubleMap< O > map;
@@ -44,32 +60,83 @@ public class DoublePropertyMap< O > extends AbstractPropertyMap< O, Double >
 
 	public DoublePropertyMap( final RefCollection< O > pool, final double noEntryValue )
 	{
-		map = RefMaps.createRefDoubleMap( pool, noEntryValue );
+		map = createMap( pool, noEntryValue, Constants.DEFAULT_CAPACITY );
 		this.noEntryValue = noEntryValue;
 		tryRegisterPropertyMap( pool );
 	}
 
 	public DoublePropertyMap( final RefCollection< O > pool, final double noEntryValue, final int initialCapacity )
 	{
-		map = RefMaps.createRefDoubleMap( pool, noEntryValue, initialCapacity );
+		map = createMap( pool, noEntryValue, initialCapacity );
 		this.noEntryValue = noEntryValue;
 		tryRegisterPropertyMap( pool );
 	}
 
 	public DoublePropertyMap( final RefPool< O > pool, final double noEntryValue )
 	{
-		map = new RefDoubleHashMap<>( pool, noEntryValue );
+		map = new RefDoubleAdaptiveMap<>( pool, noEntryValue );
 		this.noEntryValue = noEntryValue;
 		tryRegisterPropertyMap( pool );
 	}
 
 	public DoublePropertyMap( final RefPool< O > pool, final double noEntryValue, final int initialCapacity )
 	{
-		map = new RefDoubleHashMap<>( pool, noEntryValue, initialCapacity );
+		map = new RefDoubleAdaptiveMap<>( pool, noEntryValue, initialCapacity );
 		this.noEntryValue = noEntryValue;
 		tryRegisterPropertyMap( pool );
 	}
 
+	/**
+	 * Creates a property map that is backed by {@code map}. The property map
+	 * is not registered with a pool, so entries are not removed when objects
+	 * are deleted. This can be used to expose read-only maps, for example maps
+	 * that are backed by a file, as property maps.
+	 *
+	 * @param map
+	 *            the backing map.
+	 */
+	public DoublePropertyMap( final RefDoubleMap< O > map )
+	{
+		this( map, map.getNoEntryValue() );
+	}
+
+	private DoublePropertyMap( final RefDoubleMap< O > map, final double noEntryValue )
+	{
+		this.map = map;
+		this.noEntryValue = noEntryValue;
+	}
+
+	private static < O > RefDoubleMap< O > createMap( final RefCollection< O > collection, final double noEntryValue, final int initialCapacity )
+	{
+		final RefPool< O > pool = RefCollections.tryGetRefPool( collection );
+		if ( pool != null )
+			return new RefDoubleAdaptiveMap<>( pool, noEntryValue, initialCapacity );
+		else
+			return RefMaps.createRefDoubleMap( collection, noEntryValue, initialCapacity );
+	}
+
+	/**
+	 * Creates a copy of this map that is not registered with the pool. The
+	 * copy is not affected by later modifications of this map or by deletion
+	 * of objects from the pool, and can be read by another thread, for
+	 * example for saving in the background.
+	 *
+	 * @return a detached copy of this map.
+	 */
+	public DoublePropertyMap< O > snapshot()
+	{
+		final RefDoubleMap< O > copy;
+		if ( map instanceof AbstractRefDoubleMap )
+			copy = ( ( AbstractRefDoubleMap< O > ) map ).copy();
+		else
+		{
+			// keys are not pool objects
+			copy = new RefDoubleMapWrapper<>( noEntryValue, map.size() );
+			copy.putAll( map );
+		}
+		return new DoublePropertyMap<>( copy, noEntryValue );
+	}
+
 	public double set( final O key, final double value )
 	{
 		notifyBeforePropertyChange( key );
@@ -30,12 +30,28 @@ package org.mastodon.properties;
 
 import org.mastodon.RefPool;
 import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.RefCollections;
 import org.mastodon.collection.RefIntMap;
 import org.mastodon.collection.RefMaps;
-import org.mastodon.collection.ref.RefIntHashMap;
+import org.mastodon.collection.ref.AbstractRefIntMap;
+import org.mastodon.collection.ref.RefIntAdaptiveMap;
+import org.mastodon.collection.wrap.RefIntMapWrapper;
 import org.mastodon.properties.undo.IntPropertyUndoRedoStack;
 import org.mastodon.properties.undo.PropertyUndoRedoStack;
 
+import gnu.trove.impl.Constants;
+
+/**
+ * A property map with {@code int} values.
+ * <p>
+ * Property maps created for a {@link RefPool} are backed by a
+ * {@link RefIntAdaptiveMap}, which uses a hash map while few objects have a
+ * value, and switches to an array indexed by pool index when most objects
+ * have a value.
+ *
+ * @param <O>
+ *            the type of objects.
+ */
 public class IntPropertyMap< O > extends AbstractPropertyMap< O, Integer >
 {
 	private final RefIntMap< O > map;
@@ -44,32 +60,83 @@ public class IntPropertyMap< O > extends AbstractPropertyMap< O, Integer >
 
 	public IntPropertyMap( final RefCollection< O > pool, final int noEntryValue )
 	{
-		map = RefMaps.createRefIntMap( pool, noEntryValue );
+		map = createMap( pool, noEntryValue, Constants.DEFAULT_CAPACITY );
 		this.noEntryValue = noEntryValue;
 		tryRegisterPropertyMap( pool );
 	}
 
 	public IntPropertyMap( final RefCollection< O > pool, final int noEntryValue, final int initialCapacity )
 	{
-		map = RefMaps.createRefIntMap( pool, noEntryValue, initialCapacity );
+		map = createMap( pool, noEntryValue, initialCapacity );
 		this.noEntryValue = noEntryValue;
 		tryRegisterPropertyMap( pool );
 	}
 
 	public IntPropertyMap( final RefPool< O > pool, final int noEntryValue )
 	{
-		map = new RefIntHashMap<>( pool, noEntryValue );
+		map = new RefIntAdaptiveMap<>( pool, noEntryValue );
 		this.noEntryValue = noEntryValue;
 		tryRegisterPropertyMap( pool );
 	}
 
 	public IntPropertyMap( final RefPool< O > pool, final int noEntryValue, final int initialCapacity )
 	{
-		map = new RefIntHashMap<>( pool, noEntryValue, initialCapacity );
+		map = new RefIntAdaptiveMap<>( pool, noEntryValue, initialCapacity );
 		this.noEntryValue = noEntryValue;
 		tryRegisterPropertyMap( pool );
 	}
 
+	/**
+	 * Creates a property map that is backed by {@code map}. The property map
+	 * is not registered with a pool, so entries are not removed when objects
+	 * are deleted. This can be used to expose read-only maps, for example maps
+	 * that are backed by a file, as property maps.
+	 *
+	 * @param map
+	 *            the backing map.
+	 */
+	public IntPropertyMap( final RefIntMap< O > map )
+	{
+		this( map, map.getNoEntryValue() );
+	}
+
+	private IntPropertyMap( final RefIntMap< O > map, final int noEntryValue )
+	{
+		this.map = map;
+		this.noEntryValue = noEntryValue;
+	}
+
+	private static < O > RefIntMap< O > createMap( final RefCollection< O > collection, final int noEntryValue, final int initialCapacity )
+	{
+		final RefPool< O > pool = RefCollections.tryGetRefPool( collection );
+		if ( pool != null )
+			return new RefIntAdaptiveMap<>( pool, noEntryValue, initialCapacity );
+		else
+			return RefMaps.createRefIntMap( collection, noEntryValue, initialCapacity );
+	}
+
+	/**
+	 * Creates a copy of this map that is not registered with the pool. The
+	 * copy is not affected by later modifications of this map or by deletion
+	 * of objects from the pool, and can be read by another thread, for
+	 * example for saving in the background.
+	 *
+	 * @return a detached copy of this map.
+	 */
+	public IntPropertyMap< O > snapshot()
+	{
+		final RefIntMap< O > copy;
+		if ( map instanceof AbstractRefIntMap )
+			copy = ( ( AbstractRefIntMap< O > ) map ).copy();
+		else
+		{
+			// keys are not pool objects
+			copy = new RefIntMapWrapper<>( noEntryValue, map.size() );
+			copy.putAll( map );
+		}
+		return new IntPropertyMap<>( copy, noEntryValue );
+	}
+
 	public int set( final O key, final int value )
 	{
 		notifyBeforePropertyChange( key );
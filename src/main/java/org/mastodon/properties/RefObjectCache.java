@@ -0,0 +1,524 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.properties;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.util.TIntIntOpenHashMap;
+import org.scijava.listeners.Listeners;
+
+import gnu.trove.impl.Constants;
+
+/**
+ * A size-bounded {@link PropertyMap} for cached per-object values, that evicts
+ * the least recently used entries.
+ * <p>
+ * Entries are keyed by pool index. Each entry occupies a slot in parallel
+ * arrays, and the recency order is a doubly linked list threaded through
+ * {@code int} {@code prev}/{@code next} arrays, so there are no node objects.
+ * {@link #get(Object)} and {@link #set(Object, Object)} move the entry to the
+ * most recently used end. Freed slots are reused.
+ * </p>
+ * <p>
+ * The cache is bounded by a maximum total weight. Every entry has a weight
+ * computed by a pluggable weigher when it is set. With the
+ * {@link #RefObjectCache(RefPool, int) maxEntries} constructor, every entry
+ * weighs 1. Whenever the total weight exceeds the bound, least recently used
+ * entries are evicted until it fits again. An entry that alone weighs more
+ * than the bound is evicted immediately.
+ * </p>
+ * <p>
+ * Entries that the cache drops on its own are reported to the
+ * {@link #evictionListeners() eviction listeners}. This includes entries
+ * evicted by the bound, entries {@link #invalidate(Object) invalidated}
+ * because a {@link #invalidateOnChange(Property) watched property} changed,
+ * and entries dropped because their object is deleted from the pool or the
+ * pool is cleared. Entries removed explicitly through
+ * {@link #remove(Object)}, {@link #set(Object, Object)} or {@link #clear()}
+ * are not reported. The key passed to eviction listeners is a reference owned
+ * by the cache that is reused between calls.
+ * </p>
+ * <p>
+ * If the pool manages {@link PropertyMaps}, the cache registers itself and
+ * is notified of object deletion. Use {@link #release()} to unregister the
+ * cache when it is no longer needed.
+ * </p>
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ *
+ * @param <K>
+ *            key type.
+ * @param <V>
+ *            value type.
+ */
+public class RefObjectCache< K, V > extends AbstractPropertyMap< K, V >
+{
+	/**
+	 * Notified when the cache drops an entry on its own.
+	 *
+	 * @param <K>
+	 *            key type.
+	 * @param <V>
+	 *            value type.
+	 */
+	@FunctionalInterface
+	public interface EvictionListener< K, V >
+	{
+		/**
+		 * Called after the entry has been removed from the cache.
+		 *
+		 * @param key
+		 *            the key of the evicted entry. This is a reference owned by
+		 *            the cache; do not hold on to it.
+		 * @param value
+		 *            the value of the evicted entry.
+		 */
+		void evicted( K key, V value );
+	}
+
+	private static final int NONE = -1;
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private final RefPool< K > pool;
+
+	private final ToIntBiFunction< ? super K, ? super V > weigher;
+
+	private final long maxWeight;
+
+	private final Listeners.List< EvictionListener< K, V > > evictionListeners;
+
+	/**
+	 * Maps pool index to slot.
+	 */
+	private final TIntIntOpenHashMap slots;
+
+	/**
+	 * Pool index of the entry in each slot.
+	 */
+	private int[] keys;
+
+	private Object[] values;
+
+	private int[] weights;
+
+	private int[] prev;
+
+	/**
+	 * Next slot in recency order, or next free slot for slots on the free
+	 * list.
+	 */
+	private int[] next;
+
+	/**
+	 * Least recently used slot.
+	 */
+	private int head;
+
+	/**
+	 * Most recently used slot.
+	 */
+	private int tail;
+
+	/**
+	 * First slot on the free list.
+	 */
+	private int free;
+
+	/**
+	 * Slots {@code >= used} have never been occupied.
+	 */
+	private int used;
+
+	private long totalWeight;
+
+	private final K ref;
+
+	private final PropertyChangeListener< K > invalidator = this::invalidate;
+
+	private final List< Property< K > > watchedProperties = new ArrayList<>();
+
+	/**
+	 * Creates a cache that holds at most {@code maxEntries} entries.
+	 *
+	 * @param pool
+	 *            the pool of the keys.
+	 * @param maxEntries
+	 *            maximum number of entries.
+	 */
+	public RefObjectCache( final RefPool< K > pool, final int maxEntries )
+	{
+		this( pool, maxEntries, ( k, v ) -> 1 );
+	}
+
+	/**
+	 * Creates a cache whose entries weigh at most {@code maxWeight} in total.
+	 *
+	 * @param pool
+	 *            the pool of the keys.
+	 * @param maxWeight
+	 *            maximum total weight of the entries.
+	 * @param weigher
+	 *            computes the non-negative weight of an entry.
+	 */
+	public RefObjectCache( final RefPool< K > pool, final long maxWeight, final ToIntBiFunction< ? super K, ? super V > weigher )
+	{
+		if ( maxWeight < 0 )
+			throw new IllegalArgumentException( "maxWeight must not be negative: " + maxWeight );
+		this.pool = pool;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		evictionListeners = new Listeners.List<>();
+		slots = new TIntIntOpenHashMap( DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, NONE, NONE );
+		keys = new int[ DEFAULT_CAPACITY ];
+		values = new Object[ DEFAULT_CAPACITY ];
+		weights = new int[ DEFAULT_CAPACITY ];
+		prev = new int[ DEFAULT_CAPACITY ];
+		next = new int[ DEFAULT_CAPACITY ];
+		head = NONE;
+		tail = NONE;
+		free = NONE;
+		used = 0;
+		totalWeight = 0;
+		ref = pool.createRef();
+		tryRegisterPropertyMap( pool );
+	}
+
+	/**
+	 * Listeners notified when the cache drops an entry on its own.
+	 *
+	 * @return the eviction listeners.
+	 */
+	public Listeners< EvictionListener< K, V > > evictionListeners()
+	{
+		return evictionListeners;
+	}
+
+	/**
+	 * Invalidate the entry of an object whenever {@code property} of that
+	 * object changes.
+	 *
+	 * @param property
+	 *            the property to watch.
+	 */
+	public void invalidateOnChange( final Property< K > property )
+	{
+		if ( property.propertyChangeListeners().add( invalidator ) )
+			watchedProperties.add( property );
+	}
+
+	/**
+	 * Stop watching {@code property}.
+	 *
+	 * @param property
+	 *            the property to no longer watch.
+	 */
+	public void stopInvalidateOnChange( final Property< K > property )
+	{
+		property.propertyChangeListeners().remove( invalidator );
+		watchedProperties.removeIf( p -> p == property );
+	}
+
+	@Override
+	public V set( final K key, final V value )
+	{
+		notifyBeforePropertyChange( key );
+		final V old = put( key, value );
+		evict();
+		notifyPropertyChanged( key );
+		return old;
+	}
+
+	/**
+	 * Returns the cached value for {@code key}, computing and caching it with
+	 * {@code function} if it is not present. If {@code function} returns
+	 * {@code null}, nothing is cached.
+	 *
+	 * @param key
+	 *            the object.
+	 * @param function
+	 *            computes the value for {@code key}.
+	 * @return the cached or computed value.
+	 */
+	public V computeIfAbsent( final K key, final Function< ? super K, ? extends V > function )
+	{
+		final V value = get( key );
+		if ( value != null )
+			return value;
+		final V computed = function.apply( key );
+		if ( computed != null )
+			set( key, computed );
+		return computed;
+	}
+
+	/**
+	 * Returns the cached value for {@code key}, or {@code null} if it is not
+	 * present. Marks the entry as most recently used.
+	 */
+	@Override
+	@SuppressWarnings( "unchecked" )
+	public V get( final K key )
+	{
+		final int slot = slots.get( pool.getId( key ) );
+		if ( slot == NONE )
+			return null;
+		moveToTail( slot );
+		return ( V ) values[ slot ];
+	}
+
+	/**
+	 * Does not change the recency of the entry.
+	 */
+	@Override
+	public boolean isSet( final K key )
+	{
+		return slots.containsKey( pool.getId( key ) );
+	}
+
+	@Override
+	public V remove( final K key )
+	{
+		notifyBeforePropertyChange( key );
+		final int slot = slots.get( pool.getId( key ) );
+		final V old = slot == NONE ? null : removeSlot( slot );
+		notifyPropertyChanged( key );
+		return old;
+	}
+
+	/**
+	 * Drops the entry for {@code key}, if it exists, and reports it to the
+	 * eviction listeners. This does not emit any property change events.
+	 *
+	 * @param key
+	 *            the object.
+	 */
+	public void invalidate( final K key )
+	{
+		final int slot = slots.get( pool.getId( key ) );
+		if ( slot != NONE )
+			evictSlot( slot );
+	}
+
+	/**
+	 * Drops all entries, reporting them to the eviction listeners, least
+	 * recently used first. This does not emit any property change events.
+	 */
+	public void invalidateAll()
+	{
+		while ( head != NONE )
+			evictSlot( head );
+	}
+
+	@Override
+	public int size()
+	{
+		return slots.size();
+	}
+
+	/**
+	 * Returns the total weight of the cached entries.
+	 *
+	 * @return the total weight.
+	 */
+	public long getWeight()
+	{
+		return totalWeight;
+	}
+
+	/**
+	 * Returns the maximum total weight of the cached entries.
+	 *
+	 * @return the maximum total weight.
+	 */
+	public long getMaxWeight()
+	{
+		return maxWeight;
+	}
+
+	/**
+	 * Removes all entries, stops watching properties, and unregisters from the
+	 * pool.
+	 */
+	public void release()
+	{
+		clear();
+		for ( final Property< K > property : watchedProperties )
+			property.propertyChangeListeners().remove( invalidator );
+		watchedProperties.clear();
+		tryUnregisterPropertyMap();
+	}
+
+	@Override
+	public void beforeDeleteObject( final K key )
+	{
+		invalidate( key );
+	}
+
+	@Override
+	public void beforeClearPool()
+	{
+		invalidateAll();
+	}
+
+	@Override
+	public void clear()
+	{
+		slots.clear();
+		Arrays.fill( values, 0, used, null );
+		head = NONE;
+		tail = NONE;
+		free = NONE;
+		used = 0;
+		totalWeight = 0;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private V put( final K key, final V value )
+	{
+		final int id = pool.getId( key );
+		final int weight = weigher.applyAsInt( key, value );
+		if ( weight < 0 )
+			throw new IllegalArgumentException( "negative weight " + weight );
+		int slot = slots.get( id );
+		final V old;
+		if ( slot == NONE )
+		{
+			old = null;
+			slot = allocateSlot();
+			slots.put( id, slot );
+			keys[ slot ] = id;
+			linkAtTail( slot );
+		}
+		else
+		{
+			old = ( V ) values[ slot ];
+			totalWeight -= weights[ slot ];
+			moveToTail( slot );
+		}
+		values[ slot ] = value;
+		weights[ slot ] = weight;
+		totalWeight += weight;
+		return old;
+	}
+
+	/**
+	 * Evicts least recently used entries until the total weight fits the
+	 * bound.
+	 */
+	private void evict()
+	{
+		while ( totalWeight > maxWeight && head != NONE )
+			evictSlot( head );
+	}
+
+	private void evictSlot( final int slot )
+	{
+		final int id = keys[ slot ];
+		final V value = removeSlot( slot );
+		if ( !evictionListeners.list.isEmpty() )
+		{
+			final K key = pool.getObject( id, ref );
+			for ( final EvictionListener< K, V > l : evictionListeners.list )
+				l.evicted( key, value );
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private V removeSlot( final int slot )
+	{
+		final V value = ( V ) values[ slot ];
+		slots.remove( keys[ slot ] );
+		unlink( slot );
+		totalWeight -= weights[ slot ];
+		values[ slot ] = null;
+		next[ slot ] = free;
+		free = slot;
+		return value;
+	}
+
+	private int allocateSlot()
+	{
+		if ( free != NONE )
+		{
+			final int slot = free;
+			free = next[ slot ];
+			return slot;
+		}
+		if ( used == keys.length )
+		{
+			final int capacity = 2 * keys.length;
+			keys = Arrays.copyOf( keys, capacity );
+			values = Arrays.copyOf( values, capacity );
+			weights = Arrays.copyOf( weights, capacity );
+			prev = Arrays.copyOf( prev, capacity );
+			next = Arrays.copyOf( next, capacity );
+		}
+		return used++;
+	}
+
+	private void linkAtTail( final int slot )
+	{
+		prev[ slot ] = tail;
+		next[ slot ] = NONE;
+		if ( tail == NONE )
+			head = slot;
+		else
+			next[ tail ] = slot;
+		tail = slot;
+	}
+
+	private void unlink( final int slot )
+	{
+		final int p = prev[ slot ];
+		final int n = next[ slot ];
+		if ( p == NONE )
+			head = n;
+		else
+			next[ p ] = n;
+		if ( n == NONE )
+			tail = p;
+		else
+			prev[ n ] = p;
+	}
+
+	private void moveToTail( final int slot )
+	{
+		if ( slot != tail )
+		{
+			unlink( slot );
+			linkAtTail( slot );
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.collection.util.ConcurrentRunner.NUM_THREADS;
+import static org.mastodon.collection.util.ConcurrentRunner.runConcurrently;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.collection.RefIntMap;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class ConcurrentRefIntMapTest extends RefIntMapAbstractTest
+{
+	@Override
+	protected RefIntMap< TestObject > createMap( final TestObjectPool pool, final int noEntryValue )
+	{
+		return new ConcurrentRefIntMap<>( pool, noEntryValue );
+	}
+
+	private static TestObjectPool createPool( final int n )
+	{
+		final TestObjectPool pool = new TestObjectPool( n );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < n; ++i )
+			pool.create( ref ).init( i );
+		return pool;
+	}
+
+	@Test
+	public void testConditionalOperations()
+	{
+		final TestObjectPool pool = createPool( 2 );
+		final TestObject a = pool.getObject( 0, pool.createRef() );
+		final TestObject b = pool.getObject( 1, pool.createRef() );
+		final ConcurrentRefIntMap< TestObject > map = new ConcurrentRefIntMap<>( pool, -1 );
+
+		assertEquals( 2, map.computeIfAbsent( a, o -> 2 ) );
+		assertEquals( 2, map.computeIfAbsent( a, o -> 3 ) );
+		assertEquals( -1, map.computeIfAbsent( b, o -> -1 ) );
+		assertFalse( map.containsKey( b ) );
+
+		assertFalse( map.replace( a, 3, 1 ) );
+		assertTrue( map.replace( a, 2, 1 ) );
+		assertEquals( 1, map.get( a ) );
+		assertFalse( map.replace( b, -1, 1 ) );
+		assertFalse( map.containsKey( b ) );
+
+		assertEquals( 3, map.merge( b, 3, Integer::sum ) );
+		assertEquals( 3 + 1, map.merge( b, 1, Integer::sum ) );
+		assertFalse( map.remove( b, 3 ) );
+		assertTrue( map.remove( b, 3 + 1 ) );
+		assertFalse( map.containsKey( b ) );
+		assertEquals( 1, map.size() );
+	}
+
+	/**
+	 * Concurrent {@code adjustOrPutValue} and {@code merge} calls on shared
+	 * keys must not lose updates.
+	 */
+	@Test
+	public void testConcurrentAdjustOrPutValue() throws Exception
+	{
+		final TestObjectPool pool = createPool( 1000 );
+		final ConcurrentRefIntMap< TestObject > map = new ConcurrentRefIntMap<>( pool, -1 );
+		final int rounds = 100;
+		runConcurrently( thread -> {
+			for ( int r = 0; r < rounds; ++r )
+				for ( final TestObject o : pool )
+				{
+					if ( ( o.getId() + r ) % 2 == 0 )
+						map.adjustOrPutValue( o, 1, 1 );
+					else
+						map.merge( o, 1, Integer::sum );
+				}
+			return null;
+		} );
+		assertEquals( pool.size(), map.size() );
+		for ( final TestObject o : pool )
+			assertEquals( 1 * NUM_THREADS * rounds, map.get( o ) );
+	}
+
+	/**
+	 * Each key is inserted by exactly one thread, through either
+	 * {@code putIfAbsent} or {@code computeIfAbsent}.
+	 */
+	@Test
+	public void testConcurrentPutIfAbsentAndComputeIfAbsent() throws Exception
+	{
+		final TestObjectPool pool = createPool( 10000 );
+		final ConcurrentRefIntMap< TestObject > map = new ConcurrentRefIntMap<>( pool, -1 );
+		final List< Integer > claimed = runConcurrently( thread -> {
+			final int[] count = { 0 };
+			for ( final TestObject o : pool )
+			{
+				if ( o.getId() % 2 == 0 )
+					map.computeIfAbsent( o, key -> {
+						++count[ 0 ];
+						return thread;
+					} );
+				else if ( map.putIfAbsent( o, thread ) == -1 )
+					++count[ 0 ];
+			}
+			return count[ 0 ];
+		} );
+		assertEquals( pool.size(), map.size() );
+		final int[] owned = new int[ NUM_THREADS ];
+		for ( final TestObject o : pool )
+			++owned[ map.get( o ) ];
+		for ( int t = 0; t < NUM_THREADS; ++t )
+			assertEquals( claimed.get( t ).intValue(), owned[ t ] );
+	}
+}
@@ -0,0 +1,259 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.collection.util.ConcurrentRunner.NUM_THREADS;
+import static org.mastodon.collection.util.ConcurrentRunner.runConcurrently;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.pool.OtherTestObject;
+import org.mastodon.pool.OtherTestObjectPool;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class ConcurrentRefRefMapTest extends RefRefHashMapAbstractTest
+{
+	private ConcurrentRefRefMap< TestObject, OtherTestObject > cmap;
+
+	@Before
+	public void setUpConcurrentMap()
+	{
+		// fill map { k1 -> v0,  k2 -> v1,  k3 -> v2,  k4 -> v3 }
+		cmap = new ConcurrentRefRefMap<>( pool, otherPool );
+		cmap.put( k1, v0 );
+		cmap.put( k2, v1 );
+		cmap.put( k3, v2 );
+		cmap.put( k4, v3 );
+		map = cmap;
+	}
+
+	@Test
+	public void testPutIfAbsent()
+	{
+		final OtherTestObject ref = cmap.createValueRef();
+		assertEquals( v0, cmap.putIfAbsent( k1, v4, ref ) );
+		assertEquals( v0, cmap.get( k1 ) );
+		assertNull( cmap.putIfAbsent( k0, v4 ) );
+		assertEquals( v4, cmap.get( k0 ) );
+		assertEquals( 5, cmap.size() );
+	}
+
+	@Test
+	public void testRemoveAndReplace()
+	{
+		assertFalse( cmap.remove( k1, v1 ) );
+		assertTrue( cmap.remove( k1, v0 ) );
+		assertFalse( cmap.containsKey( k1 ) );
+		assertFalse( cmap.remove( k1, v0 ) );
+
+		assertFalse( cmap.replace( k2, v0, v4 ) );
+		assertTrue( cmap.replace( k2, v1, v4 ) );
+		assertEquals( v4, cmap.get( k2 ) );
+		assertFalse( cmap.replace( k0, v0, v4 ) );
+		assertFalse( cmap.containsKey( k0 ) );
+	}
+
+	@Test
+	public void testComputeIfAbsent()
+	{
+		assertEquals( v0, cmap.computeIfAbsent( k1, k -> v4 ) );
+		assertNull( cmap.computeIfAbsent( k0, k -> null ) );
+		assertFalse( cmap.containsKey( k0 ) );
+		final OtherTestObject ref = cmap.createValueRef();
+		assertEquals( v4, cmap.computeIfAbsent( k0, k -> v4, ref ) );
+		assertEquals( v4, cmap.get( k0 ) );
+	}
+
+	@Test
+	public void testReplace()
+	{
+		assertEquals( v0, cmap.replace( k1, v4 ) );
+		assertEquals( v4, cmap.get( k1 ) );
+		assertNull( cmap.replace( k0, v4 ) );
+		assertFalse( cmap.containsKey( k0 ) );
+	}
+
+	@Test
+	public void testComputeIfPresent()
+	{
+		assertNull( cmap.computeIfPresent( k0, ( k, v ) -> v4 ) );
+		assertFalse( cmap.containsKey( k0 ) );
+		assertEquals( v4, cmap.computeIfPresent( k1, ( k, v ) -> {
+			assertEquals( k1, k );
+			assertEquals( v0, v );
+			return v4;
+		} ) );
+		assertEquals( v4, cmap.get( k1 ) );
+		assertNull( cmap.computeIfPresent( k2, ( k, v ) -> null ) );
+		assertFalse( cmap.containsKey( k2 ) );
+		assertEquals( 3, cmap.size() );
+	}
+
+	@Test
+	public void testCompute()
+	{
+		final OtherTestObject ref = cmap.createValueRef();
+		assertEquals( v4, cmap.compute( k0, ( k, v ) -> {
+			assertNull( v );
+			return v4;
+		}, ref ) );
+		assertEquals( v1, cmap.compute( k0, ( k, v ) -> {
+			assertEquals( v4, v );
+			return v1;
+		} ) );
+		assertEquals( v1, cmap.get( k0 ) );
+		assertNull( cmap.compute( k0, ( k, v ) -> null ) );
+		assertFalse( cmap.containsKey( k0 ) );
+		assertNull( cmap.compute( k0, ( k, v ) -> null ) );
+		assertFalse( cmap.containsKey( k0 ) );
+		assertEquals( 4, cmap.size() );
+	}
+
+	@Test
+	public void testMerge()
+	{
+		assertEquals( v4, cmap.merge( k0, v4, ( a, b ) -> null ) );
+		assertEquals( v4, cmap.get( k0 ) );
+		assertEquals( v1, cmap.merge( k0, v1, ( a, b ) -> {
+			assertEquals( v4, a );
+			assertEquals( v1, b );
+			return b;
+		} ) );
+		assertEquals( v1, cmap.get( k0 ) );
+		assertNull( cmap.merge( k0, v2, ( a, b ) -> null ) );
+		assertFalse( cmap.containsKey( k0 ) );
+		assertEquals( 4, cmap.size() );
+	}
+
+	private static TestObjectPool createKeys( final int n )
+	{
+		final TestObjectPool keys = new TestObjectPool( n );
+		final TestObject ref = keys.createRef();
+		for ( int i = 0; i < n; ++i )
+			keys.create( ref ).init( i );
+		return keys;
+	}
+
+	private static OtherTestObjectPool createValues( final int n )
+	{
+		final OtherTestObjectPool values = new OtherTestObjectPool( n );
+		final OtherTestObject ref = values.createRef();
+		for ( int i = 0; i < n; ++i )
+			values.create( ref ).init( i );
+		return values;
+	}
+
+	/**
+	 * Each key is inserted by exactly one thread, through either
+	 * {@code putIfAbsent} or {@code computeIfAbsent}. Values are indexed by
+	 * thread number.
+	 */
+	@Test
+	public void testConcurrentPutIfAbsentAndComputeIfAbsent() throws Exception
+	{
+		final TestObjectPool keys = createKeys( 10000 );
+		final OtherTestObjectPool values = createValues( NUM_THREADS );
+		final ConcurrentRefRefMap< TestObject, OtherTestObject > map = new ConcurrentRefRefMap<>( keys, values );
+		final List< Integer > claimed = runConcurrently( thread -> {
+			final OtherTestObject value = values.getObject( thread, values.createRef() );
+			final OtherTestObject ref = map.createValueRef();
+			final int[] count = { 0 };
+			for ( final TestObject o : keys )
+			{
+				if ( o.getId() % 2 == 0 )
+					map.computeIfAbsent( o, key -> {
+						++count[ 0 ];
+						return value;
+					}, ref );
+				else if ( map.putIfAbsent( o, value, ref ) == null )
+					++count[ 0 ];
+			}
+			return count[ 0 ];
+		} );
+		assertEquals( keys.size(), map.size() );
+		final int[] owned = new int[ NUM_THREADS ];
+		final OtherTestObject ref = map.createValueRef();
+		for ( final TestObject o : keys )
+			++owned[ map.get( o, ref ).getId() ];
+		for ( int t = 0; t < NUM_THREADS; ++t )
+			assertEquals( claimed.get( t ).intValue(), owned[ t ] );
+	}
+
+	/**
+	 * Concurrent {@code compute} and {@code merge} calls on shared keys must
+	 * not lose updates. Each update advances the value of a key to the value
+	 * with the next index.
+	 */
+	@Test
+	public void testConcurrentComputeAndMerge() throws Exception
+	{
+		final int rounds = 50;
+		final TestObjectPool keys = createKeys( 100 );
+		final OtherTestObjectPool values = createValues( NUM_THREADS * rounds + 1 );
+		final ConcurrentRefRefMap< TestObject, OtherTestObject > map = new ConcurrentRefRefMap<>( keys, values );
+		runConcurrently( thread -> {
+			final OtherTestObject first = values.getObject( 1, values.createRef() );
+			final OtherTestObject next = values.createRef();
+			final OtherTestObject ref = map.createValueRef();
+			for ( int r = 0; r < rounds; ++r )
+				for ( final TestObject o : keys )
+				{
+					if ( ( o.getId() + r ) % 2 == 0 )
+						map.compute( o, ( key, v ) -> v == null
+								? first
+								: values.getObject( v.getId() + 1, next ), ref );
+					else
+						map.merge( o, first, ( v, one ) -> values.getObject( v.getId() + 1, next ), ref );
+				}
+			return null;
+		} );
+		assertEquals( keys.size(), map.size() );
+		final OtherTestObject ref = map.createValueRef();
+		for ( final TestObject o : keys )
+			assertEquals( NUM_THREADS * rounds, map.get( o, ref ).getId() );
+	}
+
+	@Test
+	public void testKeySet()
+	{
+		assertEquals( 4, cmap.keySet().size() );
+		assertTrue( cmap.keySet().contains( k1 ) );
+		assertFalse( cmap.keySet().contains( k0 ) );
+		assertEquals( 4, cmap.keySet().toArray().length );
+		assertTrue( cmap.keySet().remove( k1 ) );
+		assertFalse( cmap.containsKey( k1 ) );
+	}
+}
@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class ConcurrentRefSetTest extends RefSetImpTest
+{
+	@Override
+	protected RefSetImp< TestObject > createSet( final TestObjectPool pool )
+	{
+		return new ConcurrentRefSet<>( pool );
+	}
+
+	/**
+	 * Threads traverse all objects of a pool concurrently, using a shared
+	 * visited set. Each object must be claimed by exactly one thread.
+	 */
+	@Test
+	public void testConcurrentVisits() throws Exception
+	{
+		final int n = 10000;
+		final int numThreads = 8;
+		final TestObjectPool pool = new TestObjectPool( n );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < n; ++i )
+			pool.create( ref ).init( i );
+
+		final ConcurrentRefSet< TestObject > visited = new ConcurrentRefSet<>( pool );
+		final ConcurrentRefIntMap< TestObject > claimedBy = new ConcurrentRefIntMap<>( pool, -1 );
+		final ExecutorService executor = Executors.newFixedThreadPool( numThreads );
+		try
+		{
+			final List< Future< ? > > futures = new ArrayList<>();
+			for ( int t = 0; t < numThreads; ++t )
+			{
+				final int thread = t;
+				futures.add( executor.submit( () -> {
+					for ( final TestObject o : pool )
+						if ( visited.add( o ) )
+							assertEquals( -1, claimedBy.putIfAbsent( o, thread ) );
+				} ) );
+			}
+			for ( final Future< ? > future : futures )
+				future.get();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		assertEquals( n, visited.size() );
+		assertEquals( n, claimedBy.size() );
+		assertEquals( n, visited.toArray().length );
+		for ( final TestObject o : pool )
+			assertTrue( claimedBy.get( o ) >= 0 );
+	}
+}
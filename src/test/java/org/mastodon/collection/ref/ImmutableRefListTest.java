@@ -0,0 +1,145 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.ListIterator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefList;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class ImmutableRefListTest
+{
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( 10 );
+		objs = new ArrayList<>();
+		for ( int i = 0; i < 10; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+	}
+
+	private ImmutableRefList< TestObject > freeze( final int... ids )
+	{
+		final RefArrayList< TestObject > list = new RefArrayList<>( pool );
+		for ( final int id : ids )
+			list.add( objs.get( id ) );
+		return ( ImmutableRefList< TestObject > ) RefCollections.freeze( list );
+	}
+
+	private static void assertIds( final RefList< TestObject > list, final int... ids )
+	{
+		assertEquals( ids.length, list.size() );
+		for ( int i = 0; i < ids.length; ++i )
+			assertEquals( ids[ i ], list.get( i ).getId() );
+	}
+
+	@Test
+	public void testFreezeKeepsOrder()
+	{
+		final RefArrayList< TestObject > list = new RefArrayList<>( pool );
+		list.add( objs.get( 7 ) );
+		list.add( objs.get( 2 ) );
+		list.add( objs.get( 7 ) );
+		final RefList< TestObject > frozen = RefCollections.freeze( list );
+		assertTrue( frozen instanceof ImmutableRefList );
+		assertIds( frozen, 7, 2, 7 );
+		assertFalse( ( ( ImmutableRefList< TestObject > ) frozen ).isSortedByIndex() );
+
+		list.clear();
+		assertIds( frozen, 7, 2, 7 );
+		assertSame( frozen, RefCollections.freeze( frozen ) );
+	}
+
+	@Test
+	public void testIndexOf()
+	{
+		final ImmutableRefList< TestObject > unsorted = freeze( 5, 1, 5, 3 );
+		assertEquals( 0, unsorted.indexOf( objs.get( 5 ) ) );
+		assertEquals( 2, unsorted.lastIndexOf( objs.get( 5 ) ) );
+		assertEquals( -1, unsorted.indexOf( objs.get( 4 ) ) );
+		assertTrue( unsorted.contains( objs.get( 3 ) ) );
+
+		final ImmutableRefList< TestObject > sorted = freeze( 1, 3, 3, 3, 6, 9 );
+		assertTrue( sorted.isSortedByIndex() );
+		assertEquals( 1, sorted.indexOf( objs.get( 3 ) ) );
+		assertEquals( 3, sorted.lastIndexOf( objs.get( 3 ) ) );
+		assertEquals( 5, sorted.indexOf( objs.get( 9 ) ) );
+		assertEquals( -1, sorted.indexOf( objs.get( 4 ) ) );
+		assertFalse( sorted.contains( objs.get( 0 ) ) );
+	}
+
+	@Test
+	public void testSubList()
+	{
+		final ImmutableRefList< TestObject > list = freeze( 4, 8, 0, 6, 2 );
+		final ImmutableRefList< TestObject > sub = list.subList( 1, 4 );
+		assertIds( sub, 8, 0, 6 );
+		assertEquals( 1, sub.indexOf( objs.get( 0 ) ) );
+		assertEquals( -1, sub.indexOf( objs.get( 4 ) ) );
+		assertIds( sub.subList( 1, 3 ), 0, 6 );
+	}
+
+	@Test
+	public void testListIterator()
+	{
+		final ImmutableRefList< TestObject > list = freeze( 3, 1, 2 );
+		final ListIterator< TestObject > it = list.listIterator( 1 );
+		assertEquals( 1, it.next().getId() );
+		assertEquals( 2, it.next().getId() );
+		assertFalse( it.hasNext() );
+		assertEquals( 2, it.previous().getId() );
+		assertEquals( 1, it.previousIndex() );
+	}
+
+	@Test( expected = UnsupportedOperationException.class )
+	public void testAdd()
+	{
+		freeze( 1, 2 ).add( objs.get( 3 ) );
+	}
+
+	@Test( expected = UnsupportedOperationException.class )
+	public void testSet()
+	{
+		freeze( 1, 2 ).set( 0, objs.get( 3 ) );
+	}
+}
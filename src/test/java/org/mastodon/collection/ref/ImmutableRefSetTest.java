@@ -0,0 +1,134 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefSet;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class ImmutableRefSetTest
+{
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( 10 );
+		objs = new ArrayList<>();
+		for ( int i = 0; i < 10; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+	}
+
+	private ImmutableRefSet< TestObject > freeze( final int... ids )
+	{
+		final RefSetImp< TestObject > set = new RefSetImp<>( pool );
+		for ( final int id : ids )
+			set.add( objs.get( id ) );
+		return ( ImmutableRefSet< TestObject > ) RefCollections.freeze( set );
+	}
+
+	private static void assertIds( final RefSet< TestObject > set, final int... ids )
+	{
+		assertEquals( ids.length, set.size() );
+		final Iterator< TestObject > it = set.iterator();
+		for ( final int id : ids )
+			assertEquals( id, it.next().getId() );
+		assertFalse( it.hasNext() );
+	}
+
+	@Test
+	public void testFreeze()
+	{
+		final RefSetImp< TestObject > set = new RefSetImp<>( pool );
+		set.add( objs.get( 7 ) );
+		set.add( objs.get( 2 ) );
+		set.add( objs.get( 5 ) );
+		final RefSet< TestObject > frozen = RefCollections.freeze( set );
+		assertTrue( frozen instanceof ImmutableRefSet );
+		assertIds( frozen, 2, 5, 7 );
+
+		// the snapshot does not follow later changes of the source
+		set.add( objs.get( 0 ) );
+		assertEquals( 3, frozen.size() );
+		assertFalse( frozen.contains( objs.get( 0 ) ) );
+		assertTrue( frozen.contains( objs.get( 5 ) ) );
+		assertTrue( frozen.containsAll( frozen ) );
+
+		assertSame( frozen, RefCollections.freeze( frozen ) );
+	}
+
+	@Test
+	public void testGetAndRange()
+	{
+		final ImmutableRefSet< TestObject > set = freeze( 1, 3, 4, 8, 9 );
+		final TestObject ref = set.createRef();
+		assertEquals( 4, set.get( 2, ref ).getId() );
+		assertIds( set.range( 1, 4 ), 3, 4, 8 );
+		assertFalse( set.range( 1, 4 ).contains( objs.get( 9 ) ) );
+		set.releaseRef( ref );
+	}
+
+	@Test
+	public void testSetAlgebra()
+	{
+		final ImmutableRefSet< TestObject > a = freeze( 0, 2, 4, 6, 8 );
+		final ImmutableRefSet< TestObject > b = freeze( 4, 5, 6, 7 );
+		assertIds( a.union( b ), 0, 2, 4, 5, 6, 7, 8 );
+		assertIds( a.intersection( b ), 4, 6 );
+		assertIds( a.difference( b ), 0, 2, 8 );
+		assertIds( b.difference( a ), 5, 7 );
+	}
+
+	@Test( expected = UnsupportedOperationException.class )
+	public void testAdd()
+	{
+		freeze( 1, 2 ).add( objs.get( 3 ) );
+	}
+
+	@Test( expected = UnsupportedOperationException.class )
+	public void testIteratorRemove()
+	{
+		final Iterator< TestObject > it = freeze( 1, 2 ).iterator();
+		it.next();
+		it.remove();
+	}
+}
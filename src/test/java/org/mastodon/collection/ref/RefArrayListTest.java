@@ -28,6 +28,7 @@
  */
 package org.mastodon.collection.ref;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -98,4 +99,30 @@ public class RefArrayListTest
 		}
 	}
 
+	@Test
+	public void testSortByInt()
+	{
+		list.sortByInt( TestObject::getId );
+
+		int previousID = Integer.MIN_VALUE;
+		for ( final TestObject testObject : list )
+		{
+			assertTrue( "List around ID " + previousID + " is not sorted.", previousID < testObject.getId() );
+			previousID = testObject.getId();
+		}
+		assertEquals( objects.size(), list.size() );
+	}
+
+	@Test
+	public void testSortByDoubleIsStable()
+	{
+		// sort by id modulo 10, ties must stay in list order
+		final RefArrayList< TestObject > expected = new RefArrayList<>( list.getRefPool() );
+		for ( int mod = 0; mod < 10; ++mod )
+			for ( final TestObject o : list )
+				if ( o.getId() % 10 == mod )
+					expected.add( o );
+		list.sortByDouble( o -> ( o.getId() % 10 ) * 0.5 );
+		assertEquals( expected.getIndexCollection(), list.getIndexCollection() );
+	}
 }
@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.util.TIntBitSet;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+import gnu.trove.set.hash.TIntHashSet;
+
+public class RefBitSetTest extends RefSetImpTest
+{
+	@Override
+	protected RefSetImp< TestObject > createSet( final TestObjectPool pool )
+	{
+		return new RefBitSet<>( pool );
+	}
+
+	@Test
+	public void testBulkOperations()
+	{
+		final Random random = new Random( 1 );
+		final TIntBitSet a = new TIntBitSet();
+		final TIntBitSet b = new TIntBitSet( 10 );
+		final TIntHashSet ha = new TIntHashSet();
+		final TIntHashSet hb = new TIntHashSet();
+		for ( int i = 0; i < 2000; ++i )
+		{
+			final int va = random.nextInt( 5000 );
+			final int vb = random.nextInt( 3000 );
+			assertEquals( ha.add( va ), a.add( va ) );
+			assertEquals( hb.add( vb ), b.add( vb ) );
+		}
+		assertEquals( ha, a );
+		assertEquals( a, ha );
+		assertEquals( ha.hashCode(), a.hashCode() );
+
+		final TIntBitSet union = new TIntBitSet( a );
+		final TIntHashSet hunion = new TIntHashSet( ha );
+		assertEquals( hunion.addAll( hb ), union.addAll( b ) );
+		assertEquals( hunion, union );
+		assertEquals( hunion.size(), union.size() );
+		assertTrue( union.containsAll( a ) );
+		assertTrue( union.containsAll( b ) );
+		assertFalse( a.containsAll( union ) );
+
+		final TIntBitSet intersection = new TIntBitSet( a );
+		final TIntHashSet hintersection = new TIntHashSet( ha );
+		assertEquals( hintersection.retainAll( hb ), intersection.retainAll( b ) );
+		assertEquals( hintersection, intersection );
+		assertEquals( hintersection.size(), intersection.size() );
+
+		final TIntBitSet difference = new TIntBitSet( b );
+		final TIntHashSet hdifference = new TIntHashSet( hb );
+		assertEquals( hdifference.removeAll( ha ), difference.removeAll( a ) );
+		assertEquals( hdifference, difference );
+		assertEquals( hdifference.size(), difference.size() );
+
+		assertFalse( union.addAll( a ) );
+		assertFalse( intersection.retainAll( a ) );
+		assertFalse( difference.removeAll( a ) );
+	}
+
+	@Test
+	public void testIterationOrder()
+	{
+		final TIntBitSet set = new TIntBitSet();
+		set.addAll( new int[] { 130, 0, 64, 63, Integer.MAX_VALUE } );
+		assertEquals( 5, set.size() );
+		final int[] expected = { 0, 63, 64, 130, Integer.MAX_VALUE };
+		int i = 0;
+		for ( int v = set.nextSetBit( 0 ); v >= 0; v = set.nextSetBit( v + 1 ) )
+			assertEquals( expected[ i++ ], v );
+		assertEquals( 5, i );
+		assertEquals( expected.length, set.toArray().length );
+		assertTrue( set.remove( Integer.MAX_VALUE ) );
+		assertFalse( set.contains( -1 ) );
+	}
+
+	@Test
+	public void testCreateRefSet()
+	{
+		final TestObjectPool pool = new TestObjectPool( 10 );
+		for ( int i = 0; i < 100; ++i )
+			pool.create().init( i );
+		assertTrue( RefCollections.createRefSet( pool.asRefCollection(), 0.5 ) instanceof RefBitSet );
+		assertFalse( RefCollections.createRefSet( pool.asRefCollection(), 0.001 ) instanceof RefBitSet );
+	}
+}
@@ -0,0 +1,211 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.wrap.RefCollectionWrapper;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+public class RefCollectionForEachTest
+{
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	private final int[] order = { 7, 2, 9, 0, 4 };
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( 10 );
+		objs = new ArrayList<>();
+		for ( int i = 0; i < 10; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+	}
+
+	private < C extends RefCollection< TestObject > > C fill( final C collection )
+	{
+		for ( final int i : order )
+			collection.add( objs.get( i ) );
+		return collection;
+	}
+
+	/**
+	 * Checks that {@code forEachIndex}, {@code indexStream} and
+	 * {@code forEach(ref, action)} visit the elements in iteration order.
+	 */
+	private static void assertConsistent( final RefCollection< TestObject > collection )
+	{
+		final TIntArrayList expected = new TIntArrayList();
+		for ( final TestObject o : collection )
+			expected.add( o.getInternalPoolIndex() );
+
+		final TIntArrayList indices = new TIntArrayList();
+		collection.forEachIndex( indices::add );
+		assertEquals( expected, indices );
+
+		assertArrayEquals( expected.toArray(), collection.indexStream().toArray() );
+
+		final TestObject ref = collection.createRef();
+		final TIntArrayList visited = new TIntArrayList();
+		collection.forEach( ref, o -> {
+			assertSame( ref, o );
+			visited.add( o.getInternalPoolIndex() );
+		} );
+		assertEquals( expected, visited );
+		collection.releaseRef( ref );
+	}
+
+	@Test
+	public void testIntBackedCollections()
+	{
+		assertConsistent( fill( new RefArrayList<>( pool ) ) );
+		assertConsistent( fill( new RefSetImp<>( pool ) ) );
+		assertConsistent( fill( new RefBitSet<>( pool ) ) );
+		assertConsistent( fill( new RefArrayDeque<>( pool ) ) );
+		assertConsistent( fill( new RefLinkedQueue<>( pool ) ) );
+		assertConsistent( fill( new ConcurrentRefSet<>( pool ) ) );
+	}
+
+	@Test
+	public void testOtherPoolBackedCollections()
+	{
+		assertConsistent( RefCollections.freeze( fill( new RefArrayList<>( pool ) ) ) );
+		assertConsistent( ( ( ImmutableRefList< TestObject > ) RefCollections.freeze( fill( new RefArrayList<>( pool ) ) ) ).subList( 1, 4 ) );
+		assertConsistent( RefCollections.freeze( fill( new RefSetImp<>( pool ) ) ) );
+
+		final RefIndexedPriorityQueue< TestObject > queue = new RefIndexedPriorityQueue<>( pool, 10 );
+		for ( final int i : order )
+			queue.offer( objs.get( i ), -i );
+		assertConsistent( queue );
+
+		final RefRefHashMap< TestObject, TestObject > map = new RefRefHashMap<>( pool, pool );
+		for ( final int i : order )
+			map.put( objs.get( i ), objs.get( 9 - i ) );
+		assertConsistent( map.keySet() );
+		assertConsistent( map.values() );
+	}
+
+	@Test
+	public void testWrappedCollection()
+	{
+		final RefCollection< TestObject > wrapped = new RefCollectionWrapper<>( new ArrayList< TestObject >() );
+		fill( wrapped );
+		final List< TestObject > visited = new ArrayList<>();
+		wrapped.forEach( null, visited::add );
+		assertEquals( 5, visited.size() );
+		assertEquals( 7, visited.get( 0 ).getId() );
+		try
+		{
+			wrapped.forEachIndex( i -> {} );
+			fail( "expected UnsupportedOperationException" );
+		}
+		catch ( final UnsupportedOperationException e )
+		{}
+	}
+
+	@Test
+	public void testForEachIndexEntry()
+	{
+		final RefIntHashMap< TestObject > intMap = new RefIntHashMap<>( pool, -1 );
+		final RefIntAdaptiveMap< TestObject > adaptiveMap = new RefIntAdaptiveMap<>( pool, -1 );
+		final RefDoubleHashMap< TestObject > doubleMap = new RefDoubleHashMap<>( pool, Double.NaN );
+		final RefRefHashMap< TestObject, TestObject > refMap = new RefRefHashMap<>( pool, pool );
+		for ( final int i : order )
+		{
+			intMap.put( objs.get( i ), 10 * i );
+			adaptiveMap.put( objs.get( i ), 10 * i );
+			doubleMap.put( objs.get( i ), 0.5 * i );
+			refMap.put( objs.get( i ), objs.get( 9 - i ) );
+		}
+
+		final TIntIntHashMap expectedInt = new TIntIntHashMap();
+		final TIntDoubleHashMap expectedDouble = new TIntDoubleHashMap();
+		final TIntIntHashMap expectedRef = new TIntIntHashMap();
+		for ( final int i : order )
+		{
+			final int key = objs.get( i ).getInternalPoolIndex();
+			expectedInt.put( key, 10 * i );
+			expectedDouble.put( key, 0.5 * i );
+			expectedRef.put( key, objs.get( 9 - i ).getInternalPoolIndex() );
+		}
+
+		final TIntIntHashMap actualInt = new TIntIntHashMap();
+		assertTrue( intMap.forEachIndexEntry( ( k, v ) -> {
+			actualInt.put( k, v );
+			return true;
+		} ) );
+		assertEquals( expectedInt, actualInt );
+
+		actualInt.clear();
+		adaptiveMap.forEachIndexEntry( ( k, v ) -> {
+			actualInt.put( k, v );
+			return true;
+		} );
+		assertEquals( expectedInt, actualInt );
+
+		final TIntDoubleHashMap actualDouble = new TIntDoubleHashMap();
+		doubleMap.forEachIndexEntry( ( k, v ) -> {
+			actualDouble.put( k, v );
+			return true;
+		} );
+		assertEquals( expectedDouble, actualDouble );
+
+		final TIntIntHashMap actualRef = new TIntIntHashMap();
+		refMap.forEachIndexEntry( ( k, v ) -> {
+			actualRef.put( k, v );
+			return true;
+		} );
+		assertEquals( expectedRef, actualRef );
+
+		// early termination
+		final HashSet< Integer > seen = new HashSet<>();
+		assertFalse( intMap.forEachIndexEntry( ( k, v ) -> seen.add( k ) && seen.size() < 2 ) );
+		assertEquals( 2, seen.size() );
+	}
+}
@@ -0,0 +1,188 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.mastodon.collection.util.TIntCompressedBitSet;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.set.hash.TIntHashSet;
+
+public class RefCompressedBitSetTest extends RefSetImpTest
+{
+	@Override
+	protected RefSetImp< TestObject > createSet( final TestObjectPool pool )
+	{
+		return new RefCompressedBitSet<>( pool );
+	}
+
+	/**
+	 * Fill sets with a mix of sparse blocks (array containers), dense blocks
+	 * (bitmap containers), and contiguous ranges (run containers).
+	 */
+	private static void fill( final Random random, final TIntCompressedBitSet set, final TIntHashSet expected )
+	{
+		for ( int i = 0; i < 3000; ++i )
+		{
+			final int v = random.nextInt( 1 << 20 );
+			assertEquals( expected.add( v ), set.add( v ) );
+		}
+		final int dense = random.nextInt( 16 ) << 16;
+		for ( int i = 0; i < 20000; ++i )
+		{
+			final int v = dense + random.nextInt( 1 << 16 );
+			assertEquals( expected.add( v ), set.add( v ) );
+		}
+		final int start = random.nextInt( 1 << 20 );
+		for ( int v = start; v < start + 70000; ++v )
+			assertEquals( expected.add( v ), set.add( v ) );
+	}
+
+	@Test
+	public void testSetAlgebra()
+	{
+		final Random random = new Random( 1 );
+		for ( int round = 0; round < 4; ++round )
+		{
+			final TIntCompressedBitSet a = new TIntCompressedBitSet();
+			final TIntCompressedBitSet b = new TIntCompressedBitSet();
+			final TIntHashSet ha = new TIntHashSet();
+			final TIntHashSet hb = new TIntHashSet();
+			fill( random, a, ha );
+			fill( random, b, hb );
+			if ( round % 2 == 1 )
+			{
+				a.runOptimize();
+				b.runOptimize();
+			}
+			assertEquals( ha, a );
+			assertEquals( a, ha );
+			assertEquals( ha.hashCode(), a.hashCode() );
+
+			final TIntHashSet hunion = new TIntHashSet( ha );
+			hunion.addAll( hb );
+			assertEquals( hunion, TIntCompressedBitSet.or( a, b ) );
+
+			final TIntHashSet hintersection = new TIntHashSet( ha );
+			hintersection.retainAll( hb );
+			assertEquals( hintersection, TIntCompressedBitSet.and( a, b ) );
+			assertEquals( hintersection.size(), TIntCompressedBitSet.andCardinality( a, b ) );
+
+			final TIntHashSet hdifference = new TIntHashSet( ha );
+			hdifference.removeAll( hb );
+			assertEquals( hdifference, TIntCompressedBitSet.andNot( a, b ) );
+
+			final TIntCompressedBitSet c = new TIntCompressedBitSet( a );
+			assertTrue( c.addAll( b ) );
+			assertEquals( hunion, c );
+			assertTrue( c.containsAll( b ) );
+			assertFalse( b.containsAll( c ) );
+			assertTrue( c.retainAll( b ) );
+			assertEquals( hb, c );
+			assertTrue( c.removeAll( a ) );
+			final TIntHashSet hbWithoutA = new TIntHashSet( hb );
+			hbWithoutA.removeAll( ha );
+			assertEquals( hbWithoutA, c );
+
+			// operands are unchanged, and do not share state with results
+			assertEquals( ha, a );
+			assertEquals( hb, b );
+		}
+	}
+
+	@Test
+	public void testIteration()
+	{
+		final Random random = new Random( 2 );
+		final TIntCompressedBitSet set = new TIntCompressedBitSet();
+		final TIntHashSet expected = new TIntHashSet();
+		fill( random, set, expected );
+		set.runOptimize();
+
+		final int[] sorted = expected.toArray();
+		Arrays.sort( sorted );
+		final TIntIterator it = set.iterator();
+		for ( final int v : sorted )
+			assertEquals( v, it.next() );
+		assertFalse( it.hasNext() );
+
+		// remove every other element while iterating
+		int i = 0;
+		for ( final TIntIterator it2 = set.iterator(); it2.hasNext(); ++i )
+		{
+			final int v = it2.next();
+			if ( i % 2 == 0 )
+			{
+				it2.remove();
+				expected.remove( v );
+			}
+		}
+		assertEquals( expected, set );
+		assertEquals( expected.size(), set.size() );
+	}
+
+	@Test
+	public void testSerialization() throws IOException
+	{
+		final Random random = new Random( 3 );
+		final TIntCompressedBitSet set = new TIntCompressedBitSet();
+		final TIntHashSet expected = new TIntHashSet();
+		fill( random, set, expected );
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		set.write( new DataOutputStream( bytes ) );
+		// the 70000-element range must be stored as runs
+		assertTrue( bytes.size() < 3000 * 2 + 8192 * 2 + 1000 );
+
+		final TIntCompressedBitSet read = TIntCompressedBitSet.read( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+		assertEquals( expected, read );
+		assertEquals( expected.size(), read.size() );
+
+		// read sets can be modified
+		for ( final int v : expected.toArray() )
+			if ( v % 3 == 0 )
+				assertTrue( read.remove( v ) );
+		assertTrue( read.add( 1 << 24 ) );
+		assertEquals( 1 << 24, read.nextSetBit( ( 1 << 24 ) - 5 ) );
+	}
+}
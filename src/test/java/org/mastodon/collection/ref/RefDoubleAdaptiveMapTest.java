@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.collection.RefDoubleMap;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class RefDoubleAdaptiveMapTest extends RefDoubleMapAbstractTest
+{
+	@Override
+	protected RefDoubleMap< TestObject > createMap( final TestObjectPool pool, final double noEntryValue )
+	{
+		return new RefDoubleAdaptiveMap<>( pool, noEntryValue );
+	}
+
+	private static List< TestObject > createObjects( final TestObjectPool pool, final int n )
+	{
+		final List< TestObject > objs = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+			objs.add( pool.create().init( i ) );
+		return objs;
+	}
+
+	private static void assertMappings( final RefDoubleAdaptiveMap< TestObject > map, final List< TestObject > objs, final int from, final int to )
+	{
+		assertEquals( "Unexpected map size.", to - from, map.size() );
+		for ( int i = 0; i < objs.size(); i++ )
+		{
+			final TestObject o = objs.get( i );
+			if ( i >= from && i < to )
+				assertEquals( "Unexpected value for key " + o, 0.5 * i, map.get( o ), 0. );
+			else
+				assertFalse( "Unexpected mapping for key " + o, map.containsKey( o ) );
+		}
+	}
+
+	@Test
+	public void testSwitchToArrayAndBack()
+	{
+		final TestObjectPool pool = new TestObjectPool( 100 );
+		final List< TestObject > objs = createObjects( pool, 100 );
+		final RefDoubleAdaptiveMap< TestObject > map = new RefDoubleAdaptiveMap<>( pool, -1 );
+
+		for ( int i = 0; i < 63; i++ )
+			map.put( objs.get( i ), 0.5 * i );
+		assertFalse( "Map below the minimum array size should be hash-backed.", map.isArrayBacked() );
+		assertMappings( map, objs, 0, 63 );
+
+		map.put( objs.get( 63 ), 31.5 );
+		assertTrue( "Densely filled map should have switched to array backing.", map.isArrayBacked() );
+		assertMappings( map, objs, 0, 64 );
+
+		for ( int i = 0; i < 60; i++ )
+			map.remove( objs.get( i ) );
+		assertTrue( "Map at the hash fill ratio should still be array-backed.", map.isArrayBacked() );
+		assertMappings( map, objs, 60, 64 );
+
+		map.remove( objs.get( 60 ) );
+		assertFalse( "Sparsely filled map should have switched back to hash backing.", map.isArrayBacked() );
+		assertMappings( map, objs, 61, 64 );
+	}
+
+	@Test
+	public void testSwitchToHashOnLargeKey()
+	{
+		final TestObjectPool pool = new TestObjectPool( 2000 );
+		final List< TestObject > objs = createObjects( pool, 2000 );
+		final RefDoubleAdaptiveMap< TestObject > map = new RefDoubleAdaptiveMap<>( pool, -1 );
+
+		for ( int i = 0; i < 64; i++ )
+			map.put( objs.get( i ), 0.5 * i );
+		assertTrue( "Densely filled map should be array-backed.", map.isArrayBacked() );
+
+		final TestObject large = objs.get( 1999 );
+		map.put( large, 999.5 );
+		assertFalse( "Adding a much larger key should have switched to hash backing.", map.isArrayBacked() );
+		assertEquals( "Unexpected map size.", 65, map.size() );
+		assertEquals( "Unexpected value for key " + large, 999.5, map.get( large ), 0. );
+		for ( int i = 0; i < 64; i++ )
+			assertEquals( "Unexpected value for key " + objs.get( i ), 0.5 * i, map.get( objs.get( i ) ), 0. );
+	}
+
+	@Test
+	public void testCopyKeepsBacking()
+	{
+		final TestObjectPool pool = new TestObjectPool( 100 );
+		final List< TestObject > objs = createObjects( pool, 100 );
+		final RefDoubleAdaptiveMap< TestObject > map = new RefDoubleAdaptiveMap<>( pool, -1 );
+		for ( int i = 0; i < 64; i++ )
+			map.put( objs.get( i ), 0.5 * i );
+
+		final RefDoubleAdaptiveMap< TestObject > copy = new RefDoubleAdaptiveMap<>( map );
+		assertTrue( "Copy of an array-backed map should be array-backed.", copy.isArrayBacked() );
+		assertEquals( "Copy should equal the original.", map, copy );
+		assertMappings( copy, objs, 0, 64 );
+
+		copy.clear();
+		assertEquals( "Clearing the copy should not affect the original.", 64, map.size() );
+	}
+}
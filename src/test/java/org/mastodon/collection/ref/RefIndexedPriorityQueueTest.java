@@ -0,0 +1,190 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.ref;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+import gnu.trove.map.hash.TIntDoubleHashMap;
+
+public class RefIndexedPriorityQueueTest
+{
+	private static TestObjectPool createPool( final int n )
+	{
+		final TestObjectPool pool = new TestObjectPool( n );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < n; ++i )
+			pool.create( ref ).init( i );
+		pool.releaseRef( ref );
+		return pool;
+	}
+
+	/**
+	 * Returns the smallest priority in {@code expected}.
+	 */
+	private static double minPriority( final TIntDoubleHashMap expected )
+	{
+		double min = Double.POSITIVE_INFINITY;
+		for ( final double p : expected.values() )
+			min = Math.min( min, p );
+		return min;
+	}
+
+	private static void testRandomOperations( final int arity )
+	{
+		final int n = 500;
+		final TestObjectPool pool = createPool( n );
+		// small initial capacity, to exercise growing
+		final RefIndexedPriorityQueue< TestObject > queue = new RefIndexedPriorityQueue<>( pool, 10, arity );
+		final TIntDoubleHashMap expected = new TIntDoubleHashMap();
+		final TestObject ref = pool.createRef();
+		final TestObject ref2 = pool.createRef();
+		final Random random = new Random( arity );
+		for ( int i = 0; i < 100000; ++i )
+		{
+			final int id = random.nextInt( n );
+			final TestObject o = pool.getObject( id, ref );
+			final double priority = random.nextInt( 1000 );
+			switch ( random.nextInt( 6 ) )
+			{
+			case 0:
+				assertEquals( !expected.containsKey( id ), queue.offer( o, priority ) );
+				if ( !expected.containsKey( id ) )
+					expected.put( id, priority );
+				break;
+			case 1:
+			{
+				final boolean decrease = expected.containsKey( id ) && priority < expected.get( id );
+				assertEquals( decrease, queue.decreaseKey( o, priority ) );
+				if ( decrease )
+					expected.put( id, priority );
+				break;
+			}
+			case 2:
+				queue.update( o, priority );
+				expected.put( id, priority );
+				break;
+			case 3:
+				assertEquals( expected.containsKey( id ), queue.remove( o ) );
+				expected.remove( id );
+				break;
+			case 4:
+				if ( expected.isEmpty() )
+					assertNull( queue.poll( ref2 ) );
+				else
+				{
+					final double min = minPriority( expected );
+					assertEquals( min, queue.peekPriority(), 0 );
+					final TestObject head = queue.poll( ref2 );
+					assertEquals( min, expected.remove( head.getInternalPoolIndex() ), 0 );
+				}
+				break;
+			case 5:
+				assertEquals( expected.containsKey( id ), queue.contains( o ) );
+				if ( expected.containsKey( id ) )
+					assertEquals( expected.get( id ), queue.getPriority( o ), 0 );
+				else
+					assertTrue( Double.isNaN( queue.getPriority( o ) ) );
+				break;
+			}
+			assertEquals( expected.size(), queue.size() );
+		}
+
+		// draining yields non-decreasing priorities
+		double previous = Double.NEGATIVE_INFINITY;
+		while ( !queue.isEmpty() )
+		{
+			final double p = queue.peekPriority();
+			assertTrue( p >= previous );
+			previous = p;
+			final TestObject head = queue.poll( ref2 );
+			assertEquals( p, expected.remove( head.getInternalPoolIndex() ), 0 );
+		}
+		assertTrue( expected.isEmpty() );
+		assertTrue( Double.isNaN( queue.peekPriority() ) );
+	}
+
+	@Test
+	public void testRandomOperationsBinary()
+	{
+		testRandomOperations( 2 );
+	}
+
+	@Test
+	public void testRandomOperationsQuaternary()
+	{
+		testRandomOperations( 4 );
+	}
+
+	@Test
+	public void testRandomOperationsOctonary()
+	{
+		testRandomOperations( 8 );
+	}
+
+	@Test
+	public void testClearAndIterate()
+	{
+		final TestObjectPool pool = createPool( 100 );
+		final RefIndexedPriorityQueue< TestObject > queue = new RefIndexedPriorityQueue<>( pool, 100 );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 100; i += 2 )
+			queue.offer( pool.getObject( i, ref ), -i );
+		int count = 0;
+		for ( final TestObject o : queue )
+		{
+			assertEquals( 0, o.getInternalPoolIndex() % 2 );
+			++count;
+		}
+		assertEquals( 50, count );
+		assertEquals( 50, queue.toArray().length );
+		assertEquals( 98, queue.peek( ref ).getInternalPoolIndex() );
+
+		queue.clear();
+		assertTrue( queue.isEmpty() );
+		assertFalse( queue.contains( pool.getObject( 98, ref ) ) );
+		assertTrue( queue.offer( pool.getObject( 98, ref ), 1 ) );
+		assertEquals( 1, queue.size() );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testNaNPriority()
+	{
+		final TestObjectPool pool = createPool( 1 );
+		new RefIndexedPriorityQueue<>( pool, 1 ).offer( pool.getObject( 0, pool.createRef() ), Double.NaN );
+	}
+}
@@ -55,6 +55,11 @@ public class RefSetImpTest
 
 	private int[] storedIds;
 
+	protected RefSetImp< TestObject > createSet( final TestObjectPool pool )
+	{
+		return new RefSetImp<>( pool );
+	}
+
 	@Before
 	public void setUp() throws Exception
 	{
@@ -66,7 +71,7 @@ public class RefSetImpTest
 			list.add( pool.create( pool.createRef() ).init( i ) );
 		}
 		// Add half of it to the set.
-		set = new RefSetImp<>( pool );
+		set = createSet( pool );
 		storedIds = new int[ 5 ];
 		for ( int i = 0; i < list.size(); i = i + 2 )
 		{
@@ -176,7 +181,7 @@ public class RefSetImpTest
 		assertFalse( "Set should not be empty.", set.isEmpty() );
 		set.clear();
 		assertTrue( "Cleared set should be empty.", set.isEmpty() );
-		assertTrue( "New set should be empty.", new RefSetImp<>( pool ).isEmpty() );
+		assertTrue( "New set should be empty.", createSet( pool ).isEmpty() );
 	}
 
 	@Test
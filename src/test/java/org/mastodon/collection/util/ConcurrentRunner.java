@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a task in several threads at once, for tests of concurrent
+ * collections.
+ */
+public final class ConcurrentRunner
+{
+	public static final int NUM_THREADS = 8;
+
+	public interface ThreadTask< T >
+	{
+		T run( int thread ) throws Exception;
+	}
+
+	/**
+	 * Runs {@code task} in {@link #NUM_THREADS} threads, passing the thread
+	 * number, and returns the results.
+	 */
+	public static < T > List< T > runConcurrently( final ThreadTask< T > task ) throws Exception
+	{
+		final ExecutorService executor = Executors.newFixedThreadPool( NUM_THREADS );
+		try
+		{
+			final List< Future< T > > futures = new ArrayList<>();
+			for ( int t = 0; t < NUM_THREADS; ++t )
+			{
+				final int thread = t;
+				futures.add( executor.submit( ( Callable< T > ) () -> task.run( thread ) ) );
+			}
+			final List< T > results = new ArrayList<>();
+			for ( final Future< T > future : futures )
+				results.add( future.get() );
+			return results;
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	private ConcurrentRunner()
+	{}
+}
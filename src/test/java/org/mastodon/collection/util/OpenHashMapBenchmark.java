@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * Compares {@link TIntIntOpenHashMap} against Trove's {@link TIntIntHashMap}
+ * for put, get, remove, and iteration, with keys that look like pool indices:
+ * a random subset of {@code [0, 4 * size)}.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1000, timeUnit = TimeUnit.MILLISECONDS )
+@Measurement( iterations = 5, time = 1000, timeUnit = TimeUnit.MILLISECONDS )
+@State( Scope.Benchmark )
+public class OpenHashMapBenchmark
+{
+	@Param( { "1000", "1000000" } )
+	public int size;
+
+	@Param( { "trove", "open" } )
+	public String implementation;
+
+	private int[] keys;
+
+	private int[] misses;
+
+	private TIntIntMap filled;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		final Random random = new Random( 1 );
+		keys = new int[ size ];
+		misses = new int[ size ];
+		for ( int i = 0; i < size; ++i )
+		{
+			keys[ i ] = random.nextInt( 4 * size );
+			misses[ i ] = 4 * size + random.nextInt( 4 * size );
+		}
+		filled = createMap();
+		for ( final int key : keys )
+			filled.put( key, key );
+	}
+
+	private TIntIntMap createMap()
+	{
+		return implementation.equals( "trove" )
+				? new TIntIntHashMap( 10, 0.5f, -1, -1 )
+				: new TIntIntOpenHashMap( 10, 0.5f, -1, -1 );
+	}
+
+	@Benchmark
+	public TIntIntMap put()
+	{
+		final TIntIntMap map = createMap();
+		for ( final int key : keys )
+			map.put( key, key );
+		return map;
+	}
+
+	@Benchmark
+	public int getHit()
+	{
+		int sum = 0;
+		for ( final int key : keys )
+			sum += filled.get( key );
+		return sum;
+	}
+
+	@Benchmark
+	public int getMiss()
+	{
+		int sum = 0;
+		for ( final int key : misses )
+			sum += filled.get( key );
+		return sum;
+	}
+
+	@Benchmark
+	public TIntIntMap putRemove()
+	{
+		final TIntIntMap map = createMap();
+		for ( final int key : keys )
+			map.put( key, key );
+		for ( final int key : keys )
+			map.remove( key );
+		return map;
+	}
+
+	@Benchmark
+	public int iterate()
+	{
+		int sum = 0;
+		for ( final TIntIntIterator it = filled.iterator(); it.hasNext(); )
+		{
+			it.advance();
+			sum += it.key() + it.value();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int forEachEntry()
+	{
+		final int[] sum = { 0 };
+		filled.forEachEntry( ( key, value ) -> {
+			sum[ 0 ] += key + value;
+			return true;
+		} );
+		return sum[ 0 ];
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options options = new OptionsBuilder().include( OpenHashMapBenchmark.class.getName() ).build();
+		new Runner( options ).run();
+	}
+}
@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ParallelSortTest
+{
+	/**
+	 * Sorts {@code keys} with a stable reference sort and checks that
+	 * {@link ParallelSort} produces the same keys and values.
+	 */
+	private static void checkIntSort( final int[] keys )
+	{
+		final int n = keys.length;
+		final Integer[] order = new Integer[ n ];
+		for ( int i = 0; i < n; ++i )
+			order[ i ] = i;
+		Arrays.sort( order, Comparator.comparingInt( i -> keys[ i ] ) );
+
+		final int[] sortedKeys = keys.clone();
+		final int[] values = new int[ n ];
+		Arrays.setAll( values, i -> i );
+		ParallelSort.sort( sortedKeys, values );
+		for ( int i = 0; i < n; ++i )
+		{
+			assertEquals( order[ i ].intValue(), values[ i ] );
+			assertEquals( keys[ order[ i ] ], sortedKeys[ i ] );
+		}
+	}
+
+	private static void checkDoubleSort( final double[] keys )
+	{
+		final int n = keys.length;
+		final Integer[] order = new Integer[ n ];
+		for ( int i = 0; i < n; ++i )
+			order[ i ] = i;
+		Arrays.sort( order, ( i, j ) -> Double.compare( keys[ i ], keys[ j ] ) );
+
+		final double[] sortedKeys = keys.clone();
+		final int[] values = new int[ n ];
+		Arrays.setAll( values, i -> i );
+		ParallelSort.sort( sortedKeys, values );
+		for ( int i = 0; i < n; ++i )
+		{
+			assertEquals( order[ i ].intValue(), values[ i ] );
+			assertEquals( Double.doubleToLongBits( keys[ order[ i ] ] ), Double.doubleToLongBits( sortedKeys[ i ] ) );
+		}
+	}
+
+	@Test
+	public void testIntSort()
+	{
+		final Random random = new Random( 1 );
+		for ( final int n : new int[] { 0, 1, 2, 100, ParallelSort.PARALLEL_THRESHOLD - 1, 1_000_000 } )
+		{
+			// full range, including negative keys
+			checkIntSort( random.ints( n ).toArray() );
+			// small range, most digits are trivial
+			checkIntSort( random.ints( n, 0, 100 ).toArray() );
+			// many ties
+			checkIntSort( random.ints( n, -3, 3 ).toArray() );
+		}
+		checkIntSort( new int[] { Integer.MAX_VALUE, Integer.MIN_VALUE, 0, -1, 1 } );
+	}
+
+	@Test
+	public void testDoubleSort()
+	{
+		final Random random = new Random( 2 );
+		for ( final int n : new int[] { 0, 1, 2, 100, ParallelSort.PARALLEL_THRESHOLD - 1, 1_000_000 } )
+		{
+			checkDoubleSort( random.doubles( n ).map( d -> d - 0.5 ).toArray() );
+			// many ties
+			checkDoubleSort( random.ints( n, 0, 10 ).asDoubleStream().toArray() );
+		}
+		checkDoubleSort( new double[] { Double.NaN, 1, -0.0, 0.0, Double.NEGATIVE_INFINITY, -1, Double.NaN, 0.0, -0.0 } );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testLengthMismatch()
+	{
+		ParallelSort.sort( new int[ 3 ], new int[ 2 ] );
+	}
+
+	@Test
+	public void testAlreadySorted()
+	{
+		final int[] keys = new int[ 100_000 ];
+		Arrays.setAll( keys, i -> i );
+		final int[] values = keys.clone();
+		ParallelSort.sort( keys, values );
+		assertArrayEquals( keys, values );
+	}
+}
@@ -0,0 +1,173 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.collection.util.ConcurrentRunner.NUM_THREADS;
+import static org.mastodon.collection.util.ConcurrentRunner.runConcurrently;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+
+public class TIntDoubleConcurrentHashMapTest
+{
+	@Test
+	public void testRandomOperations()
+	{
+		final Random random = new Random( 2 );
+		final TIntDoubleConcurrentHashMap map = new TIntDoubleConcurrentHashMap( 4, -1, Double.NaN, 4 );
+		final TIntDoubleHashMap expected = new TIntDoubleHashMap( 4, 0.5f, -1, Double.NaN );
+		for ( int i = 0; i < 100000; ++i )
+		{
+			final int key = random.nextInt( 2000 ) - 100;
+			final double value = random.nextInt( 10 ) * 0.5;
+			switch ( random.nextInt( 6 ) )
+			{
+			case 0:
+			case 1:
+				assertEquals( expected.put( key, value ), map.put( key, value ), 0 );
+				break;
+			case 2:
+				assertEquals( expected.remove( key ), map.remove( key ), 0 );
+				break;
+			case 3:
+				assertEquals( expected.putIfAbsent( key, value ), map.putIfAbsent( key, value ), 0 );
+				break;
+			case 4:
+				assertEquals( expected.adjustOrPutValue( key, 0.5, value ), map.adjustOrPutValue( key, 0.5, value ), 0 );
+				break;
+			case 5:
+				final boolean replace = expected.containsKey( key ) && expected.get( key ) == value;
+				if ( replace )
+					expected.put( key, value + 1 );
+				assertEquals( replace, map.replace( key, value, value + 1 ) );
+				break;
+			}
+			assertEquals( expected.size(), map.size() );
+		}
+		assertEquals( expected, map );
+		assertEquals( map, expected );
+		assertEquals( expected.hashCode(), map.hashCode() );
+		assertEquals( expected.keySet(), map.keySet() );
+
+		for ( final TIntDoubleIterator it = map.iterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( it.value() < 2.5 )
+				it.remove();
+		}
+		expected.retainEntries( ( key, value ) -> value >= 2.5 );
+		assertEquals( expected, map );
+
+		map.clear();
+		assertTrue( map.isEmpty() );
+		assertTrue( Double.isNaN( map.get( 5 ) ) );
+	}
+
+	@Test
+	public void testComputeIfAbsentAndMerge()
+	{
+		final TIntDoubleConcurrentHashMap map = new TIntDoubleConcurrentHashMap( 10, -1, Double.NaN );
+		assertEquals( 2.5, map.computeIfAbsent( 5, key -> 0.5 * key ), 0 );
+		assertEquals( 2.5, map.computeIfAbsent( 5, key -> 0 ), 0 );
+		assertTrue( Double.isNaN( map.computeIfAbsent( 6, key -> Double.NaN ) ) );
+		assertFalse( map.containsKey( 6 ) );
+		assertEquals( 1.5, map.merge( 6, 1.5, Double::sum ), 0 );
+		assertEquals( 2, map.merge( 6, 0.5, Double::sum ), 0 );
+		assertFalse( map.remove( 6, 1.5 ) );
+		assertTrue( map.remove( 6, 2 ) );
+		assertEquals( 1, map.size() );
+	}
+
+	/**
+	 * Concurrent {@code adjustOrPutValue} and {@code merge} calls on shared
+	 * keys must not lose updates.
+	 */
+	@Test
+	public void testConcurrentSumming() throws Exception
+	{
+		final TIntDoubleConcurrentHashMap map = new TIntDoubleConcurrentHashMap();
+		final int numKeys = 1000;
+		final int rounds = 100;
+		runConcurrently( thread -> {
+			for ( int r = 0; r < rounds; ++r )
+				for ( int key = 0; key < numKeys; ++key )
+				{
+					if ( ( key + r ) % 2 == 0 )
+						map.adjustOrPutValue( key, 0.5, 0.5 );
+					else
+						map.merge( key, 0.5, Double::sum );
+				}
+			return null;
+		} );
+		assertEquals( numKeys, map.size() );
+		for ( int key = 0; key < numKeys; ++key )
+			assertEquals( 0.5 * NUM_THREADS * rounds, map.get( key ), 0 );
+	}
+
+	/**
+	 * Each absent key is computed exactly once, and {@code putIfAbsent}
+	 * inserts each key exactly once.
+	 */
+	@Test
+	public void testConcurrentClaims() throws Exception
+	{
+		final TIntDoubleConcurrentHashMap map = new TIntDoubleConcurrentHashMap( 10, -1, Double.NaN );
+		final int n = 100000;
+		final List< Integer > claimed = runConcurrently( thread -> {
+			final int[] count = { 0 };
+			for ( int i = 0; i < n; ++i )
+			{
+				if ( i % 2 == 0 )
+					map.computeIfAbsent( i, key -> {
+						++count[ 0 ];
+						return thread;
+					} );
+				else if ( Double.isNaN( map.putIfAbsent( i, thread ) ) )
+					++count[ 0 ];
+			}
+			return count[ 0 ];
+		} );
+		assertEquals( n, map.size() );
+		final int[] owned = new int[ NUM_THREADS ];
+		map.forEachValue( thread -> {
+			++owned[ ( int ) thread ];
+			return true;
+		} );
+		for ( int t = 0; t < NUM_THREADS; ++t )
+			assertEquals( claimed.get( t ).intValue(), owned[ t ] );
+	}
+}
@@ -0,0 +1,216 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.TIntSet;
+
+public class TIntIntAdaptiveMapTest
+{
+	private static void randomOperations( final TIntIntMap map, final TIntIntMap expected, final Random random, final int keyRange, final int n )
+	{
+		for ( int i = 0; i < n; ++i )
+		{
+			final int key = random.nextInt( keyRange );
+			final int value = random.nextInt();
+			switch ( random.nextInt( 5 ) )
+			{
+			case 0:
+			case 1:
+				assertEquals( expected.put( key, value ), map.put( key, value ) );
+				break;
+			case 2:
+				assertEquals( expected.remove( key ), map.remove( key ) );
+				break;
+			case 3:
+				assertEquals( expected.putIfAbsent( key, value ), map.putIfAbsent( key, value ) );
+				break;
+			case 4:
+				assertEquals( expected.get( key ), map.get( key ) );
+				assertEquals( expected.containsKey( key ), map.containsKey( key ) );
+				break;
+			}
+			assertEquals( expected.size(), map.size() );
+		}
+		assertEquals( expected, map );
+		assertEquals( map, expected );
+		assertEquals( expected.hashCode(), map.hashCode() );
+	}
+
+	@Test
+	public void testArrayMap()
+	{
+		final TIntIntArrayMap map = new TIntIntArrayMap( 4, -1, -2 );
+		final TIntIntHashMap expected = new TIntIntHashMap( 4, 0.5f, -1, -2 );
+		randomOperations( map, expected, new Random( 1 ), 1000, 100000 );
+		assertEquals( expected, new TIntIntArrayMap( map ) );
+		assertEquals( expected, new TIntIntArrayMap( expected ) );
+
+		// iteration is in ascending key order
+		int previous = -1;
+		for ( final TIntIntIterator it = map.iterator(); it.hasNext(); )
+		{
+			it.advance();
+			assertTrue( it.key() > previous );
+			previous = it.key();
+			if ( it.value() < 0 )
+				it.remove();
+		}
+		expected.retainEntries( ( key, value ) -> value >= 0 );
+		assertEquals( expected, map );
+
+		map.clear();
+		assertTrue( map.isEmpty() );
+		assertEquals( -2, map.get( 5 ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testArrayMapNegativeKey()
+	{
+		new TIntIntArrayMap().put( -1, 1 );
+	}
+
+	@Test
+	public void testAdaptiveMap()
+	{
+		final Random random = new Random( 2 );
+		final TIntIntAdaptiveMap map = new TIntIntAdaptiveMap( 4, -1, -2 );
+		final TIntIntHashMap expected = new TIntIntHashMap( 4, 0.5f, -1, -2 );
+
+		// sparse keys: stays hash-backed
+		randomOperations( map, expected, random, 100000, 1000 );
+		assertFalse( map.isArrayBacked() );
+
+		// dense keys: switches to array backing
+		for ( int key = 0; key < 100000; ++key )
+		{
+			map.put( key, key );
+			expected.put( key, key );
+		}
+		assertTrue( map.isArrayBacked() );
+		randomOperations( map, expected, random, 100000, 10000 );
+		assertTrue( map.isArrayBacked() );
+		assertEquals( expected, new TIntIntAdaptiveMap( map ) );
+
+		// removing most entries switches back to hash backing
+		for ( int key = 0; key < 100000; ++key )
+		{
+			if ( key % 100 != 0 )
+			{
+				map.remove( key );
+				expected.remove( key );
+			}
+		}
+		assertFalse( map.isArrayBacked() );
+		assertEquals( expected, map );
+
+		// a negative key keeps the map hash-backed
+		map.clear();
+		expected.clear();
+		assertFalse( map.isArrayBacked() );
+		randomOperations( map, expected, random, 1000, 10000 );
+		assertTrue( map.isArrayBacked() );
+		map.put( -5, 5 );
+		expected.put( -5, 5 );
+		assertFalse( map.isArrayBacked() );
+		randomOperations( map, expected, random, 1000, 10000 );
+		assertFalse( map.isArrayBacked() );
+
+		map.clear();
+		assertTrue( map.isEmpty() );
+		assertEquals( -2, map.get( 5 ) );
+	}
+
+	@Test
+	public void testAdaptiveMapViews()
+	{
+		final TIntIntAdaptiveMap map = new TIntIntAdaptiveMap();
+		final TIntIntHashMap expected = new TIntIntHashMap();
+		for ( int key = 0; key < 10; ++key )
+		{
+			map.put( key * 100, key );
+			expected.put( key * 100, key );
+		}
+		assertFalse( map.isArrayBacked() );
+		final TIntSet keys = map.keySet();
+		for ( int key = 0; key < 1000; ++key )
+		{
+			map.put( key, key );
+			expected.put( key, key );
+		}
+		assertTrue( map.isArrayBacked() );
+		assertEquals( expected.keySet(), keys );
+		assertEquals( expected.size(), map.valueCollection().size() );
+	}
+
+	@Test
+	public void testDoubleMaps()
+	{
+		final Random random = new Random( 3 );
+		final TIntDoubleMap array = new TIntDoubleArrayMap( 4, -1, Double.NaN );
+		final TIntDoubleAdaptiveMap adaptive = new TIntDoubleAdaptiveMap( 4, -1, Double.NaN );
+		final TIntDoubleHashMap expected = new TIntDoubleHashMap( 4, 0.5f, -1, Double.NaN );
+		boolean switched = false;
+		for ( int i = 0; i < 100000; ++i )
+		{
+			final int key = random.nextInt( 500 );
+			final double value = random.nextDouble();
+			if ( random.nextInt( 3 ) == 0 )
+			{
+				final double v = expected.remove( key );
+				assertEquals( v, array.remove( key ), 0 );
+				assertEquals( v, adaptive.remove( key ), 0 );
+			}
+			else
+			{
+				final double v = expected.put( key, value );
+				assertEquals( v, array.put( key, value ), 0 );
+				assertEquals( v, adaptive.put( key, value ), 0 );
+			}
+			switched |= adaptive.isArrayBacked();
+		}
+		assertTrue( switched );
+		assertEquals( expected, array );
+		assertEquals( expected, adaptive );
+		assertEquals( expected.hashCode(), array.hashCode() );
+		assertEquals( expected.hashCode(), adaptive.hashCode() );
+	}
+}
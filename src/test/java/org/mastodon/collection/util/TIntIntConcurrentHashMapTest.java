@@ -0,0 +1,290 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.collection.util.ConcurrentRunner.NUM_THREADS;
+import static org.mastodon.collection.util.ConcurrentRunner.runConcurrently;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
+public class TIntIntConcurrentHashMapTest
+{
+	@Test
+	public void testRandomOperations()
+	{
+		final Random random = new Random( 1 );
+		final TIntIntConcurrentHashMap map = new TIntIntConcurrentHashMap( 4, -1, -2, 4 );
+		final TIntIntHashMap expected = new TIntIntHashMap( 4, 0.5f, -1, -2 );
+		for ( int i = 0; i < 100000; ++i )
+		{
+			final int key = random.nextInt( 2000 ) - 100;
+			final int value = random.nextInt( 10 );
+			switch ( random.nextInt( 6 ) )
+			{
+			case 0:
+			case 1:
+				assertEquals( expected.put( key, value ), map.put( key, value ) );
+				break;
+			case 2:
+				assertEquals( expected.remove( key ), map.remove( key ) );
+				break;
+			case 3:
+				assertEquals( expected.putIfAbsent( key, value ), map.putIfAbsent( key, value ) );
+				break;
+			case 4:
+				assertEquals( expected.adjustOrPutValue( key, 3, value ), map.adjustOrPutValue( key, 3, value ) );
+				break;
+			case 5:
+				final boolean replace = expected.containsKey( key ) && expected.get( key ) == value;
+				if ( replace )
+					expected.put( key, value + 1 );
+				assertEquals( replace, map.replace( key, value, value + 1 ) );
+				break;
+			}
+			assertEquals( expected.size(), map.size() );
+		}
+		assertEquals( expected, map );
+		assertEquals( map, expected );
+		assertEquals( expected.hashCode(), map.hashCode() );
+		assertEquals( expected.keySet(), map.keySet() );
+
+		for ( final TIntIntIterator it = map.iterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( it.value() < 5 )
+				it.remove();
+		}
+		expected.retainEntries( ( key, value ) -> value >= 5 );
+		assertEquals( expected, map );
+		map.put( 5000, 12345 );
+		assertTrue( map.valueCollection().remove( 12345 ) );
+		assertFalse( map.valueCollection().remove( 12345 ) );
+		assertEquals( expected, map );
+
+		map.clear();
+		assertTrue( map.isEmpty() );
+		assertEquals( -2, map.get( 5 ) );
+	}
+
+	@Test
+	public void testComputeIfAbsentAndMerge()
+	{
+		final TIntIntConcurrentHashMap map = new TIntIntConcurrentHashMap( 10, -1, -1 );
+		assertEquals( 10, map.computeIfAbsent( 5, key -> 2 * key ) );
+		assertEquals( 10, map.computeIfAbsent( 5, key -> 0 ) );
+		assertEquals( -1, map.computeIfAbsent( 6, key -> -1 ) );
+		assertFalse( map.containsKey( 6 ) );
+		assertEquals( 3, map.merge( 6, 3, Integer::sum ) );
+		assertEquals( 7, map.merge( 6, 4, Integer::sum ) );
+		assertFalse( map.remove( 6, 3 ) );
+		assertTrue( map.remove( 6, 7 ) );
+		assertEquals( 1, map.size() );
+	}
+
+	@Test
+	public void testComputeAndReplace()
+	{
+		final TIntIntConcurrentHashMap map = new TIntIntConcurrentHashMap( 10, -1, -1 );
+		assertEquals( -1, map.replace( 5, 1 ) );
+		assertFalse( map.containsKey( 5 ) );
+		assertEquals( -1, map.computeIfPresent( 5, ( key, value ) -> 1 ) );
+		assertFalse( map.containsKey( 5 ) );
+		assertEquals( 5, map.compute( 5, ( key, value ) -> value == -1 ? key : value + 1 ) );
+		assertEquals( 6, map.compute( 5, ( key, value ) -> value == -1 ? key : value + 1 ) );
+		assertEquals( 6, map.replace( 5, 2 ) );
+		assertEquals( 12, map.computeIfPresent( 5, ( key, value ) -> value * 6 ) );
+		assertEquals( -1, map.computeIfPresent( 5, ( key, value ) -> -1 ) );
+		assertFalse( map.containsKey( 5 ) );
+		assertEquals( -1, map.compute( 6, ( key, value ) -> -1 ) );
+		assertTrue( map.isEmpty() );
+	}
+
+	@Test
+	public void testSet()
+	{
+		final Random random = new Random( 3 );
+		final TIntConcurrentHashSet set = new TIntConcurrentHashSet( 4, -1, 4 );
+		final TIntHashSet expected = new TIntHashSet();
+		for ( int i = 0; i < 100000; ++i )
+		{
+			final int value = random.nextInt( 2000 ) - 100;
+			if ( random.nextBoolean() )
+				assertEquals( expected.add( value ), set.add( value ) );
+			else
+				assertEquals( expected.remove( value ), set.remove( value ) );
+			assertEquals( expected.size(), set.size() );
+		}
+		assertEquals( expected, set );
+		assertEquals( set, expected );
+		assertEquals( expected.hashCode(), set.hashCode() );
+		final int[] dest = set.toArray( new int[ set.size() + 1 ] );
+		assertEquals( -1, dest[ set.size() ] );
+		for ( final TIntIterator it = set.iterator(); it.hasNext(); )
+			if ( it.next() % 2 == 0 )
+				it.remove();
+		for ( final TIntIterator it = expected.iterator(); it.hasNext(); )
+			if ( it.next() % 2 == 0 )
+				it.remove();
+		assertEquals( expected, set );
+	}
+
+	/**
+	 * Concurrent {@code adjustOrPutValue} calls on shared keys must not lose
+	 * updates.
+	 */
+	@Test
+	public void testConcurrentCounting() throws Exception
+	{
+		final TIntIntConcurrentHashMap map = new TIntIntConcurrentHashMap();
+		final int numKeys = 1000;
+		final int rounds = 200;
+		runConcurrently( thread -> {
+			for ( int r = 0; r < rounds; ++r )
+				for ( int key = 0; key < numKeys; ++key )
+					map.adjustOrPutValue( key, 1, 1 );
+			return null;
+		} );
+		assertEquals( numKeys, map.size() );
+		for ( int key = 0; key < numKeys; ++key )
+			assertEquals( NUM_THREADS * rounds, map.get( key ) );
+	}
+
+	/**
+	 * Concurrent {@code compute} and {@code merge} calls on shared keys must
+	 * not lose updates.
+	 */
+	@Test
+	public void testConcurrentComputeAndMerge() throws Exception
+	{
+		final TIntIntConcurrentHashMap map = new TIntIntConcurrentHashMap( 10, -1, -1 );
+		final int numKeys = 1000;
+		final int rounds = 100;
+		runConcurrently( thread -> {
+			for ( int r = 0; r < rounds; ++r )
+				for ( int key = 0; key < numKeys; ++key )
+				{
+					if ( ( key + r ) % 2 == 0 )
+						map.compute( key, ( k, value ) -> value == -1 ? 1 : value + 1 );
+					else
+						map.merge( key, 1, Integer::sum );
+				}
+			return null;
+		} );
+		assertEquals( numKeys, map.size() );
+		for ( int key = 0; key < numKeys; ++key )
+			assertEquals( NUM_THREADS * rounds, map.get( key ) );
+	}
+
+	/**
+	 * Each element is claimed by exactly one thread, and each absent key is
+	 * computed exactly once.
+	 */
+	@Test
+	public void testConcurrentClaims() throws Exception
+	{
+		final TIntConcurrentHashSet visited = new TIntConcurrentHashSet();
+		final TIntIntConcurrentHashMap owner = new TIntIntConcurrentHashMap( 10, -1, -1 );
+		final int n = 100000;
+		final List< Integer > claimed = runConcurrently( thread -> {
+			int count = 0;
+			for ( int i = 0; i < n; ++i )
+			{
+				if ( visited.add( i ) )
+					++count;
+				owner.computeIfAbsent( i, key -> thread );
+			}
+			return count;
+		} );
+		assertEquals( n, claimed.stream().mapToInt( Integer::intValue ).sum() );
+		assertEquals( n, visited.size() );
+		final int[] owned = new int[ NUM_THREADS ];
+		owner.forEachValue( thread -> {
+			++owned[ thread ];
+			return true;
+		} );
+		int sum = 0;
+		for ( final int o : owned )
+			sum += o;
+		assertEquals( n, sum );
+	}
+
+	/**
+	 * Iterating while other threads modify the map sees every entry that is
+	 * never modified, and does not fail.
+	 */
+	@Test
+	public void testWeaklyConsistentIteration() throws Exception
+	{
+		final TIntIntConcurrentHashMap map = new TIntIntConcurrentHashMap();
+		final int numStable = 10000;
+		for ( int key = 0; key < numStable; ++key )
+			map.put( key, key );
+		runConcurrently( thread -> {
+			if ( thread % 2 == 0 )
+			{
+				final Random random = new Random( thread );
+				for ( int i = 0; i < 200000; ++i )
+				{
+					final int key = numStable + random.nextInt( 10000 );
+					if ( random.nextBoolean() )
+						map.put( key, key );
+					else
+						map.remove( key );
+				}
+			}
+			else
+			{
+				for ( int round = 0; round < 20; ++round )
+				{
+					final TIntHashSet seen = new TIntHashSet();
+					for ( final TIntIntIterator it = map.iterator(); it.hasNext(); )
+					{
+						it.advance();
+						assertEquals( it.key(), it.value() );
+						seen.add( it.key() );
+					}
+					for ( int key = 0; key < numStable; ++key )
+						assertTrue( seen.contains( key ) );
+				}
+			}
+			return null;
+		} );
+	}
+}
@@ -0,0 +1,204 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+public class TIntIntOpenHashMapTest
+{
+	@Test
+	public void testRandomOperations()
+	{
+		final Random random = new Random( 1 );
+		final TIntIntOpenHashMap map = new TIntIntOpenHashMap( 4, 0.5f, -1, -2 );
+		final TIntIntHashMap expected = new TIntIntHashMap( 4, 0.5f, -1, -2 );
+		for ( int i = 0; i < 200000; ++i )
+		{
+			// small key range to provoke collisions, removals, and key 0
+			final int key = random.nextInt( 2000 ) - 100;
+			final int value = random.nextInt();
+			switch ( random.nextInt( 6 ) )
+			{
+			case 0:
+			case 1:
+				assertEquals( expected.put( key, value ), map.put( key, value ) );
+				break;
+			case 2:
+				assertEquals( expected.remove( key ), map.remove( key ) );
+				break;
+			case 3:
+				assertEquals( expected.putIfAbsent( key, value ), map.putIfAbsent( key, value ) );
+				break;
+			case 4:
+				assertEquals( expected.adjustOrPutValue( key, 3, value ), map.adjustOrPutValue( key, 3, value ) );
+				break;
+			case 5:
+				assertEquals( expected.get( key ), map.get( key ) );
+				assertEquals( expected.containsKey( key ), map.containsKey( key ) );
+				break;
+			}
+			assertEquals( expected.size(), map.size() );
+		}
+		assertEquals( expected, map );
+		assertEquals( map, expected );
+		assertEquals( expected.hashCode(), map.hashCode() );
+		assertEquals( expected, new TIntIntOpenHashMap( map ) );
+
+		final int[] keys = map.keys();
+		final int[] expectedKeys = expected.keys();
+		Arrays.sort( keys );
+		Arrays.sort( expectedKeys );
+		assertTrue( Arrays.equals( expectedKeys, keys ) );
+		assertEquals( expected.keySet(), map.keySet() );
+
+		map.clear();
+		assertTrue( map.isEmpty() );
+		assertEquals( -2, map.get( 5 ) );
+	}
+
+	/**
+	 * Remove entries while iterating over a densely filled table, where
+	 * backward shifts wrap around the end of the table.
+	 */
+	@Test
+	public void testIteratorRemove()
+	{
+		final Random random = new Random( 2 );
+		for ( int round = 0; round < 100; ++round )
+		{
+			final TIntIntOpenHashMap map = new TIntIntOpenHashMap( 64, 0.9f );
+			final TIntIntHashMap expected = new TIntIntHashMap();
+			for ( int i = 0; i < 57; ++i )
+			{
+				final int key = random.nextInt( 1000 );
+				map.put( key, i );
+				expected.put( key, i );
+			}
+
+			final int size = map.size();
+			final TIntIntHashMap visited = new TIntIntHashMap();
+			for ( final TIntIntIterator it = map.iterator(); it.hasNext(); )
+			{
+				it.advance();
+				assertFalse( visited.containsKey( it.key() ) );
+				visited.put( it.key(), it.value() );
+				if ( random.nextBoolean() )
+				{
+					it.remove();
+					expected.remove( it.key() );
+				}
+				else
+				{
+					it.setValue( it.value() + 1 );
+					expected.increment( it.key() );
+				}
+			}
+			assertEquals( size, visited.size() );
+			assertEquals( expected, map );
+			for ( final int key : expected.keys() )
+				assertEquals( expected.get( key ), map.get( key ) );
+		}
+	}
+
+	@Test
+	public void testViews()
+	{
+		final TIntIntOpenHashMap map = new TIntIntOpenHashMap( 10, 0.5f, -1, -1 );
+		for ( int i = 0; i < 100; ++i )
+			map.put( i, i % 10 );
+		assertTrue( map.keySet().remove( 0 ) );
+		assertFalse( map.keySet().remove( 0 ) );
+		assertTrue( map.valueCollection().remove( 5 ) );
+		assertEquals( 98, map.size() );
+		assertTrue( map.keySet().retainAll( new int[] { 1, 2, 3, 200 } ) );
+		assertEquals( 3, map.size() );
+		assertTrue( map.valueCollection().containsAll( new int[] { 1, 2, 3 } ) );
+		final int[] dest = map.keySet().toArray( new int[ 5 ] );
+		Arrays.sort( dest, 0, 3 );
+		assertEquals( 1, dest[ 0 ] );
+		assertEquals( 3, dest[ 2 ] );
+		int sum = 0;
+		for ( final TIntIterator it = map.valueCollection().iterator(); it.hasNext(); )
+			sum += it.next();
+		assertEquals( 6, sum );
+	}
+
+	@Test
+	public void testDoubleMap()
+	{
+		final Random random = new Random( 3 );
+		final TIntDoubleOpenHashMap map = new TIntDoubleOpenHashMap( 4, 0.5f, -1, Double.NaN );
+		final TIntDoubleHashMap expected = new TIntDoubleHashMap( 4, 0.5f, -1, Double.NaN );
+		for ( int i = 0; i < 100000; ++i )
+		{
+			final int key = random.nextInt( 2000 ) - 100;
+			final double value = random.nextDouble();
+			switch ( random.nextInt( 4 ) )
+			{
+			case 0:
+			case 1:
+				assertEquals( expected.put( key, value ), map.put( key, value ), 0 );
+				break;
+			case 2:
+				assertEquals( expected.remove( key ), map.remove( key ), 0 );
+				break;
+			case 3:
+				assertEquals( expected.adjustOrPutValue( key, 0.5, value ), map.adjustOrPutValue( key, 0.5, value ), 0 );
+				break;
+			}
+			assertEquals( expected.size(), map.size() );
+		}
+		assertEquals( expected, map );
+		assertEquals( map, expected );
+		assertEquals( expected.hashCode(), map.hashCode() );
+
+		for ( final TIntDoubleIterator it = map.iterator(); it.hasNext(); )
+		{
+			it.advance();
+			if ( it.value() < 0.5 )
+				it.remove();
+		}
+		expected.retainEntries( ( key, value ) -> value >= 0.5 );
+		assertEquals( expected, map );
+		assertEquals( expected.size(), map.valueCollection().size() );
+	}
+}
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.set.hash.TIntHashSet;
+
+public class TIntOpenHashSetTest
+{
+	@Test
+	public void testRandomOperations()
+	{
+		final Random random = new Random( 1 );
+		final TIntOpenHashSet set = new TIntOpenHashSet();
+		final TIntHashSet expected = new TIntHashSet();
+		for ( int i = 0; i < 200000; ++i )
+		{
+			final int v = random.nextInt( 3000 ) - 100;
+			switch ( random.nextInt( 3 ) )
+			{
+			case 0:
+				assertEquals( expected.add( v ), set.add( v ) );
+				break;
+			case 1:
+				assertEquals( expected.remove( v ), set.remove( v ) );
+				break;
+			case 2:
+				assertEquals( expected.contains( v ), set.contains( v ) );
+				break;
+			}
+			assertEquals( expected.size(), set.size() );
+		}
+		assertEquals( expected, set );
+		assertEquals( set, expected );
+		assertEquals( expected.hashCode(), set.hashCode() );
+		assertEquals( expected, new TIntOpenHashSet( set ) );
+		assertEquals( expected, new TIntOpenHashSet( expected ) );
+
+		final TIntHashSet other = new TIntHashSet();
+		for ( int i = 0; i < 1000; ++i )
+			other.add( random.nextInt( 3000 ) );
+		final TIntOpenHashSet retained = new TIntOpenHashSet( set );
+		expected.retainAll( other );
+		retained.retainAll( other );
+		assertEquals( expected, retained );
+		set.removeAll( other );
+		for ( final TIntIterator it = other.iterator(); it.hasNext(); )
+			assertFalse( set.contains( it.next() ) );
+	}
+
+	@Test
+	public void testIteratorRemove()
+	{
+		final Random random = new Random( 2 );
+		for ( int round = 0; round < 100; ++round )
+		{
+			final TIntOpenHashSet set = new TIntOpenHashSet( 64, 0.9f );
+			final TIntHashSet expected = new TIntHashSet();
+			for ( int i = 0; i < 57; ++i )
+			{
+				final int v = random.nextInt( 1000 );
+				set.add( v );
+				expected.add( v );
+			}
+			final int size = set.size();
+			final TIntHashSet visited = new TIntHashSet();
+			for ( final TIntIterator it = set.iterator(); it.hasNext(); )
+			{
+				final int v = it.next();
+				assertTrue( visited.add( v ) );
+				if ( random.nextBoolean() )
+				{
+					it.remove();
+					expected.remove( v );
+				}
+			}
+			assertEquals( size, visited.size() );
+			assertEquals( expected, set );
+			assertEquals( expected.size(), set.toArray().length );
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.collection.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.set.hash.TIntHashSet;
+
+public class TIntSortedArraySetTest
+{
+	/**
+	 * Random sets, either spread out or clustered, of different sizes, to
+	 * exercise both the merging and the galloping paths.
+	 */
+	private static TIntHashSet randomSet( final Random random, final int size, final int range, final boolean clustered )
+	{
+		final TIntHashSet set = new TIntHashSet();
+		while ( set.size() < size )
+		{
+			if ( clustered )
+			{
+				final int start = random.nextInt( range );
+				final int length = 1 + random.nextInt( 50 );
+				for ( int v = start; v < start + length && set.size() < size; ++v )
+					set.add( v );
+			}
+			else
+				set.add( random.nextInt( range ) - range / 2 );
+		}
+		return set;
+	}
+
+	@Test
+	public void testOf()
+	{
+		final TIntSortedArraySet set = TIntSortedArraySet.of( 5, 3, 3, -1, 10, 5 );
+		assertEquals( 4, set.size() );
+		assertArrayEquals( new int[] { -1, 3, 5, 10 }, set.toArray() );
+		assertTrue( set.contains( 3 ) );
+		assertFalse( set.contains( 4 ) );
+		assertEquals( 2, set.indexOf( 5 ) );
+		assertEquals( -1, set.indexOf( 4 ) );
+		assertEquals( 10, set.get( 3 ) );
+		assertEquals( new TIntHashSet( new int[] { -1, 3, 5, 10 } ), set );
+		assertEquals( new TIntHashSet( new int[] { -1, 3, 5, 10 } ).hashCode(), set.hashCode() );
+		assertSame( set, TIntSortedArraySet.of( set ) );
+		assertTrue( TIntSortedArraySet.of().isEmpty() );
+
+		final int[] values = { 1, 2, 3 };
+		final TIntSortedArraySet copy = TIntSortedArraySet.of( values );
+		values[ 0 ] = 100;
+		assertTrue( copy.contains( 1 ) );
+	}
+
+	@Test
+	public void testRanges()
+	{
+		final TIntSortedArraySet set = TIntSortedArraySet.of( 0, 2, 4, 6, 8, 10 );
+		assertArrayEquals( new int[] { 4, 6, 8 }, set.range( 2, 5 ).toArray() );
+		assertArrayEquals( new int[] { 4, 6 }, set.subSet( 3, 8 ).toArray() );
+		assertArrayEquals( new int[] { 6 }, set.subSet( 3, 8 ).range( 1, 2 ).toArray() );
+		assertTrue( set.subSet( 11, 20 ).isEmpty() );
+		assertTrue( set.subSet( 5, 5 ).isEmpty() );
+		assertFalse( set.range( 2, 5 ).contains( 2 ) );
+		assertEquals( 1, set.range( 2, 5 ).indexOf( 6 ) );
+		final TIntIterator it = set.range( 4, 6 ).iterator();
+		assertEquals( 8, it.next() );
+		assertEquals( 10, it.next() );
+		assertFalse( it.hasNext() );
+	}
+
+	@Test
+	public void testSetAlgebra()
+	{
+		final Random random = new Random( 1 );
+		for ( int round = 0; round < 200; ++round )
+		{
+			final boolean clustered = random.nextBoolean();
+			final TIntHashSet a = randomSet( random, random.nextInt( 2000 ), 10000, clustered );
+			final TIntHashSet b = randomSet( random, random.nextInt( round % 2 == 0 ? 20 : 2000 ), 10000, clustered );
+			final TIntSortedArraySet sa = TIntSortedArraySet.of( a );
+			final TIntSortedArraySet sb = TIntSortedArraySet.of( b );
+
+			final TIntHashSet union = new TIntHashSet( a );
+			union.addAll( b );
+			assertEquals( union, sa.union( sb ) );
+			assertEquals( union, sb.union( sa ) );
+
+			final TIntHashSet intersection = new TIntHashSet( a );
+			intersection.retainAll( b );
+			assertEquals( intersection, sa.intersection( sb ) );
+			assertEquals( intersection, sb.intersection( sa ) );
+			assertEquals( b.containsAll( a ), sb.containsAll( sa ) );
+
+			final TIntHashSet difference = new TIntHashSet( a );
+			difference.removeAll( b );
+			assertEquals( difference, sa.difference( sb ) );
+
+			// results are sorted
+			final int[] u = sa.union( sb ).toArray();
+			for ( int i = 1; i < u.length; ++i )
+				assertTrue( u[ i - 1 ] < u[ i ] );
+		}
+	}
+
+	@Test
+	public void testGallop()
+	{
+		final int[] a = { 1, 3, 5, 7, 9, 11, 13, 15, 17 };
+		for ( int key = 0; key < 20; ++key )
+		{
+			int expected = 0;
+			while ( expected < a.length && a[ expected ] < key )
+				++expected;
+			assertEquals( expected, TIntSortedArraySet.gallop( a, 0, a.length, key ) );
+		}
+		assertEquals( 4, TIntSortedArraySet.gallop( a, 4, 4, 100 ) );
+		assertEquals( 6, TIntSortedArraySet.gallop( a, 2, 6, 100 ) );
+	}
+
+	@Test( expected = UnsupportedOperationException.class )
+	public void testImmutable()
+	{
+		TIntSortedArraySet.of( 1, 2 ).add( 3 );
+	}
+
+	@Test( expected = UnsupportedOperationException.class )
+	public void testImmutableIterator()
+	{
+		final TIntIterator it = TIntSortedArraySet.of( 1, 2 ).iterator();
+		it.next();
+		it.remove();
+	}
+}
@@ -0,0 +1,159 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.io.properties.DoublePropertyMapSerializer;
+import org.mastodon.io.properties.ObjPropertyMapSerializer;
+import org.mastodon.io.properties.PropertyMapSerializers;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+import org.mastodon.properties.DoublePropertyMap;
+import org.mastodon.properties.ObjPropertyMap;
+
+public class BackgroundSaveTest
+{
+	private TestObjectPool pool;
+
+	private DoublePropertyMap< TestObject > doubleMap;
+
+	private ObjPropertyMap< TestObject, String > objMap;
+
+	private PropertyMapSerializers< TestObject > serializers;
+
+	private ExecutorService executor;
+
+	private CountDownLatch latch;
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		pool = new TestObjectPool( 10 );
+		doubleMap = new DoublePropertyMap<>( pool, Double.NaN );
+		objMap = new ObjPropertyMap<>( pool );
+		serializers = new PropertyMapSerializers<>();
+		serializers.put( "double", new DoublePropertyMapSerializer<>( doubleMap ) );
+		serializers.put( "obj", new ObjPropertyMapSerializer<>( objMap ) );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 1000; i++ )
+		{
+			pool.create( ref ).init( i );
+			doubleMap.set( ref, 0.5 * i );
+			objMap.set( ref, "o" + i );
+		}
+		pool.releaseRef( ref );
+
+		// block the executor until the test releases the latch
+		executor = Executors.newSingleThreadExecutor();
+		latch = new CountDownLatch( 1 );
+		executor.submit( () -> {
+			latch.await();
+			return null;
+		} );
+
+		file = File.createTempFile( "pool", ".save" );
+		file.deleteOnExit();
+	}
+
+	@After
+	public void tearDown()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testSnapshotIsConsistent() throws IOException, InterruptedException
+	{
+		final BackgroundSave save = BackgroundSave.start( pool, serializers, file.toPath(), executor );
+
+		// modify after the snapshot was taken
+		final TestObject ref = pool.createRef();
+		pool.getObject( 1, ref ).setId( 42 );
+		doubleMap.set( pool.getObject( 2, ref ), 42 );
+		pool.delete( pool.getObject( 3, ref ) );
+
+		assertFalse( save.isDone() );
+		latch.countDown();
+		save.await();
+		assertEquals( 1.0, save.getProgress(), 0 );
+
+		final TestObjectPool restored = new TestObjectPool( 10 );
+		final DoublePropertyMap< TestObject > rDoubleMap = new DoublePropertyMap<>( restored, Double.NaN );
+		final ObjPropertyMap< TestObject, String > rObjMap = new ObjPropertyMap<>( restored );
+		final PropertyMapSerializers< TestObject > rserializers = new PropertyMapSerializers<>();
+		rserializers.put( "double", new DoublePropertyMapSerializer<>( rDoubleMap ) );
+		rserializers.put( "obj", new ObjPropertyMapSerializer<>( rObjMap ) );
+		BackgroundSave.read( restored, rserializers, file.toPath() );
+
+		assertEquals( 1000, restored.size() );
+		assertEquals( 1000, rDoubleMap.size() );
+		final TestObject rref = restored.createRef();
+		for ( int i = 0; i < 1000; i++ )
+		{
+			restored.getObject( i, rref );
+			assertEquals( i, rref.getId() );
+			assertEquals( 0.5 * i, rDoubleMap.getDouble( rref ), 0 );
+			assertEquals( "o" + i, rObjMap.get( rref ) );
+		}
+	}
+
+	@Test
+	public void testCancel() throws IOException, InterruptedException
+	{
+		final long length = file.length();
+		final BackgroundSave save = BackgroundSave.start( pool, serializers, file.toPath(), executor );
+		save.cancel();
+		latch.countDown();
+		try
+		{
+			save.await();
+			fail( "expected CancellationException" );
+		}
+		catch ( final CancellationException e )
+		{
+			// expected
+		}
+		assertEquals( length, file.length() );
+	}
+}
@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockCompressedStreamTest
+{
+	private static final int N = 100000;
+
+	private static final int BLOCK_SIZE = 4096;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		file = File.createTempFile( "block", ".bc" );
+		file.deleteOnExit();
+		final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try (final DataOutputStream out = new DataOutputStream(
+				new BlockCompressedOutputStream( new FileOutputStream( file ), BLOCK_SIZE, Deflater.BEST_SPEED, executor, 8 ) ))
+		{
+			for ( int i = 0; i < N; ++i )
+				out.writeInt( i / 10 );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSequential() throws IOException
+	{
+		// compresses to less than a quarter of N ints
+		assertTrue( file.length() < N );
+		try (final DataInputStream in = new DataInputStream( new BlockCompressedInputStream( new FileInputStream( file ) ) ))
+		{
+			for ( int i = 0; i < N; ++i )
+				assertEquals( i / 10, in.readInt() );
+			assertEquals( -1, in.read() );
+		}
+	}
+
+	@Test
+	public void testSeek() throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+				final BlockCompressedInputStream bin = new BlockCompressedInputStream( channel ))
+		{
+			final int numBlocks = bin.numBlocks();
+			assertEquals( ( N * 4 + BLOCK_SIZE - 1 ) / BLOCK_SIZE, numBlocks );
+			final DataInputStream in = new DataInputStream( bin );
+			for ( final int b : new int[] { 17, 3, numBlocks - 1 } )
+			{
+				bin.seekToBlock( b );
+				final int first = ( int ) ( bin.getUncompressedOffset( b ) / 4 );
+				assertEquals( first / 10, in.readInt() );
+				assertEquals( ( first + 1 ) / 10, in.readInt() );
+			}
+			bin.seekToBlock( 0 );
+			for ( int i = 0; i < N; ++i )
+				assertEquals( i / 10, in.readInt() );
+			assertEquals( -1, in.read() );
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.io.properties.ColumnarDoublePropertyMapSerializer;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+import org.mastodon.properties.DoublePropertyMap;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+public class ColumnarDoublePropertyMapSerializerTest
+{
+	private TestObjectPool pool;
+
+	private DoublePropertyMap< TestObject > map;
+
+	private ObjectToFileIdMap< TestObject > objectToFileIdMap;
+
+	private FileIdToObjectMap< TestObject > fileIdToObjectMap;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		pool = new TestObjectPool( 10 );
+		map = new DoublePropertyMap<>( pool, Double.NEGATIVE_INFINITY );
+		final TIntIntHashMap objectIdToFileId = new TIntIntHashMap( 10, 0.75f, -1, -1 );
+		final TIntIntHashMap fileIdToObjectId = new TIntIntHashMap( 10, 0.75f, -1, -1 );
+		final TestObject ref = pool.createRef();
+		final Random random = new Random();
+		for ( int i = 0; i < 20000; i++ )
+		{
+			final int id = 20 + i;
+			final TestObject a = pool.create( ref ).init( id );
+			if ( i % 7 != 0 )
+				map.set( a, random.nextDouble() );
+			final int fileId = 3 * ( 20000 - i );
+			objectIdToFileId.put( pool.getId( a ), fileId );
+			fileIdToObjectId.put( fileId, pool.getId( a ) );
+		}
+		pool.releaseRef( ref );
+
+		objectToFileIdMap = new ObjectToFileIdMap<>( objectIdToFileId, pool );
+		fileIdToObjectMap = new FileIdToObjectMap<>( fileIdToObjectId, pool );
+	}
+
+	@Test
+	public void test() throws IOException, ClassNotFoundException
+	{
+		final ByteArrayOutputStream bs = new ByteArrayOutputStream();
+		final ObjectOutputStream oos = new ObjectOutputStream( bs );
+		new ColumnarDoublePropertyMapSerializer<>( map ).writePropertyMap( objectToFileIdMap, oos );
+		oos.close();
+
+		final ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( bs.toByteArray() ) );
+		final DoublePropertyMap< TestObject > rmap = new DoublePropertyMap<>( pool, Double.NEGATIVE_INFINITY );
+		new ColumnarDoublePropertyMapSerializer<>( rmap ).readPropertyMap( fileIdToObjectMap, ois );
+
+		assertEquals( map, rmap );
+	}
+
+	@Test
+	public void testStream() throws IOException
+	{
+		final ByteArrayOutputStream bs = new ByteArrayOutputStream();
+		final ObjectOutputStream oos = new ObjectOutputStream( bs );
+		new ColumnarDoublePropertyMapSerializer<>( map ).writePropertyMap( objectToFileIdMap, oos );
+		oos.close();
+
+		final ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( bs.toByteArray() ) );
+		final int[] count = { 0 };
+		final TestObject ref = pool.createRef();
+		new ColumnarDoublePropertyMapSerializer<>( map ).streamDoubleEntries( ois, ( fileId, value ) -> {
+			assertEquals( map.getDouble( fileIdToObjectMap.getObject( fileId, ref ) ), value, 0 );
+			++count[ 0 ];
+		} );
+		assertEquals( map.size(), count[ 0 ] );
+	}
+}
@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class FileIdMapsTest
+{
+	@Test
+	public void testEnumerateCompact()
+	{
+		final TestObjectPool pool = new TestObjectPool( 10 );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 100; ++i )
+			pool.create( ref ).init( i );
+
+		final ObjectToFileIdMap< TestObject > map = ObjectToFileIdMap.enumerate( pool, pool );
+		assertTrue( map.isIdentity() );
+		for ( final TestObject o : pool )
+			assertEquals( o.getInternalPoolIndex(), map.getId( o ) );
+	}
+
+	@Test
+	public void testEnumerateWithHoles()
+	{
+		final TestObjectPool pool = new TestObjectPool( 10 );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 100; ++i )
+			pool.create( ref ).init( i );
+		for ( int i = 0; i < 100; i += 7 )
+			pool.delete( pool.getObject( i, ref ) );
+
+		final ObjectToFileIdMap< TestObject > objectToFileId = ObjectToFileIdMap.enumerate( pool, pool );
+		assertFalse( objectToFileId.isIdentity() );
+
+		final int[] fileIdToObjectId = new int[ pool.size() ];
+		int fileId = 0;
+		for ( final TestObject o : pool )
+		{
+			assertEquals( fileId, objectToFileId.getId( o ) );
+			fileIdToObjectId[ fileId++ ] = o.getInternalPoolIndex();
+		}
+
+		final FileIdToObjectMap< TestObject > fileIdToObject = FileIdToObjectMap.fromArray( fileIdToObjectId, pool );
+		assertFalse( fileIdToObject.isIdentity() );
+		for ( final TestObject o : pool )
+			assertEquals( o.getId(), fileIdToObject.getObject( objectToFileId.getId( o ), ref ).getId() );
+	}
+
+	@Test
+	public void testEnumerateSubset()
+	{
+		final TestObjectPool pool = new TestObjectPool( 10 );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 10; ++i )
+			pool.create( ref ).init( i );
+		final TestObject o5 = pool.getObject( 5, pool.createRef() );
+		final TestObject o3 = pool.getObject( 3, pool.createRef() );
+
+		final ObjectToFileIdMap< TestObject > map = ObjectToFileIdMap.enumerate( Arrays.asList( o5, o3 ), pool );
+		assertFalse( map.isIdentity() );
+		assertEquals( 0, map.getId( o5 ) );
+		assertEquals( 1, map.getId( o3 ) );
+		for ( final int i : new int[] { 0, 1, 2, 4, 6, 9 } )
+			assertEquals( -1, map.getId( pool.getObject( i, ref ) ) );
+	}
+
+	@Test
+	public void testFromArrayIdentity()
+	{
+		final TestObjectPool pool = new TestObjectPool( 10 );
+		assertTrue( FileIdToObjectMap.fromArray( new int[] { 0, 1, 2 }, pool ).isIdentity() );
+		assertTrue( ObjectToFileIdMap.fromArray( new int[] { 0, 1, 2 }, pool ).isIdentity() );
+		assertFalse( ObjectToFileIdMap.fromArray( new int[] { 0, 2, 1 }, pool ).isIdentity() );
+	}
+}
@@ -0,0 +1,304 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.io.properties.DoublePropertyMapSerializer;
+import org.mastodon.io.properties.IndexedPropertyIO;
+import org.mastodon.io.properties.IndexedPropertyReader;
+import org.mastodon.io.properties.IntPropertyMapSerializer;
+import org.mastodon.io.properties.PropertyMapSerializers;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+import org.mastodon.properties.DoublePropertyMap;
+import org.mastodon.properties.IntPropertyMap;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+public class IndexedPropertyIOTest
+{
+	private TestObjectPool pool;
+
+	private DoublePropertyMap< TestObject > doubleMap;
+
+	private IntPropertyMap< TestObject > intMap;
+
+	private ObjectToFileIdMap< TestObject > objectToFileIdMap;
+
+	private FileIdToObjectMap< TestObject > fileIdToObjectMap;
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		pool = new TestObjectPool( 10 );
+		doubleMap = new DoublePropertyMap<>( pool, Double.NaN );
+		intMap = new IntPropertyMap<>( pool, -1 );
+		final TIntIntHashMap objectIdToFileId = new TIntIntHashMap( 10, 0.75f, -1, -1 );
+		final TIntIntHashMap fileIdToObjectId = new TIntIntHashMap( 10, 0.75f, -1, -1 );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 100; i++ )
+		{
+			final TestObject a = pool.create( ref ).init( i );
+			doubleMap.set( a, 0.5 * i );
+			if ( i % 2 == 0 )
+				intMap.set( a, 3 * i );
+			objectIdToFileId.put( pool.getId( a ), i );
+			fileIdToObjectId.put( i, pool.getId( a ) );
+		}
+		pool.releaseRef( ref );
+
+		objectToFileIdMap = new ObjectToFileIdMap<>( objectIdToFileId, pool );
+		fileIdToObjectMap = new FileIdToObjectMap<>( fileIdToObjectId, pool );
+
+		file = File.createTempFile( "properties", ".idx" );
+		file.deleteOnExit();
+		final PropertyMapSerializers< TestObject > serializers = new PropertyMapSerializers<>();
+		serializers.put( "double", new DoublePropertyMapSerializer<>( doubleMap ) );
+		serializers.put( "int", new IntPropertyMapSerializer<>( intMap ) );
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.WRITE ))
+		{
+			IndexedPropertyIO.writePropertyMaps( objectToFileIdMap, serializers, channel );
+		}
+	}
+
+	@Test
+	public void testReadSingle() throws IOException
+	{
+		final IntPropertyMap< TestObject > rIntMap = new IntPropertyMap<>( pool, -1 );
+		final PropertyMapSerializers< TestObject > serializers = new PropertyMapSerializers<>();
+		serializers.put( "int", new IntPropertyMapSerializer<>( rIntMap ) );
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			final IndexedPropertyReader reader = new IndexedPropertyReader( channel );
+			assertEquals( Arrays.asList( "double", "int" ), reader.getKeys() );
+			reader.readPropertyMap( "int", fileIdToObjectMap, serializers );
+		}
+		assertEquals( intMap, rIntMap );
+	}
+
+	@Test
+	public void testStream() throws IOException
+	{
+		final IntPropertyMapSerializer< TestObject > serializer = new IntPropertyMapSerializer<>( intMap );
+		final int[] count = { 0 };
+		final TestObject ref = pool.createRef();
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+				final ObjectInputStream ois = new IndexedPropertyReader( channel ).openPropertyMap( "int" ))
+		{
+			serializer.streamIntEntries( ois, ( fileId, value ) -> {
+				assertEquals( intMap.getInt( fileIdToObjectMap.getObject( fileId, ref ) ), value );
+				++count[ 0 ];
+			} );
+		}
+		assertEquals( intMap.size(), count[ 0 ] );
+	}
+
+	@Test
+	public void testStreamBySerializerType() throws IOException
+	{
+		final PropertyMapSerializers< TestObject > serializers = new PropertyMapSerializers<>();
+		serializers.put( "double", new DoublePropertyMapSerializer<>( doubleMap ) );
+		serializers.put( "int", new IntPropertyMapSerializer<>( intMap ) );
+		final int[] count = { 0 };
+		final TestObject ref = pool.createRef();
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			final IndexedPropertyReader reader = new IndexedPropertyReader( channel );
+			reader.streamDoubleEntries( "double", serializers, ( fileId, value ) -> {
+				assertEquals( doubleMap.getDouble( fileIdToObjectMap.getObject( fileId, ref ) ), value, 0 );
+				++count[ 0 ];
+			} );
+			assertEquals( doubleMap.size(), count[ 0 ] );
+			try
+			{
+				reader.streamIntEntries( "double", serializers, ( fileId, value ) -> {} );
+				fail( "expected IOException for a double serializer" );
+			}
+			catch ( final IOException e )
+			{}
+		}
+	}
+
+	@Test
+	public void testReadParallel() throws IOException
+	{
+		final DoublePropertyMap< TestObject > rDoubleMap = new DoublePropertyMap<>( pool, Double.NaN );
+		final IntPropertyMap< TestObject > rIntMap = new IntPropertyMap<>( pool, -1 );
+		final PropertyMapSerializers< TestObject > serializers = new PropertyMapSerializers<>();
+		serializers.put( "double", new DoublePropertyMapSerializer<>( rDoubleMap ) );
+		serializers.put( "int", new IntPropertyMapSerializer<>( rIntMap ) );
+		final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			new IndexedPropertyReader( channel ).readPropertyMaps( fileIdToObjectMap, serializers, executor );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		assertEquals( doubleMap, rDoubleMap );
+		assertEquals( intMap, rIntMap );
+	}
+
+	@Test
+	public void testParallelWrite() throws IOException
+	{
+		final File parallelFile = File.createTempFile( "properties", ".idx" );
+		parallelFile.deleteOnExit();
+		final PropertyMapSerializers< TestObject > serializers = new PropertyMapSerializers<>();
+		serializers.put( "double", new DoublePropertyMapSerializer<>( doubleMap ) );
+		serializers.put( "int", new IntPropertyMapSerializer<>( intMap ) );
+		final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+		try (final FileChannel channel = FileChannel.open( parallelFile.toPath(), StandardOpenOption.WRITE ))
+		{
+			IndexedPropertyIO.writePropertyMaps( objectToFileIdMap, serializers, channel, executor );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		assertArrayEquals( Files.readAllBytes( file.toPath() ), Files.readAllBytes( parallelFile.toPath() ) );
+	}
+
+	@Test
+	public void testDeflate() throws IOException
+	{
+		final File deflateFile = File.createTempFile( "properties", ".idx" );
+		deflateFile.deleteOnExit();
+		final PropertyMapSerializers< TestObject > serializers = new PropertyMapSerializers<>();
+		serializers.put( "double", new DoublePropertyMapSerializer<>( doubleMap ) );
+		serializers.put( "int", new IntPropertyMapSerializer<>( intMap ) );
+		final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+		try (final FileChannel channel = FileChannel.open( deflateFile.toPath(), StandardOpenOption.WRITE ))
+		{
+			IndexedPropertyIO.writePropertyMaps( objectToFileIdMap, serializers, channel, executor, IndexedPropertyIO.DEFLATE );
+		}
+		assertTrue( deflateFile.length() < file.length() );
+
+		final DoublePropertyMap< TestObject > rDoubleMap = new DoublePropertyMap<>( pool, Double.NaN );
+		final IntPropertyMap< TestObject > rIntMap = new IntPropertyMap<>( pool, -1 );
+		final PropertyMapSerializers< TestObject > rserializers = new PropertyMapSerializers<>();
+		rserializers.put( "double", new DoublePropertyMapSerializer<>( rDoubleMap ) );
+		rserializers.put( "int", new IntPropertyMapSerializer<>( rIntMap ) );
+		try (final FileChannel channel = FileChannel.open( deflateFile.toPath(), StandardOpenOption.READ ))
+		{
+			new IndexedPropertyReader( channel ).readPropertyMaps( fileIdToObjectMap, rserializers, executor );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		assertEquals( doubleMap, rDoubleMap );
+		assertEquals( intMap, rIntMap );
+	}
+
+	/**
+	 * A container embedded in a larger file must be readable without looking
+	 * at data before or after it.
+	 */
+	@Test
+	public void testEmbedded() throws IOException
+	{
+		final File embeddedFile = File.createTempFile( "properties", ".idx" );
+		embeddedFile.deleteOnExit();
+		final PropertyMapSerializers< TestObject > serializers = new PropertyMapSerializers<>();
+		serializers.put( "double", new DoublePropertyMapSerializer<>( doubleMap ) );
+		serializers.put( "int", new IntPropertyMapSerializer<>( intMap ) );
+		final ByteBuffer garbage = ByteBuffer.allocate( 1000 );
+		for ( int i = 0; i < garbage.capacity(); i++ )
+			garbage.put( i, ( byte ) i );
+		final long start;
+		try (final FileChannel channel = FileChannel.open( embeddedFile.toPath(), StandardOpenOption.WRITE ))
+		{
+			channel.write( garbage.duplicate() );
+			start = channel.position();
+			IndexedPropertyIO.writePropertyMaps( objectToFileIdMap, serializers, channel );
+			channel.write( garbage.duplicate() );
+		}
+
+		final DoublePropertyMap< TestObject > rDoubleMap = new DoublePropertyMap<>( pool, Double.NaN );
+		final IntPropertyMap< TestObject > rIntMap = new IntPropertyMap<>( pool, -1 );
+		final PropertyMapSerializers< TestObject > rserializers = new PropertyMapSerializers<>();
+		rserializers.put( "double", new DoublePropertyMapSerializer<>( rDoubleMap ) );
+		rserializers.put( "int", new IntPropertyMapSerializer<>( rIntMap ) );
+		try (final FileChannel channel = FileChannel.open( embeddedFile.toPath(), StandardOpenOption.READ ))
+		{
+			channel.position( start );
+			final IndexedPropertyReader reader = new IndexedPropertyReader( channel );
+			assertEquals( Arrays.asList( "double", "int" ), reader.getKeys() );
+			reader.readPropertyMap( "double", fileIdToObjectMap, rserializers );
+			reader.readPropertyMap( "int", fileIdToObjectMap, rserializers );
+		}
+		assertEquals( doubleMap, rDoubleMap );
+		assertEquals( intMap, rIntMap );
+	}
+
+	@Test
+	public void testChecksum() throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE ))
+		{
+			// corrupt a byte in the first section
+			final ByteBuffer b = ByteBuffer.allocate( 1 );
+			channel.read( b, 40 );
+			b.put( 0, ( byte ) ~b.get( 0 ) );
+			b.rewind();
+			channel.write( b, 40 );
+
+			final PropertyMapSerializers< TestObject > serializers = new PropertyMapSerializers<>();
+			serializers.put( "double", new DoublePropertyMapSerializer<>( new DoublePropertyMap<>( pool, Double.NaN ) ) );
+			channel.position( 0 );
+			new IndexedPropertyReader( channel ).readPropertyMap( "double", fileIdToObjectMap, serializers );
+			fail( "expected IOException" );
+		}
+		catch ( final IOException e )
+		{
+			assertTrue( e.getMessage().contains( "checksum" ) );
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.io.properties.SortedPropertyIO;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+import org.mastodon.properties.DoublePropertyMap;
+import org.mastodon.properties.IntPropertyMap;
+
+public class SortedPropertyIOTest
+{
+	private TestObjectPool pool;
+
+	private DoublePropertyMap< TestObject > doubleMap;
+
+	private IntPropertyMap< TestObject > intMap;
+
+	private File file;
+
+	private long doublePosition;
+
+	private long intPosition;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		pool = new TestObjectPool( 10 );
+		doubleMap = new DoublePropertyMap<>( pool, Double.NaN );
+		intMap = new IntPropertyMap<>( pool, -1 );
+		final Random random = new Random( 1 );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 20000; i++ )
+		{
+			final TestObject a = pool.create( ref ).init( i );
+			if ( i % 3 != 0 )
+				doubleMap.set( a, random.nextDouble() );
+			// skewed key distribution
+			if ( i < 100 || i % 1000 == 0 )
+				intMap.set( a, random.nextInt() );
+		}
+		for ( int i = 0; i < 20000; i += 11 )
+			pool.delete( pool.getObject( i, ref ) );
+		pool.releaseRef( ref );
+
+		file = File.createTempFile( "properties", ".srt" );
+		file.deleteOnExit();
+		final ObjectToFileIdMap< TestObject > idmap = ObjectToFileIdMap.enumerate( pool, pool );
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.WRITE ))
+		{
+			channel.write( ByteBuffer.allocate( 3 ) );
+			doublePosition = channel.position();
+			final long length = SortedPropertyIO.writeDoublePropertyMap( doubleMap, idmap, channel );
+			intPosition = channel.position();
+			assertEquals( doublePosition + length, intPosition );
+			SortedPropertyIO.writeIntPropertyMap( intMap, idmap, channel );
+		}
+	}
+
+	private FileIdToObjectMap< TestObject > fileIdToObjectMap()
+	{
+		final int[] fileIdToObjectId = new int[ pool.size() ];
+		int fileId = 0;
+		for ( final TestObject o : pool )
+			fileIdToObjectId[ fileId++ ] = o.getInternalPoolIndex();
+		return FileIdToObjectMap.fromArray( fileIdToObjectId, pool );
+	}
+
+	@Test
+	public void testMap() throws IOException
+	{
+		final ObjectToFileIdMap< TestObject > objectToFileId = ObjectToFileIdMap.enumerate( pool, pool );
+		final FileIdToObjectMap< TestObject > fileIdToObject = fileIdToObjectMap();
+		final DoublePropertyMap< TestObject > mDoubleMap;
+		final IntPropertyMap< TestObject > mIntMap;
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			mDoubleMap = SortedPropertyIO.mapDoublePropertyMap( channel, doublePosition, objectToFileId, fileIdToObject );
+			mIntMap = SortedPropertyIO.mapIntPropertyMap( channel, intPosition, objectToFileId, fileIdToObject );
+		}
+
+		assertEquals( doubleMap.size(), mDoubleMap.size() );
+		assertEquals( intMap.size(), mIntMap.size() );
+		for ( final TestObject o : pool )
+		{
+			assertEquals( doubleMap.isSet( o ), mDoubleMap.isSet( o ) );
+			assertEquals( doubleMap.getDouble( o ), mDoubleMap.getDouble( o ), 0 );
+			assertEquals( intMap.isSet( o ), mIntMap.isSet( o ) );
+			assertEquals( intMap.getInt( o ), mIntMap.getInt( o ) );
+		}
+		assertTrue( mDoubleMap.getMap().equals( doubleMap.getMap() ) );
+		assertTrue( mIntMap.getMap().equals( intMap.getMap() ) );
+		assertTrue( mDoubleMap.getMap().keySet().equals( doubleMap.getMap().keySet() ) );
+	}
+
+	@Test( expected = UnsupportedOperationException.class )
+	public void testReadOnly() throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			final IntPropertyMap< TestObject > mIntMap = SortedPropertyIO.mapIntPropertyMap( channel, intPosition,
+					ObjectToFileIdMap.enumerate( pool, pool ), fileIdToObjectMap() );
+			mIntMap.set( pool.iterator().next(), 1 );
+		}
+	}
+
+	@Test( expected = IOException.class )
+	public void testWrongType() throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			SortedPropertyIO.mapIntPropertyMap( channel, doublePosition, ObjectToFileIdMap.enumerate( pool, pool ), fileIdToObjectMap() );
+		}
+	}
+
+	@Test
+	public void testEmpty() throws IOException
+	{
+		final DoublePropertyMap< TestObject > empty = new DoublePropertyMap<>( pool, -1 );
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ))
+		{
+			SortedPropertyIO.writeDoublePropertyMap( empty, ObjectToFileIdMap.identity( pool ), channel );
+		}
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			final DoublePropertyMap< TestObject > mapped = SortedPropertyIO.mapDoublePropertyMap( channel, 0,
+					ObjectToFileIdMap.identity( pool ), FileIdToObjectMap.identity( pool ) );
+			assertEquals( 0, mapped.size() );
+			assertEquals( -1, mapped.getNoEntryValue(), 0 );
+			assertFalse( mapped.isSet( pool.iterator().next() ) );
+		}
+	}
+}
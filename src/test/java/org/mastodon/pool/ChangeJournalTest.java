@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.pool;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.pool.ChangeJournal.Cursor;
+import org.mastodon.properties.IntPropertyMap;
+
+import gnu.trove.list.array.TIntArrayList;
+
+public class ChangeJournalTest
+{
+	private TestObjectPool pool;
+
+	private ChangeJournal< TestObject > journal;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( 10 );
+		journal = pool.getChangeJournal();
+	}
+
+	private static TIntArrayList pollAll( final Cursor cursor )
+	{
+		final TIntArrayList records = new TIntArrayList();
+		cursor.poll( ( op, index, attributeId ) -> {
+			records.add( op );
+			records.add( index );
+			records.add( attributeId );
+		} );
+		return records;
+	}
+
+	@Test
+	public void testRecords()
+	{
+		final Cursor cursor = journal.createCursor();
+		final TestObject a = pool.create().init( 1 );
+		final TestObject b = pool.create().init( 2 );
+		a.setId( 3 );
+		pool.delete( b );
+
+		final int id = journal.getAttributeId( pool.id );
+		assertEquals( 0, id );
+		assertEquals( 4, cursor.pending() );
+		final TIntArrayList expected = new TIntArrayList( new int[] {
+				ChangeJournal.CREATED, 0, ChangeJournal.NO_ATTRIBUTE,
+				ChangeJournal.CREATED, 1, ChangeJournal.NO_ATTRIBUTE,
+				ChangeJournal.MODIFIED, 0, id,
+				ChangeJournal.DELETED, 1, ChangeJournal.NO_ATTRIBUTE } );
+		assertEquals( expected, pollAll( cursor ) );
+		assertEquals( 0, cursor.pending() );
+		assertEquals( 0, journal.size() );
+
+		pool.clear();
+		assertEquals( new TIntArrayList( new int[] { ChangeJournal.CLEARED, -1, ChangeJournal.NO_ATTRIBUTE } ), pollAll( cursor ) );
+	}
+
+	@Test
+	public void testTrackPropertyMap()
+	{
+		final IntPropertyMap< TestObject > map = new IntPropertyMap<>( pool, -1 );
+		final int id = journal.track( map );
+		assertEquals( id, journal.track( map ) );
+
+		final TestObject a = pool.create().init( 1 );
+		final Cursor cursor = journal.createCursor();
+		map.set( a, 42 );
+		assertEquals( new TIntArrayList( new int[] { ChangeJournal.MODIFIED, a.getInternalPoolIndex(), id } ), pollAll( cursor ) );
+	}
+
+	@Test
+	public void testTruncation()
+	{
+		pool.create().init( 0 );
+		assertEquals( 0, journal.size() );
+
+		final Cursor c1 = journal.createCursor();
+		pool.create().init( 1 );
+		final Cursor c2 = journal.createCursor();
+		pool.create().init( 2 );
+		pool.create().init( 3 );
+		assertEquals( 3, c1.pending() );
+		assertEquals( 2, c2.pending() );
+		assertEquals( 3, journal.size() );
+
+		assertEquals( 2, pollAll( c2 ).size() / 3 );
+		assertEquals( 3, journal.size() );
+
+		assertEquals( 1, c1.poll( ( op, index, attributeId ) -> assertEquals( 1, index ), 1 ) );
+		assertEquals( 2, journal.size() );
+
+		c1.close();
+		assertEquals( 0, journal.size() );
+
+		pool.create().init( 4 );
+		assertEquals( 1, c2.pending() );
+		c2.skip();
+		assertEquals( 0, journal.size() );
+	}
+}
@@ -0,0 +1,307 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+import org.mastodon.io.properties.DoublePropertyMapSerializer;
+import org.mastodon.io.properties.PropertyMapSerializer;
+import org.mastodon.io.properties.PropertyMapSerializers;
+import org.mastodon.properties.DoublePropertyMap;
+
+public class IncrementalPoolSaverTest
+{
+	private TestObjectPool pool;
+
+	private DoublePropertyMap< TestObject > map;
+
+	private PropertyMapSerializers< TestObject > serializers;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		pool = new TestObjectPool( 10 );
+		map = new DoublePropertyMap<>( pool, Double.NaN );
+		serializers = new PropertyMapSerializers<>();
+		serializers.put( "map", new DoublePropertyMapSerializer<>( map ) );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 10000; ++i )
+		{
+			pool.create( ref ).init( i );
+			map.set( ref, 0.5 * i );
+		}
+		file = File.createTempFile( "pool", ".log" );
+		file.deleteOnExit();
+	}
+
+	private void assertRestored() throws IOException
+	{
+		final TestObjectPool restored = new TestObjectPool( 10 );
+		final DoublePropertyMap< TestObject > rmap = new DoublePropertyMap<>( restored, Double.NaN );
+		final PropertyMapSerializers< TestObject > rserializers = new PropertyMapSerializers<>();
+		rserializers.put( "map", new DoublePropertyMapSerializer<>( rmap ) );
+		IncrementalPoolSaver.read( restored, rserializers, file.toPath() );
+
+		assertEquals( pool.size(), restored.size() );
+		assertEquals( map.size(), rmap.size() );
+		final TestObject rref = restored.createRef();
+		for ( final TestObject o : pool )
+		{
+			restored.getObject( o.getInternalPoolIndex(), rref );
+			assertEquals( o.getId(), rref.getId() );
+			assertEquals( map.getDouble( o ), rmap.getDouble( rref ), 0 );
+		}
+		assertEquals( pool.getMemPool().getAllocatedSize(), restored.getMemPool().getAllocatedSize() );
+		assertEquals( pool.getMemPool().getFirstFreeIndex(), restored.getMemPool().getFirstFreeIndex() );
+	}
+
+	@Test
+	public void testIncrementalSave() throws IOException
+	{
+		final IncrementalPoolSaver< TestObject > saver = new IncrementalPoolSaver<>( pool, serializers, file.toPath() );
+		saver.save();
+		final long fullSize = file.length();
+
+		final TestObject ref = pool.createRef();
+		pool.getObject( 5, ref ).setId( 42 );
+		saver.save();
+		final long afterAttribute = file.length();
+		assertTrue( afterAttribute - fullSize < fullSize / 2 );
+		assertRestored();
+
+		map.set( pool.getObject( 7, ref ), 42.0 );
+		pool.delete( pool.getObject( 9000, ref ) );
+		pool.create( ref ).init( -3 );
+		pool.create( ref ).init( -4 );
+		saver.save();
+		assertRestored();
+
+		pool.clear();
+		for ( int i = 0; i < 100; ++i )
+			pool.create( ref ).init( 2 * i );
+		saver.save();
+		assertRestored();
+		saver.close();
+	}
+
+	@Test
+	public void testConsolidate() throws IOException
+	{
+		final IncrementalPoolSaver< TestObject > saver = new IncrementalPoolSaver<>( pool, serializers, file.toPath() );
+		saver.save();
+		final long fullSize = file.length();
+		assertFalse( saver.needsConsolidation() );
+
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 4; ++i )
+		{
+			map.set( pool.getObject( i, ref ), -1.0 );
+			saver.save();
+		}
+		assertTrue( saver.needsConsolidation() );
+		saver.consolidate();
+		assertEquals( fullSize, file.length() );
+		assertRestored();
+
+		pool.getObject( 5, ref ).setId( 42 );
+		saver.save();
+		assertRestored();
+		saver.close();
+	}
+
+	/**
+	 * A save during consolidation must neither wait for the copy nor be lost
+	 * by the swap.
+	 */
+	@Test
+	public void testSaveDuringConsolidation() throws Exception
+	{
+		final IncrementalPoolSaver< TestObject > saver = new IncrementalPoolSaver<>( pool, serializers, file.toPath() );
+		saver.save();
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 4; ++i )
+		{
+			map.set( pool.getObject( i, ref ), -1.0 );
+			saver.save();
+		}
+		final long sizeBefore = file.length();
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			saver.consolidate( () -> {
+				map.set( pool.getObject( 5, ref ), -2.0 );
+				pool.getObject( 6, ref ).setId( 42 );
+				final Future< ? > save = executor.submit( () -> {
+					saver.save();
+					return null;
+				} );
+				try
+				{
+					save.get( 10, TimeUnit.SECONDS );
+				}
+				catch ( final Exception e )
+				{
+					throw new AssertionError( "save did not complete during consolidation", e );
+				}
+			} );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		assertTrue( file.length() < sizeBefore );
+		assertRestored();
+
+		map.set( pool.getObject( 7, ref ), -3.0 );
+		saver.save();
+		assertRestored();
+		saver.close();
+	}
+
+	/**
+	 * Chunks beyond the allocated size of a cleared pool must not survive
+	 * consolidation.
+	 */
+	@Test
+	public void testConsolidateAfterClear() throws IOException
+	{
+		final IncrementalPoolSaver< TestObject > saver = new IncrementalPoolSaver<>( pool, serializers, file.toPath() );
+		saver.save();
+
+		pool.clear();
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 10; ++i )
+		{
+			pool.create( ref ).init( i );
+			map.set( ref, 0.5 * i );
+		}
+		saver.save();
+		assertRestored();
+		saver.consolidate();
+		assertRestored();
+		saver.close();
+
+		final File fresh = File.createTempFile( "pool", ".log" );
+		fresh.deleteOnExit();
+		final IncrementalPoolSaver< TestObject > freshSaver = new IncrementalPoolSaver<>( pool, serializers, fresh.toPath() );
+		freshSaver.save();
+		freshSaver.close();
+		assertEquals( fresh.length(), file.length() );
+	}
+
+	@Test
+	public void testUncommittedTailIgnored() throws IOException
+	{
+		final IncrementalPoolSaver< TestObject > saver = new IncrementalPoolSaver<>( pool, serializers, file.toPath() );
+		saver.save();
+		saver.close();
+
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND ))
+		{
+			channel.write( ByteBuffer.wrap( new byte[] { 0, 0, 0, 2, 0, 0, 1 } ) );
+		}
+		assertRestored();
+	}
+
+	@Test
+	public void testFailedSaveIsRolledBack() throws IOException
+	{
+		final boolean[] fail = { false };
+		final DoublePropertyMapSerializer< TestObject > serializer = new DoublePropertyMapSerializer<>( map );
+		serializers = new PropertyMapSerializers<>();
+		serializers.put( "map", new PropertyMapSerializer< TestObject, DoublePropertyMap< TestObject > >()
+		{
+			@Override
+			public void writePropertyMap( final ObjectToFileIdMap< TestObject > idmap, final ObjectOutputStream oos ) throws IOException
+			{
+				if ( fail[ 0 ] )
+					throw new IOException( "simulated failure" );
+				serializer.writePropertyMap( idmap, oos );
+			}
+
+			@Override
+			public void readPropertyMap( final FileIdToObjectMap< TestObject > idmap, final ObjectInputStream ois ) throws IOException, ClassNotFoundException
+			{
+				serializer.readPropertyMap( idmap, ois );
+			}
+
+			@Override
+			public DoublePropertyMap< TestObject > getPropertyMap()
+			{
+				return map;
+			}
+		} );
+
+		final IncrementalPoolSaver< TestObject > saver = new IncrementalPoolSaver<>( pool, serializers, file.toPath() );
+		saver.save();
+		final long committedSize = file.length();
+
+		// the pool chunk is appended before the property map fails
+		final TestObject ref = pool.createRef();
+		pool.getObject( 5, ref ).setId( 42 );
+		map.set( ref, 42.0 );
+		fail[ 0 ] = true;
+		try
+		{
+			saver.save();
+			fail( "expected IOException" );
+		}
+		catch ( final IOException e )
+		{}
+		assertEquals( committedSize, file.length() );
+
+		fail[ 0 ] = false;
+		pool.getObject( 6, ref ).setId( 43 );
+		saver.save();
+		assertRestored();
+		saver.close();
+	}
+}
@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mastodon.properties.DoublePropertyMap;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+
+public class PoolCopyTest
+{
+	static class LabeledTestObjectPool extends TestObjectPool
+	{
+		final DoublePropertyMap< TestObject > weight;
+
+		public LabeledTestObjectPool( final int initialCapacity, final boolean useMultiArrayMemPool )
+		{
+			super( initialCapacity, useMultiArrayMemPool );
+			weight = new DoublePropertyMap<>( this, Double.NaN );
+			registerPropertyMap( weight );
+		}
+	}
+
+	private static LabeledTestObjectPool createPool()
+	{
+		final LabeledTestObjectPool pool = new LabeledTestObjectPool( 10, false );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 1000; ++i )
+		{
+			final TestObject o = pool.create( ref ).init( i );
+			if ( i % 2 == 0 )
+				pool.weight.set( o, 0.5 * i );
+		}
+		for ( int i = 0; i < 1000; i += 7 )
+			pool.delete( pool.getObject( i, ref ) );
+		pool.releaseRef( ref );
+		return pool;
+	}
+
+	@Test
+	public void testCopyAll()
+	{
+		final LabeledTestObjectPool src = createPool();
+		final LabeledTestObjectPool dst = new LabeledTestObjectPool( 10, true );
+		dst.create().init( -1 );
+		dst.copyFrom( src, true );
+
+		assertEquals( src.size(), dst.size() );
+		final TestObject ref = dst.createRef();
+		for ( final TestObject o : src )
+		{
+			final TestObject c = dst.getObject( o.getInternalPoolIndex(), ref );
+			assertEquals( o.getId(), c.getId() );
+			assertEquals( src.weight.isSet( o ), dst.weight.isSet( c ) );
+			assertEquals( src.weight.getDouble( o ), dst.weight.getDouble( c ), 0 );
+		}
+		assertEquals( src.weight.size(), dst.weight.size() );
+
+		// free lists are copied too
+		assertEquals( src.create().getInternalPoolIndex(), dst.create().getInternalPoolIndex() );
+	}
+
+	@Test
+	public void testCopySubset()
+	{
+		final LabeledTestObjectPool src = createPool();
+		final LabeledTestObjectPool dst = new LabeledTestObjectPool( 10, false );
+		dst.create().init( -1 );
+
+		final TIntArrayList indices = new TIntArrayList();
+		for ( int i = 0; i < 1000; ++i )
+			if ( i % 7 != 0 && i % 5 != 0 )
+				indices.add( i );
+		indices.add( 1 );
+		indices.reverse();
+
+		final TIntIntMap map = dst.copyFrom( src, indices, true );
+		assertEquals( 1 + map.size(), dst.size() );
+		final TestObject ref = src.createRef();
+		final TestObject cref = dst.createRef();
+		for ( int i = 0; i < 1000; ++i )
+		{
+			if ( i % 7 != 0 && i % 5 != 0 )
+			{
+				final TestObject o = src.getObject( i, ref );
+				final TestObject c = dst.getObject( map.get( i ), cref );
+				assertEquals( o.getId(), c.getId() );
+				assertEquals( src.weight.getDouble( o ), dst.weight.getDouble( c ), 0 );
+			}
+			else
+				assertFalse( map.containsKey( i ) );
+		}
+	}
+
+	@Test
+	public void testCopyWithoutPropertyMaps()
+	{
+		final LabeledTestObjectPool src = createPool();
+		final LabeledTestObjectPool dst = new LabeledTestObjectPool( 10, false );
+		dst.copyFrom( src, false );
+		assertEquals( src.size(), dst.size() );
+		assertEquals( 0, dst.weight.size() );
+		assertTrue( src.weight.size() > 0 );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testCopyFreeIndex()
+	{
+		final LabeledTestObjectPool src = createPool();
+		new LabeledTestObjectPool( 10, false ).copyFrom( src, new TIntArrayList( new int[] { 1, 7 } ), false );
+	}
+}
@@ -0,0 +1,108 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.pool.PoolCopyTest.LabeledTestObjectPool;
+
+import gnu.trove.set.hash.TIntHashSet;
+
+public class PoolDigestTest
+{
+	private ExecutorService executor;
+
+	private LabeledTestObjectPool pool;
+
+	@Before
+	public void setUp()
+	{
+		executor = Executors.newFixedThreadPool( 4 );
+		pool = new LabeledTestObjectPool( 10, false );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 10000; ++i )
+		{
+			final TestObject o = pool.create( ref ).init( i );
+			if ( i % 3 == 0 )
+				pool.weight.set( o, i );
+		}
+		for ( int i = 0; i < 10000; i += 13 )
+			pool.delete( pool.getObject( i, ref ) );
+		pool.releaseRef( ref );
+	}
+
+	@After
+	public void tearDown()
+	{
+		executor.shutdown();
+	}
+
+	@Test
+	public void testCopyIsIdentical() throws InterruptedException
+	{
+		final LabeledTestObjectPool copy = new LabeledTestObjectPool( 10, true );
+		copy.copyFrom( pool, true );
+		final PoolDigest digest = PoolDigest.compute( pool, executor );
+		assertEquals( digest, PoolDigest.compute( copy, executor ) );
+		assertEquals( 10, PoolDigest.compute( pool, 1000, executor ).numChunks() );
+		assertTrue( PoolDigest.diff( pool, copy, executor ).isEmpty() );
+	}
+
+	@Test
+	public void testDiff() throws InterruptedException
+	{
+		final LabeledTestObjectPool copy = new LabeledTestObjectPool( 10, false );
+		copy.copyFrom( pool, true );
+		final TestObject ref = copy.createRef();
+		copy.getObject( 5, ref ).setId( -5 );
+		copy.weight.set( copy.getObject( 7, ref ), 0.5 );
+		copy.delete( copy.getObject( 8000, ref ) );
+		copy.create( ref ).init( 1 ); // reuses index 8000
+		copy.create( ref ).init( 2 ); // reuses a deleted index
+		final int created = ref.getInternalPoolIndex();
+		copy.delete( copy.getObject( 9999, ref ) );
+		copy.releaseRef( ref );
+
+		final PoolDigest.Diff< TestObject > diff = PoolDigest.diff( pool, copy, executor );
+		assertEquals( new TIntHashSet( new int[] { created } ), diff.getCreated() );
+		assertEquals( new TIntHashSet( new int[] { 9999 } ), diff.getDeleted() );
+		assertEquals( new TIntHashSet( new int[] { 5, 7, 8000 } ), diff.getModified() );
+		assertEquals( new TIntHashSet( new int[] { 5, 8000 } ), diff.getModified( copy.id ) );
+		assertEquals( new TIntHashSet( new int[] { 7 } ), diff.getModified( copy.weight ) );
+		assertNotEquals( PoolDigest.compute( pool, executor ), PoolDigest.compute( copy, executor ) );
+	}
+}
@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.pool;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+import org.mastodon.pool.MemPool.FreeElementPolicy;
+
+public class PoolSnapshotIOTest
+{
+	@Test
+	public void testSingleArrayRoundTrip() throws IOException
+	{
+		testRoundTrip( false );
+	}
+
+	@Test
+	public void testMultiArrayRoundTrip() throws IOException
+	{
+		testRoundTrip( true );
+	}
+
+	private void testRoundTrip( final boolean useMultiArrayMemPool ) throws IOException
+	{
+		final TestObjectPool pool = new TestObjectPool( 10, useMultiArrayMemPool );
+		final TestObject ref = pool.createRef();
+		for ( int i = 0; i < 1000; ++i )
+			pool.create( ref ).init( i );
+		for ( int i = 0; i < 1000; i += 3 )
+			pool.delete( pool.getObject( i, ref ) );
+
+		final File file = File.createTempFile( "pool", ".snapshot" );
+		file.deleteOnExit();
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.WRITE ))
+		{
+			PoolSnapshotIO.write( pool, channel );
+		}
+
+		final TestObjectPool restored = new TestObjectPool( 10, useMultiArrayMemPool );
+		restored.create( ref ).init( 42 );
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			PoolSnapshotIO.read( restored, channel );
+		}
+
+		assertEquals( pool.size(), restored.size() );
+		final TestObject rref = restored.createRef();
+		for ( final TestObject o : pool )
+			assertEquals( o.getId(), restored.getObject( o.getInternalPoolIndex(), rref ).getId() );
+
+		// free-element list must be restored: new objects reuse deleted indices
+		for ( int i = 0; i < 1000; i += 3 )
+		{
+			final int index = pool.create( ref ).getInternalPoolIndex();
+			assertEquals( index, restored.create( rref ).getInternalPoolIndex() );
+		}
+		assertEquals( 1000, restored.size() );
+		assertEquals( 1000, restored.create( rref ).getInternalPoolIndex() );
+	}
+
+	@Test
+	public void testElementBytes()
+	{
+		testElementBytes( SingleArrayMemPool.factory( ByteMappedElementArray.factory ) );
+		testElementBytes( SingleArrayMemPool.factory( DoubleMappedElementArray.factory ) );
+		testElementBytes( SingleArrayMemPool.factory( BufferMappedElementArray.factory ) );
+		testElementBytes( MultiArrayMemPool.factory( DoubleMappedElementArray.factory ) );
+	}
+
+	private < T extends MappedElement > void testElementBytes( final MemPool.Factory< T > factory )
+	{
+		final MemPool< T > src = factory.createPool( 10, 12, FreeElementPolicy.CHECK_MAGIC_NUMBER );
+		final T access = src.createAccess();
+		for ( int i = 0; i < 100; ++i )
+		{
+			src.updateAccess( access, src.create() );
+			access.putInt( i, 0 );
+			access.putLong( -i, 4 );
+		}
+
+		final MemPool< T > dst = factory.createPool( 10, 12, FreeElementPolicy.CHECK_MAGIC_NUMBER );
+		dst.ensureCapacity( 100 );
+		for ( final ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate( 1200 ), ByteBuffer.allocateDirect( 1200 ) } )
+		{
+			src.getElementBytes( 0, 100, buffer );
+			assertEquals( 1200, buffer.position() );
+			buffer.flip();
+			dst.putElementBytes( 0, 100, buffer );
+			assertEquals( 1200, buffer.position() );
+			for ( int i = 0; i < 100; ++i )
+			{
+				dst.updateAccess( access, i );
+				assertEquals( i, access.getInt( 0 ) );
+				assertEquals( -i, access.getLong( 4 ) );
+			}
+		}
+	}
+}
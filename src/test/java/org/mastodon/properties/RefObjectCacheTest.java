@@ -0,0 +1,201 @@
+/*-
+ * #%L
+ * Mastodon Collections
+ * %%
+ * Copyright (C) 2015 - 2022 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.pool.TestObject;
+import org.mastodon.pool.TestObjectPool;
+
+public class RefObjectCacheTest
+{
+	private TestObjectPool pool;
+
+	private ArrayList< TestObject > objs;
+
+	private List< String > evicted;
+
+	@Before
+	public void setUp()
+	{
+		pool = new TestObjectPool( 10 );
+		objs = new ArrayList<>();
+		for ( int i = 0; i < 10; i++ )
+			objs.add( pool.create( pool.createRef() ).init( i ) );
+		evicted = new ArrayList<>();
+	}
+
+	private RefObjectCache< TestObject, String > createCache( final int maxEntries )
+	{
+		final RefObjectCache< TestObject, String > cache = new RefObjectCache<>( pool, maxEntries );
+		cache.evictionListeners().add( ( key, value ) -> evicted.add( key.getId() + "=" + value ) );
+		return cache;
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction()
+	{
+		final RefObjectCache< TestObject, String > cache = createCache( 3 );
+		cache.set( objs.get( 0 ), "a" );
+		cache.set( objs.get( 1 ), "b" );
+		cache.set( objs.get( 2 ), "c" );
+		assertEquals( 3, cache.size() );
+		assertTrue( evicted.isEmpty() );
+
+		// touch 0, so that 1 is least recently used
+		assertEquals( "a", cache.get( objs.get( 0 ) ) );
+		cache.set( objs.get( 3 ), "d" );
+		assertEquals( 3, cache.size() );
+		assertFalse( cache.isSet( objs.get( 1 ) ) );
+		assertNull( cache.get( objs.get( 1 ) ) );
+		assertEquals( "[1=b]", evicted.toString() );
+
+		// replacing a value makes it most recently used, without eviction
+		assertEquals( "c", cache.set( objs.get( 2 ), "C" ) );
+		cache.set( objs.get( 4 ), "e" );
+		cache.set( objs.get( 5 ), "f" );
+		assertEquals( "[1=b, 0=a, 3=d]", evicted.toString() );
+		assertEquals( "C", cache.get( objs.get( 2 ) ) );
+		assertEquals( "e", cache.get( objs.get( 4 ) ) );
+		assertEquals( "f", cache.get( objs.get( 5 ) ) );
+	}
+
+	@Test
+	public void testSlotReuse()
+	{
+		final RefObjectCache< TestObject, String > cache = createCache( 4 );
+		for ( int round = 0; round < 100; ++round )
+		{
+			final int i = round % objs.size();
+			cache.set( objs.get( i ), "v" + round );
+			if ( round % 3 == 0 )
+				cache.remove( objs.get( i ) );
+		}
+		assertTrue( cache.size() <= 4 );
+		assertEquals( cache.size(), cache.getWeight() );
+		cache.clear();
+		assertEquals( 0, cache.size() );
+		assertEquals( 0, cache.getWeight() );
+		for ( int i = 0; i < 4; ++i )
+			cache.set( objs.get( i ), "x" );
+		assertEquals( 4, cache.size() );
+	}
+
+	@Test
+	public void testWeigher()
+	{
+		final RefObjectCache< TestObject, String > cache = new RefObjectCache<>( pool, 10, ( k, v ) -> v.length() );
+		cache.evictionListeners().add( ( key, value ) -> evicted.add( key.getId() + "=" + value ) );
+		cache.set( objs.get( 0 ), "aaaa" );
+		cache.set( objs.get( 1 ), "bbbb" );
+		assertEquals( 8, cache.getWeight() );
+		cache.set( objs.get( 2 ), "ccc" );
+		assertEquals( 7, cache.getWeight() );
+		assertEquals( "[0=aaaa]", evicted.toString() );
+
+		// an entry heavier than the bound is evicted immediately
+		cache.set( objs.get( 3 ), "ddddddddddddddd" );
+		assertFalse( cache.isSet( objs.get( 3 ) ) );
+		assertEquals( 0, cache.size() );
+		assertEquals( 0, cache.getWeight() );
+	}
+
+	@Test
+	public void testComputeIfAbsent()
+	{
+		final RefObjectCache< TestObject, String > cache = createCache( 3 );
+		final int[] calls = new int[ 1 ];
+		for ( int i = 0; i < 3; ++i )
+			assertEquals( "v3", cache.computeIfAbsent( objs.get( 3 ), o -> {
+				++calls[ 0 ];
+				return "v" + o.getId();
+			} ) );
+		assertEquals( 1, calls[ 0 ] );
+		assertNull( cache.computeIfAbsent( objs.get( 4 ), o -> null ) );
+		assertFalse( cache.isSet( objs.get( 4 ) ) );
+	}
+
+	@Test
+	public void testInvalidateOnPropertyChange()
+	{
+		final RefObjectCache< TestObject, String > cache = createCache( 5 );
+		final IntPropertyMap< TestObject > property = new IntPropertyMap<>( pool, -1 );
+		cache.invalidateOnChange( property );
+		cache.set( objs.get( 0 ), "a" );
+		cache.set( objs.get( 1 ), "b" );
+
+		property.set( objs.get( 1 ), 42 );
+		assertTrue( cache.isSet( objs.get( 0 ) ) );
+		assertFalse( cache.isSet( objs.get( 1 ) ) );
+		assertEquals( "[1=b]", evicted.toString() );
+
+		cache.stopInvalidateOnChange( property );
+		property.set( objs.get( 0 ), 42 );
+		assertTrue( cache.isSet( objs.get( 0 ) ) );
+	}
+
+	@Test
+	public void testInvalidateOnDelete()
+	{
+		final RefObjectCache< TestObject, String > cache = createCache( 5 );
+		cache.set( objs.get( 0 ), "a" );
+		cache.set( objs.get( 1 ), "b" );
+		pool.delete( objs.get( 0 ) );
+		assertEquals( 1, cache.size() );
+		assertEquals( "[0=a]", evicted.toString() );
+
+		cache.release();
+		assertEquals( 0, cache.size() );
+		pool.delete( objs.get( 1 ) );
+		assertEquals( "[0=a]", evicted.toString() );
+	}
+
+	@Test
+	public void testPropertyChangeEvents()
+	{
+		final RefObjectCache< TestObject, String > cache = createCache( 1 );
+		final List< Integer > changed = new ArrayList<>();
+		cache.propertyChangeListeners().add( o -> changed.add( o.getId() ) );
+		cache.set( objs.get( 0 ), "a" );
+		cache.remove( objs.get( 0 ) );
+		cache.set( objs.get( 1 ), "b" );
+		// eviction does not emit property change events
+		cache.set( objs.get( 2 ), "c" );
+		assertEquals( "[0, 0, 1, 2]", changed.toString() );
+		assertEquals( "[1=b]", evicted.toString() );
+	}
+}